@@ -0,0 +1,731 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a codec for every class and record which is annotated with
+ * <code>ch.section6.json.JsonCodec</code>. The codec writes an object to a
+ * <code>JsonWriter</code> and reads it from a <code>JsonReader</code> with plain field accesses
+ * and constructor calls, exactly as <code>JsonBinder</code> maps it at run time.
+ * <p>
+ * The processor is registered as a service, so that it runs whenever its jar is on the annotation
+ * processor path of the compiler:
+ * 
+ * <pre>
+ * javac -cp AdrenalineJson.jar -processorpath AdrenalineJsonProcessor.jar Order.java
+ * </pre>
+ */
+@SupportedAnnotationTypes(JsonCodecProcessor.ANNOTATION)
+public final class JsonCodecProcessor extends AbstractProcessor {
+
+	static final String ANNOTATION = "ch.section6.json.JsonCodec";
+
+	private static final String JSON = "ch.section6.json.";
+
+	private Types types;
+
+	private Elements elements;
+
+	private Messager messager;
+
+	private Filer filer;
+
+	@Override
+	public synchronized void init(ProcessingEnvironment env) {
+		super.init(env);
+		types = env.getTypeUtils();
+		elements = env.getElementUtils();
+		messager = env.getMessager();
+		filer = env.getFiler();
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		for (TypeElement annotation : annotations) {
+			for (Element element : round.getElementsAnnotatedWith(annotation)) {
+				try {
+					new Generator((TypeElement) element).generate();
+				} catch (UnsupportedException e) {
+					messager.printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+				} catch (IOException e) {
+					messager.printMessage(Diagnostic.Kind.ERROR,
+							"Cannot write the codec: " + e.getMessage(), element);
+				}
+			}
+		}
+		return true;
+	}
+
+	/** Returns <code>true</code> if a type is annotated with <code>@JsonCodec</code>. */
+	private static boolean isAnnotated(Element element) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			Element annotation = mirror.getAnnotationType().asElement();
+			if (((TypeElement) annotation).getQualifiedName().contentEquals(ANNOTATION)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isRecord(TypeElement type) {
+		return type.getKind().name().equals("RECORD"); // since Java 16
+	}
+
+	/** Returns the simple name of the codec of a type, e.g. <code>Outer_InnerJsonCodec</code>. */
+	private static String codecName(TypeElement type) {
+		StringBuilder sb = new StringBuilder(type.getSimpleName());
+		for (Element e = type.getEnclosingElement(); e instanceof TypeElement;
+				e = e.getEnclosingElement()) {
+			sb.insert(0, '_').insert(0, e.getSimpleName());
+		}
+		return sb.append("JsonCodec").toString();
+	}
+
+	private PackageElement packageOf(Element element) {
+		return elements.getPackageOf(element);
+	}
+
+	/** Returns the fully qualified name of the codec of a type. */
+	private String qualifiedCodecName(TypeElement type) {
+		PackageElement pkg = packageOf(type);
+		return pkg.isUnnamed() ? codecName(type) : pkg.getQualifiedName() + "." + codecName(type);
+	}
+
+	private boolean isType(TypeMirror type, String name) {
+		TypeElement element = elements.getTypeElement(name);
+		return element != null && types.isSameType(types.erasure(type),
+				types.erasure(element.asType()));
+	}
+
+	private boolean isSubtype(TypeMirror type, String name) {
+		TypeElement element = elements.getTypeElement(name);
+		return element != null && types.isAssignable(types.erasure(type),
+				types.erasure(element.asType()));
+	}
+
+	/** Replaces wildcards and type variables by their bounds. */
+	private TypeMirror bound(TypeMirror type) {
+		if (type.getKind() == TypeKind.WILDCARD) {
+			WildcardType wildcard = (WildcardType) type;
+			if (wildcard.getExtendsBound() != null) return bound(wildcard.getExtendsBound());
+			if (wildcard.getSuperBound() != null) return bound(wildcard.getSuperBound());
+			return elements.getTypeElement("java.lang.Object").asType();
+		}
+		if (type.getKind() == TypeKind.TYPEVAR) {
+			return bound(((TypeVariable) type).getUpperBound());
+		}
+		return type;
+	}
+
+	/** Returns the source of a type, with wildcards and type variables replaced by their bounds. */
+	private String source(TypeMirror type) {
+		type = bound(type);
+		if (type.getKind() == TypeKind.ARRAY) {
+			return source(((ArrayType) type).getComponentType()) + "[]";
+		}
+		if (type.getKind() != TypeKind.DECLARED) {
+			return type.toString();
+		}
+		DeclaredType declared = (DeclaredType) type;
+		StringBuilder sb = new StringBuilder();
+		sb.append(((TypeElement) declared.asElement()).getQualifiedName());
+		if (!declared.getTypeArguments().isEmpty()) {
+			sb.append('<');
+			for (int i = 0; i < declared.getTypeArguments().size(); ++i) {
+				if (i > 0) sb.append(", ");
+				sb.append(source(declared.getTypeArguments().get(i)));
+			}
+			sb.append('>');
+		}
+		return sb.toString();
+	}
+
+	/** Returns the type argument of a declared type, or <code>Object</code> if it is raw. */
+	private TypeMirror typeArgument(TypeMirror type, int index) {
+		List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+		return arguments.isEmpty() ? elements.getTypeElement("java.lang.Object").asType()
+				: bound(arguments.get(index));
+	}
+
+	private static String quote(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	private static String capitalize(String s) {
+		return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+	}
+
+	/** Thrown for a type which cannot be mapped, and reported as an error at an element. */
+	private static final class UnsupportedException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		final Element element;
+
+		UnsupportedException(String message, Element element) {
+			super(message);
+			this.element = element;
+		}
+	}
+
+	/**
+	 * A field of a class or a component of a record. The getter and setter are templates in which
+	 * <code>%s</code> is replaced by the object, and by the object and the new value.
+	 */
+	private static final class Property {
+
+		final String name;
+
+		final TypeMirror type;
+
+		final Element element;
+
+		final String getter;
+
+		/** The setter, or <code>null</code> if the property cannot be set. */
+		final String setter;
+
+		Property(String name, TypeMirror type, Element element, String getter, String setter) {
+			this.name = name;
+			this.type = type;
+			this.element = element;
+			this.getter = getter;
+			this.setter = setter;
+		}
+	}
+
+	/** Generates the codec of a single type. */
+	private final class Generator {
+
+		private final TypeElement type;
+
+		private final String pkg;
+
+		private final StringBuilder out = new StringBuilder();
+
+		/** The number of local variables, to give each of them a unique name. */
+		private int locals;
+
+		Generator(TypeElement type) {
+			this.type = type;
+			PackageElement element = packageOf(type);
+			this.pkg = element.isUnnamed() ? "" : element.getQualifiedName().toString();
+		}
+
+		void generate() throws UnsupportedException, IOException {
+			if ((type.getKind() != ElementKind.CLASS && !isRecord(type))
+					|| type.getModifiers().contains(Modifier.ABSTRACT)) {
+				throw new UnsupportedException("@JsonCodec types must be classes or records.",
+						type);
+			}
+			if (!type.getTypeParameters().isEmpty()) {
+				throw new UnsupportedException("@JsonCodec types may not be generic.", type);
+			}
+			if (type.getModifiers().contains(Modifier.PRIVATE)) {
+				throw new UnsupportedException("@JsonCodec types may not be private.", type);
+			}
+			final boolean record = isRecord(type);
+			final List<Property> properties = new ArrayList<Property>();
+			if (record) {
+				for (Element e : type.getEnclosedElements()) {
+					if (e.getKind().name().equals("RECORD_COMPONENT")) {
+						String name = e.getSimpleName().toString();
+						String getter = "%s." + name + "()";
+						properties.add(new Property(name, e.asType(), e, getter, null));
+					}
+				}
+			} else {
+				addFields(type, properties);
+			}
+			final String name = type.getQualifiedName().toString();
+			final String codec = codecName(type);
+			if (!pkg.isEmpty()) {
+				out.append("package ").append(pkg).append(";\n\n");
+			}
+			out.append("/** Generated from {@link ").append(name).append("} by ")
+					.append(JsonCodecProcessor.class.getName()).append(". */\n");
+			if (type.getModifiers().contains(Modifier.PUBLIC)) out.append("public ");
+			out.append("final class ").append(codec).append(" {\n\n");
+			out.append("\tprivate ").append(codec).append("() {\n\t}\n\n");
+
+			out.append("\tpublic static void write(").append(JSON).append("JsonWriter writer, ")
+					.append(name).append(" value) throws java.io.IOException {\n");
+			out.append("\t\tif (value == null) {\n\t\t\twriter.nullValue();\n")
+					.append("\t\t\treturn;\n\t\t}\n");
+			out.append("\t\twriter.beginObject();\n");
+			for (Property property : properties) {
+				out.append("\t\twriter.name(").append(quote(property.name)).append(");\n");
+				write(property.type, String.format(property.getter, "value"), "\t\t",
+						property.element);
+			}
+			out.append("\t\twriter.endObject();\n\t}\n\n");
+
+			out.append("\tpublic static ").append(name).append(" read(").append(JSON)
+					.append("JsonReader reader) throws java.io.IOException {\n");
+			out.append("\t\tif (reader.peek() == ").append(JSON)
+					.append("JsonReader.Token.NULL) {\n\t\t\treader.nextNull();\n")
+					.append("\t\t\treturn null;\n\t\t}\n");
+			// a later field of the same name hides an inherited one, as in JsonBinder
+			final Map<String,Property> byName = new LinkedHashMap<String,Property>();
+			for (Property property : properties) {
+				byName.remove(property.name);
+				byName.put(property.name, property);
+			}
+			if (record) {
+				for (int i = 0; i < properties.size(); ++i) {
+					Property property = properties.get(i);
+					out.append("\t\t").append(source(property.type)).append(" p").append(i)
+							.append(" = ").append(defaultValue(property.type)).append(";\n");
+				}
+			} else if (!hasConstructor()) {
+				out.append("\t\tthrow new UnsupportedOperationException(")
+						.append("\"Cannot create an instance of ").append(name)
+						.append(".\");\n\t}\n");
+				finish(codec);
+				return;
+			} else {
+				out.append("\t\t").append(name).append(" value = new ").append(name)
+						.append("();\n");
+			}
+			out.append("\t\treader.beginObject();\n");
+			out.append("\t\twhile (reader.hasNext()) {\n");
+			out.append("\t\t\tswitch (reader.nextName()) {\n");
+			for (Property property : byName.values()) {
+				final String target;
+				if (record) {
+					target = "p" + properties.indexOf(property) + " = %s;";
+				} else if (property.setter != null) {
+					target = String.format(property.setter, "value", "%s");
+				} else {
+					continue;
+				}
+				out.append("\t\t\t\tcase ").append(quote(property.name)).append(": {\n");
+				read(property.type, target, "\t\t\t\t\t", property.element);
+				out.append("\t\t\t\t\tbreak;\n\t\t\t\t}\n");
+			}
+			out.append("\t\t\t\tdefault: reader.skipValue(); break;\n");
+			out.append("\t\t\t}\n\t\t}\n\t\treader.endObject();\n");
+			if (record) {
+				out.append("\t\treturn new ").append(name).append("(");
+				for (int i = 0; i < properties.size(); ++i) {
+					if (i > 0) out.append(", ");
+					out.append('p').append(i);
+				}
+				out.append(");\n\t}\n");
+			} else {
+				out.append("\t\treturn value;\n\t}\n");
+			}
+			finish(codec);
+		}
+
+		/** Appends the helper methods, and writes the source file. */
+		private void finish(String codec) throws IOException {
+			out.append("\n\tprivate static char toChar(String s) {\n");
+			out.append("\t\tif (s.length() != 1) {\n");
+			out.append("\t\t\tthrow new ").append(JSON).append("JsonCastException(")
+					.append("\"Expected a single character but found \\\"\" + s + \"\\\".\");\n");
+			out.append("\t\t}\n\t\treturn s.charAt(0);\n\t}\n");
+			out.append("\n\tprivate static java.util.Date toDate(String s) {\n");
+			out.append("\t\ttry {\n\t\t\treturn ").append(JSON).append("JsonDate.asDate(s);\n");
+			out.append("\t\t} catch (java.text.ParseException e) {\n");
+			out.append("\t\t\tthrow new ").append(JSON).append("JsonCastException(e);\n");
+			out.append("\t\t}\n\t}\n");
+			out.append("\n\tprivate static <E extends Enum<E>> E toConstant(Class<E> type, ")
+					.append("String s) {\n");
+			out.append("\t\ttry {\n\t\t\treturn Enum.valueOf(type, s);\n");
+			out.append("\t\t} catch (IllegalArgumentException e) {\n");
+			out.append("\t\t\tthrow new ").append(JSON).append("JsonCastException(")
+					.append("\"Unknown constant \\\"\" + s + \"\\\".\");\n");
+			out.append("\t\t}\n\t}\n}\n");
+			String file = pkg.isEmpty() ? codec : pkg + "." + codec;
+			JavaFileObject source = filer.createSourceFile(file, type);
+			Writer writer = source.openWriter();
+			try {
+				writer.write(out.toString());
+			} finally {
+				writer.close();
+			}
+		}
+
+		/** Adds the fields of a class and its superclasses, as JsonBinder finds them. */
+		private void addFields(TypeElement c, List<Property> properties)
+				throws UnsupportedException {
+			TypeMirror superclass = c.getSuperclass();
+			if (superclass.getKind() == TypeKind.DECLARED
+					&& !isType(superclass, "java.lang.Object")) {
+				addFields((TypeElement) types.asElement(superclass), properties);
+			}
+			for (VariableElement field : ElementFilter.fieldsIn(c.getEnclosedElements())) {
+				Set<Modifier> modifiers = field.getModifiers();
+				if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+					continue;
+				}
+				final String name = field.getSimpleName().toString();
+				final boolean accessible = modifiers.contains(Modifier.PUBLIC)
+						|| (!modifiers.contains(Modifier.PRIVATE)
+								&& packageOf(c).equals(packageOf(type)));
+				String getter = accessible ? "%s." + name : null;
+				String setter = (accessible && !modifiers.contains(Modifier.FINAL))
+						? "%s." + name + " = %s;" : null;
+				if (!accessible) {
+					for (ExecutableElement method
+							: ElementFilter.methodsIn(c.getEnclosedElements())) {
+						if (method.getModifiers().contains(Modifier.PRIVATE)
+								|| method.getModifiers().contains(Modifier.STATIC)) {
+							continue;
+						}
+						String m = method.getSimpleName().toString();
+						if (method.getParameters().isEmpty() && (m.equals("get" + capitalize(name))
+								|| m.equals("is" + capitalize(name)))) {
+							getter = "%s." + m + "()";
+						} else if (method.getParameters().size() == 1
+								&& m.equals("set" + capitalize(name))) {
+							setter = "%s." + m + "(%s);";
+						}
+					}
+					if (getter == null) {
+						throw new UnsupportedException("Field " + name
+								+ " is not accessible and has no getter.", field);
+					}
+				}
+				properties.add(new Property(name, field.asType(), field, getter, setter));
+			}
+		}
+
+		private boolean hasConstructor() {
+			if (type.getNestingKind().isNested()
+					&& !type.getModifiers().contains(Modifier.STATIC)) {
+				return false; // an inner class needs an enclosing instance
+			}
+			for (ExecutableElement constructor : ElementFilter.constructorsIn(
+					type.getEnclosedElements())) {
+				if (constructor.getParameters().isEmpty()) {
+					return !constructor.getModifiers().contains(Modifier.PRIVATE);
+				}
+			}
+			return false;
+		}
+
+		private String defaultValue(TypeMirror type) {
+			switch (type.getKind()) {
+				case BOOLEAN: return "false";
+				case CHAR: return "'\\0'";
+				case FLOAT:
+				case DOUBLE: return "0.0";
+				default: return type.getKind().isPrimitive() ? "0" : "null";
+			}
+		}
+
+		private String local(String prefix) {
+			return prefix + (locals++);
+		}
+
+		/** Appends the statements which write a value of the given type. */
+		private void write(TypeMirror type, String value, String indent, Element element)
+				throws UnsupportedException {
+			type = bound(type);
+			switch (type.getKind()) {
+				case BOOLEAN: line(indent, "writer.value(" + value + ");"); return;
+				case CHAR: line(indent, "writer.value(String.valueOf(" + value + "));"); return;
+				case FLOAT: line(indent, "writer.value((double) " + value + ");"); return;
+				case DOUBLE: line(indent, "writer.value(" + value + ");"); return;
+				case BYTE:
+				case SHORT:
+				case INT: line(indent, "writer.value((long) " + value + ");"); return;
+				case LONG: line(indent, "writer.value(" + value + ");"); return;
+				default: break;
+			}
+			if (isType(type, "java.lang.String") || isSubtype(type, JSON + "JsonValue")) {
+				line(indent, "writer.value(" + value + ");");
+				return;
+			}
+			if (type.getKind() == TypeKind.DECLARED && isAnnotated(types.asElement(type))) {
+				line(indent, qualifiedCodecName((TypeElement) types.asElement(type))
+						+ ".write(writer, " + value + ");");
+				return;
+			}
+			// the value is evaluated once, and may be null, and its type may have wildcards
+			final String v = local("v");
+			line(indent, type + " " + v + " = " + value + ";");
+			line(indent, "if (" + v + " == null) {");
+			line(indent + "\t", "writer.nullValue();");
+			line(indent, "} else {");
+			final String inner = indent + "\t";
+			if (type.getKind() == TypeKind.ARRAY) {
+				TypeMirror component = ((ArrayType) type).getComponentType();
+				if (component.getKind() == TypeKind.CHAR) {
+					line(inner, "writer.value(new String(" + v + "));");
+				} else {
+					final String e = local("e");
+					line(inner, "writer.beginArray();");
+					line(inner, "for (" + source(component) + " " + e + " : " + v + ") {");
+					write(component, e, inner + "\t", element);
+					line(inner, "}");
+					line(inner, "writer.endArray();");
+				}
+			} else if (isBoxed(type)) {
+				write(types.unboxedType(type), v, inner, element);
+			} else if (isType(type, "java.util.Date")) {
+				line(inner, "writer.value(" + JSON + "JsonDate.toIso8601String(" + v + "));");
+			} else if (types.asElement(type).getKind() == ElementKind.ENUM) {
+				line(inner, "writer.value(" + v + ".name());");
+			} else if (isSubtype(type, "java.util.Collection")) {
+				final TypeMirror component = typeArgument(type, 0);
+				final String e = local("e");
+				line(inner, "writer.beginArray();");
+				line(inner, "for (" + source(component) + " " + e + " : " + v + ") {");
+				write(component, e, inner + "\t", element);
+				line(inner, "}");
+				line(inner, "writer.endArray();");
+			} else if (isSubtype(type, "java.util.Map")) {
+				checkKeys(type, element);
+				final TypeMirror component = typeArgument(type, 1);
+				final String e = local("e");
+				line(inner, "writer.beginObject();");
+				line(inner, "for (java.util.Map.Entry<?, ? extends " + source(component) + "> " + e
+						+ " : " + v + ".entrySet()) {");
+				line(inner + "\t", "writer.name(String.valueOf(" + e + ".getKey()));");
+				write(component, e + ".getValue()", inner + "\t", element);
+				line(inner, "}");
+				line(inner, "writer.endObject();");
+			} else {
+				throw unsupported(type, element);
+			}
+			line(indent, "}");
+		}
+
+		/**
+		 * Appends the statements which read a value of the given type, and pass it to the given
+		 * template, in which <code>%s</code> is replaced by the value.
+		 */
+		private void read(TypeMirror type, String target, String indent, Element element)
+				throws UnsupportedException {
+			type = bound(type);
+			switch (type.getKind()) {
+				case BOOLEAN: line(indent, assign(target, "reader.nextBoolean()")); return;
+				case CHAR: line(indent, assign(target, "toChar(reader.nextString())")); return;
+				case FLOAT: line(indent, assign(target, "(float) reader.nextDouble()")); return;
+				case DOUBLE: line(indent, assign(target, "reader.nextDouble()")); return;
+				case BYTE: line(indent, assign(target, "(byte) reader.nextLong()")); return;
+				case SHORT: line(indent, assign(target, "(short) reader.nextLong()")); return;
+				case INT: line(indent, assign(target, "(int) reader.nextLong()")); return;
+				case LONG: line(indent, assign(target, "reader.nextLong()")); return;
+				default: break;
+			}
+			if (type.getKind() == TypeKind.DECLARED && isAnnotated(types.asElement(type))) {
+				line(indent, assign(target, qualifiedCodecName((TypeElement) types.asElement(type))
+						+ ".read(reader)"));
+				return;
+			}
+			line(indent, "if (reader.peek() == " + JSON + "JsonReader.Token.NULL) {");
+			line(indent + "\t", "reader.nextNull();");
+			line(indent + "\t", assign(target, "null"));
+			line(indent, "} else {");
+			final String inner = indent + "\t";
+			if (isType(type, "java.lang.String")) {
+				line(inner, assign(target, "reader.nextString()"));
+			} else if (isType(type, JSON + "JsonValue")) {
+				line(inner, assign(target, "reader.nextValue()"));
+			} else if (isType(type, JSON + "JsonObject")) {
+				line(inner, assign(target, "reader.nextValue().asMap()"));
+			} else if (isType(type, JSON + "JsonArray")) {
+				line(inner, assign(target, "reader.nextValue().asArray()"));
+			} else if (isBoxed(type)) {
+				read(types.unboxedType(type), target, inner, element);
+			} else if (isType(type, "java.util.Date")) {
+				line(inner, assign(target, "toDate(reader.nextString())"));
+			} else if (type.getKind() == TypeKind.DECLARED
+					&& types.asElement(type).getKind() == ElementKind.ENUM) {
+				line(inner, assign(target, "toConstant(" + source(types.erasure(type))
+						+ ".class, reader.nextString())"));
+			} else if (type.getKind() == TypeKind.ARRAY) {
+				final TypeMirror component = ((ArrayType) type).getComponentType();
+				if (component.getKind() == TypeKind.CHAR) {
+					line(inner, assign(target, "reader.nextString().toCharArray()"));
+				} else if (component.getKind().isPrimitive()) {
+					final String v = local("v");
+					final String n = local("n");
+					line(inner, source(type) + " " + v + " = new " + component + "[16];");
+					line(inner, "int " + n + " = 0;");
+					line(inner, "reader.beginArray();");
+					line(inner, "while (reader.hasNext()) {");
+					line(inner + "\t", "if (" + n + " == " + v + ".length) " + v
+							+ " = java.util.Arrays.copyOf(" + v + ", 2 * " + n + ");");
+					read(component, v + "[" + n + "++] = %s;", inner + "\t", element);
+					line(inner, "}");
+					line(inner, "reader.endArray();");
+					line(inner, assign(target, "java.util.Arrays.copyOf(" + v + ", " + n + ")"));
+				} else {
+					final String v = local("v");
+					line(inner, "java.util.List<" + source(component) + "> " + v
+							+ " = new java.util.ArrayList<" + source(component) + ">();");
+					readElements(component, v, inner, element);
+					line(inner, assign(target, v + ".toArray(new "
+							+ source(types.erasure(component)) + "[" + v + ".size()])"));
+				}
+			} else if (isSubtype(type, "java.util.Collection")) {
+				final String v = local("v");
+				line(inner, source(type) + " " + v + " = new " + collectionClass(type, element)
+						+ "<" + source(typeArgument(type, 0)) + ">();");
+				readElements(typeArgument(type, 0), v, inner, element);
+				line(inner, assign(target, v));
+			} else if (isSubtype(type, "java.util.Map")) {
+				checkKeys(type, element);
+				final String v = local("v");
+				final String k = local("k");
+				line(inner, source(type) + " " + v + " = new " + mapClass(type, element) + "<"
+						+ source(typeArgument(type, 0)) + ", " + source(typeArgument(type, 1))
+						+ ">();");
+				line(inner, "reader.beginObject();");
+				line(inner, "while (reader.hasNext()) {");
+				line(inner + "\t", "String " + k + " = reader.nextName();");
+				read(typeArgument(type, 1), v + ".put(" + k + ", %s);", inner + "\t", element);
+				line(inner, "}");
+				line(inner, "reader.endObject();");
+				line(inner, assign(target, v));
+			} else {
+				throw unsupported(type, element);
+			}
+			line(indent, "}");
+		}
+
+		/** Appends the statements which read the elements of an array into a collection. */
+		private void readElements(TypeMirror component, String collection, String indent,
+				Element element) throws UnsupportedException {
+			line(indent, "reader.beginArray();");
+			line(indent, "while (reader.hasNext()) {");
+			read(component, collection + ".add(%s);", indent + "\t", element);
+			line(indent, "}");
+			line(indent, "reader.endArray();");
+		}
+
+		/** Returns the class of new collections of the given type, as JsonBinder chooses it. */
+		private String collectionClass(TypeMirror type, Element element)
+				throws UnsupportedException {
+			for (String c : new String[] {"java.util.ArrayList", "java.util.LinkedHashSet",
+					"java.util.TreeSet", "java.util.ArrayDeque"}) {
+				if (isType(type, c) || (isAbstract(type) && isSupertypeOf(type, c))) return c;
+			}
+			if (!isAbstract(type)) return source(types.erasure(type));
+			throw unsupported(type, element);
+		}
+
+		/** Returns the class of new maps of the given type, as JsonBinder chooses it. */
+		private String mapClass(TypeMirror type, Element element) throws UnsupportedException {
+			for (String c : new String[] {"java.util.LinkedHashMap", "java.util.TreeMap",
+					"java.util.concurrent.ConcurrentHashMap"}) {
+				if (isType(type, c) || (isAbstract(type) && isSupertypeOf(type, c))) return c;
+			}
+			if (!isAbstract(type)) return source(types.erasure(type));
+			throw unsupported(type, element);
+		}
+
+		private boolean isAbstract(TypeMirror type) {
+			Element element = types.asElement(type);
+			return element.getKind() == ElementKind.INTERFACE
+					|| element.getModifiers().contains(Modifier.ABSTRACT);
+		}
+
+		/** Returns <code>true</code> if the given class is a subtype of the given type. */
+		private boolean isSupertypeOf(TypeMirror type, String c) {
+			return types.isAssignable(types.erasure(elements.getTypeElement(c).asType()),
+					types.erasure(type));
+		}
+
+		private boolean isBoxed(TypeMirror type) {
+			try {
+				types.unboxedType(type);
+				return true;
+			} catch (IllegalArgumentException e) {
+				return false;
+			}
+		}
+
+		private void checkKeys(TypeMirror type, Element element) throws UnsupportedException {
+			TypeMirror key = typeArgument(type, 0);
+			if (!isType(key, "java.lang.String") && !isType(key, "java.lang.Object")) {
+				throw new UnsupportedException("The keys of a map must be strings: " + type,
+						element);
+			}
+		}
+
+		private UnsupportedException unsupported(TypeMirror type, Element element) {
+			return new UnsupportedException("Type " + type + " is not supported. Classes must be "
+					+ "annotated with @JsonCodec, or mapped at run time with JsonBinder.", element);
+		}
+
+		private String assign(String target, String value) {
+			return target.replace("%s", value);
+		}
+
+		private void line(String indent, String line) {
+			out.append(indent).append(line).append('\n');
+		}
+	}
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * An immutable JSON array parsed by a {@link JsonArena}, which reads its elements directly from
+ * the arrays of the arena. It is only valid until the arena is reset. {@link #copy()} and
+ * {@link #asArray()} return a mutable copy which remains valid. The first of them decodes the whole
+ * array into the heap, as do {@link #toString(int)} and conversion to a persistent array.
+ */
+public final class ArenaJsonArray extends JsonValue implements ImmutableJsonArray, Iterable<JsonValue> {
+
+	private final JsonArena arena;
+
+	private final int node;
+
+	/** The generation of the arena this view was created in. */
+	private final int generation;
+
+	/** The cached hash code, or zero if it has not been computed yet. */
+	private int hash;
+
+	/** This array decoded into the heap, or <code>null</code> if it has not been needed yet. */
+	private JsonArray decoded;
+
+	ArenaJsonArray(JsonArena arena, int node, int generation) {
+		this.arena = arena;
+		this.node = node;
+		this.generation = generation;
+	}
+
+	/** Returns the node of the element with the given index. */
+	private int elementNode(int index) {
+		final int size = size();
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, size));
+		}
+		return arena.link(arena.firstLink(node) + index);
+	}
+
+	public JsonValue get(int index) {
+		return arena.valueAt(elementNode(index));
+	}
+
+	@Override
+	JsonValue getElement(int index) {
+		return get(index);
+	}
+
+	@Override
+	JsonValue findElement(int index) {
+		return (index >= 0 && index < size()) ? get(index) : null;
+	}
+
+	@Override
+	public JsonValue getByPath(String path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	@Override
+	public JsonValue getByPath(JsonPath path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	@Override
+	public Iterator<JsonValue> iterator() {
+		return new ElementIterator<JsonValue>() {
+			@Override
+			protected JsonValue element(int index) {
+				return get(index);
+			}
+		};
+	}
+
+	@Override
+	public String getString(int index) throws JsonCastException {
+		return arena.asStringAt(elementNode(index));
+	}
+
+	@Override
+	public Number getNumber(int index) throws JsonCastException {
+		return get(index).asNumber();
+	}
+
+	@Override
+	public long getLong(int index) throws JsonCastException {
+		return arena.longAt(elementNode(index));
+	}
+
+	@Override
+	public double getDouble(int index) throws JsonCastException {
+		return arena.doubleAt(elementNode(index));
+	}
+
+	@Override
+	public boolean getBoolean(int index) throws JsonCastException {
+		return get(index).asBoolean();
+	}
+
+	@Override
+	public ImmutableJsonArray getArray(int index) throws JsonCastException {
+		JsonValue value = get(index);
+		return (value instanceof ImmutableJsonArray) ? (ImmutableJsonArray) value : value.asArray();
+	}
+
+	@Override
+	public ImmutableJsonObject getObject(int index) throws JsonCastException {
+		JsonValue value = get(index);
+		return (value instanceof ImmutableJsonObject) ? (ImmutableJsonObject) value : value.asMap();
+	}
+
+	@Override
+	public Date getDate(int index) throws JsonCastException {
+		return get(index).asDate();
+	}
+
+	@Override
+	public int size() {
+		arena.checkGeneration(generation);
+		return arena.sizeOf(node);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public void forEachLong(LongConsumer action) throws JsonCastException {
+		for (int i = 0, n = size(); i < n; ++i) {
+			action.accept(getLong(i));
+		}
+	}
+
+	@Override
+	public void forEachDouble(DoubleConsumer action) throws JsonCastException {
+		for (int i = 0, n = size(); i < n; ++i) {
+			action.accept(getDouble(i));
+		}
+	}
+
+	@Override
+	public long[] toLongArray() throws JsonCastException {
+		long[] array = new long[size()];
+		for (int i = 0; i < array.length; ++i) {
+			array[i] = getLong(i);
+		}
+		return array;
+	}
+
+	@Override
+	public double[] toDoubleArray() throws JsonCastException {
+		double[] array = new double[size()];
+		for (int i = 0; i < array.length; ++i) {
+			array[i] = getDouble(i);
+		}
+		return array;
+	}
+
+	@Override
+	public Iterable<String> stringIterable() {
+		return new Iterable<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new ElementIterator<String>() {
+					@Override
+					protected String element(int index) {
+						return getString(index);
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Boolean> booleanIterable() {
+		return new Iterable<Boolean>() {
+			@Override
+			public Iterator<Boolean> iterator() {
+				return new ElementIterator<Boolean>() {
+					@Override
+					protected Boolean element(int index) {
+						return getBoolean(index);
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Number> numberIterable() {
+		return new Iterable<Number>() {
+			@Override
+			public Iterator<Number> iterator() {
+				return new ElementIterator<Number>() {
+					@Override
+					protected Number element(int index) {
+						return getNumber(index);
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Type getType() {
+		return Type.ARRAY;
+	}
+
+	/**
+	 * Returns a new mutable {@link JsonArray} with the elements of this array, copying all nested
+	 * objects and arrays as well. The copy remains valid after the arena is reset.
+	 * <p>
+	 * The first call decodes the whole array, which takes as long as parsing it into a
+	 * <code>JsonArray</code> would have. The decoded array is kept, and later calls return lazy
+	 * copies of it.
+	 */
+	@Override
+	public JsonArray asArray() {
+		return (JsonArray) decoded().copy();
+	}
+
+	/**
+	 * Returns this array decoded into the heap, decoding it on first use. It must be neither
+	 * modified nor handed out.
+	 */
+	private JsonArray decoded() {
+		arena.checkGeneration(generation);
+		if (decoded == null) {
+			decoded = arena.decode(node).asArray();
+		}
+		return decoded;
+	}
+
+	@Override
+	public ImmutableJsonArray asImmutable() {
+		return this;
+	}
+
+	/** Returns a mutable copy of this array, which remains valid after the arena is reset. */
+	@Override
+	public JsonValue copy() {
+		return asArray();
+	}
+
+	@Override
+	JsonValue freeze() {
+		return decoded().freeze();
+	}
+
+	@Override
+	protected void appendTokenList(List<String> tokenList) {
+		decoded().appendTokenList(tokenList);
+	}
+
+	@Override
+	public String toString() {
+		arena.checkGeneration(generation);
+		StringBuilder sb = new StringBuilder();
+		arena.append(node, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Two arrays are equal if they have equal elements in the same order, regardless of their
+	 * implementation. Arena arrays of different size or hash code are rejected first.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) return true;
+		if (o instanceof ArenaJsonArray) {
+			ArenaJsonArray array = (ArenaJsonArray) o;
+			if (arena == array.arena && node == array.node && generation == array.generation) {
+				return true;
+			}
+			if (size() != array.size() || hashCode() != array.hashCode()) return false;
+			for (int i = 0, n = size(); i < n; ++i) {
+				if (!get(i).equals(array.get(i))) return false;
+			}
+			return true;
+		}
+		return arrayEquals(this, o);
+	}
+
+	/** Returns the same hash code as a {@link JsonArray} with the same elements. */
+	@Override
+	public int hashCode() {
+		arena.checkGeneration(generation);
+		int h = hash;
+		if (h == 0) {
+			h = 1;
+			final int first = arena.firstLink(node);
+			for (int i = 0, n = arena.sizeOf(node); i < n; ++i) {
+				h = 31 * h + arena.hashCodeAt(arena.link(first + i));
+			}
+			hash = h;
+		}
+		return h;
+	}
+
+	/** Iterates across the elements of this array in order. */
+	private abstract class ElementIterator<T> implements Iterator<T> {
+
+		private final int size = size();
+
+		private int nextIndex = 0;
+
+		/** Returns the element with the given index. */
+		protected abstract T element(int index);
+
+		@Override
+		public boolean hasNext() {
+			return nextIndex < size;
+		}
+
+		@Override
+		public T next() {
+			if (nextIndex >= size) {
+				throw new NoSuchElementException();
+			}
+			return element(nextIndex++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("ArenaJsonArray is immutable.");
+		}
+	}
+
+}
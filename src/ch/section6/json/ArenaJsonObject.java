@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable JSON object parsed by a {@link JsonArena}, which reads its entries directly from
+ * the arrays of the arena. It is only valid until the arena is reset. {@link #copy()} and
+ * {@link #asMap()} return a mutable copy which remains valid. The first of them decodes the whole
+ * object into the heap, as do {@link #toString(int)} and conversion to a persistent object.
+ */
+public final class ArenaJsonObject extends JsonValue implements ImmutableJsonObject {
+
+	private final JsonArena arena;
+
+	private final int node;
+
+	/** The generation of the arena this view was created in. */
+	private final int generation;
+
+	/** The cached hash code, or zero if it has not been computed yet. */
+	private int hash;
+
+	/** This object decoded into the heap, or <code>null</code> if it has not been needed yet. */
+	private JsonObject decoded;
+
+	ArenaJsonObject(JsonArena arena, int node, int generation) {
+		this.arena = arena;
+		this.node = node;
+		this.generation = generation;
+	}
+
+	/** Returns the node of the value with the given key, or -1 if there is none. */
+	private int memberOf(String key) {
+		arena.checkGeneration(generation);
+		return (key != null) ? arena.memberOf(node, key) : -1;
+	}
+
+	/** Returns the node of the value with the given key. */
+	private int valueNodeOf(String key) {
+		int member = memberOf(key);
+		if (member < 0) {
+			throw new UnknownKeyException(String.valueOf(key));
+		}
+		return member;
+	}
+
+	/**
+	 * Gets the value associated with the key. If the key does not exist, a
+	 * <code>UnknownKeyException</code> is thrown.
+	 */
+	public JsonValue get(String key) {
+		return arena.valueAt(valueNodeOf(key));
+	}
+
+	public JsonValue get(String key, JsonValue defaultValue) {
+		int member = memberOf(key);
+		return (member >= 0) ? arena.valueAt(member) : defaultValue;
+	}
+
+	public boolean containsKey(String key) {
+		return memberOf(key) >= 0;
+	}
+
+	@Override
+	JsonValue getMember(String key) {
+		return get(key);
+	}
+
+	@Override
+	JsonValue findMember(String key) {
+		return get(key, null);
+	}
+
+	@Override
+	public JsonValue getByPath(String path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	@Override
+	public JsonValue getByPath(JsonPath path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	@Override
+	public String getString(String key) throws JsonCastException {
+		return arena.asStringAt(valueNodeOf(key));
+	}
+
+	@Override
+	public boolean getBoolean(String key) throws JsonCastException {
+		return get(key).asBoolean();
+	}
+
+	@Override
+	public ImmutableJsonObject getObject(String key) throws JsonCastException {
+		JsonValue value = get(key);
+		return (value instanceof ImmutableJsonObject) ? (ImmutableJsonObject) value : value.asMap();
+	}
+
+	@Override
+	public ImmutableJsonArray getArray(String key) throws JsonCastException {
+		JsonValue value = get(key);
+		return (value instanceof ImmutableJsonArray) ? (ImmutableJsonArray) value : value.asArray();
+	}
+
+	@Override
+	public Number getNumber(String key) throws JsonCastException {
+		return get(key).asNumber();
+	}
+
+	@Override
+	public long getLong(String key) throws JsonCastException {
+		return arena.longAt(valueNodeOf(key));
+	}
+
+	@Override
+	public double getDouble(String key) throws JsonCastException {
+		return arena.doubleAt(valueNodeOf(key));
+	}
+
+	@Override
+	public Date getDate(String key) throws JsonCastException {
+		return get(key).asDate();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public int size() {
+		arena.checkGeneration(generation);
+		return arena.sizeOf(node);
+	}
+
+	/** Returns an unmodifiable view of the keys of this object. */
+	@Override
+	public Set<String> keySet() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new EntryIterator<String>() {
+					@Override
+					protected String element(int entry) {
+						return arena.stringAt(arena.link(entry + 1));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return ArenaJsonObject.this.size();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return (o instanceof String) && containsKey((String) o);
+			}
+		};
+	}
+
+	/** Returns an unmodifiable view of the entries of this object. */
+	@Override
+	public Set<Map.Entry<String,JsonValue>> entrySet() {
+		return new AbstractSet<Map.Entry<String,JsonValue>>() {
+			@Override
+			public Iterator<Map.Entry<String,JsonValue>> iterator() {
+				return new EntryIterator<Map.Entry<String,JsonValue>>() {
+					@Override
+					protected Map.Entry<String,JsonValue> element(int entry) {
+						return new AbstractMap.SimpleImmutableEntry<String,JsonValue>(
+								arena.stringAt(arena.link(entry + 1)),
+								arena.valueAt(arena.link(entry + 2)));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return ArenaJsonObject.this.size();
+			}
+		};
+	}
+
+	/** Returns an unmodifiable view of the values of this object. */
+	@Override
+	public Collection<JsonValue> values() {
+		return new AbstractCollection<JsonValue>() {
+			@Override
+			public Iterator<JsonValue> iterator() {
+				return new EntryIterator<JsonValue>() {
+					@Override
+					protected JsonValue element(int entry) {
+						return arena.valueAt(arena.link(entry + 2));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return ArenaJsonObject.this.size();
+			}
+		};
+	}
+
+	@Override
+	public Type getType() {
+		return Type.MAP;
+	}
+
+	/**
+	 * Returns a new mutable {@link JsonObject} with the entries of this object, copying all nested
+	 * objects and arrays as well. The copy remains valid after the arena is reset.
+	 * <p>
+	 * The first call decodes the whole object, which takes as long as parsing it into a
+	 * <code>JsonObject</code> would have. The decoded object is kept, and later calls return lazy
+	 * copies of it.
+	 */
+	@Override
+	public JsonObject asMap() {
+		return (JsonObject) decoded().copy();
+	}
+
+	/**
+	 * Returns this object decoded into the heap, decoding it on first use. It must be neither
+	 * modified nor handed out.
+	 */
+	private JsonObject decoded() {
+		arena.checkGeneration(generation);
+		if (decoded == null) {
+			decoded = arena.decode(node).asMap();
+		}
+		return decoded;
+	}
+
+	@Override
+	public ImmutableJsonObject asImmutable() {
+		return this;
+	}
+
+	/** Returns a mutable copy of this object, which remains valid after the arena is reset. */
+	@Override
+	public JsonValue copy() {
+		return asMap();
+	}
+
+	@Override
+	JsonValue freeze() {
+		return decoded().freeze();
+	}
+
+	@Override
+	protected void appendTokenList(List<String> tokenList) {
+		decoded().appendTokenList(tokenList);
+	}
+
+	@Override
+	public String toString() {
+		arena.checkGeneration(generation);
+		StringBuilder sb = new StringBuilder();
+		arena.append(node, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Two objects are equal if they have equal entries, regardless of order and of their
+	 * implementation. Arena objects of different size or hash code are rejected first.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) return true;
+		if (o instanceof ArenaJsonObject) {
+			ArenaJsonObject obj = (ArenaJsonObject) o;
+			if (arena == obj.arena && node == obj.node && generation == obj.generation) return true;
+			if (size() != obj.size() || hashCode() != obj.hashCode()) return false;
+			final int first = arena.firstLink(node);
+			for (int i = 0, n = size(); i < n; ++i) {
+				int entry = first + JsonArena.ENTRY_LINKS * i;
+				JsonValue value = arena.valueAt(arena.link(entry + 2));
+				if (!value.equals(obj.get(arena.stringAt(arena.link(entry + 1)), null))) return false;
+			}
+			return true;
+		}
+		return objectEquals(this, o);
+	}
+
+	/** Returns the same hash code as a {@link JsonObject} with the same entries. */
+	@Override
+	public int hashCode() {
+		arena.checkGeneration(generation);
+		int h = hash;
+		if (h == 0) {
+			final int first = arena.firstLink(node);
+			for (int i = 0, n = size(); i < n; ++i) {
+				int entry = first + JsonArena.ENTRY_LINKS * i;
+				h += arena.link(entry) ^ arena.hashCodeAt(arena.link(entry + 2));
+			}
+			hash = h;
+		}
+		return h;
+	}
+
+	/** Iterates across the entries of this object in the order they were parsed. */
+	private abstract class EntryIterator<T> implements Iterator<T> {
+
+		private final int size = size();
+
+		private int nextIndex = 0;
+
+		/** Returns the element for the entry with the given first link. */
+		protected abstract T element(int entry);
+
+		@Override
+		public boolean hasNext() {
+			return nextIndex < size;
+		}
+
+		@Override
+		public T next() {
+			if (nextIndex >= size) {
+				throw new NoSuchElementException();
+			}
+			arena.checkGeneration(generation);
+			return element(arena.firstLink(node) + JsonArena.ENTRY_LINKS * nextIndex++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("ArenaJsonObject is immutable.");
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a binary format from an input stream in chunks. If the stream supports
+ * {@link InputStream#mark(int)}, {@link #finish()} returns the bytes read beyond the end of the
+ * value to it, such that several values or other data may follow each other in one stream.
+ */
+final class BinaryInput {
+
+	/** The size of the buffer, and the most bytes which can be required at once. */
+	static final int BUFFER_SIZE = 8192;
+
+	private final InputStream in;
+
+	private final boolean markSupported;
+
+	/** The bytes of the current chunk. Codecs may read them directly after {@link #require(int)}. */
+	final byte[] buffer = new byte[BUFFER_SIZE];
+
+	/** The position of the next unread byte in the buffer. */
+	int position;
+
+	/** The end of the bytes in the buffer. */
+	private int limit;
+
+	/** The position in the buffer at which the bytes of the last read from the stream start. */
+	private int chunkStart;
+
+	BinaryInput(InputStream in) {
+		this.in = in;
+		markSupported = in.markSupported();
+	}
+
+	/**
+	 * Makes sure that the buffer holds at least the given number of unread bytes, which may be at
+	 * most {@link #BUFFER_SIZE}.
+	 * 
+	 * @throws EOFException
+	 *             If the stream ends first.
+	 */
+	void require(int n) throws IOException {
+		if (limit - position >= n) return;
+		int remaining = limit - position;
+		System.arraycopy(buffer, position, buffer, 0, remaining);
+		position = 0;
+		limit = remaining;
+		chunkStart = remaining;
+		if (markSupported) in.mark(buffer.length);
+		while (limit < n) {
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read <= 0) {
+				throw new EOFException("Unexpected end of stream.");
+			}
+			limit += read;
+		}
+	}
+
+	/** Reads an unsigned byte. */
+	int readByte() throws IOException {
+		require(1);
+		return buffer[position++] & 0xFF;
+	}
+
+	/** Reads a big-endian unsigned integer of the given number of bytes, at most eight. */
+	long readBigEndian(int bytes) throws IOException {
+		require(bytes);
+		long l = 0L;
+		for (int i = 0; i < bytes; ++i) {
+			l = (l << 8) | (buffer[position++] & 0xFFL);
+		}
+		return l;
+	}
+
+	/** Reads a little-endian unsigned integer of the given number of bytes, at most eight. */
+	long readLittleEndian(int bytes) throws IOException {
+		require(bytes);
+		long l = 0L;
+		for (int i = 0; i < bytes; ++i) {
+			l |= (buffer[position++] & 0xFFL) << (8 * i);
+		}
+		return l;
+	}
+
+	/** Reads the given number of bytes into a new array. */
+	byte[] readBytes(int n) throws IOException {
+		byte[] bytes = new byte[n];
+		for (int i = 0; i < n; ) {
+			require(1);
+			int count = Math.min(n - i, limit - position);
+			System.arraycopy(buffer, position, bytes, i, count);
+			position += count;
+			i += count;
+		}
+		return bytes;
+	}
+
+	/** Reads a UTF-8 string of the given number of bytes. */
+	String readUtf8(int n) throws IOException {
+		if (n <= BUFFER_SIZE) {
+			require(n);
+			String s = new String(buffer, position, n, StandardCharsets.UTF_8);
+			position += n;
+			return s;
+		} else {
+			return new String(readBytes(n), StandardCharsets.UTF_8);
+		}
+	}
+
+	/** Returns the unread bytes of the last chunk to the stream, if possible. */
+	void finish() throws IOException {
+		if (markSupported && position < limit) {
+			in.reset();
+			final int consumed = Math.max(0, position - chunkStart);
+			for (long skipped = 0; skipped < consumed; ) {
+				long n = in.skip(consumed - skipped);
+				if (n <= 0) {
+					if (in.read() < 0) break;
+					n = 1;
+				}
+				skipped += n;
+			}
+		}
+	}
+
+}
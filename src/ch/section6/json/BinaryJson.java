@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The tagged binary layout read by {@link BinaryJsonObject} and {@link BinaryJsonArray}. All
+ * numbers are little-endian, and all offsets are absolute positions in the document buffer.
+ * <p>
+ * A document starts with {@link #MAGIC} followed by its root value. Every value starts with a
+ * one-byte tag:
+ * <ul>
+ * <li><code>NULL</code>, <code>FALSE</code>, <code>TRUE</code>: no payload.</li>
+ * <li><code>INT</code>: a 32-bit integer. <code>LONG</code>: a 64-bit integer.
+ * <code>DOUBLE</code>: the raw bits of a 64-bit IEEE double.</li>
+ * <li><code>STRING</code>: a string record, that is the number of bytes followed by each UTF-16
+ * code unit encoded as one to three bytes, as in UTF-8. Unpaired surrogates survive unchanged.</li>
+ * <li><code>DATE</code>: the epoch milliseconds, followed by a string record of the date as it
+ * was written.</li>
+ * <li><code>ARRAY</code>: the number of elements and a table with the offset of each element,
+ * followed by the elements. <code>LONGS</code> and <code>DOUBLES</code>: the number of elements
+ * followed by the packed 64-bit values.</li>
+ * <li><code>OBJECT</code>: the number of entries and a table with the key hash, key offset and
+ * value offset of each entry in insertion order. Objects with more than
+ * {@link #INDEXED_SIZE} entries are followed by the entry numbers sorted by key hash, for
+ * binary search. Then follow the keys and values. Each distinct key is stored only once per
+ * document.</li>
+ * </ul>
+ */
+final class BinaryJson {
+
+	/** The first four bytes of every document, <code>"AJB1"</code>. */
+	static final int MAGIC = 0x31424A41;
+
+	static final byte NULL = 0;
+	static final byte FALSE = 1;
+	static final byte TRUE = 2;
+	static final byte INT = 3;
+	static final byte LONG = 4;
+	static final byte DOUBLE = 5;
+	static final byte STRING = 6;
+	static final byte DATE = 7;
+	static final byte ARRAY = 8;
+	static final byte LONGS = 9;
+	static final byte DOUBLES = 10;
+	static final byte OBJECT = 11;
+
+	/** The number of entries above which an object carries a sorted hash index. */
+	static final int INDEXED_SIZE = 8;
+
+	/** The size of an entry in the entry table of an object. */
+	static final int ENTRY_SIZE = 12;
+
+	private BinaryJson() {}
+
+	/** Encodes the given value into a new direct buffer. */
+	static ByteBuffer encode(JsonValue value) {
+		Encoder encoder = new Encoder();
+		encoder.putInt(MAGIC);
+		encoder.write(value);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(encoder.size).order(ByteOrder.LITTLE_ENDIAN);
+		encoder.buffer.flip();
+		buffer.put(encoder.buffer);
+		buffer.flip();
+		return buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Returns a read-only little-endian view of the document which starts at the current position
+	 * of the given buffer. The root value of the document is at offset 4 of the view.
+	 */
+	static ByteBuffer open(ByteBuffer buffer) {
+		ByteBuffer b = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if (b.remaining() < 5 || b.getInt(0) != MAGIC) {
+			throw new IllegalArgumentException("Buffer does not contain a binary JSON document.");
+		}
+		return b.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/** Returns the value at the given offset, as a view if it is an object or array. */
+	static JsonValue valueAt(ByteBuffer b, int p) {
+		switch (b.get(p)) {
+			case NULL: return JsonValue.getNull();
+			case FALSE: return JsonValue.getBoolean(false);
+			case TRUE: return JsonValue.getBoolean(true);
+			case INT: return JsonNumber.valueOf(b.getInt(p + 1));
+			case LONG: return JsonNumber.valueOf(b.getLong(p + 1));
+			case DOUBLE: return new JsonNumber(Double.longBitsToDouble(b.getLong(p + 1)));
+			case STRING: return JsonString.valueOf(stringAt(b, p + 1));
+			case DATE: return new JsonDate(new Date(b.getLong(p + 1)), stringAt(b, p + 9));
+			case ARRAY:
+			case LONGS:
+			case DOUBLES: return new BinaryJsonArray(b, p);
+			case OBJECT: return new BinaryJsonObject(b, p);
+			default: throw new IllegalStateException("Unknown tag at offset " + p + ".");
+		}
+	}
+
+	/** Returns the value at the given offset as a <code>long</code>, without boxing numbers. */
+	static long longAt(ByteBuffer b, int p) {
+		switch (b.get(p)) {
+			case INT: return b.getInt(p + 1);
+			case LONG: return b.getLong(p + 1);
+			case DOUBLE: return (long) Double.longBitsToDouble(b.getLong(p + 1));
+			default: return valueAt(b, p).asLong();
+		}
+	}
+
+	/** Returns the value at the given offset as a <code>double</code>, without boxing numbers. */
+	static double doubleAt(ByteBuffer b, int p) {
+		switch (b.get(p)) {
+			case INT: return b.getInt(p + 1);
+			case LONG: return b.getLong(p + 1);
+			case DOUBLE: return Double.longBitsToDouble(b.getLong(p + 1));
+			default: return valueAt(b, p).asDouble();
+		}
+	}
+
+	/** Returns the value at the given offset as a string, decoding string values directly. */
+	static String asStringAt(ByteBuffer b, int p) {
+		return (b.get(p) == STRING) ? stringAt(b, p + 1) : valueAt(b, p).asString();
+	}
+
+	/** Decodes the string record at the given offset. */
+	static String stringAt(ByteBuffer b, int p) {
+		final int length = b.getInt(p);
+		char[] chars = new char[length];
+		int n = 0;
+		for (int i = p + 4, end = i + length; i < end; ) {
+			int c = b.get(i++) & 0xFF;
+			if (c < 0x80) {
+				chars[n++] = (char) c;
+			} else if (c < 0xE0) {
+				chars[n++] = (char) (((c & 0x1F) << 6) | (b.get(i++) & 0x3F));
+			} else {
+				chars[n++] = (char) (((c & 0x0F) << 12) | ((b.get(i++) & 0x3F) << 6) | (b.get(i++) & 0x3F));
+			}
+		}
+		return new String(chars, 0, n);
+	}
+
+	/** Returns <code>true</code> if the string record at the given offset equals the string. */
+	static boolean stringEquals(ByteBuffer b, int p, String s) {
+		final int length = b.getInt(p);
+		if (length < s.length()) return false; // every char takes at least one byte
+		int n = 0;
+		for (int i = p + 4, end = i + length; i < end; ++n) {
+			if (n == s.length()) return false;
+			int c = b.get(i++) & 0xFF;
+			char ch;
+			if (c < 0x80) {
+				ch = (char) c;
+			} else if (c < 0xE0) {
+				ch = (char) (((c & 0x1F) << 6) | (b.get(i++) & 0x3F));
+			} else {
+				ch = (char) (((c & 0x0F) << 12) | ((b.get(i++) & 0x3F) << 6) | (b.get(i++) & 0x3F));
+			}
+			if (ch != s.charAt(n)) return false;
+		}
+		return n == s.length();
+	}
+
+	/** Appends the JSON text of the value at the given offset, without decoding any containers. */
+	static void append(ByteBuffer b, int p, StringBuilder sb) {
+		switch (b.get(p)) {
+			case STRING: sb.append(JsonString.jsonEscape(stringAt(b, p + 1))); break;
+			case ARRAY: {
+				sb.append("[");
+				for (int i = 0, n = b.getInt(p + 1); i < n; ++i) {
+					if (i > 0) sb.append(",");
+					append(b, b.getInt(p + 5 + 4 * i), sb);
+				}
+				sb.append("]");
+				break;
+			}
+			case LONGS:
+			case DOUBLES: {
+				final boolean longs = b.get(p) == LONGS;
+				sb.append("[");
+				for (int i = 0, n = b.getInt(p + 1); i < n; ++i) {
+					if (i > 0) sb.append(",");
+					long l = b.getLong(p + 5 + 8 * i);
+					if (longs) {
+						sb.append(l);
+					} else {
+						sb.append(Double.longBitsToDouble(l));
+					}
+				}
+				sb.append("]");
+				break;
+			}
+			case OBJECT: {
+				sb.append("{");
+				for (int i = 0, n = b.getInt(p + 1); i < n; ++i) {
+					if (i > 0) sb.append(",");
+					int entry = p + 5 + ENTRY_SIZE * i;
+					sb.append(JsonString.jsonEscape(stringAt(b, b.getInt(entry + 4))));
+					sb.append(":");
+					append(b, b.getInt(entry + 8), sb);
+				}
+				sb.append("}");
+				break;
+			}
+			default: sb.append(valueAt(b, p).toString()); break;
+		}
+	}
+
+	/**
+	 * Decodes the value at the given offset into a tree of mutable <code>JsonValue</code>s. Keys
+	 * are decoded once per document, and records of an array share their key layouts as they do
+	 * when parsed.
+	 */
+	static JsonValue decode(ByteBuffer b, int p) {
+		return decode(b, p, new HashMap<Integer,String>());
+	}
+
+	private static JsonValue decode(ByteBuffer b, int p, Map<Integer,String> keys) {
+		switch (b.get(p)) {
+			case ARRAY: {
+				final int size = b.getInt(p + 1);
+				JsonArray array = new JsonArray(size);
+				List<JsonObject> shapes = new ArrayList<JsonObject>();
+				for (int i = 0; i < size; ++i) {
+					JsonValue value = decode(b, b.getInt(p + 5 + 4 * i), keys);
+					if (value.getType() == JsonValue.Type.MAP) {
+						JsonObject.shareShape(value.asMap(), shapes);
+					}
+					array.add(value);
+				}
+				return array;
+			}
+			case LONGS: {
+				long[] longs = new long[b.getInt(p + 1)];
+				for (int i = 0; i < longs.length; ++i) {
+					longs[i] = b.getLong(p + 5 + 8 * i);
+				}
+				return new JsonArray(longs);
+			}
+			case DOUBLES: {
+				double[] doubles = new double[b.getInt(p + 1)];
+				for (int i = 0; i < doubles.length; ++i) {
+					doubles[i] = Double.longBitsToDouble(b.getLong(p + 5 + 8 * i));
+				}
+				return new JsonArray(doubles);
+			}
+			case OBJECT: {
+				final int size = b.getInt(p + 1);
+				JsonObject obj = new JsonObject(size);
+				for (int i = 0; i < size; ++i) {
+					int entry = p + 5 + ENTRY_SIZE * i;
+					Integer keyOffset = b.getInt(entry + 4);
+					String key = keys.get(keyOffset);
+					if (key == null) {
+						key = stringAt(b, keyOffset);
+						keys.put(keyOffset, key);
+					}
+					obj.put(key, decode(b, b.getInt(entry + 8), keys));
+				}
+				return obj;
+			}
+			default: return valueAt(b, p);
+		}
+	}
+
+	/** Writes values into a growing heap buffer. */
+	private static final class Encoder {
+
+		/** Replaced as it grows, so it is only read once the bytes to be written are reserved. */
+		private ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+
+		/** The number of bytes written so far. */
+		private int size;
+
+		/** The offset of the string record of every key written so far. */
+		private final Map<String,Integer> keys = new HashMap<String,Integer>();
+
+		private void ensureCapacity(int n) {
+			if (size + n > buffer.capacity()) {
+				ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, size + n))
+						.order(ByteOrder.LITTLE_ENDIAN);
+				buffer.flip();
+				newBuffer.put(buffer);
+				buffer = newBuffer;
+			}
+		}
+
+		/** Reserves the given number of bytes, and returns their offset. */
+		private int reserve(int n) {
+			ensureCapacity(n);
+			int offset = size;
+			size += n;
+			buffer.position(size);
+			return offset;
+		}
+
+		private void putByte(byte v) {
+			int p = reserve(1);
+			buffer.put(p, v);
+		}
+
+		private void putInt(int v) {
+			int p = reserve(4);
+			buffer.putInt(p, v);
+		}
+
+		private void putLong(long v) {
+			int p = reserve(8);
+			buffer.putLong(p, v);
+		}
+
+		private void putString(String s) {
+			int length = 0;
+			for (int i = 0; i < s.length(); ++i) {
+				char c = s.charAt(i);
+				length += (c < 0x80) ? 1 : (c < 0x800) ? 2 : 3;
+			}
+			int p = reserve(4 + length);
+			buffer.putInt(p, length);
+			p += 4;
+			for (int i = 0; i < s.length(); ++i) {
+				char c = s.charAt(i);
+				if (c < 0x80) {
+					buffer.put(p++, (byte) c);
+				} else if (c < 0x800) {
+					buffer.put(p++, (byte) (0xC0 | (c >> 6)));
+					buffer.put(p++, (byte) (0x80 | (c & 0x3F)));
+				} else {
+					buffer.put(p++, (byte) (0xE0 | (c >> 12)));
+					buffer.put(p++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+					buffer.put(p++, (byte) (0x80 | (c & 0x3F)));
+				}
+			}
+		}
+
+		/** Writes the given value, and returns its offset. */
+		private int write(JsonValue value) {
+			final int offset = size;
+			switch (value.getType()) {
+				case NULL: putByte(NULL); break;
+				case BOOLEAN: putByte(value.asBoolean() ? TRUE : FALSE); break;
+				case NUMBER: {
+					if (value instanceof JsonNumber && !((JsonNumber) value).isInteger()) {
+						putByte(DOUBLE);
+						putLong(Double.doubleToRawLongBits(value.asDouble()));
+					} else {
+						long l = value.asLong();
+						if (l == (int) l) {
+							putByte(INT);
+							putInt((int) l);
+						} else {
+							putByte(LONG);
+							putLong(l);
+						}
+					}
+					break;
+				}
+				case STRING: putByte(STRING); putString(value.asString()); break;
+				case DATE: {
+					putByte(DATE);
+					putLong(value.asDate().getTime());
+					putString(value.asString());
+					break;
+				}
+				case ARRAY: writeArray(value); break;
+				case MAP: writeObject(value); break;
+			}
+			return offset;
+		}
+
+		private void writeArray(JsonValue value) {
+			List<JsonValue> elements = JsonValue.elementsOf(value);
+			final int n = elements.size();
+			byte layout = packedLayout(elements);
+			putByte(layout);
+			putInt(n);
+			if (layout == LONGS) {
+				for (JsonValue e : elements) putLong(e.asLong());
+			} else if (layout == DOUBLES) {
+				for (JsonValue e : elements) putLong(Double.doubleToRawLongBits(e.asDouble()));
+			} else {
+				int table = reserve(4 * n);
+				for (int i = 0; i < n; ++i) {
+					int elementOffset = write(elements.get(i));
+					buffer.putInt(table + 4 * i, elementOffset);
+				}
+			}
+		}
+
+		/** Returns the packed layout for the given elements, or <code>ARRAY</code> if there is none. */
+		private static byte packedLayout(List<JsonValue> elements) {
+			if (elements.isEmpty()) return ARRAY;
+			boolean longs = true;
+			boolean doubles = true;
+			for (JsonValue e : elements) {
+				if (e.getClass() != JsonNumber.class) return ARRAY;
+				boolean integer = ((JsonNumber) e).isInteger();
+				longs &= integer;
+				doubles &= !integer;
+				if (!longs && !doubles) return ARRAY;
+			}
+			return longs ? LONGS : DOUBLES;
+		}
+
+		private void writeObject(JsonValue value) {
+			List<Map.Entry<String,JsonValue>> entries =
+					new ArrayList<Map.Entry<String,JsonValue>>(JsonValue.entriesOf(value));
+			final int n = entries.size();
+			putByte(OBJECT);
+			putInt(n);
+			final int table = reserve(ENTRY_SIZE * n);
+			if (n > INDEXED_SIZE) {
+				int index = reserve(4 * n);
+				Integer[] order = new Integer[n];
+				final int[] hashes = new int[n];
+				for (int i = 0; i < n; ++i) {
+					order[i] = i;
+					hashes[i] = entries.get(i).getKey().hashCode();
+				}
+				java.util.Arrays.sort(order, new java.util.Comparator<Integer>() {
+					@Override
+					public int compare(Integer a, Integer b) {
+						return Integer.compare(hashes[a], hashes[b]);
+					}
+				});
+				for (int i = 0; i < n; ++i) {
+					buffer.putInt(index + 4 * i, order[i]);
+				}
+			}
+			for (int i = 0; i < n; ++i) {
+				String key = entries.get(i).getKey();
+				Integer keyOffset = keys.get(key);
+				if (keyOffset == null) {
+					keyOffset = size;
+					putString(key);
+					keys.put(key, keyOffset);
+				}
+				int valueOffset = write(entries.get(i).getValue());
+				int entry = table + ENTRY_SIZE * i;
+				buffer.putInt(entry, key.hashCode());
+				buffer.putInt(entry + 4, keyOffset);
+				buffer.putInt(entry + 8, valueOffset);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * An immutable JSON array which is read directly from a binary document in a {@link ByteBuffer},
+ * usually a direct buffer outside of the Java heap. Elements are located in constant time, arrays
+ * of numbers are stored as packed 64-bit values and read without boxing, and nested objects and
+ * arrays are returned as views of the same buffer.
+ * <p>
+ * Documents are created with {@link JsonArray#toBinary()}, and may be written to a file or
+ * memory-mapped as they are and opened again with {@link #wrap(ByteBuffer)}.
+ * {@link #asArray()} returns a mutable copy.
+ */
+public final class BinaryJsonArray extends JsonValue implements ImmutableJsonArray,
+		Iterable<JsonValue> {
+
+	private final ByteBuffer buffer;
+
+	/** The offset of this array in the buffer. */
+	private final int offset;
+
+	/** One of <code>BinaryJson.ARRAY</code>, <code>LONGS</code> or <code>DOUBLES</code>. */
+	private final byte layout;
+
+	private final int size;
+
+	/** The cached hash code, or zero if it has not been computed yet. */
+	private int hash;
+
+	BinaryJsonArray(ByteBuffer buffer, int offset) {
+		this.buffer = buffer;
+		this.offset = offset;
+		layout = buffer.get(offset);
+		size = buffer.getInt(offset + 1);
+	}
+
+	/**
+	 * Returns a view of the binary document which starts at the current position of the given
+	 * buffer. The buffer is not copied, and its contents must not be changed while the view is
+	 * in use.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the buffer does not contain a binary document of an array.
+	 */
+	public static BinaryJsonArray wrap(ByteBuffer buffer) throws IllegalArgumentException {
+		ByteBuffer b = BinaryJson.open(buffer);
+		switch (b.get(4)) {
+			case BinaryJson.ARRAY:
+			case BinaryJson.LONGS:
+			case BinaryJson.DOUBLES: return new BinaryJsonArray(b, 4);
+			default: throw new IllegalArgumentException("Binary JSON document is not an array.");
+		}
+	}
+
+	/**
+	 * Returns a read-only view of the whole binary document containing this array, from its
+	 * first to its last byte.
+	 */
+	public ByteBuffer buffer() {
+		ByteBuffer b = buffer.duplicate();
+		b.clear();
+		return b;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, size));
+		}
+	}
+
+	/** Returns the offset of the element with the given index, which must be valid. */
+	private int elementOffset(int index) {
+		return (layout == BinaryJson.ARRAY)
+				? buffer.getInt(offset + 5 + 4 * index)
+				: offset + 5 + 8 * index;
+	}
+
+	public JsonValue get(int index) {
+		checkIndex(index);
+		switch (layout) {
+			case BinaryJson.LONGS: return JsonNumber.valueOf(buffer.getLong(elementOffset(index)));
+			case BinaryJson.DOUBLES: return new JsonNumber(buffer.getDouble(elementOffset(index)));
+			default: return BinaryJson.valueAt(buffer, elementOffset(index));
+		}
+	}
+
+	@Override
+	JsonValue getElement(int index) {
+		return get(index);
+	}
+
+	@Override
+	JsonValue findElement(int index) {
+		return (index >= 0 && index < size()) ? get(index) : null;
+	}
+
+	@Override
+	public JsonValue getByPath(String path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	@Override
+	public JsonValue getByPath(JsonPath path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	@Override
+	public Iterator<JsonValue> iterator() {
+		return new ElementIterator<JsonValue>() {
+			@Override
+			protected JsonValue element(int index) {
+				return get(index);
+			}
+		};
+	}
+
+	@Override
+	public String getString(int index) throws JsonCastException {
+		checkIndex(index);
+		return (layout == BinaryJson.ARRAY)
+				? BinaryJson.asStringAt(buffer, elementOffset(index))
+				: get(index).asString();
+	}
+
+	@Override
+	public Number getNumber(int index) throws JsonCastException {
+		return get(index).asNumber();
+	}
+
+	@Override
+	public long getLong(int index) throws JsonCastException {
+		checkIndex(index);
+		switch (layout) {
+			case BinaryJson.LONGS: return buffer.getLong(elementOffset(index));
+			case BinaryJson.DOUBLES: return (long) buffer.getDouble(elementOffset(index));
+			default: return BinaryJson.longAt(buffer, elementOffset(index));
+		}
+	}
+
+	@Override
+	public double getDouble(int index) throws JsonCastException {
+		checkIndex(index);
+		switch (layout) {
+			case BinaryJson.LONGS: return buffer.getLong(elementOffset(index));
+			case BinaryJson.DOUBLES: return buffer.getDouble(elementOffset(index));
+			default: return BinaryJson.doubleAt(buffer, elementOffset(index));
+		}
+	}
+
+	@Override
+	public boolean getBoolean(int index) throws JsonCastException {
+		return get(index).asBoolean();
+	}
+
+	@Override
+	public ImmutableJsonArray getArray(int index) throws JsonCastException {
+		JsonValue value = get(index);
+		return (value instanceof ImmutableJsonArray) ? (ImmutableJsonArray) value : value.asArray();
+	}
+
+	@Override
+	public ImmutableJsonObject getObject(int index) throws JsonCastException {
+		JsonValue value = get(index);
+		return (value instanceof ImmutableJsonObject) ? (ImmutableJsonObject) value : value.asMap();
+	}
+
+	@Override
+	public Date getDate(int index) throws JsonCastException {
+		return get(index).asDate();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public void forEachLong(LongConsumer action) throws JsonCastException {
+		for (int i = 0; i < size; ++i) {
+			action.accept(getLong(i));
+		}
+	}
+
+	@Override
+	public void forEachDouble(DoubleConsumer action) throws JsonCastException {
+		for (int i = 0; i < size; ++i) {
+			action.accept(getDouble(i));
+		}
+	}
+
+	@Override
+	public long[] toLongArray() throws JsonCastException {
+		long[] array = new long[size];
+		if (layout == BinaryJson.LONGS) {
+			ByteBuffer b = buffer.duplicate().order(buffer.order());
+			b.position(offset + 5);
+			b.asLongBuffer().get(array);
+		} else {
+			for (int i = 0; i < size; ++i) {
+				array[i] = getLong(i);
+			}
+		}
+		return array;
+	}
+
+	@Override
+	public double[] toDoubleArray() throws JsonCastException {
+		double[] array = new double[size];
+		if (layout == BinaryJson.DOUBLES) {
+			ByteBuffer b = buffer.duplicate().order(buffer.order());
+			b.position(offset + 5);
+			b.asDoubleBuffer().get(array);
+		} else {
+			for (int i = 0; i < size; ++i) {
+				array[i] = getDouble(i);
+			}
+		}
+		return array;
+	}
+
+	@Override
+	public Iterable<String> stringIterable() {
+		return new Iterable<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new ElementIterator<String>() {
+					@Override
+					protected String element(int index) {
+						return getString(index);
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Boolean> booleanIterable() {
+		return new Iterable<Boolean>() {
+			@Override
+			public Iterator<Boolean> iterator() {
+				return new ElementIterator<Boolean>() {
+					@Override
+					protected Boolean element(int index) {
+						return getBoolean(index);
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Number> numberIterable() {
+		return new Iterable<Number>() {
+			@Override
+			public Iterator<Number> iterator() {
+				return new ElementIterator<Number>() {
+					@Override
+					protected Number element(int index) {
+						return getNumber(index);
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Type getType() {
+		return Type.ARRAY;
+	}
+
+	/**
+	 * Returns a new mutable {@link JsonArray} with the elements of this array, decoding all
+	 * nested objects and arrays as well. Changes to the returned array are not reflected in this
+	 * one.
+	 */
+	@Override
+	public JsonArray asArray() {
+		return BinaryJson.decode(buffer, offset).asArray();
+	}
+
+	@Override
+	public ImmutableJsonArray asImmutable() {
+		return this;
+	}
+
+	/** Returns this array, since it is immutable. */
+	@Override
+	public JsonValue copy() {
+		return this;
+	}
+
+	@Override
+	protected void appendTokenList(List<String> tokenList) {
+		asArray().appendTokenList(tokenList);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		BinaryJson.append(buffer, offset, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Two arrays are equal if they have equal elements in the same order, regardless of their
+	 * implementation. Binary arrays of different size or hash code are rejected first.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) return true;
+		if (o instanceof BinaryJsonArray) {
+			BinaryJsonArray array = (BinaryJsonArray) o;
+			if (buffer == array.buffer && offset == array.offset) return true;
+			if (size != array.size || hashCode() != array.hashCode()) return false;
+			for (int i = 0; i < size; ++i) {
+				if (!get(i).equals(array.get(i))) return false;
+			}
+			return true;
+		}
+		return arrayEquals(this, o);
+	}
+
+	/** Returns the same hash code as a {@link JsonArray} with the same elements. */
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			h = 1;
+			for (int i = 0; i < size; ++i) {
+				int elementHash;
+				if (layout == BinaryJson.ARRAY) {
+					elementHash = BinaryJson.valueAt(buffer, elementOffset(i)).hashCode();
+				} else {
+					long bits = buffer.getLong(elementOffset(i));
+					elementHash = (int) ((bits >>> 32) ^ bits);
+				}
+				h = 31 * h + elementHash;
+			}
+			hash = h;
+		}
+		return h;
+	}
+
+	/** Iterates across the elements of this array in order. */
+	private abstract class ElementIterator<T> implements Iterator<T> {
+
+		private int nextIndex = 0;
+
+		/** Returns the element with the given index. */
+		protected abstract T element(int index);
+
+		@Override
+		public boolean hasNext() {
+			return nextIndex < size;
+		}
+
+		@Override
+		public T next() {
+			if (nextIndex >= size) {
+				throw new NoSuchElementException();
+			}
+			return element(nextIndex++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("BinaryJsonArray is immutable.");
+		}
+	}
+
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable JSON object which is read directly from a binary document in a {@link ByteBuffer},
+ * usually a direct buffer outside of the Java heap. Nothing is decoded until it is asked for:
+ * looking up a key compares it against the encoded keys, numbers are read without boxing by
+ * {@link #getLong(String)} and {@link #getDouble(String)}, and nested objects and arrays are
+ * returned as views of the same buffer. Large, long-lived documents therefore cost the garbage
+ * collector almost nothing.
+ * <p>
+ * Documents are created with {@link JsonObject#toBinary()}, and may be written to a file or
+ * memory-mapped as they are and opened again with {@link #wrap(ByteBuffer)}. Entries are
+ * iterated in insertion order. {@link #asMap()} returns a mutable copy.
+ */
+public final class BinaryJsonObject extends JsonValue implements ImmutableJsonObject {
+
+	private final ByteBuffer buffer;
+
+	/** The offset of this object in the buffer. */
+	private final int offset;
+
+	private final int size;
+
+	/** The cached hash code, or zero if it has not been computed yet. */
+	private int hash;
+
+	BinaryJsonObject(ByteBuffer buffer, int offset) {
+		this.buffer = buffer;
+		this.offset = offset;
+		size = buffer.getInt(offset + 1);
+	}
+
+	/**
+	 * Returns a view of the binary document which starts at the current position of the given
+	 * buffer. The buffer is not copied, and its contents must not be changed while the view is
+	 * in use.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the buffer does not contain a binary document of an object.
+	 */
+	public static BinaryJsonObject wrap(ByteBuffer buffer) throws IllegalArgumentException {
+		ByteBuffer b = BinaryJson.open(buffer);
+		if (b.get(4) != BinaryJson.OBJECT) {
+			throw new IllegalArgumentException("Binary JSON document is not an object.");
+		}
+		return new BinaryJsonObject(b, 4);
+	}
+
+	/**
+	 * Returns a read-only view of the whole binary document containing this object, from its
+	 * first to its last byte.
+	 */
+	public ByteBuffer buffer() {
+		ByteBuffer b = buffer.duplicate();
+		b.clear();
+		return b;
+	}
+
+	/** Returns the offset of the entry with the given key, or -1 if there is none. */
+	private int entryOf(String key) {
+		final int h = key.hashCode();
+		final int entries = offset + 5;
+		if (size <= BinaryJson.INDEXED_SIZE) {
+			for (int i = 0; i < size; ++i) {
+				int entry = entries + BinaryJson.ENTRY_SIZE * i;
+				if (buffer.getInt(entry) == h
+						&& BinaryJson.stringEquals(buffer, buffer.getInt(entry + 4), key)) {
+					return entry;
+				}
+			}
+			return -1;
+		}
+
+		// binary search for the first entry with the hash in the index following the entries
+		final int index = entries + BinaryJson.ENTRY_SIZE * size;
+		int lo = 0;
+		int hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (buffer.getInt(entries + BinaryJson.ENTRY_SIZE * buffer.getInt(index + 4 * mid)) < h) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		for (; lo < size; ++lo) {
+			int entry = entries + BinaryJson.ENTRY_SIZE * buffer.getInt(index + 4 * lo);
+			if (buffer.getInt(entry) != h) break;
+			if (BinaryJson.stringEquals(buffer, buffer.getInt(entry + 4), key)) return entry;
+		}
+		return -1;
+	}
+
+	/** Returns the offset of the value with the given key. */
+	private int valueOffsetOf(String key) {
+		int entry = (key != null) ? entryOf(key) : -1;
+		if (entry < 0) {
+			throw new UnknownKeyException(String.valueOf(key));
+		}
+		return buffer.getInt(entry + 8);
+	}
+
+	/**
+	 * Gets the value associated with the key. If the key does not exist, a
+	 * <code>UnknownKeyException</code> is thrown.
+	 */
+	public JsonValue get(String key) {
+		return BinaryJson.valueAt(buffer, valueOffsetOf(key));
+	}
+
+	public JsonValue get(String key, JsonValue defaultValue) {
+		int entry = (key != null) ? entryOf(key) : -1;
+		return (entry >= 0) ? BinaryJson.valueAt(buffer, buffer.getInt(entry + 8)) : defaultValue;
+	}
+
+	public boolean containsKey(String key) {
+		return key != null && entryOf(key) >= 0;
+	}
+
+	@Override
+	JsonValue getMember(String key) {
+		return get(key);
+	}
+
+	@Override
+	JsonValue findMember(String key) {
+		return get(key, null);
+	}
+
+	@Override
+	public JsonValue getByPath(String path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	@Override
+	public JsonValue getByPath(JsonPath path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	@Override
+	public String getString(String key) throws JsonCastException {
+		return BinaryJson.asStringAt(buffer, valueOffsetOf(key));
+	}
+
+	@Override
+	public boolean getBoolean(String key) throws JsonCastException {
+		return get(key).asBoolean();
+	}
+
+	@Override
+	public ImmutableJsonObject getObject(String key) throws JsonCastException {
+		JsonValue value = get(key);
+		return (value instanceof ImmutableJsonObject) ? (ImmutableJsonObject) value : value.asMap();
+	}
+
+	@Override
+	public ImmutableJsonArray getArray(String key) throws JsonCastException {
+		JsonValue value = get(key);
+		return (value instanceof ImmutableJsonArray) ? (ImmutableJsonArray) value : value.asArray();
+	}
+
+	@Override
+	public Number getNumber(String key) throws JsonCastException {
+		return get(key).asNumber();
+	}
+
+	@Override
+	public long getLong(String key) throws JsonCastException {
+		return BinaryJson.longAt(buffer, valueOffsetOf(key));
+	}
+
+	@Override
+	public double getDouble(String key) throws JsonCastException {
+		return BinaryJson.doubleAt(buffer, valueOffsetOf(key));
+	}
+
+	@Override
+	public Date getDate(String key) throws JsonCastException {
+		return get(key).asDate();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/** Returns an unmodifiable view of the keys of this object. */
+	@Override
+	public Set<String> keySet() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new EntryIterator<String>() {
+					@Override
+					protected String element(int entry) {
+						return BinaryJson.stringAt(buffer, buffer.getInt(entry + 4));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return (o instanceof String) && containsKey((String) o);
+			}
+		};
+	}
+
+	/** Returns an unmodifiable view of the entries of this object. */
+	@Override
+	public Set<Map.Entry<String,JsonValue>> entrySet() {
+		return new AbstractSet<Map.Entry<String,JsonValue>>() {
+			@Override
+			public Iterator<Map.Entry<String,JsonValue>> iterator() {
+				return new EntryIterator<Map.Entry<String,JsonValue>>() {
+					@Override
+					protected Map.Entry<String,JsonValue> element(int entry) {
+						return new AbstractMap.SimpleImmutableEntry<String,JsonValue>(
+								BinaryJson.stringAt(buffer, buffer.getInt(entry + 4)),
+								BinaryJson.valueAt(buffer, buffer.getInt(entry + 8)));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/** Returns an unmodifiable view of the values of this object. */
+	@Override
+	public Collection<JsonValue> values() {
+		return new AbstractCollection<JsonValue>() {
+			@Override
+			public Iterator<JsonValue> iterator() {
+				return new EntryIterator<JsonValue>() {
+					@Override
+					protected JsonValue element(int entry) {
+						return BinaryJson.valueAt(buffer, buffer.getInt(entry + 8));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	@Override
+	public Type getType() {
+		return Type.MAP;
+	}
+
+	/**
+	 * Returns a new mutable {@link JsonObject} with the entries of this object, decoding all
+	 * nested objects and arrays as well. Changes to the returned object are not reflected in this
+	 * one.
+	 */
+	@Override
+	public JsonObject asMap() {
+		return BinaryJson.decode(buffer, offset).asMap();
+	}
+
+	@Override
+	public ImmutableJsonObject asImmutable() {
+		return this;
+	}
+
+	/** Returns this object, since it is immutable. */
+	@Override
+	public JsonValue copy() {
+		return this;
+	}
+
+	@Override
+	protected void appendTokenList(List<String> tokenList) {
+		asMap().appendTokenList(tokenList);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		BinaryJson.append(buffer, offset, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Two objects are equal if they have equal entries, regardless of order and of their
+	 * implementation. Binary objects of different size or hash code are rejected first.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) return true;
+		if (o instanceof BinaryJsonObject) {
+			BinaryJsonObject obj = (BinaryJsonObject) o;
+			if (buffer == obj.buffer && offset == obj.offset) return true;
+			if (size != obj.size || hashCode() != obj.hashCode()) return false;
+			for (int i = 0; i < size; ++i) {
+				int entry = offset + 5 + BinaryJson.ENTRY_SIZE * i;
+				String key = BinaryJson.stringAt(buffer, buffer.getInt(entry + 4));
+				JsonValue value = BinaryJson.valueAt(buffer, buffer.getInt(entry + 8));
+				if (!value.equals(obj.get(key, null))) return false;
+			}
+			return true;
+		}
+		return objectEquals(this, o);
+	}
+
+	/** Returns the same hash code as a {@link JsonObject} with the same entries. */
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			for (int i = 0; i < size; ++i) {
+				int entry = offset + 5 + BinaryJson.ENTRY_SIZE * i;
+				h += buffer.getInt(entry) ^ BinaryJson.valueAt(buffer, buffer.getInt(entry + 8)).hashCode();
+			}
+			hash = h;
+		}
+		return h;
+	}
+
+	/** Iterates across the entry table of this object in insertion order. */
+	private abstract class EntryIterator<T> implements Iterator<T> {
+
+		private int nextIndex = 0;
+
+		/** Returns the element for the entry at the given offset. */
+		protected abstract T element(int entry);
+
+		@Override
+		public boolean hasNext() {
+			return nextIndex < size;
+		}
+
+		@Override
+		public T next() {
+			if (nextIndex >= size) {
+				throw new NoSuchElementException();
+			}
+			return element(offset + 5 + BinaryJson.ENTRY_SIZE * nextIndex++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("BinaryJsonObject is immutable.");
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Writes a binary format to an output stream through a buffer. */
+final class BinaryOutput {
+
+	/** The size of the buffer, and the most bytes which can be ensured at once. */
+	static final int BUFFER_SIZE = 8192;
+
+	private final OutputStream out;
+
+	/** The buffered bytes. Codecs may write them directly after {@link #ensure(int)}. */
+	final byte[] buffer = new byte[BUFFER_SIZE];
+
+	/** The position of the next byte to be written in the buffer. */
+	int position;
+
+	BinaryOutput(OutputStream out) {
+		this.out = out;
+	}
+
+	/** Makes room for the given number of bytes, which may be at most {@link #BUFFER_SIZE}. */
+	void ensure(int n) throws IOException {
+		if (position + n > buffer.length) {
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+
+	void writeByte(int b) throws IOException {
+		ensure(1);
+		buffer[position++] = (byte) b;
+	}
+
+	/** Writes the lowest given number of bytes of an integer, big-endian. */
+	void writeBigEndian(long l, int bytes) throws IOException {
+		ensure(bytes);
+		for (int i = bytes - 1; i >= 0; --i) {
+			buffer[position++] = (byte) (l >>> (8 * i));
+		}
+	}
+
+	/** Writes the lowest given number of bytes of an integer, little-endian. */
+	void writeLittleEndian(long l, int bytes) throws IOException {
+		ensure(bytes);
+		for (int i = 0; i < bytes; ++i) {
+			buffer[position++] = (byte) (l >>> (8 * i));
+		}
+	}
+
+	void writeBytes(byte[] bytes) throws IOException {
+		if (bytes.length <= BUFFER_SIZE) {
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		} else {
+			out.write(buffer, 0, position);
+			position = 0;
+			out.write(bytes);
+		}
+	}
+
+	/** Returns the UTF-8 encoding of a string, whose length the formats write first. */
+	static byte[] utf8(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** Writes the buffered bytes to the stream, and flushes it. */
+	void flush() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+		out.flush();
+	}
+
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes and decodes values as CBOR (RFC 8949), see {@link JsonValue#writeCbor(OutputStream)}
+ * and {@link JsonValue#readCbor(InputStream)}.
+ * <p>
+ * Integers are written in their shortest form, real numbers as 64-bit floats, and dates as
+ * standard date/time strings (tag 0) with their original text. Decoding accepts all well-formed
+ * CBOR: half and single precision floats, indefinite-length items, epoch-based dates (tag 1),
+ * byte strings, which become base64url strings as suggested by RFC 8949, and map keys other than
+ * text strings, which are converted into strings. Other tags are ignored.
+ */
+final class CborCodec {
+
+	private static final int UNSIGNED = 0;
+	private static final int NEGATIVE = 1;
+	private static final int BYTES = 2;
+	private static final int TEXT = 3;
+	private static final int ARRAY = 4;
+	private static final int MAP = 5;
+	private static final int TAG = 6;
+	private static final int SIMPLE = 7;
+
+	/** The additional information of an indefinite-length item. */
+	private static final int INDEFINITE = 31;
+
+	/** The initial byte which ends an indefinite-length item. */
+	private static final int BREAK = 0xFF;
+
+	private static final int TAG_DATE_STRING = 0;
+	private static final int TAG_DATE_EPOCH = 1;
+
+	private static final int MAX_INITIAL_CAPACITY = JsonBinaryCodec.MAX_INITIAL_CAPACITY;
+
+	private CborCodec() {}
+
+	static void write(JsonValue value, OutputStream out) throws IOException {
+		BinaryOutput output = new BinaryOutput(out);
+		write(value, output);
+		output.flush();
+	}
+
+	static JsonValue read(InputStream in) throws IOException, JsonParseException {
+		BinaryInput input = new BinaryInput(in);
+		JsonValue value = read(input, input.readByte());
+		if (value == null) {
+			throw new JsonParseException("Unexpected break.");
+		}
+		input.finish();
+		return value;
+	}
+
+	/** Writes the initial byte of an item and its argument in the shortest form. */
+	private static void writeHead(BinaryOutput out, int majorType, long argument) throws IOException {
+		final int type = majorType << 5;
+		if (argument >= 0L && argument < 24L) {
+			out.writeByte(type | (int) argument);
+		} else if (argument >= 0L && argument <= 0xFFL) {
+			out.writeByte(type | 24);
+			out.writeByte((int) argument);
+		} else if (argument >= 0L && argument <= 0xFFFFL) {
+			out.writeByte(type | 25);
+			out.writeBigEndian(argument, 2);
+		} else if (argument >= 0L && argument <= 0xFFFFFFFFL) {
+			out.writeByte(type | 26);
+			out.writeBigEndian(argument, 4);
+		} else { // also unsigned arguments of 2^63 and above
+			out.writeByte(type | 27);
+			out.writeBigEndian(argument, 8);
+		}
+	}
+
+	private static void writeText(BinaryOutput out, String s) throws IOException {
+		byte[] bytes = BinaryOutput.utf8(s);
+		writeHead(out, TEXT, bytes.length);
+		out.writeBytes(bytes);
+	}
+
+	private static void write(JsonValue value, BinaryOutput out) throws IOException {
+		switch (value.getType()) {
+			case NULL: out.writeByte(0xF6); break;
+			case BOOLEAN: out.writeByte(value.asBoolean() ? 0xF5 : 0xF4); break;
+			case NUMBER: {
+				if (value instanceof JsonNumber && !((JsonNumber) value).isInteger()) {
+					out.writeByte(0xFB);
+					out.writeBigEndian(Double.doubleToRawLongBits(value.asDouble()), 8);
+				} else {
+					long l = value.asLong();
+					if (l >= 0L) {
+						writeHead(out, UNSIGNED, l);
+					} else {
+						writeHead(out, NEGATIVE, -1L - l);
+					}
+				}
+				break;
+			}
+			case STRING: writeText(out, value.asString()); break;
+			case DATE: {
+				writeHead(out, TAG, TAG_DATE_STRING);
+				writeText(out, value.asString());
+				break;
+			}
+			case ARRAY: {
+				List<JsonValue> elements = JsonValue.elementsOf(value);
+				writeHead(out, ARRAY, elements.size());
+				for (JsonValue element : elements) {
+					write(element, out);
+				}
+				break;
+			}
+			case MAP: {
+				Collection<Map.Entry<String,JsonValue>> entries = JsonValue.entriesOf(value);
+				writeHead(out, MAP, entries.size());
+				for (Map.Entry<String,JsonValue> e : entries) {
+					writeText(out, e.getKey());
+					write(e.getValue(), out);
+				}
+				break;
+			}
+		}
+	}
+
+	/** Reads the argument of an item with the given initial byte. */
+	private static long readArgument(BinaryInput in, int initialByte) throws IOException {
+		final int info = initialByte & 0x1F;
+		switch (info) {
+			case 24: return in.readByte();
+			case 25: return in.readBigEndian(2);
+			case 26: return in.readBigEndian(4);
+			case 27: return in.readBigEndian(8);
+			default: {
+				if (info < 24) return info;
+				throw new JsonParseException("Malformed CBOR item: " + initialByte);
+			}
+		}
+	}
+
+	/** Reads the length of a definite-length string or container. */
+	private static int readLength(BinaryInput in, int initialByte) throws IOException {
+		long length = readArgument(in, initialByte);
+		if (length < 0L || length > Integer.MAX_VALUE) {
+			throw new JsonParseException("Unsupported CBOR length: " + Long.toUnsignedString(length));
+		}
+		return (int) length;
+	}
+
+	/** Reads the bytes of a byte or text string, which may be of indefinite length. */
+	private static byte[] readStringBytes(BinaryInput in, int initialByte) throws IOException {
+		if ((initialByte & 0x1F) != INDEFINITE) {
+			return in.readBytes(readLength(in, initialByte));
+		}
+		ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+		for (int b = in.readByte(); b != BREAK; b = in.readByte()) {
+			if ((b >>> 5) != (initialByte >>> 5) || (b & 0x1F) == INDEFINITE) {
+				throw new JsonParseException("Malformed CBOR string chunk.");
+			}
+			byte[] chunk = in.readBytes(readLength(in, b));
+			chunks.write(chunk, 0, chunk.length);
+		}
+		return chunks.toByteArray();
+	}
+
+	private static String readText(BinaryInput in, int initialByte) throws IOException {
+		if ((initialByte & 0x1F) != INDEFINITE) {
+			return in.readUtf8(readLength(in, initialByte));
+		}
+		return new String(readStringBytes(in, initialByte), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads the item with the given initial byte, or returns <code>null</code> if it is the break
+	 * which ends an indefinite-length container.
+	 */
+	private static JsonValue read(BinaryInput in, int initialByte) throws IOException {
+		switch (initialByte >>> 5) {
+			case UNSIGNED: {
+				long l = readArgument(in, initialByte);
+				return (l >= 0L) ? JsonNumber.valueOf(l) : new JsonNumber(unsignedToDouble(l));
+			}
+			case NEGATIVE: {
+				long l = readArgument(in, initialByte);
+				return (l >= 0L)
+						? JsonNumber.valueOf(-1L - l) : new JsonNumber(-1.0 - unsignedToDouble(l));
+			}
+			case BYTES: {
+				byte[] bytes = readStringBytes(in, initialByte);
+				return JsonString.valueOf(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes));
+			}
+			case TEXT: return JsonString.valueOf(readText(in, initialByte));
+			case ARRAY: {
+				final boolean indefinite = (initialByte & 0x1F) == INDEFINITE;
+				final int n = indefinite ? Integer.MAX_VALUE : readLength(in, initialByte);
+				JsonArray array = new JsonArray(indefinite ? 0 : Math.min(n, MAX_INITIAL_CAPACITY));
+				List<JsonObject> shapes = new ArrayList<JsonObject>();
+				for (int i = 0; i < n; ++i) {
+					JsonValue value = read(in, in.readByte());
+					if (value == null) {
+						if (indefinite) break;
+						throw new JsonParseException("Unexpected break.");
+					}
+					if (value.getType() == JsonValue.Type.MAP) {
+						JsonObject.shareShape((JsonObject) value, shapes);
+					}
+					array.add(value);
+				}
+				return array;
+			}
+			case MAP: {
+				final boolean indefinite = (initialByte & 0x1F) == INDEFINITE;
+				final int n = indefinite ? Integer.MAX_VALUE : readLength(in, initialByte);
+				JsonObject obj = new JsonObject(indefinite ? 0 : Math.min(n, MAX_INITIAL_CAPACITY));
+				for (int i = 0; i < n; ++i) {
+					int b = in.readByte();
+					String key;
+					if ((b >>> 5) == TEXT) {
+						key = readText(in, b);
+					} else {
+						JsonValue k = read(in, b);
+						if (k == null) {
+							if (indefinite) break;
+							throw new JsonParseException("Unexpected break.");
+						}
+						if (k.getType() == JsonValue.Type.MAP || k.getType() == JsonValue.Type.ARRAY) {
+							throw new JsonParseException("Unsupported CBOR map key: " + k);
+						}
+						key = k.asString();
+					}
+					JsonValue value = read(in, in.readByte());
+					if (value == null) {
+						throw new JsonParseException("Unexpected break.");
+					}
+					obj.put(key, value);
+				}
+				return obj;
+			}
+			case TAG: {
+				long tag = readArgument(in, initialByte);
+				JsonValue content = read(in, in.readByte());
+				if (content == null) {
+					throw new JsonParseException("Unexpected break.");
+				}
+				if (tag == TAG_DATE_STRING && content.getType() == JsonValue.Type.STRING) {
+					try {
+						return new JsonDate(content.asString());
+					} catch (ParseException e) {
+						return content; // keep dates in other RFC 3339 forms as strings
+					}
+				} else if (tag == TAG_DATE_EPOCH && content.getType() == JsonValue.Type.NUMBER) {
+					return new JsonDate(new Date(Math.round(content.asDouble() * 1000.0)));
+				}
+				return content;
+			}
+			default: {
+				switch (initialByte) {
+					case 0xF4: return JsonValue.getBoolean(false);
+					case 0xF5: return JsonValue.getBoolean(true);
+					case 0xF6:
+					case 0xF7: return JsonValue.getNull(); // null and undefined
+					case 0xF9: return new JsonNumber(halfToDouble((int) in.readBigEndian(2)));
+					case 0xFA: return new JsonNumber(Float.intBitsToFloat((int) in.readBigEndian(4)));
+					case 0xFB: return new JsonNumber(Double.longBitsToDouble(in.readBigEndian(8)));
+					case BREAK: return null;
+					default: throw new JsonParseException("Unsupported CBOR simple value: " + initialByte);
+				}
+			}
+		}
+	}
+
+	/** Returns an unsigned 64-bit integer as a double. */
+	private static double unsignedToDouble(long l) {
+		return ((double) (l >>> 1)) * 2.0 + (l & 1L);
+	}
+
+	/** Converts the bits of a half precision float, as in Appendix D of RFC 8949. */
+	private static double halfToDouble(int half) {
+		int exponent = (half >> 10) & 0x1F;
+		int mantissa = half & 0x3FF;
+		double value;
+		if (exponent == 0) {
+			value = mantissa * Math.pow(2.0, -24.0);
+		} else if (exponent != 31) {
+			value = (mantissa + 1024) * Math.pow(2.0, exponent - 25);
+		} else {
+			value = (mantissa == 0) ? Double.POSITIVE_INFINITY : Double.NaN;
+		}
+		return ((half & 0x8000) != 0) ? -value : value;
+	}
+
+}
@@ -0,0 +1,699 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * A thread-safe JSON array. The elements are held in a {@link PersistentJsonArray} which every
+ * modification replaces while holding a lock, such that reads never lock and every read,
+ * including iteration and serialization, sees a consistent snapshot of the array. Inserting or
+ * removing anywhere but at the end takes O(n) time.
+ * <p>
+ * Appending is cheap, since it only copies the last (at most 32 element) block of the array.
+ * Values which several threads append at once are queued without locking, and whichever of the
+ * threads gets the lock first appends all of them in one new version, so that the others find
+ * their values appended when they get the lock in turn.
+ * <p>
+ * Nested objects and arrays are stored as persistent values, and so cannot be modified in place.
+ * As with <code>CopyOnWriteArrayList</code>, iterators traverse a snapshot and do not support
+ * modification.
+ */
+public final class ConcurrentJsonArray extends JsonValue implements List<JsonValue>, ImmutableJsonArray {
+
+	private static final AtomicReferenceFieldUpdater<ConcurrentJsonArray,HashDependents>
+			HASH_DEPENDENTS = AtomicReferenceFieldUpdater.newUpdater(ConcurrentJsonArray.class,
+					HashDependents.class, "hashDependents");
+
+	/** The current version of this array, which is only replaced while holding the lock. */
+	private volatile PersistentJsonArray root;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** The values waiting to be appended, most recent first. */
+	private final AtomicReference<Append> appends = new AtomicReference<Append>();
+
+	/** The containers whose cached hash codes cover this array, see {@link HashDependents}. */
+	private volatile HashDependents hashDependents;
+
+	/** Creates an empty concurrent JSON array. */
+	public ConcurrentJsonArray() {
+		this(PersistentJsonArray.empty());
+	}
+
+	/** Creates a concurrent JSON array with the elements of the given collection. */
+	public ConcurrentJsonArray(Collection<? extends JsonValue> values) {
+		this(PersistentJsonArray.copyOf(values));
+	}
+
+	private ConcurrentJsonArray(PersistentJsonArray array) {
+		root = array;
+	}
+
+	/** A value waiting to be appended, see {@link ConcurrentJsonArray#add(JsonValue)}. */
+	private static final class Append {
+
+		final JsonValue value;
+
+		/** The value queued before this one. */
+		Append next;
+
+		Append(JsonValue value) {
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Replaces the current version of this array while holding the lock, invalidating any cached
+	 * hash code covering this array.
+	 */
+	private void setRoot(PersistentJsonArray next) {
+		if (next != root) {
+			root = next;
+			invalidateHash();
+		}
+	}
+
+	/**
+	 * Replaces the current version of this array if it is still the given one, invalidating any
+	 * cached hash code covering this array.
+	 *
+	 * @return <code>true</code> if the version was still current.
+	 */
+	boolean swap(PersistentJsonArray current, PersistentJsonArray next) {
+		lock.lock();
+		try {
+			if (root != current) return false;
+			setRoot(next);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Returns an immutable snapshot of the current elements of this array. */
+	public PersistentJsonArray snapshot() {
+		return root;
+	}
+
+	/** Converts a value as {@link JsonArray#add(JsonValue)} does, and makes it persistent. */
+	private static JsonValue persistent(Object value) {
+		return objectToJsonValue(value).freeze();
+	}
+
+	/** Returns an unmodifiable list view of the given version of this array. */
+	private static List<JsonValue> listOf(final PersistentJsonArray array) {
+		return new AbstractList<JsonValue>() {
+			@Override
+			public JsonValue get(int index) {
+				return array.get(index);
+			}
+
+			@Override
+			public int size() {
+				return array.size();
+			}
+		};
+	}
+
+	private static String outOfBoundsMessage(int index, int size) {
+		return "Index: " + index + ", Size: " + size;
+	}
+
+	@Override
+	protected void appendTokenList(List<String> tokenList) {
+		snapshot().appendTokenList(tokenList);
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+
+	@Override
+	public Type getType() {
+		return Type.ARRAY;
+	}
+
+	/**
+	 * Returns a new mutable {@link JsonArray} with the current elements of this array. Changes to
+	 * the returned array are not reflected in this one.
+	 */
+	@Override
+	public JsonArray asArray() {
+		return snapshot().asArray();
+	}
+
+	/** Returns an immutable snapshot of this array. */
+	@Override
+	public ImmutableJsonArray asImmutable() {
+		return snapshot();
+	}
+
+	@Override
+	JsonValue freeze() {
+		return snapshot();
+	}
+
+	/** Returns a new concurrent array with the current elements of this array, in O(1) time. */
+	@Override
+	public JsonValue copy() {
+		return new ConcurrentJsonArray(snapshot());
+	}
+
+	/**
+	 * Appends a value. The value is queued, and then appended together with the values queued by
+	 * other threads in the meantime, unless one of these threads has appended it already.
+	 */
+	@Override
+	public boolean add(JsonValue e) {
+		Append append = new Append(persistent(e));
+		do {
+			append.next = appends.get();
+		} while (!appends.compareAndSet(append.next, append));
+		lock.lock();
+		try {
+			appendQueued();
+		} finally {
+			lock.unlock();
+		}
+		return true;
+	}
+
+	/** Appends the queued values in the order in which they were queued, while holding the lock. */
+	private void appendQueued() {
+		Append append = appends.getAndSet(null);
+		if (append == null) return; // appended by another thread already
+		int n = 0;
+		for (Append a = append; a != null; a = a.next) {
+			++n;
+		}
+		JsonValue[] values = new JsonValue[n];
+		for (Append a = append; a != null; a = a.next) {
+			values[--n] = a.value;
+		}
+		setRoot(root.plusAll(values, values.length));
+	}
+
+	public boolean add(Boolean b) {
+		return add(JsonValue.getBoolean(b));
+	}
+
+	public boolean add(Date date) {
+		return add(new JsonDate(date));
+	}
+
+	public boolean add(String string) {
+		return add(JsonString.valueOf(string));
+	}
+
+	public boolean add(Number n) {
+		return add(JsonNumber.valueOf(n));
+	}
+
+	@Override
+	public void add(int index, JsonValue element) {
+		JsonValue v = persistent(element);
+		lock.lock();
+		try {
+			PersistentJsonArray current = root;
+			if (index < 0 || index > current.size()) {
+				throw new IndexOutOfBoundsException(outOfBoundsMessage(index, current.size()));
+			}
+			if (index == current.size()) {
+				setRoot(current.plus(v));
+			} else {
+				List<JsonValue> values = new ArrayList<JsonValue>(listOf(current));
+				values.add(index, v);
+				setRoot(PersistentJsonArray.copyOf(values));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Atomically appends all elements of the given collection. */
+	@Override
+	public boolean addAll(Collection<? extends JsonValue> c) {
+		JsonValue[] values = new JsonValue[c.size()];
+		int n = 0;
+		for (JsonValue e : c) {
+			values[n++] = persistent(e);
+		}
+		lock.lock();
+		try {
+			setRoot(root.plusAll(values, n));
+		} finally {
+			lock.unlock();
+		}
+		return n > 0;
+	}
+
+	/** Atomically inserts all elements of the given collection at the given index. */
+	@Override
+	public boolean addAll(int index, Collection<? extends JsonValue> c) {
+		List<JsonValue> values = new ArrayList<JsonValue>(c.size());
+		for (JsonValue e : c) {
+			values.add(persistent(e));
+		}
+		lock.lock();
+		try {
+			PersistentJsonArray current = root;
+			if (index < 0 || index > current.size()) {
+				throw new IndexOutOfBoundsException(outOfBoundsMessage(index, current.size()));
+			}
+			List<JsonValue> newValues = new ArrayList<JsonValue>(listOf(current));
+			newValues.addAll(index, values);
+			setRoot(PersistentJsonArray.copyOf(newValues));
+		} finally {
+			lock.unlock();
+		}
+		return !values.isEmpty();
+	}
+
+	/** Atomically appends all given values, which are converted as by {@link JsonArray#addAll(Object...)}. */
+	public boolean addAll(Object... values) {
+		List<JsonValue> list = new ArrayList<JsonValue>(values.length);
+		for (Object o : values) {
+			list.add(persistent(o));
+		}
+		addAll(list);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		lock.lock();
+		try {
+			setRoot(PersistentJsonArray.empty());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		List<JsonValue> values = listOf(snapshot());
+		for (Object o : c) {
+			if (indexOf(values, o) < 0) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public JsonValue get(int index) {
+		return snapshot().get(index);
+	}
+
+	@Override
+	JsonValue getElement(int index) {
+		return get(index);
+	}
+
+	@Override
+	JsonValue findElement(int index) {
+		return snapshot().findElement(index);
+	}
+
+	@Override
+	public JsonValue getByPath(String path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	@Override
+	public JsonValue getByPath(JsonPath path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	/**
+	 * Atomically sets a value according to its path. An empty path appends the elements of the
+	 * given array to this one.
+	 */
+	@Override
+	public boolean setByPath(String path, Object o) throws IllegalArgumentException, NumberFormatException {
+		return super.setByPath(path, o);
+	}
+
+	/** Atomically sets a value according to a compiled path. */
+	@Override
+	public boolean setByPath(JsonPath path, Object o) throws IllegalArgumentException, NumberFormatException {
+		if (path == null) {
+			return false;
+		}
+		JsonValue newValue = objectToJsonValue(o);
+		if (path.size() == 0) {
+			if (newValue.getType() == Type.ARRAY) {
+				addAll(newValue.asArray());
+				return true;
+			}
+		}
+		newValue = newValue.freeze();
+		lock.lock();
+		try {
+			setRoot((PersistentJsonArray) withPath(root, path, newValue));
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String getString(int index) throws JsonCastException {
+		return get(index).asString();
+	}
+
+	@Override
+	public Date getDate(int index) throws JsonCastException {
+		return get(index).asDate();
+	}
+
+	@Override
+	public Number getNumber(int index) throws JsonCastException {
+		return get(index).asNumber();
+	}
+
+	@Override
+	public long getLong(int index) throws JsonCastException {
+		return get(index).asLong();
+	}
+
+	@Override
+	public double getDouble(int index) throws JsonCastException {
+		return get(index).asDouble();
+	}
+
+	@Override
+	public boolean getBoolean(int index) throws JsonCastException {
+		return get(index).asBoolean();
+	}
+
+	@Override
+	public ImmutableJsonArray getArray(int index) throws JsonCastException {
+		return snapshot().getArray(index);
+	}
+
+	@Override
+	public ImmutableJsonObject getObject(int index) throws JsonCastException {
+		return snapshot().getObject(index);
+	}
+
+	@Override
+	public void forEachLong(LongConsumer action) throws JsonCastException {
+		snapshot().forEachLong(action);
+	}
+
+	@Override
+	public void forEachDouble(DoubleConsumer action) throws JsonCastException {
+		snapshot().forEachDouble(action);
+	}
+
+	@Override
+	public long[] toLongArray() throws JsonCastException {
+		return snapshot().toLongArray();
+	}
+
+	@Override
+	public double[] toDoubleArray() throws JsonCastException {
+		return snapshot().toDoubleArray();
+	}
+
+	@Override
+	public Iterable<String> stringIterable() {
+		return snapshot().stringIterable();
+	}
+
+	@Override
+	public Iterable<Boolean> booleanIterable() {
+		return snapshot().booleanIterable();
+	}
+
+	@Override
+	public Iterable<Number> numberIterable() {
+		return snapshot().numberIterable();
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		return indexOf(listOf(snapshot()), o);
+	}
+
+	/** Returns the index of the first element of the given version equal to the given object. */
+	private static int indexOf(List<JsonValue> values, Object o) {
+		if (o instanceof JsonValue) {
+			JsonValue v = ((JsonValue) o).freeze();
+			for (int i = 0; i < values.size(); ++i) {
+				if (values.get(i).equals(v)) return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int lastIndexOf(Object o) {
+		if (o instanceof JsonValue) {
+			JsonValue v = ((JsonValue) o).freeze();
+			PersistentJsonArray current = snapshot();
+			for (int i = current.size() - 1; i >= 0; --i) {
+				if (current.get(i).equals(v)) return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return snapshot().isEmpty();
+	}
+
+	/** Returns an iterator over a snapshot of this array. It does not support removal. */
+	@Override
+	public Iterator<JsonValue> iterator() {
+		return snapshot().iterator();
+	}
+
+	/** Returns a list iterator over a snapshot of this array. It does not support modification. */
+	@Override
+	public ListIterator<JsonValue> listIterator() {
+		return listOf(snapshot()).listIterator();
+	}
+
+	/** Returns a list iterator over a snapshot of this array. It does not support modification. */
+	@Override
+	public ListIterator<JsonValue> listIterator(int index) {
+		return listOf(snapshot()).listIterator(index);
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		lock.lock();
+		try {
+			int i = indexOf(listOf(root), o);
+			if (i < 0) return false;
+			setRoot(root.without(i));
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public JsonValue remove(int index) {
+		lock.lock();
+		try {
+			JsonValue oldValue = root.get(index);
+			setRoot(root.without(index));
+			return oldValue;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean removeAll(final Collection<?> c) {
+		return removeIf(new Predicate<JsonValue>() {
+			@Override
+			public boolean test(JsonValue value) {
+				return c.contains(value);
+			}
+		});
+	}
+
+	@Override
+	public boolean retainAll(final Collection<?> c) {
+		return removeIf(new Predicate<JsonValue>() {
+			@Override
+			public boolean test(JsonValue value) {
+				return !c.contains(value);
+			}
+		});
+	}
+
+	/**
+	 * Atomically removes all elements matching the given predicate. The predicate is called while
+	 * holding the lock, and must not modify this array.
+	 */
+	@Override
+	public boolean removeIf(Predicate<? super JsonValue> filter) {
+		lock.lock();
+		try {
+			PersistentJsonArray current = root;
+			List<JsonValue> values = new ArrayList<JsonValue>(current.size());
+			for (JsonValue value : current) {
+				if (!filter.test(value)) values.add(value);
+			}
+			if (values.size() == current.size()) return false;
+			setRoot(PersistentJsonArray.copyOf(values));
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Atomically replaces every element with the result of the given operator. The operator is
+	 * called while holding the lock, and must not modify this array.
+	 */
+	@Override
+	public void replaceAll(UnaryOperator<JsonValue> operator) {
+		lock.lock();
+		try {
+			List<JsonValue> values = new ArrayList<JsonValue>(root.size());
+			for (JsonValue value : root) {
+				values.add(operator.apply(value));
+			}
+			setRoot(PersistentJsonArray.copyOf(values));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Atomically sorts this array with the given comparator. */
+	@Override
+	public void sort(Comparator<? super JsonValue> c) {
+		lock.lock();
+		try {
+			List<JsonValue> values = new ArrayList<JsonValue>(listOf(root));
+			values.sort(c);
+			setRoot(PersistentJsonArray.copyOf(values));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public JsonValue set(int index, JsonValue element) {
+		JsonValue v = persistent(element);
+		lock.lock();
+		try {
+			JsonValue oldValue = root.get(index); // also checks the index
+			setRoot(root.with(index, v));
+			return oldValue;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public JsonValue set(int index, String string) {
+		return set(index, JsonString.valueOf(string));
+	}
+
+	public JsonValue set(int index, Number number) {
+		return set(index, JsonNumber.valueOf(number));
+	}
+
+	public JsonValue set(int index, Boolean bool) {
+		return set(index, JsonValue.getBoolean(bool));
+	}
+
+	@Override
+	public int size() {
+		return snapshot().size();
+	}
+
+	/** Returns an unmodifiable view of a range of a snapshot of this array. */
+	@Override
+	public List<JsonValue> subList(int fromIndex, int toIndex) {
+		return listOf(snapshot()).subList(fromIndex, toIndex);
+	}
+
+	@Override
+	public Object[] toArray() {
+		return listOf(snapshot()).toArray();
+	}
+
+	@Override
+	public <T> T[] toArray(T[] a) {
+		return listOf(snapshot()).toArray(a);
+	}
+
+	/**
+	 * Compares the current snapshot of this array to any list, or to an array of any
+	 * implementation, by their elements as <code>List.equals</code> does.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		return arrayEquals(this, o);
+	}
+
+	@Override
+	public int hashCode() {
+		return snapshot().hashCode();
+	}
+
+	@Override
+	void addHashDependent(JsonValue container) {
+		HashDependents.register(HASH_DEPENDENTS, this, container);
+	}
+
+	/** Invalidates the cached hash codes of the containers this array is in. */
+	@Override
+	void invalidateHash() {
+		HashDependents.invalidate(HASH_DEPENDENTS, this);
+	}
+
+}
@@ -0,0 +1,907 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A thread-safe JSON object. The entries are split by the hashes of their keys into 16 stripes,
+ * each of which is held in a {@link PersistentJsonObject} and replaced under its own lock, such
+ * that writers of keys in different stripes do not contend. Reads of single keys never lock, and
+ * every read of the whole object, including iteration and serialization, sees a consistent
+ * snapshot of all stripes. Such a read only locks the stripes if writers keep replacing them
+ * while it reads them.
+ * <p>
+ * Nested objects and arrays are stored as persistent values, and so cannot be modified in place.
+ * Use {@link #setByPath(String, Object)} to atomically replace a nested value.
+ * <p>
+ * Unlike a {@link JsonObject}, this object does not keep its entries in insertion order. As with
+ * {@link PersistentJsonObject}, they are iterated and serialized in the order of their keys'
+ * hashes.
+ */
+public final class ConcurrentJsonObject extends JsonValue
+		implements ConcurrentMap<String,JsonValue>, ImmutableJsonObject {
+
+	private static final AtomicReferenceFieldUpdater<ConcurrentJsonObject,HashDependents>
+			HASH_DEPENDENTS = AtomicReferenceFieldUpdater.newUpdater(ConcurrentJsonObject.class,
+					HashDependents.class, "hashDependents");
+
+	/** The number of stripes, a power of two of at most 32 (see PersistentJsonObject#split). */
+	private static final int STRIPES = 16;
+
+	/** How often the stripes are read without locking before a snapshot locks them. */
+	private static final int OPTIMISTIC_READS = 3;
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+	/** The containers whose cached hash codes cover this object, see {@link HashDependents}. */
+	private volatile HashDependents hashDependents;
+
+	/** Creates an empty concurrent JSON object. */
+	public ConcurrentJsonObject() {
+		this(PersistentJsonObject.empty());
+	}
+
+	/** Creates a concurrent JSON object with the entries of the given map. */
+	public ConcurrentJsonObject(Map<String, ? extends JsonValue> map) {
+		this(PersistentJsonObject.copyOf(map));
+	}
+
+	private ConcurrentJsonObject(PersistentJsonObject obj) {
+		this(obj.split(STRIPES));
+	}
+
+	private ConcurrentJsonObject(PersistentJsonObject[] parts) {
+		for (int i = 0; i < STRIPES; ++i) {
+			stripes[i] = new Stripe(parts[i]);
+		}
+	}
+
+	/**
+	 * The entries whose keys fall into one stripe. They are only replaced while holding the lock
+	 * of the stripe, but may be read at any time.
+	 */
+	private static final class Stripe extends ReentrantLock {
+
+		private static final long serialVersionUID = 1L;
+
+		volatile PersistentJsonObject entries;
+
+		/**
+		 * Incremented before and after every replacement of the entries, and so odd while they
+		 * are being replaced, see {@link ConcurrentJsonObject#parts()}.
+		 */
+		volatile int version;
+
+		Stripe(PersistentJsonObject entries) {
+			this.entries = entries;
+		}
+	}
+
+	private Stripe stripeFor(String key) {
+		return stripes[PersistentJsonObject.partOf(key, STRIPES)];
+	}
+
+	/**
+	 * Replaces the entries of a stripe whose lock is held, invalidating any cached hash code
+	 * covering this object.
+	 */
+	private void set(Stripe stripe, PersistentJsonObject next) {
+		if (next != stripe.entries) {
+			++stripe.version;
+			stripe.entries = next;
+			++stripe.version;
+			invalidateHash();
+		}
+	}
+
+	/**
+	 * Locks all stripes for a write to several of them, and marks them as being replaced until
+	 * {@link #unlockAll()}, such that no snapshot sees only some of the replacements.
+	 */
+	private void lockAll() {
+		for (Stripe stripe : stripes) {
+			stripe.lock();
+		}
+		for (Stripe stripe : stripes) {
+			++stripe.version;
+		}
+	}
+
+	private void unlockAll() {
+		for (Stripe stripe : stripes) {
+			++stripe.version;
+		}
+		for (int i = STRIPES - 1; i >= 0; --i) {
+			stripes[i].unlock();
+		}
+	}
+
+	/** Returns the entries of all stripes as they were at one moment. */
+	private PersistentJsonObject[] parts() {
+		PersistentJsonObject[] parts = new PersistentJsonObject[STRIPES];
+		int[] versions = new int[STRIPES];
+		for (int attempt = 0; attempt < OPTIMISTIC_READS; ++attempt) {
+			if (readParts(parts, versions)) return parts;
+		}
+		// the writers keep interfering, so keep them out for a moment
+		for (Stripe stripe : stripes) {
+			stripe.lock();
+		}
+		try {
+			for (int i = 0; i < STRIPES; ++i) {
+				parts[i] = stripes[i].entries;
+			}
+		} finally {
+			for (int i = STRIPES - 1; i >= 0; --i) {
+				stripes[i].unlock();
+			}
+		}
+		return parts;
+	}
+
+	/**
+	 * Reads the entries of all stripes without locking. The stripes are read twice, and if none
+	 * of them was being replaced during the first pass or changed until the second, they all held
+	 * the entries read at the moment between the two passes.
+	 *
+	 * @return <code>false</code> if a stripe was being replaced or changed.
+	 */
+	private boolean readParts(PersistentJsonObject[] parts, int[] versions) {
+		for (int i = 0; i < STRIPES; ++i) {
+			versions[i] = stripes[i].version;
+			if ((versions[i] & 1) != 0) return false;
+			parts[i] = stripes[i].entries;
+		}
+		for (int i = 0; i < STRIPES; ++i) {
+			if (stripes[i].version != versions[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces the current version of this object if it is still the given one, invalidating any
+	 * cached hash code covering this object.
+	 *
+	 * @return <code>true</code> if the version was still current.
+	 */
+	boolean swap(PersistentJsonObject current, PersistentJsonObject next) {
+		PersistentJsonObject[] parts = next.split(STRIPES);
+		lockAll();
+		try {
+			PersistentJsonObject[] currentParts = new PersistentJsonObject[STRIPES];
+			for (int i = 0; i < STRIPES; ++i) {
+				currentParts[i] = stripes[i].entries;
+			}
+			if (!PersistentJsonObject.join(currentParts).sharesRoot(current)) return false;
+			for (int i = 0; i < STRIPES; ++i) {
+				if (!parts[i].sharesRoot(currentParts[i])) set(stripes[i], parts[i]);
+			}
+			return true;
+		} finally {
+			unlockAll();
+		}
+	}
+
+	/** Returns an immutable snapshot of the current entries of this object, in O(1) time. */
+	public PersistentJsonObject snapshot() {
+		return PersistentJsonObject.join(parts());
+	}
+
+	/** Converts a value as {@link JsonObject#put(String, JsonValue)} does, and makes it persistent. */
+	private static JsonValue persistent(JsonValue value) {
+		return (value == null) ? JSON_NULL : value.freeze();
+	}
+
+	@Override
+	protected void appendTokenList(List<String> tokenList) {
+		snapshot().appendTokenList(tokenList);
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+
+	@Override
+	public Type getType() {
+		return Type.MAP;
+	}
+
+	/**
+	 * Returns a new mutable {@link JsonObject} with the current entries of this object. Changes to
+	 * the returned object are not reflected in this one.
+	 */
+	@Override
+	public JsonObject asMap() {
+		return snapshot().asMap();
+	}
+
+	/** Returns an immutable snapshot of this object. */
+	@Override
+	public ImmutableJsonObject asImmutable() {
+		return snapshot();
+	}
+
+	@Override
+	JsonValue freeze() {
+		return snapshot();
+	}
+
+	/** Returns a new concurrent object with the current entries of this object, in O(1) time. */
+	@Override
+	public JsonValue copy() {
+		return new ConcurrentJsonObject(parts());
+	}
+
+	@Override
+	public void clear() {
+		lockAll();
+		try {
+			for (Stripe stripe : stripes) {
+				set(stripe, PersistentJsonObject.empty());
+			}
+		} finally {
+			unlockAll();
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return (key instanceof String) && stripeFor((String) key).entries.containsKey((String) key);
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		if (value instanceof JsonValue) {
+			JsonValue v = persistent((JsonValue) value);
+			for (Stripe stripe : stripes) {
+				for (JsonValue e : stripe.entries.values()) {
+					if (e.equals(v)) return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the value associated with the key. If the key does not exist, a
+	 * <code>UnknownKeyException</code> is thrown.
+	 */
+	@Override
+	public JsonValue get(Object key) {
+		JsonValue value = get(key, null);
+		if (value != null) {
+			return value;
+		} else {
+			throw new UnknownKeyException(String.valueOf(key));
+		}
+	}
+
+	public JsonValue get(Object key, JsonValue defaultValue) {
+		if (!(key instanceof String)) return defaultValue;
+		return stripeFor((String) key).entries.get((String) key, defaultValue);
+	}
+
+	@Override
+	public JsonValue getOrDefault(Object key, JsonValue defaultValue) {
+		return get(key, defaultValue);
+	}
+
+	@Override
+	JsonValue getMember(String key) {
+		return get(key);
+	}
+
+	@Override
+	JsonValue findMember(String key) {
+		return get(key, null);
+	}
+
+	@Override
+	public JsonValue getByPath(String path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	@Override
+	public JsonValue getByPath(JsonPath path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	/**
+	 * Atomically sets a value according to its path. An empty path merges the entries of the
+	 * given object into this one.
+	 */
+	@Override
+	public boolean setByPath(String path, Object o) throws IllegalArgumentException, NumberFormatException {
+		return super.setByPath(path, o);
+	}
+
+	/** Atomically sets a value according to a compiled path. */
+	@Override
+	public boolean setByPath(JsonPath path, Object o) throws IllegalArgumentException, NumberFormatException {
+		if (path == null) {
+			return false;
+		}
+		JsonValue newValue = objectToJsonValue(o);
+		if (path.size() == 0) {
+			if (newValue.getType() == Type.MAP) {
+				putAll(newValue.asMap());
+				return true;
+			}
+		}
+		checkSetPath(path);
+		newValue = persistent(newValue);
+		Stripe stripe = stripeFor(path.segment(0));
+		stripe.lock();
+		try {
+			set(stripe, (PersistentJsonObject) withPath(stripe.entries, path, newValue));
+			return true;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	@Override
+	public String getString(String key) throws JsonCastException {
+		return get(key).asString();
+	}
+
+	public String getString(String key, String defaultString) throws JsonCastException {
+		JsonValue value = get(key, null);
+		return (value != null) ? value.asString() : defaultString;
+	}
+
+	@Override
+	public Date getDate(String key) throws JsonCastException {
+		return get(key).asDate();
+	}
+
+	public Date getDate(String key, Date defaultDate) throws JsonCastException {
+		JsonValue value = get(key, null);
+		return (value != null) ? value.asDate() : defaultDate;
+	}
+
+	@Override
+	public boolean getBoolean(String key) throws JsonCastException {
+		return get(key).asBoolean();
+	}
+
+	public boolean getBoolean(String key, boolean defaultBoolean) throws JsonCastException {
+		JsonValue value = get(key, null);
+		return (value != null) ? value.asBoolean() : defaultBoolean;
+	}
+
+	@Override
+	public ImmutableJsonObject getObject(String key) throws JsonCastException {
+		return stripeFor(key).entries.getObject(key);
+	}
+
+	@Override
+	public ImmutableJsonArray getArray(String key) throws JsonCastException {
+		return stripeFor(key).entries.getArray(key);
+	}
+
+	@Override
+	public Number getNumber(String key) throws JsonCastException {
+		return get(key).asNumber();
+	}
+
+	public Number getNumber(String key, Number defaultNumber) throws JsonCastException {
+		JsonValue value = get(key, null);
+		return (value != null) ? value.asNumber() : defaultNumber;
+	}
+
+	@Override
+	public long getLong(String key) throws JsonCastException {
+		return get(key).asLong();
+	}
+
+	public long getLong(String key, long defaultLong) throws JsonCastException {
+		JsonValue value = get(key, null);
+		return (value != null) ? value.asLong() : defaultLong;
+	}
+
+	@Override
+	public double getDouble(String key) throws JsonCastException {
+		return get(key).asDouble();
+	}
+
+	public double getDouble(String key, double defaultDouble) throws JsonCastException {
+		JsonValue value = get(key, null);
+		return (value != null) ? value.asDouble() : defaultDouble;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public int size() {
+		int size = 0;
+		for (PersistentJsonObject part : parts()) {
+			size += part.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns a view of the keys of this object. Its iterators traverse the snapshot taken when
+	 * they were created.
+	 */
+	@Override
+	public Set<String> keySet() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new SnapshotIterator<String>() {
+					@Override
+					protected String element(Map.Entry<String,JsonValue> e) {
+						return e.getKey();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return ConcurrentJsonObject.this.size();
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				return ConcurrentJsonObject.this.remove(o) != null;
+			}
+
+			@Override
+			public void clear() {
+				ConcurrentJsonObject.this.clear();
+			}
+		};
+	}
+
+	/**
+	 * Returns a view of the entries of this object. Its iterators traverse the snapshot taken when
+	 * they were created.
+	 */
+	@Override
+	public Set<Map.Entry<String,JsonValue>> entrySet() {
+		return new AbstractSet<Map.Entry<String,JsonValue>>() {
+			@Override
+			public Iterator<Map.Entry<String,JsonValue>> iterator() {
+				return new SnapshotIterator<Map.Entry<String,JsonValue>>() {
+					@Override
+					protected Map.Entry<String,JsonValue> element(Map.Entry<String,JsonValue> e) {
+						return new Entry(e.getKey(), e.getValue());
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return ConcurrentJsonObject.this.size();
+			}
+
+			@Override
+			public void clear() {
+				ConcurrentJsonObject.this.clear();
+			}
+		};
+	}
+
+	/**
+	 * Returns a view of the values of this object. Its iterators traverse the snapshot taken when
+	 * they were created.
+	 */
+	@Override
+	public Collection<JsonValue> values() {
+		return new AbstractCollection<JsonValue>() {
+			@Override
+			public Iterator<JsonValue> iterator() {
+				return new SnapshotIterator<JsonValue>() {
+					@Override
+					protected JsonValue element(Map.Entry<String,JsonValue> e) {
+						return e.getValue();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return ConcurrentJsonObject.this.size();
+			}
+
+			@Override
+			public void clear() {
+				ConcurrentJsonObject.this.clear();
+			}
+		};
+	}
+
+	@Override
+	public void forEach(BiConsumer<? super String, ? super JsonValue> action) {
+		for (Map.Entry<String,JsonValue> e : snapshot().entrySet()) {
+			action.accept(e.getKey(), e.getValue());
+		}
+	}
+
+	public JsonValue put(String key, String value) {
+		return put(key, JsonString.valueOf(value));
+	}
+
+	public JsonValue put(String key, Date date) {
+		return put(key, new JsonDate(date));
+	}
+
+	public JsonValue put(String key, Number value) {
+		return put(key, JsonNumber.valueOf(value));
+	}
+
+	public JsonValue put(String key, Boolean value) {
+		return put(key, getBoolean(value));
+	}
+
+	@Override
+	public JsonValue put(String key, JsonValue value) {
+		if (key == null) { throw new NullPointerException("Key argument may not be null."); }
+		JsonValue v = persistent(value);
+		Stripe stripe = stripeFor(key);
+		stripe.lock();
+		try {
+			PersistentJsonObject current = stripe.entries;
+			set(stripe, current.with(key, v));
+			return current.get(key, null);
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	/** Atomically puts all entries of the given map into this object. */
+	@Override
+	public void putAll(Map<? extends String, ? extends JsonValue> m) {
+		List<String> keys = new ArrayList<String>(m.size());
+		List<JsonValue> values = new ArrayList<JsonValue>(m.size());
+		for (Map.Entry<? extends String, ? extends JsonValue> e : m.entrySet()) {
+			if (e.getKey() == null) { throw new NullPointerException("Key argument may not be null."); }
+			keys.add(e.getKey());
+			values.add(persistent(e.getValue()));
+		}
+		lockAll();
+		try {
+			for (int i = 0; i < keys.size(); ++i) {
+				Stripe stripe = stripeFor(keys.get(i));
+				set(stripe, stripe.entries.with(keys.get(i), values.get(i)));
+			}
+		} finally {
+			unlockAll();
+		}
+	}
+
+	@Override
+	public JsonValue putIfAbsent(String key, JsonValue value) {
+		if (key == null) { throw new NullPointerException("Key argument may not be null."); }
+		JsonValue v = persistent(value);
+		Stripe stripe = stripeFor(key);
+		stripe.lock();
+		try {
+			PersistentJsonObject current = stripe.entries;
+			JsonValue oldValue = current.get(key, null);
+			if (oldValue == null) set(stripe, current.with(key, v));
+			return oldValue;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	@Override
+	public JsonValue remove(Object key) {
+		if (!(key instanceof String)) return null;
+		Stripe stripe = stripeFor((String) key);
+		stripe.lock();
+		try {
+			PersistentJsonObject current = stripe.entries;
+			JsonValue oldValue = current.get((String) key, null);
+			set(stripe, current.without((String) key));
+			return oldValue;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		if (!(key instanceof String) || !(value instanceof JsonValue)) return false;
+		JsonValue v = persistent((JsonValue) value);
+		Stripe stripe = stripeFor((String) key);
+		stripe.lock();
+		try {
+			PersistentJsonObject current = stripe.entries;
+			if (!v.equals(current.get((String) key, null))) return false;
+			set(stripe, current.without((String) key));
+			return true;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	@Override
+	public boolean replace(String key, JsonValue oldValue, JsonValue newValue) {
+		if (key == null) { throw new NullPointerException("Key argument may not be null."); }
+		JsonValue expected = persistent(oldValue);
+		JsonValue v = persistent(newValue);
+		Stripe stripe = stripeFor(key);
+		stripe.lock();
+		try {
+			PersistentJsonObject current = stripe.entries;
+			if (!expected.equals(current.get(key, null))) return false;
+			set(stripe, current.with(key, v));
+			return true;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	@Override
+	public JsonValue replace(String key, JsonValue value) {
+		if (key == null) { throw new NullPointerException("Key argument may not be null."); }
+		JsonValue v = persistent(value);
+		Stripe stripe = stripeFor(key);
+		stripe.lock();
+		try {
+			PersistentJsonObject current = stripe.entries;
+			JsonValue oldValue = current.get(key, null);
+			if (oldValue != null) set(stripe, current.with(key, v));
+			return oldValue;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	/**
+	 * Atomically replaces every value with the result of the given function, which is called
+	 * while all writers are locked out and must not modify this object.
+	 */
+	@Override
+	public void replaceAll(BiFunction<? super String, ? super JsonValue, ? extends JsonValue> function) {
+		lockAll();
+		try {
+			for (Stripe stripe : stripes) {
+				PersistentJsonObject next = stripe.entries;
+				for (Map.Entry<String,JsonValue> e : stripe.entries.entrySet()) {
+					JsonValue value = function.apply(e.getKey(), e.getValue());
+					next = next.with(e.getKey(), persistent(value));
+				}
+				set(stripe, next);
+			}
+		} finally {
+			unlockAll();
+		}
+	}
+
+	/**
+	 * Atomically computes a value for the given key if it is absent. The function is called while
+	 * the writers of some other keys are locked out, so it should be short and must not modify
+	 * this object.
+	 */
+	@Override
+	public JsonValue computeIfAbsent(String key, Function<? super String, ? extends JsonValue> function) {
+		if (key == null) { throw new NullPointerException("Key argument may not be null."); }
+		Stripe stripe = stripeFor(key);
+		stripe.lock();
+		try {
+			PersistentJsonObject current = stripe.entries;
+			JsonValue oldValue = current.get(key, null);
+			if (oldValue != null) return oldValue;
+			JsonValue newValue = function.apply(key);
+			if (newValue == null) return null;
+			newValue = persistent(newValue);
+			set(stripe, current.with(key, newValue));
+			return newValue;
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	/**
+	 * Atomically recomputes the value of the given key if it is present. The function is called
+	 * while the writers of some other keys are locked out, so it should be short and must not
+	 * modify this object.
+	 */
+	@Override
+	public JsonValue computeIfPresent(String key,
+			BiFunction<? super String, ? super JsonValue, ? extends JsonValue> function) {
+		if (key == null) { throw new NullPointerException("Key argument may not be null."); }
+		Stripe stripe = stripeFor(key);
+		stripe.lock();
+		try {
+			JsonValue oldValue = stripe.entries.get(key, null);
+			if (oldValue == null) return null;
+			return update(stripe, key, function.apply(key, oldValue));
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	/**
+	 * Atomically computes the value of the given key from its current value (or
+	 * <code>null</code>). The function is called while the writers of some other keys are locked
+	 * out, so it should be short and must not modify this object.
+	 */
+	@Override
+	public JsonValue compute(String key,
+			BiFunction<? super String, ? super JsonValue, ? extends JsonValue> function) {
+		if (key == null) { throw new NullPointerException("Key argument may not be null."); }
+		Stripe stripe = stripeFor(key);
+		stripe.lock();
+		try {
+			return update(stripe, key, function.apply(key, stripe.entries.get(key, null)));
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	/**
+	 * Atomically merges the given value into the value of the given key. The function is called
+	 * while the writers of some other keys are locked out, so it should be short and must not
+	 * modify this object.
+	 */
+	@Override
+	public JsonValue merge(String key, JsonValue value,
+			BiFunction<? super JsonValue, ? super JsonValue, ? extends JsonValue> function) {
+		if (key == null) { throw new NullPointerException("Key argument may not be null."); }
+		if (value == null) { throw new NullPointerException("Value argument may not be null."); }
+		Stripe stripe = stripeFor(key);
+		stripe.lock();
+		try {
+			JsonValue oldValue = stripe.entries.get(key, null);
+			return update(stripe, key, (oldValue == null) ? value : function.apply(oldValue, value));
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	/**
+	 * Sets the key in a stripe whose lock is held to the given value, or removes it if the value
+	 * is <code>null</code>.
+	 *
+	 * @return The persistent form of the value.
+	 */
+	private JsonValue update(Stripe stripe, String key, JsonValue value) {
+		if (value == null) {
+			set(stripe, stripe.entries.without(key));
+			return null;
+		}
+		value = value.freeze();
+		set(stripe, stripe.entries.with(key, value));
+		return value;
+	}
+
+	/**
+	 * An iterator over a snapshot of this object. Removing an element removes its key from this
+	 * object.
+	 */
+	private abstract class SnapshotIterator<T> implements Iterator<T> {
+
+		private final Iterator<Map.Entry<String,JsonValue>> iterator = snapshot().entrySet().iterator();
+
+		/** The key of the element last returned, or <code>null</code> if there is none. */
+		private String lastKey;
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public T next() {
+			Map.Entry<String,JsonValue> e = iterator.next();
+			lastKey = e.getKey();
+			return element(e);
+		}
+
+		@Override
+		public void remove() {
+			if (lastKey == null) {
+				throw new IllegalStateException();
+			}
+			ConcurrentJsonObject.this.remove(lastKey);
+			lastKey = null;
+		}
+
+		/** Returns the element for the given entry. */
+		protected abstract T element(Map.Entry<String,JsonValue> e);
+	}
+
+	/** A map entry which writes changes to its value through to this object. */
+	private final class Entry extends AbstractMap.SimpleEntry<String,JsonValue> {
+
+		private static final long serialVersionUID = 1L;
+
+		private Entry(String key, JsonValue value) {
+			super(key, value);
+		}
+
+		@Override
+		public JsonValue setValue(JsonValue value) {
+			value = persistent(value);
+			put(getKey(), value);
+			return super.setValue(value);
+		}
+	}
+
+	/**
+	 * Compares the current snapshot of this object to any map, or to an object of any
+	 * implementation, by their entries as <code>Map.equals</code> does.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		return objectEquals(this, o);
+	}
+
+	/** Returns the sum of the hash codes of the stripes, which cache them. */
+	@Override
+	public int hashCode() {
+		int h = 0;
+		for (PersistentJsonObject part : parts()) {
+			h += part.hashCode();
+		}
+		return h;
+	}
+
+	@Override
+	void addHashDependent(JsonValue container) {
+		HashDependents.register(HASH_DEPENDENTS, this, container);
+	}
+
+	/** Invalidates the cached hash codes of the containers this object is in. */
+	@Override
+	void invalidateHash() {
+		HashDependents.invalidate(HASH_DEPENDENTS, this);
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * The containers whose cached hash codes cover a mutable container. A container registers with
+ * each object and array nested in it when it computes its hash code, and a nested container
+ * invalidates the registered ones when it is modified. A modification thereby invalidates the
+ * cached hash codes of the containers it is in, and of no others.
+ *
+ * A nested container may be shared by lazy copies, which can be discarded while it lives on, so
+ * its dependents are referenced weakly. The dependents are dropped when they are invalidated, and
+ * register again when they next compute their hash codes.
+ */
+final class HashDependents {
+
+	/** The registered containers. Entries at <code>size</code> and above are unused. */
+	private WeakReference<?>[] dependents = new WeakReference<?>[2];
+
+	private int size;
+
+	/** <code>true</code> once the dependents have been invalidated. None may be added then. */
+	private boolean invalidated;
+
+	/**
+	 * Registers a dependent, unless it is registered already, and forgets dependents which have
+	 * been garbage collected.
+	 *
+	 * @return <code>false</code> if the dependents have already been invalidated.
+	 */
+	private synchronized boolean add(JsonValue dependent) {
+		if (invalidated) return false;
+		int n = 0;
+		for (int i = 0; i < size; ++i) {
+			Object d = dependents[i].get();
+			if (d == dependent) return true;
+			if (d != null) dependents[n++] = dependents[i];
+		}
+		Arrays.fill(dependents, n, size, null);
+		if (n == dependents.length) {
+			dependents = Arrays.copyOf(dependents, 2 * n);
+		}
+		dependents[n] = new WeakReference<JsonValue>(dependent);
+		size = n + 1;
+		return true;
+	}
+
+	/** Invalidates the cached hash codes of all dependents which are still alive. */
+	private void invalidate() {
+		final JsonValue[] alive;
+		synchronized (this) {
+			invalidated = true;
+			alive = new JsonValue[size];
+			for (int i = 0; i < size; ++i) {
+				alive[i] = (JsonValue) dependents[i].get();
+			}
+			dependents = null;
+		}
+		// outside of the lock, since the dependents invalidate their own dependents in turn
+		for (JsonValue d : alive) {
+			if (d != null) d.invalidateHash();
+		}
+	}
+
+	/** Registers a dependent with the container which holds its dependents in the given field. */
+	static <T> void register(AtomicReferenceFieldUpdater<T,HashDependents> field, T container,
+			JsonValue dependent) {
+		while (true) {
+			HashDependents d = field.get(container);
+			if (d == null) {
+				d = new HashDependents();
+				if (!field.compareAndSet(container, null, d)) continue;
+			}
+			if (d.add(dependent)) return;
+			// invalidated by a concurrent modification, which also detached it, so retry
+		}
+	}
+
+	/**
+	 * Detaches the dependents of the container which holds them in the given field, and
+	 * invalidates their cached hash codes.
+	 */
+	static <T> void invalidate(AtomicReferenceFieldUpdater<T,HashDependents> field, T container) {
+		if (field.get(container) != null) {
+			HashDependents d = field.getAndSet(container, null);
+			if (d != null) d.invalidate();
+		}
+	}
+}
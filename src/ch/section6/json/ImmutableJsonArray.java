@@ -28,6 +28,8 @@
 package ch.section6.json;
 
 import java.util.Date;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
 
 /**
  * An interface rendering a {@link JsonArray} immutable. It is effectively a subset of the
@@ -41,6 +43,12 @@ public interface ImmutableJsonArray {
 	/** A convenience function to return the indexed value as a {@link Number}. */
 	public Number getNumber(int index) throws JsonCastException;
 
+	/** A convenience function to return the indexed value as a <code>long</code>, without boxing. */
+	public long getLong(int index) throws JsonCastException;
+
+	/** A convenience function to return the indexed value as a <code>double</code>, without boxing. */
+	public double getDouble(int index) throws JsonCastException;
+
 	/**
 	 * A convenience function to return the indexed value as a <code>boolean</code>.
 	 */
@@ -72,6 +80,18 @@ public interface ImmutableJsonArray {
 	/** Returns this {@link JsonArray} as an {@link ImmutableJsonArray}. */
 	public ImmutableJsonArray asImmutable();
 
+	/** Performs the given action on every element as a <code>long</code>, without boxing. */
+	public void forEachLong(LongConsumer action) throws JsonCastException;
+
+	/** Performs the given action on every element as a <code>double</code>, without boxing. */
+	public void forEachDouble(DoubleConsumer action) throws JsonCastException;
+
+	/** Returns a new <code>long[]</code> containing every element cast to a <code>long</code>. */
+	public long[] toLongArray() throws JsonCastException;
+
+	/** Returns a new <code>double[]</code> containing every element cast to a <code>double</code>. */
+	public double[] toDoubleArray() throws JsonCastException;
+
 	/**
 	 * Returns an {@link Iterable} for iterating across {@link Strings}. Elements are cast to
 	 * strings if necessary.
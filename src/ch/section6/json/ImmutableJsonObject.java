@@ -53,6 +53,12 @@ public interface ImmutableJsonObject {
 	/** A convenience function to return the keyed value as a {@link Number}. */
 	public Number getNumber(String key) throws JsonCastException, UnknownKeyException;
 
+	/** A convenience function to return the keyed value as a <code>long</code>, without boxing. */
+	public long getLong(String key) throws JsonCastException, UnknownKeyException;
+
+	/** A convenience function to return the keyed value as a <code>double</code>, without boxing. */
+	public double getDouble(String key) throws JsonCastException, UnknownKeyException;
+
 	/** A convenience function to return the keyed value as a {@link Date}. */
 	public Date getDate(String key) throws JsonCastException, UnknownKeyException;
 
@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An arena which parses JSON text into flat arrays instead of a tree of objects, for documents
+ * which are only needed while a single request is handled. Every value is a node in a table of
+ * tags and 64-bit payloads, the elements and entries of arrays and objects are runs of node
+ * indices, and unescaped strings are stored in one shared <code>char[]</code>. The arrays grow as
+ * needed and are kept by {@link #reset()}, so an arena which is reused for every request soon
+ * stops allocating, and the garbage collector has only a handful of arrays to trace no matter
+ * how large the documents are.
+ * <p>
+ * {@link #parse(String)} returns ordinary <code>JsonValue</code>s. Objects and arrays are
+ * immutable {@link ArenaJsonObject} and {@link ArenaJsonArray} views of the arena, which are read
+ * like the other immutable values. Numbers, strings and other values read from them are ordinary
+ * heap values. If a key occurs more than once in an object, all of its entries are kept and
+ * lookups find the last one. Strings are unescaped exactly as {@link JsonObject#parse(String)}
+ * unescapes them.
+ * <p>
+ * The accessors of a view only decode the value they return. Its <code>Map</code> and
+ * <code>List</code> API is reached through <code>asMap()</code>, <code>asArray()</code> or
+ * <code>copy()</code>, which decode the whole view into a mutable tree first. The view keeps
+ * that tree, so the cost is paid once per view, but callers which read a document mostly that
+ * way gain nothing from the arena.
+ * <p>
+ * <b>All objects and arrays parsed by an arena are invalid once it has been reset.</b> Using one
+ * afterwards throws an <code>IllegalStateException</code>. {@link JsonValue#copy()} returns a
+ * mutable copy of a view which remains valid, and should be used for anything which must outlive
+ * the request. An arena must not be used by several threads at once.
+ * 
+ * <pre>
+ * JsonArena arena = new JsonArena();
+ * for (Request request : requests) {
+ *   JsonValue body = arena.parse(request.body());
+ *   handle(body);
+ *   arena.reset();
+ * }
+ * </pre>
+ */
+public final class JsonArena {
+
+	private static final byte NULL = 0;
+	private static final byte FALSE = 1;
+	private static final byte TRUE = 2;
+	private static final byte LONG = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte STRING = 5;
+	private static final byte ARRAY = 6;
+	private static final byte OBJECT = 7;
+
+	/** The number of links of each entry of an object: the key hash, key node and value node. */
+	static final int ENTRY_LINKS = 3;
+
+	/** The tag of every node. */
+	private byte[] tags;
+
+	/**
+	 * The payload of every node: the value of a long, the bits of a double, the offset and length
+	 * of a string in {@link #chars}, or the first link and size of an array or object.
+	 */
+	private long[] payloads;
+
+	private int nodeCount;
+
+	/** The element nodes of arrays and the entries of objects, each in a contiguous run. */
+	private int[] links;
+
+	private int linkCount;
+
+	/** The unescaped characters of all strings. */
+	private char[] chars;
+
+	private int charCount;
+
+	/** The links of the arrays and objects which are still being parsed. */
+	private int[] pending;
+
+	private int pendingCount;
+
+	/** Incremented by every reset, which invalidates all views created before. */
+	private int generation;
+
+	/** The text being parsed, and the index of the next character. */
+	private String json;
+
+	private int position;
+
+	/** The hash code of the string which was parsed last. */
+	private int stringHash;
+
+	/** Creates an arena with room for documents of a few kilobytes. */
+	public JsonArena() {
+		this(4096);
+	}
+
+	/**
+	 * Creates an arena with room for documents of about the given number of characters before
+	 * it has to grow.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the capacity is negative.
+	 */
+	public JsonArena(int capacity) throws IllegalArgumentException {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity may not be negative: " + capacity);
+		}
+		final int nodes = Math.max(16, capacity / 8);
+		tags = new byte[nodes];
+		payloads = new long[nodes];
+		links = new int[nodes];
+		pending = new int[64];
+		chars = new char[Math.max(16, capacity / 2)];
+	}
+
+	/**
+	 * Parses a JSON string into this arena. Objects and arrays of the returned value remain valid
+	 * until the next {@link #reset()}. Like {@link JsonObject#parse(String)}, a <code>null</code>
+	 * string is parsed as JSON <code>null</code> and an empty string as an empty string.
+	 * 
+	 * @throws JsonParseException
+	 *             If the string is not valid JSON.
+	 */
+	public JsonValue parse(String jsonString) throws JsonParseException {
+		if (jsonString == null) {
+			return JsonValue.getNull();
+		} else if (jsonString.isEmpty()) {
+			return new JsonString("");
+		}
+		json = jsonString;
+		position = 0;
+		try {
+			skipWhitespace();
+			final int root = parseValue();
+			skipWhitespace();
+			if (position < json.length()) {
+				throw new JsonParseException("Unexpected character at index " + position + ".");
+			}
+			return valueAt(root);
+		} finally {
+			json = null;
+			pendingCount = 0;
+		}
+	}
+
+	/**
+	 * Releases everything parsed by this arena so far, keeping its memory for the next documents.
+	 * All objects and arrays it returned become invalid.
+	 */
+	public void reset() {
+		nodeCount = 0;
+		linkCount = 0;
+		charCount = 0;
+		++generation;
+	}
+
+	private char current() {
+		return (position < json.length()) ? json.charAt(position) : 0;
+	}
+
+	private void skipWhitespace() {
+		final String s = json;
+		while (position < s.length()) {
+			char c = s.charAt(position);
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') break;
+			++position;
+		}
+	}
+
+	private void expect(char c) throws JsonParseException {
+		if (current() != c) {
+			throw new JsonParseException("Expected '" + c + "' at index " + position + ".");
+		}
+		++position;
+	}
+
+	private void expect(String literal) throws JsonParseException {
+		if (!json.startsWith(literal, position)) {
+			throw new JsonParseException("Expected " + literal + " at index " + position + ".");
+		}
+		position += literal.length();
+	}
+
+	private int addNode(byte tag, long payload) {
+		if (nodeCount == tags.length) {
+			tags = Arrays.copyOf(tags, 2 * nodeCount);
+			payloads = Arrays.copyOf(payloads, 2 * nodeCount);
+		}
+		tags[nodeCount] = tag;
+		payloads[nodeCount] = payload;
+		return nodeCount++;
+	}
+
+	private void push(int link) {
+		if (pendingCount == pending.length) {
+			pending = Arrays.copyOf(pending, 2 * pendingCount);
+		}
+		pending[pendingCount++] = link;
+	}
+
+	/** Moves the pending links from the given index on into a new array or object node. */
+	private int addContainer(byte tag, int base) {
+		final int count = pendingCount - base;
+		if (linkCount + count > links.length) {
+			links = Arrays.copyOf(links, Math.max(2 * links.length, linkCount + count));
+		}
+		System.arraycopy(pending, base, links, linkCount, count);
+		final int size = (tag == OBJECT) ? count / ENTRY_LINKS : count;
+		final int node = addNode(tag, ((long) linkCount << 32) | size);
+		linkCount += count;
+		pendingCount = base;
+		return node;
+	}
+
+	private int parseValue() throws JsonParseException {
+		switch (current()) {
+			case '{': return parseObject();
+			case '[': return parseArray();
+			case '"': return parseString();
+			case 't': expect("true"); return addNode(TRUE, 0L);
+			case 'f': expect("false"); return addNode(FALSE, 0L);
+			case 'n': expect("null"); return addNode(NULL, 0L);
+			default: return parseNumber();
+		}
+	}
+
+	private int parseArray() throws JsonParseException {
+		final int base = pendingCount;
+		++position;
+		skipWhitespace();
+		if (current() != ']') {
+			while (true) {
+				push(parseValue());
+				skipWhitespace();
+				if (current() != ',') break;
+				++position;
+				skipWhitespace();
+			}
+		}
+		expect(']');
+		return addContainer(ARRAY, base);
+	}
+
+	private int parseObject() throws JsonParseException {
+		final int base = pendingCount;
+		++position;
+		skipWhitespace();
+		if (current() != '}') {
+			while (true) {
+				if (current() != '"') {
+					throw new JsonParseException("Expected a string as a map key at index "
+							+ position + ".");
+				}
+				final int key = parseString();
+				push(stringHash);
+				push(key);
+				skipWhitespace();
+				expect(':');
+				skipWhitespace();
+				push(parseValue());
+				skipWhitespace();
+				if (current() != ',') break;
+				++position;
+				skipWhitespace();
+			}
+		}
+		expect('}');
+		return addContainer(OBJECT, base);
+	}
+
+	/** Parses and unescapes a string, leaving its hash code in {@link #stringHash}. */
+	private int parseString() throws JsonParseException {
+		final String s = json;
+		final int end = s.length();
+		final int start = charCount;
+		int h = 0;
+		int i = position + 1;
+		while (true) {
+			if (i >= end) {
+				throw new JsonParseException("No balancing quote found for string.");
+			}
+			char c = s.charAt(i++);
+			if (c == '"') {
+				break;
+			} else if (c == '\\') {
+				c = JsonString.unescape(s, i - 1, end);
+				i += JsonString.escapeLength(s, i - 1) - 1;
+			}
+			if (charCount == chars.length) {
+				chars = Arrays.copyOf(chars, 2 * charCount);
+			}
+			chars[charCount++] = c;
+			h = 31 * h + c;
+		}
+		position = i;
+		stringHash = h;
+		return addNode(STRING, ((long) start << 32) | (charCount - start));
+	}
+
+	/**
+	 * Parses a number. Integers of up to 18 digits are converted here without allocating, and
+	 * everything else like {@link JsonNumber#parse(String, int, int)} does, including
+	 * <code>-0</code> and integers with a leading zero.
+	 */
+	private int parseNumber() throws JsonParseException {
+		final String s = json;
+		final int end = s.length();
+		final int start = position;
+		int i = start;
+		if (i < end && s.charAt(i) == '-') ++i;
+		final int digits = i;
+		i = skipDigits(i);
+		boolean integral = true;
+		if (i < end && s.charAt(i) == '.') {
+			integral = false;
+			i = skipDigits(i + 1);
+		}
+		if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+			integral = false;
+			if (i + 1 < end && (s.charAt(i + 1) == '+' || s.charAt(i + 1) == '-')) ++i;
+			i = skipDigits(i + 1);
+		}
+		position = i;
+		final boolean plain = s.charAt(digits) != '0' || (i == digits + 1 && digits == start);
+		if (integral && plain && i - digits <= 18) {
+			long l = 0L;
+			for (int k = digits; k < i; ++k) {
+				l = 10L * l + (s.charAt(k) - '0');
+			}
+			return addNode(LONG, (digits > start) ? -l : l);
+		}
+		try {
+			JsonNumber number = JsonNumber.parse(s, start, i);
+			return addNode(number.isInteger() ? LONG : DOUBLE, number.bits());
+		} catch (NumberFormatException e) {
+			throw new JsonParseException(e);
+		}
+	}
+
+	/**
+	 * Returns the index after the digits which start at the given index.
+	 * 
+	 * @throws JsonParseException
+	 *             If there is no digit at the given index.
+	 */
+	private int skipDigits(int i) throws JsonParseException {
+		final String s = json;
+		final int start = i;
+		while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+			++i;
+		}
+		if (i == start) {
+			throw new JsonParseException("Unexpected character at index " + start + ".");
+		}
+		return i;
+	}
+
+	/**
+	 * Throws an <code>IllegalStateException</code> if this arena has been reset since a view of the
+	 * given generation was created.
+	 */
+	void checkGeneration(int generation) throws IllegalStateException {
+		if (generation != this.generation) {
+			throw new IllegalStateException("The JsonArena of this value has been reset.");
+		}
+	}
+
+	/** Returns the size of an array or object node. */
+	int sizeOf(int node) {
+		return (int) payloads[node];
+	}
+
+	/** Returns the index of the first link of an array or object node. */
+	int firstLink(int node) {
+		return (int) (payloads[node] >>> 32);
+	}
+
+	/** Returns the link with the given index. */
+	int link(int i) {
+		return links[i];
+	}
+
+	/** Returns the value of a node, as a view if it is an object or array. */
+	JsonValue valueAt(int node) {
+		switch (tags[node]) {
+			case NULL: return JsonValue.getNull();
+			case FALSE: return JsonValue.getBoolean(false);
+			case TRUE: return JsonValue.getBoolean(true);
+			case LONG: return JsonNumber.valueOf(payloads[node]);
+			case DOUBLE: return new JsonNumber(Double.longBitsToDouble(payloads[node]));
+			case STRING: {
+				String s = stringAt(node);
+				JsonDate date = JsonDate.tryParse(s);
+				return (date != null) ? date : JsonString.valueOf(s);
+			}
+			case ARRAY: return new ArenaJsonArray(this, node, generation);
+			default: return new ArenaJsonObject(this, node, generation);
+		}
+	}
+
+	/** Returns the value of a node as a <code>long</code>, without boxing numbers. */
+	long longAt(int node) {
+		switch (tags[node]) {
+			case LONG: return payloads[node];
+			case DOUBLE: return (long) Double.longBitsToDouble(payloads[node]);
+			default: return valueAt(node).asLong();
+		}
+	}
+
+	/** Returns the value of a node as a <code>double</code>, without boxing numbers. */
+	double doubleAt(int node) {
+		switch (tags[node]) {
+			case LONG: return payloads[node];
+			case DOUBLE: return Double.longBitsToDouble(payloads[node]);
+			default: return valueAt(node).asDouble();
+		}
+	}
+
+	/** Returns the value of a node as a string, reading string nodes directly. */
+	String asStringAt(int node) {
+		return (tags[node] == STRING) ? stringAt(node) : valueAt(node).asString();
+	}
+
+	/** Returns the string of a string node. */
+	String stringAt(int node) {
+		return new String(chars, (int) (payloads[node] >>> 32), (int) payloads[node]);
+	}
+
+	/** Returns the node of the value with the given key in an object node, or -1 if there is none. */
+	int memberOf(int node, String key) {
+		final int h = key.hashCode();
+		final int first = firstLink(node);
+		// search from the end, such that the last of several equal keys wins as in a JsonObject
+		for (int i = first + ENTRY_LINKS * (sizeOf(node) - 1); i >= first; i -= ENTRY_LINKS) {
+			if (links[i] == h && stringEquals(links[i + 1], key)) {
+				return links[i + 2];
+			}
+		}
+		return -1;
+	}
+
+	private boolean stringEquals(int node, String s) {
+		final int length = (int) payloads[node];
+		if (length != s.length()) return false;
+		final int offset = (int) (payloads[node] >>> 32);
+		for (int i = 0; i < length; ++i) {
+			if (chars[offset + i] != s.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/** Returns the hash code of the value of a node, without creating it if it is a number. */
+	int hashCodeAt(int node) {
+		switch (tags[node]) {
+			case LONG:
+			case DOUBLE: return (int) ((payloads[node] >>> 32) ^ payloads[node]);
+			default: return valueAt(node).hashCode();
+		}
+	}
+
+	/** Appends the JSON text of a node, without creating any views. */
+	void append(int node, StringBuilder sb) {
+		switch (tags[node]) {
+			case LONG: sb.append(payloads[node]); break;
+			case STRING: sb.append(JsonString.jsonEscape(stringAt(node))); break;
+			case ARRAY: {
+				sb.append("[");
+				final int first = firstLink(node);
+				for (int i = first, end = i + sizeOf(node); i < end; ++i) {
+					if (i > first) sb.append(",");
+					append(links[i], sb);
+				}
+				sb.append("]");
+				break;
+			}
+			case OBJECT: {
+				sb.append("{");
+				final int first = firstLink(node);
+				for (int i = first, end = i + ENTRY_LINKS * sizeOf(node); i < end; i += ENTRY_LINKS) {
+					if (i > first) sb.append(",");
+					sb.append(JsonString.jsonEscape(stringAt(links[i + 1])));
+					sb.append(":");
+					append(links[i + 2], sb);
+				}
+				sb.append("}");
+				break;
+			}
+			default: sb.append(valueAt(node).toString()); break;
+		}
+	}
+
+	/**
+	 * Copies a node into a tree of mutable <code>JsonValue</code>s, which remains valid after the
+	 * arena is reset. Records of an array share their key layouts as they do when parsed.
+	 */
+	JsonValue decode(int node) {
+		switch (tags[node]) {
+			case ARRAY: {
+				final int size = sizeOf(node);
+				JsonArray array = new JsonArray(size);
+				List<JsonObject> shapes = new ArrayList<JsonObject>();
+				for (int i = firstLink(node), end = i + size; i < end; ++i) {
+					JsonValue value = decode(links[i]);
+					if (value.getType() == JsonValue.Type.MAP) {
+						JsonObject.shareShape(value.asMap(), shapes);
+					}
+					array.add(value);
+				}
+				return array;
+			}
+			case OBJECT: {
+				final int size = sizeOf(node);
+				JsonObject obj = new JsonObject(size);
+				for (int i = firstLink(node), end = i + ENTRY_LINKS * size; i < end; i += ENTRY_LINKS) {
+					obj.put(stringAt(links[i + 1]), decode(links[i + 2]));
+				}
+				return obj;
+			}
+			default: return valueAt(node);
+		}
+	}
+
+}
@@ -25,74 +25,190 @@
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+
 package ch.section6.json;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
-
-/** A JSON representation of an ordered list of {@link JsonValue}s. */
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A JSON representation of an ordered list of {@link JsonValue}s.
+ * <p>
+ * An array whose elements are all integral or all real-valued {@link JsonNumber}s is stored
+ * internally as a <code>long[]</code> or <code>double[]</code> respectively, with
+ * <code>JsonNumber</code>s created on demand when elements are retrieved. The layout is chosen
+ * automatically when the first element is added. Integers and real numbers may be mixed in a
+ * <code>double[]</code> as long as the integers are represented exactly, which is remembered per
+ * element. The array falls back to storing boxed <code>JsonValue</code>s as soon as any other
+ * element is inserted.
+ * <p>
+ * {@link #copy()} is lazy: the copy shares its storage with the original until either of them is
+ * modified, or hands out one of its nested objects or arrays. Nested objects and arrays which
+ * have already been handed out are copied right away, so that the copy is fully isolated.
+ */
 public final class JsonArray extends JsonValue implements List<JsonValue>, ImmutableJsonArray {
 
-	private final ArrayList<JsonValue> list;
+	/** The capacity allocated on the first insertion into an empty array. */
+	private static final int DEFAULT_CAPACITY = 10;
+
+	private static final JsonValue[] EMPTY_ELEMENTS = new JsonValue[0];
+
+	private static final AtomicReferenceFieldUpdater<JsonArray,HashDependents> HASH_DEPENDENTS =
+			AtomicReferenceFieldUpdater.newUpdater(JsonArray.class, HashDependents.class,
+					"hashDependents");
+
+	/** The boxed elements of this array, or <code>null</code> if the elements are packed. */
+	private JsonValue[] elements;
+
+	/** The elements of this array if they are all integral numbers, otherwise <code>null</code>. */
+	private long[] longs;
+
+	/**
+	 * The elements of this array if they are all numbers, some of them real and the others
+	 * integers which a <code>double</code> represents exactly, otherwise <code>null</code>.
+	 */
+	private double[] doubles;
+
+	/**
+	 * Marks the elements in <code>doubles</code> which are integers, or is <code>null</code> if
+	 * none have been stored there. It is as long as <code>doubles</code>.
+	 */
+	private boolean[] integral;
+
+	/** The number of elements in this array. */
+	private int size;
+
+	/**
+	 * <code>true</code> if the storage of this array, and the objects and arrays in it, may be
+	 * shared with a copy of this array. Both must then be copied before they are modified or
+	 * handed out.
+	 */
+	private volatile boolean shared;
+
+	/**
+	 * <code>true</code> if a reference to this array may be held outside of the object or array
+	 * it is in, see {@link JsonValue#isExposed()}.
+	 */
+	private boolean exposed = true;
+
+	/** The number of objects and arrays among the elements of this array. */
+	private int containers;
+
+	/** Counts the modifications of this array and of the values nested in it. */
+	private volatile long stamp;
+
+	/** The cached hash code of this array, valid if <code>hashStamp</code> is current. */
+	private int hash;
+
+	/**
+	 * The <code>stamp</code> at which <code>hash</code> was computed, or <code>-1</code> if it has
+	 * not been. It is written after <code>hash</code>, which it thereby publishes to other threads.
+	 */
+	private volatile long hashStamp = -1L;
+
+	/** The containers whose cached hash codes cover this array, see {@link HashDependents}. */
+	private volatile HashDependents hashDependents;
+
+	/** The indexes which are kept up to date with this array, or <code>null</code> if none are. */
+	private JsonIndex[] indexes;
 
 	/** Creates a new JSON array. */
 	public JsonArray() {
-		list = new ArrayList<JsonValue>();
+		elements = EMPTY_ELEMENTS;
 	}
 	
 	/** Creates a new JSON array with an initial size. */
 	public JsonArray(int initialSize) {
-		list = new ArrayList<JsonValue>(initialSize);
+		elements = (initialSize == 0) ? EMPTY_ELEMENTS : new JsonValue[initialSize];
 	}
 
 	public JsonArray(Object... values) {
-		list = new ArrayList<JsonValue>(values.length);
+		this(values.length);
 		addAll(values);
 	}
 
 	public JsonArray(Collection<?> values) {
-		list = new ArrayList<JsonValue>(values.size());
+		this(values.size());
 		addAll(values.toArray());
 	}
 
+	/** Creates a new JSON array of integral numbers, stored as a <code>long[]</code>. */
+	public JsonArray(long[] values) {
+		longs = Arrays.copyOf(values, values.length);
+		size = values.length;
+	}
+
+	/** Creates a new JSON array of real numbers, stored as a <code>double[]</code>. */
+	public JsonArray(double[] values) {
+		doubles = Arrays.copyOf(values, values.length);
+		size = values.length;
+	}
+
 	@Override
 	protected void appendTokenList(List<String> tokenList) {
-		if (list.isEmpty()) {
+		if (size == 0) {
 			tokenList.add("[");
 			tokenList.add("]");
 		} else {
 			tokenList.add("[");
 			tokenList.add("\n");
 			tokenList.add("\t");
-			final int sizem = list.size() - 1;
+			final int sizem = size - 1;
 			for (int i = 0; i < sizem; i++) {
-				list.get(i).appendTokenList(tokenList);
+				appendElementTokenList(i, tokenList);
 				tokenList.add(",");
 				tokenList.add("\n");
 				tokenList.add("\t");
 			}
-			list.get(sizem).appendTokenList(tokenList);
+			appendElementTokenList(sizem, tokenList);
 			tokenList.add("\n");
 			tokenList.add("]");
 		}
 	}
 
+	private void appendElementTokenList(int index, List<String> tokenList) {
+		if (longs != null) {
+			tokenList.add(Long.toString(longs[index]));
+		} else if (doubles != null) {
+			tokenList.add(isIntegralAt(index)
+					? Long.toString((long) doubles[index]) : Double.toString(doubles[index]));
+		} else {
+			elements[index].appendTokenList(tokenList);
+		}
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("[");
-		final int sizem = list.size() - 1;
-		for (int i = 0; i < sizem; ++i) {
-			JsonValue value = list.get(i);
-			sb.append(value.toString());
-			sb.append(",");
-		}
-		if (!list.isEmpty()) {
-			sb.append(list.get(sizem).toString());
+		for (int i = 0; i < size; ++i) {
+			if (i > 0) sb.append(",");
+			if (longs != null) {
+				sb.append(longs[i]);
+			} else if (isIntegralAt(i)) {
+				sb.append((long) doubles[i]);
+			} else if (doubles != null) {
+				sb.append(doubles[i]);
+			} else {
+				sb.append(elements[i].toString());
+			}
 		}
 		sb.append("]");
 		return sb.toString();
@@ -110,129 +226,342 @@ public final class JsonArray extends JsonValue implements List<JsonValue>, Immut
 
 	@Override
 	public boolean add(JsonValue e) {
-		return list.add(e);
+		insert(size, e);
+		return true;
 	}
 	
 	public boolean add(Boolean b) {
-		return list.add(JsonValue.getBoolean(b));
+		return add(JsonValue.getBoolean(b));
 	}
 
 	public boolean add(Date date) {
-		return list.add(new JsonDate(date));
+		return add(new JsonDate(date));
 	}
 	
 	public boolean add(String string) {
-		return list.add(new JsonString(string));
+		return add(JsonString.valueOf(string));
 	}
 	
 	public boolean add(Number n) {
-		return list.add(new JsonNumber(n));
+		return add(JsonNumber.valueOf(n));
 	}
 	
 	@Override
 	public void add(int index, JsonValue element) {
-		if (index >= list.size()) {
-			int additionalElements = index - list.size() + 1;
+		if (index >= size) {
+			int additionalElements = index - size + 1;
 			for (int i = 0; i < additionalElements; i++) {
-				list.add(JSON_NULL);
+				add(JSON_NULL);
 			}
 		}
-		list.add(index, element);
+		insert(index, element);
 	}
 
 	@Override
 	public boolean addAll(Collection<? extends JsonValue> c) {
-		return list.addAll(c);
+		ensureCapacity(size + c.size());
+		for (JsonValue e : c) {
+			insert(size, e);
+		}
+		return !c.isEmpty();
 	}
 
 	@Override
 	public boolean addAll(int index, Collection<? extends JsonValue> c) {
-		return list.addAll(index, c);
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException(outOfBoundsMessage(index));
+		}
+		ensureCapacity(size + c.size());
+		for (JsonValue e : c) {
+			insert(index++, e);
+		}
+		return !c.isEmpty();
 	}
 	
 	public boolean addAll(Object... values) {
-		list.ensureCapacity(list.size() + values.length);
+		ensureCapacity(size + values.length);
 		for (Object o : values) {
-			list.add(objectToJsonValue(o));
+			insert(size, objectToJsonValue(o));
 		}
 		return true;
 	}
 
 	@Override
 	public void clear() {
-		list.clear();
+		invalidateHash();
+		containers = 0;
+		if (shared) {
+			elements = EMPTY_ELEMENTS;
+			longs = null;
+			doubles = null;
+			integral = null;
+			shared = false;
+		} else if (elements != null) {
+			Arrays.fill(elements, 0, size, null);
+		}
+		size = 0;
+		rebuildIndexes();
 	}
 
 	@Override
 	public boolean contains(Object o) {
-		return list.contains(o);
+		return indexOf(o) >= 0;
 	}
 
 	@Override
 	public boolean containsAll(Collection<?> c) {
-		return list.containsAll(c);
+		for (Object o : c) {
+			if (!contains(o)) return false;
+		}
+		return true;
 	}
 
 	@Override
 	public JsonValue get(int index) {
-		return list.get(index);
+		checkIndex(index);
+		return elementAt(index);
+	}
+
+	@Override
+	JsonValue getElement(int index) {
+		return get(index);
+	}
+
+	@Override
+	JsonValue findElement(int index) {
+		return (index >= 0 && index < size()) ? get(index) : null;
 	}
 
 	@Override
 	public String getString(int index) {
-		return list.get(index).asString();
+		return get(index).asString();
 	}
 
 	@Override
 	public Date getDate(int index) {
-		return list.get(index).asDate();
+		return get(index).asDate();
 	}
 
 	@Override
 	public Number getNumber(int index) {
-		return list.get(index).asNumber();
+		return get(index).asNumber();
+	}
+
+	@Override
+	public long getLong(int index) {
+		checkIndex(index);
+		return longAt(index);
+	}
+
+	@Override
+	public double getDouble(int index) {
+		checkIndex(index);
+		return doubleAt(index);
+	}
+
+	/** Returns the element at the given index as a <code>long</code>, without boxing it. */
+	private long longAt(int index) {
+		if (longs != null) {
+			return longs[index];
+		} else if (doubles != null) {
+			return (long) doubles[index];
+		} else {
+			return elements[index].asLong();
+		}
+	}
+
+	/** Returns the element at the given index as a <code>double</code>, without boxing it. */
+	private double doubleAt(int index) {
+		if (longs != null) {
+			return (double) longs[index];
+		} else if (doubles != null) {
+			return doubles[index];
+		} else {
+			return elements[index].asDouble();
+		}
+	}
+
+	@Override
+	public void forEachLong(LongConsumer action) {
+		if (longs != null) {
+			for (int i = 0; i < size; ++i) {
+				action.accept(longs[i]);
+			}
+		} else {
+			for (int i = 0; i < size; ++i) {
+				action.accept(getLong(i));
+			}
+		}
+	}
+
+	@Override
+	public void forEachDouble(DoubleConsumer action) {
+		if (doubles != null) {
+			for (int i = 0; i < size; ++i) {
+				action.accept(doubles[i]);
+			}
+		} else {
+			for (int i = 0; i < size; ++i) {
+				action.accept(getDouble(i));
+			}
+		}
+	}
+
+	@Override
+	public long[] toLongArray() {
+		if (longs != null) {
+			return Arrays.copyOf(longs, size);
+		} else {
+			long[] array = new long[size];
+			for (int i = 0; i < size; ++i) {
+				array[i] = getLong(i);
+			}
+			return array;
+		}
+	}
+
+	@Override
+	public double[] toDoubleArray() {
+		if (doubles != null) {
+			return Arrays.copyOf(doubles, size);
+		} else {
+			double[] array = new double[size];
+			for (int i = 0; i < size; ++i) {
+				array[i] = getDouble(i);
+			}
+			return array;
+		}
 	}
 
 	@Override
 	public boolean getBoolean(int index) {
-		return list.get(index).asBoolean();
+		return get(index).asBoolean();
 	}
 
 	@Override
 	public JsonArray getArray(int index) {
-		return list.get(index).asArray();
+		return get(index).asArray();
 	}
 
 	@Override
 	public JsonObject getObject(int index) {
-		return list.get(index).asMap();
+		return get(index).asMap();
 	}
 
 	@Override
 	public int indexOf(Object o) {
-		return list.indexOf(o);
+		for (int i = 0; i < size; ++i) {
+			if (elementEquals(i, o)) return i;
+		}
+		return -1;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return list.isEmpty();
+		return size == 0;
 	}
 
 	@Override
 	public Iterator<JsonValue> iterator() {
-		return list.iterator();
+		return new ElementIterator<JsonValue>() {
+			@Override
+			protected JsonValue element(int index) {
+				return elementAt(index);
+			}
+		};
 	}
-	
+
 	@Override
 	public JsonValue getByPath(String path) throws IllegalArgumentException, NumberFormatException {
 		return super.getByPath(path);
 	}
+
+	@Override
+	public JsonValue getByPath(JsonPath path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
 	
 	@Override
 	public boolean setByPath(String path, Object o) throws IllegalArgumentException, NumberFormatException {
 		return super.setByPath(path, o);
 	}
 
+	@Override
+	public boolean setByPath(JsonPath path, Object o) throws IllegalArgumentException, NumberFormatException {
+		return super.setByPath(path, o);
+	}
+
+	/**
+	 * Creates an index over the elements of this array, keyed by the values at the given paths,
+	 * which finds elements by their keys in constant time. The index is kept up to date as this
+	 * array is modified, until it is dropped with {@link #dropIndex(JsonIndex)}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If no path is given.
+	 */
+	public JsonIndex createIndex(String... paths) throws IllegalArgumentException {
+		return attach(new JsonIndex(this, compile(paths), false));
+	}
+
+	/**
+	 * Creates an index like {@link #createIndex(String...)} which can also find all elements whose
+	 * keys lie in a range.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If no path is given.
+	 */
+	public JsonIndex createSortedIndex(String... paths) throws IllegalArgumentException {
+		return attach(new JsonIndex(this, compile(paths), true));
+	}
+
+	/**
+	 * Stops keeping an index up to date with this array. Returns <code>false</code> if the index
+	 * was not created by this array, or has been dropped already.
+	 */
+	public boolean dropIndex(JsonIndex index) {
+		if (indexes != null) {
+			for (int i = 0; i < indexes.length; ++i) {
+				if (indexes[i] == index) {
+					if (indexes.length == 1) {
+						indexes = null;
+					} else {
+						JsonIndex[] newIndexes = new JsonIndex[indexes.length - 1];
+						System.arraycopy(indexes, 0, newIndexes, 0, i);
+						System.arraycopy(indexes, i + 1, newIndexes, i, newIndexes.length - i);
+						indexes = newIndexes;
+					}
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static JsonPath[] compile(String[] paths) {
+		JsonPath[] compiled = new JsonPath[paths.length];
+		for (int i = 0; i < paths.length; ++i) {
+			compiled[i] = JsonPath.compile(paths[i]);
+		}
+		return compiled;
+	}
+
+	private JsonIndex attach(JsonIndex index) {
+		if (indexes == null) {
+			indexes = new JsonIndex[] {index};
+		} else {
+			indexes = Arrays.copyOf(indexes, indexes.length + 1);
+			indexes[indexes.length - 1] = index;
+		}
+		return index;
+	}
+
+	/** Rebuilds all indexes after the positions of many elements have changed at once. */
+	private void rebuildIndexes() {
+		if (indexes != null) {
+			for (JsonIndex i : indexes) i.rebuild();
+		}
+	}
+
 	/**
 	 * Returns an {@link Iterable} for iterating across {@link JsonArray}s.
 	 * Elements are cast to {@link JsonArray}s if necessary.
@@ -241,22 +570,10 @@ public final class JsonArray extends JsonValue implements List<JsonValue>, Immut
 		return new Iterable<JsonArray>() {
 			@Override
 			public Iterator<JsonArray> iterator() {
-				return new Iterator<JsonArray>() {
-					private int nextIndex = 0;
-
-					@Override
-					public boolean hasNext() {
-						return (nextIndex < list.size());
-					}
-
+				return new ElementIterator<JsonArray>() {
 					@Override
-					public JsonArray next() {
-						return hasNext() ? list.get(nextIndex++).asArray() : null;
-					}
-
-					@Override
-					public void remove() {
-						list.remove(nextIndex);
+					protected JsonArray element(int index) {
+						return elementAt(index).asArray();
 					}
 				};
 			}
@@ -271,22 +588,10 @@ public final class JsonArray extends JsonValue implements List<JsonValue>, Immut
 		return new Iterable<JsonObject>() {
 			@Override
 			public Iterator<JsonObject> iterator() {
-				return new Iterator<JsonObject>() {
-					private int nextIndex = 0;
-
-					@Override
-					public boolean hasNext() {
-						return (nextIndex < list.size());
-					}
-
+				return new ElementIterator<JsonObject>() {
 					@Override
-					public JsonObject next() {
-						return hasNext() ? list.get(nextIndex++).asMap() : null;
-					}
-
-					@Override
-					public void remove() {
-						list.remove(nextIndex);
+					protected JsonObject element(int index) {
+						return elementAt(index).asMap();
 					}
 				};
 			}
@@ -298,22 +603,10 @@ public final class JsonArray extends JsonValue implements List<JsonValue>, Immut
 		return new Iterable<String>() {
 			@Override
 			public Iterator<String> iterator() {
-				return new Iterator<String>() {
-					private int nextIndex = 0;
-
-					@Override
-					public boolean hasNext() {
-						return (nextIndex < list.size());
-					}
-
+				return new ElementIterator<String>() {
 					@Override
-					public String next() {
-						return hasNext() ? list.get(nextIndex++).asString() : null;
-					}
-
-					@Override
-					public void remove() {
-						list.remove(nextIndex);
+					protected String element(int index) {
+						return elementAt(index).asString();
 					}
 				};
 			}
@@ -325,22 +618,10 @@ public final class JsonArray extends JsonValue implements List<JsonValue>, Immut
 		return new Iterable<Number>() {
 			@Override
 			public Iterator<Number> iterator() {
-				return new Iterator<Number>() {
-					private int nextIndex = 0;
-
-					@Override
-					public boolean hasNext() {
-						return (nextIndex < list.size());
-					}
-
+				return new ElementIterator<Number>() {
 					@Override
-					public Number next() {
-						return hasNext() ? list.get(nextIndex++).asNumber() : null;
-					}
-
-					@Override
-					public void remove() {
-						list.remove(nextIndex);
+					protected Number element(int index) {
+						return elementAt(index).asNumber();
 					}
 				};
 			}
@@ -352,52 +633,101 @@ public final class JsonArray extends JsonValue implements List<JsonValue>, Immut
 		return new Iterable<Boolean>() {
 			@Override
 			public Iterator<Boolean> iterator() {
-				return new Iterator<Boolean>() {
-					private int nextIndex = 0;
-
-					@Override
-					public boolean hasNext() {
-						return (nextIndex < list.size());
-					}
-
-					@Override
-					public Boolean next() {
-						return hasNext() ? list.get(nextIndex++).asBoolean() : null;
-					}
-
+				return new ElementIterator<Boolean>() {
 					@Override
-					public void remove() {
-						list.remove(nextIndex);
+					protected Boolean element(int index) {
+						return elementAt(index).asBoolean();
 					}
 				};
 			}
 		};
 	}
 
+	/**
+	 * Returns a spliterator over the elements of this array, which also backs {@link #stream()}
+	 * and {@link #parallelStream()}. It splits the array into halves of equal size, so parallel
+	 * streams keep all cores busy. Nested objects and arrays are unshared from any copy of this
+	 * array beforehand, on the calling thread. The array may not be modified while the spliterator
+	 * is in use.
+	 */
+	@Override
+	public Spliterator<JsonValue> spliterator() {
+		if (shared && containers > 0) unshare();
+		return new ValueSpliterator(0, -1);
+	}
+
+	/**
+	 * Returns a sequential stream of the elements of this array as <code>long</code>s. Packed
+	 * elements are streamed without boxing them, and the stream splits evenly if it is made
+	 * parallel.
+	 * 
+	 * @throws JsonCastException
+	 *             During the terminal operation, if an element is not a number.
+	 */
+	public LongStream longStream() {
+		return StreamSupport.longStream(new LongSpliterator(0, -1), false);
+	}
+
+	/**
+	 * Returns a sequential stream of the elements of this array as <code>double</code>s. Packed
+	 * elements are streamed without boxing them, and the stream splits evenly if it is made
+	 * parallel.
+	 * 
+	 * @throws JsonCastException
+	 *             During the terminal operation, if an element is not a number.
+	 */
+	public DoubleStream doubleStream() {
+		return StreamSupport.doubleStream(new DoubleSpliterator(0, -1), false);
+	}
+
+	/**
+	 * Returns a sequential stream of the elements of this array as {@link JsonObject}s. Elements
+	 * are cast to {@link JsonObject}s if necessary.
+	 * 
+	 * @throws JsonCastException
+	 *             During the terminal operation, if an element is not an object.
+	 */
+	public Stream<JsonObject> objectStream() {
+		return stream().map(new Function<JsonValue, JsonObject>() {
+			@Override
+			public JsonObject apply(JsonValue value) {
+				return value.asMap();
+			}
+		});
+	}
+
 	@Override
 	public int lastIndexOf(Object o) {
-		return list.lastIndexOf(o);
+		for (int i = size - 1; i >= 0; --i) {
+			if (elementEquals(i, o)) return i;
+		}
+		return -1;
 	}
 
 	@Override
 	public ListIterator<JsonValue> listIterator() {
-		return list.listIterator();
+		return new ListView().listIterator();
 	}
 
 	@Override
 	public ListIterator<JsonValue> listIterator(int index) {
-		return list.listIterator(index);
+		return new ListView().listIterator(index);
 	}
 
 	@Override
 	public boolean remove(Object o) {
-		return list.remove(o);
+		int i = indexOf(o);
+		if (i >= 0) {
+			remove(i);
+			return true;
+		}
+		return false;
 	}
 
 	public boolean remove(String s) {
-		for (int i = 0; i < list.size(); ++i) {
-			if (list.get(i).asString().equals(s)) {
-				list.remove(i);
+		for (int i = 0; i < size; ++i) {
+			if (elementAt(i).asString().equals(s)) {
+				remove(i);
 				return true;
 			}
 		}
@@ -405,9 +735,9 @@ public final class JsonArray extends JsonValue implements List<JsonValue>, Immut
 	}
 
 	public boolean remove(Number n) {
-		for (int i = 0; i < list.size(); ++i) {
-			if (list.get(i).asNumber().equals(n)) {
-				list.remove(i);
+		for (int i = 0; i < size; ++i) {
+			if (elementAt(i).asNumber().equals(n)) {
+				remove(i);
 				return true;
 			}
 		}
@@ -415,9 +745,9 @@ public final class JsonArray extends JsonValue implements List<JsonValue>, Immut
 	}
 
 	public boolean remove(Boolean b) {
-		for (int i = 0; i < list.size(); ++i) {
-			if (list.get(i).asBoolean() == b.booleanValue()) {
-				list.remove(i);
+		for (int i = 0; i < size; ++i) {
+			if (elementAt(i).asBoolean() == b.booleanValue()) {
+				remove(i);
 				return true;
 			}
 		}
@@ -426,92 +756,811 @@ public final class JsonArray extends JsonValue implements List<JsonValue>, Immut
 
 	@Override
 	public JsonValue remove(int index) {
-		return list.remove(index);
+		checkIndex(index);
+		if (shared) unshare();
+		JsonValue oldValue = elementAt(index);
+		if (indexes != null) {
+			for (JsonIndex i : indexes) i.removing(index);
+		}
+		int moved = size - index - 1;
+		if (longs != null) {
+			System.arraycopy(longs, index + 1, longs, index, moved);
+		} else if (doubles != null) {
+			System.arraycopy(doubles, index + 1, doubles, index, moved);
+			if (integral != null) System.arraycopy(integral, index + 1, integral, index, moved);
+		} else {
+			System.arraycopy(elements, index + 1, elements, index, moved);
+			elements[size - 1] = null;
+		}
+		--size;
+		modified(oldValue, null);
+		return oldValue;
 	}
 
 	@Override
 	public boolean removeAll(Collection<?> c) {
-		return list.removeAll(c);
+		return batchRemove(c, false);
 	}
 
 	@Override
 	public boolean retainAll(Collection<?> c) {
-		return list.retainAll(c);
+		return batchRemove(c, true);
+	}
+
+	/**
+	 * Removes all elements which are (or with <code>retain</code>, which are not) contained in the
+	 * given collection, compacting the storage in a single pass.
+	 */
+	private boolean batchRemove(Collection<?> c, boolean retain) {
+		if (shared) unshare();
+		int j = 0;
+		for (int i = 0; i < size; ++i) {
+			JsonValue value = elementAt(i);
+			if (c.contains(value) == retain) {
+				if (longs != null) {
+					longs[j++] = longs[i];
+				} else if (doubles != null) {
+					if (integral != null) integral[j] = integral[i];
+					doubles[j++] = doubles[i];
+				} else {
+					elements[j++] = elements[i];
+				}
+			} else if (isContainer(value)) {
+				--containers;
+			}
+		}
+		if (j == size) {
+			return false;
+		}
+		invalidateHash();
+		if (elements != null) {
+			Arrays.fill(elements, j, size, null);
+		}
+		size = j;
+		rebuildIndexes();
+		return true;
 	}
 
 	@Override
 	public JsonValue set(int index, JsonValue element) {
-		return list.set(index, element);
+		checkIndex(index);
+		if (element == null) element = JSON_NULL;
+		if (shared) unshare();
+		JsonValue oldValue = elementAt(index);
+		adaptTo(element);
+		if (indexes != null) {
+			for (JsonIndex i : indexes) i.unlink(index);
+		}
+		store(index, element);
+		if (indexes != null) {
+			for (JsonIndex i : indexes) i.link(index);
+		}
+		modified(oldValue, element);
+		return oldValue;
 	}
 
 	public JsonValue set(int index, String string) {
-		return list.set(index, new JsonString(string));
+		return set(index, JsonString.valueOf(string));
 	}
 
 	public JsonValue set(int index, Number number) {
-		return list.set(index, new JsonNumber(number));
+		return set(index, JsonNumber.valueOf(number));
 	}
 
 	public JsonValue set(int index, Boolean bool) {
-		return list.set(index, new JsonBoolean(bool));
+		return set(index, JsonValue.getBoolean(bool));
 	}
 
 	public ImmutableJsonArray asImmutable() {
 		return this;
 	}
 
+	/**
+	 * Returns a {@link PersistentJsonArray} with the same elements as this array. Nested objects
+	 * and arrays are converted as well.
+	 */
+	public PersistentJsonArray toPersistent() {
+		return PersistentJsonArray.copyOf(this);
+	}
+
+	/**
+	 * Returns a {@link BinaryJsonArray} with the same elements as this array, encoded into a new direct
+	 * buffer. Nested objects and arrays are encoded as well.
+	 */
+	public BinaryJsonArray toBinary() {
+		return new BinaryJsonArray(BinaryJson.encode(this), 4);
+	}
+
+	@Override
+	JsonValue freeze() {
+		return toPersistent();
+	}
+
 	@Override
 	public int size() {
-		return list.size();
+		return size;
 	}
 
 	@Override
 	public List<JsonValue> subList(int fromIndex, int toIndex) {
-		return list.subList(fromIndex, toIndex);
+		return new ListView().subList(fromIndex, toIndex);
 	}
 
 	@Override
 	public Object[] toArray() {
-		return list.toArray();
+		Object[] array = new Object[size];
+		for (int i = 0; i < size; ++i) {
+			array[i] = elementAt(i);
+		}
+		return array;
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public <T> T[] toArray(T[] a) {
-		return list.toArray(a);
+		if (a.length < size) {
+			a = (T[]) java.lang.reflect.Array.newInstance(a.getClass().getComponentType(), size);
+		}
+		for (int i = 0; i < size; ++i) {
+			a[i] = (T) elementAt(i);
+		}
+		if (a.length > size) {
+			a[size] = null;
+		}
+		return a;
 	}
 
-	@Override
-	public boolean equals(Object o) {
-		if (o != null) {
-			if (o instanceof JsonArray) {
-				JsonArray array = (JsonArray) o;
-				if (list.size() == array.size()) {
-					for (int i = 0; i < list.size(); ++i) {
-						if (!list.get(i).equals(array.get(i))) return false;
+	/**
+	 * Returns the element at the given index, which is about to be handed out, creating a
+	 * {@link JsonNumber} if it is packed. If the element is an object or array which may be shared
+	 * with a copy of this array, the storage of this array is unshared first.
+	 */
+	private JsonValue elementAt(int index) {
+		if (longs != null) {
+			return JsonNumber.valueOf(longs[index]);
+		} else if (doubles != null) {
+			return isIntegralAt(index)
+					? JsonNumber.valueOf((long) doubles[index]) : new JsonNumber(doubles[index]);
+		} else {
+			JsonValue value = elements[index];
+			if (isContainer(value)) {
+				if (shared) {
+					unshare();
+					value = elements[index];
+				}
+				value.setExposed(true);
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * Gives this array a private copy of its storage, replacing each nested object or array with a
+	 * (lazy) copy of its own. Only this level of the tree is copied. Exposed objects and arrays are
+	 * kept, since {@link #copy()} never shares them.
+	 */
+	private synchronized void unshare() {
+		if (shared) {
+			if (longs != null) {
+				longs = longs.clone();
+			} else if (doubles != null) {
+				doubles = doubles.clone();
+				if (integral != null) integral = integral.clone();
+			} else {
+				JsonValue[] newElements = elements.clone();
+				for (int i = 0; i < size; ++i) {
+					if (!newElements[i].isExposed()) {
+						newElements[i] = concealedCopy(newElements[i]);
+						newElements[i].addHashDependent(this); // the cached hash code may cover it
 					}
 				}
-				return true;
+				elements = newElements;
 			}
+			shared = false;
 		}
-		return false;
 	}
 
+	/**
+	 * Returns the element at the given index like {@link #elementAt(int)}, but without unsharing
+	 * the storage of this array. The element must not be modified or handed out.
+	 */
+	JsonValue peek(int index) {
+		return (elements != null) ? elements[index] : elementAt(index);
+	}
+
+	/** Returns <code>true</code> if the elements of this array are stored unboxed. */
+	boolean isPacked() {
+		return elements == null;
+	}
+
+	/**
+	 * Returns the packed elements of this array if they are all integral numbers, otherwise
+	 * <code>null</code>. The returned array is not a copy, must not be modified, and may be longer
+	 * than this array.
+	 */
+	long[] packedLongs() {
+		return longs;
+	}
+
+	/**
+	 * Returns the packed elements of this array if they are all real numbers, otherwise
+	 * <code>null</code>. The returned array is not a copy, must not be modified, and may be longer
+	 * than this array.
+	 */
+	double[] packedDoubles() {
+		return (integral == null) ? doubles : null;
+	}
+
+	/** Records that an element (or <code>null</code>) was replaced by another. */
+	private void modified(JsonValue oldValue, JsonValue newValue) {
+		if (oldValue != null && isContainer(oldValue)) --containers;
+		if (newValue != null && isContainer(newValue)) ++containers;
+		invalidateHash();
+	}
+
+	private static boolean isContainer(JsonValue value) {
+		return value.getType() == Type.MAP || value.getType() == Type.ARRAY;
+	}
+
+	/** Returns <code>true</code> if the cached hash code of this array is current. */
+	boolean isHashCurrent() {
+		return hashStamp == stamp;
+	}
+
+	@Override
+	void addHashDependent(JsonValue container) {
+		HashDependents.register(HASH_DEPENDENTS, this, container);
+	}
+
+	/**
+	 * Invalidates the cached hash code of this array, and those of the containers it is in, before
+	 * it is modified.
+	 */
+	@Override
+	void invalidateHash() {
+		++stamp;
+		HashDependents.invalidate(HASH_DEPENDENTS, this);
+	}
+
+	/** Returns <code>true</code> if the element at the given index is equal to the given object. */
+	private boolean elementEquals(int index, Object o) {
+		if (longs != null || doubles != null) {
+			return (o instanceof JsonNumber) && elementAt(index).equals(o);
+		} else {
+			return elements[index].equals(o);
+		}
+	}
+
+	/** Returns <code>true</code> if the value is a plain integral {@link JsonNumber}. */
+	private static boolean isLong(JsonValue value) {
+		return value.getClass() == JsonNumber.class && ((JsonNumber) value).isInteger();
+	}
+
+	/** Returns <code>true</code> if the value is a plain real-valued {@link JsonNumber}. */
+	private static boolean isDouble(JsonValue value) {
+		return value.getClass() == JsonNumber.class && !((JsonNumber) value).isInteger();
+	}
+
+	/** Returns <code>true</code> if a <code>double</code> represents the integer exactly. */
+	private static boolean isExactDouble(long l) {
+		return l >= -(1L << 53) && l <= (1L << 53);
+	}
+
+	/** Returns <code>true</code> if the indexed element is an integer widened to a double. */
+	private boolean isIntegralAt(int index) {
+		return integral != null && integral[index];
+	}
+
+	/** Returns <code>true</code> if the value can be stored in the current layout. */
+	private boolean accepts(JsonValue value) {
+		if (longs != null) {
+			return isLong(value);
+		} else if (doubles != null) {
+			return isDouble(value) || (isLong(value) && isExactDouble(value.asLong()));
+		} else {
+			return true;
+		}
+	}
+
+	/**
+	 * Changes the layout such that it accepts the given value. Integers are widened to
+	 * <code>double</code>s for a real number if they can all be represented exactly, such that
+	 * a series of mixed integers and real numbers stays packed. Otherwise the elements are boxed.
+	 */
+	private void adaptTo(JsonValue value) {
+		if (accepts(value)) return;
+		if (longs != null && isDouble(value)) {
+			for (int i = 0; i < size; ++i) {
+				if (!isExactDouble(longs[i])) {
+					unpack();
+					return;
+				}
+			}
+			final int capacity = longs.length;
+			doubles = new double[capacity];
+			integral = new boolean[capacity];
+			for (int i = 0; i < size; ++i) {
+				doubles[i] = longs[i];
+				integral[i] = true;
+			}
+			longs = null;
+		} else {
+			unpack();
+		}
+	}
+
+	/** Stores a value, which must be accepted by the current layout, at the given index. */
+	private void store(int index, JsonValue value) {
+		if (longs != null) {
+			longs[index] = value.asLong();
+		} else if (doubles != null) {
+			doubles[index] = value.asDouble();
+			final boolean isInteger = ((JsonNumber) value).isInteger();
+			if (isInteger && integral == null) integral = new boolean[doubles.length];
+			if (integral != null) integral[index] = isInteger;
+		} else {
+			elements[index] = value;
+		}
+	}
+
+	/** Inserts a value at the given index, choosing or abandoning a packed layout as needed. */
+	private void insert(int index, JsonValue value) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException(outOfBoundsMessage(index));
+		}
+		if (value == null) value = JSON_NULL;
+		if (shared) unshare();
+		if (size == 0) {
+			// the first element decides the layout
+			int capacity = capacity();
+			integral = null;
+			if (isLong(value)) {
+				if (longs == null) {
+					longs = new long[Math.max(capacity, DEFAULT_CAPACITY)];
+					doubles = null;
+					elements = null;
+				}
+			} else if (isDouble(value)) {
+				if (doubles == null) {
+					doubles = new double[Math.max(capacity, DEFAULT_CAPACITY)];
+					longs = null;
+					elements = null;
+				}
+			} else if (elements == null) {
+				elements = new JsonValue[Math.max(capacity, DEFAULT_CAPACITY)];
+				longs = null;
+				doubles = null;
+			}
+		} else {
+			adaptTo(value);
+		}
+		ensureCapacity(size + 1);
+		int moved = size - index;
+		if (moved > 0) {
+			if (longs != null) {
+				System.arraycopy(longs, index, longs, index + 1, moved);
+			} else if (doubles != null) {
+				System.arraycopy(doubles, index, doubles, index + 1, moved);
+				if (integral != null) System.arraycopy(integral, index, integral, index + 1, moved);
+			} else {
+				System.arraycopy(elements, index, elements, index + 1, moved);
+			}
+		}
+		store(index, value);
+		++size;
+		if (indexes != null) {
+			for (JsonIndex i : indexes) i.inserted(index);
+		}
+		modified(null, value);
+	}
+
+	/** Converts a packed layout into boxed <code>JsonValue</code>s. */
+	private void unpack() {
+		if (elements == null) {
+			JsonValue[] boxed = new JsonValue[Math.max(capacity(), DEFAULT_CAPACITY)];
+			for (int i = 0; i < size; ++i) {
+				boxed[i] = elementAt(i);
+			}
+			elements = boxed;
+			longs = null;
+			doubles = null;
+			integral = null;
+		}
+	}
+
+	/** Returns the capacity of the current layout. */
+	private int capacity() {
+		if (longs != null) {
+			return longs.length;
+		} else if (doubles != null) {
+			return doubles.length;
+		} else {
+			return elements.length;
+		}
+	}
+
+	/** Grows the current layout such that it can hold at least the given number of elements. */
+	private void ensureCapacity(int capacity) {
+		int oldCapacity = capacity();
+		if (capacity > oldCapacity) {
+			int newCapacity = Math.max(Math.max(DEFAULT_CAPACITY, oldCapacity + (oldCapacity >> 1)),
+					capacity);
+			if (longs != null) {
+				longs = Arrays.copyOf(longs, newCapacity);
+			} else if (doubles != null) {
+				doubles = Arrays.copyOf(doubles, newCapacity);
+				if (integral != null) integral = Arrays.copyOf(integral, newCapacity);
+			} else {
+				elements = Arrays.copyOf(elements, newCapacity);
+			}
+		}
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(outOfBoundsMessage(index));
+		}
+	}
+
+	private String outOfBoundsMessage(int index) {
+		return String.format("Index: %d, Size: %d", index, size);
+	}
+
+	/** A <code>List</code> view of this array backing its list iterators and sub-lists. */
+	private final class ListView extends AbstractList<JsonValue> {
+
+		@Override
+		public JsonValue get(int index) {
+			return JsonArray.this.get(index);
+		}
+
+		@Override
+		public JsonValue set(int index, JsonValue element) {
+			return JsonArray.this.set(index, element);
+		}
+
+		@Override
+		public void add(int index, JsonValue element) {
+			insert(index, element);
+			++modCount;
+		}
+
+		@Override
+		public JsonValue remove(int index) {
+			++modCount;
+			return JsonArray.this.remove(index);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	/** An iterator over the elements of this array, supporting removal of the last element. */
+	private abstract class ElementIterator<T> implements Iterator<T> {
+
+		private int nextIndex = 0;
+
+		private int lastIndex = -1;
+
+		/** Returns the element with the given index. */
+		protected abstract T element(int index);
+
+		@Override
+		public boolean hasNext() {
+			return nextIndex < size;
+		}
+
+		@Override
+		public T next() {
+			if (nextIndex >= size) {
+				throw new NoSuchElementException();
+			}
+			lastIndex = nextIndex++;
+			return element(lastIndex);
+		}
+
+		@Override
+		public void remove() {
+			if (lastIndex < 0) {
+				throw new IllegalStateException();
+			}
+			JsonArray.this.remove(lastIndex);
+			nextIndex = lastIndex;
+			lastIndex = -1;
+		}
+	}
+
+	/**
+	 * The index range shared by the spliterators of this array, from <code>index</code>
+	 * (inclusive) to the fence (exclusive). The fence is bound to the size of this array when it
+	 * is first needed, so a spliterator may be created before the array is filled.
+	 */
+	private abstract class IndexSpliterator {
+
+		protected int index;
+
+		private int fence;
+
+		IndexSpliterator(int index, int fence) {
+			this.index = index;
+			this.fence = fence;
+		}
+
+		protected final int fence() {
+			if (fence < 0) fence = size;
+			return fence;
+		}
+
+		/**
+		 * Moves the start of this spliterator to the middle of its remaining elements and returns
+		 * the former start, or returns -1 if there are too few elements to split.
+		 */
+		protected final int split() {
+			int lo = index, mid = (lo + fence()) >>> 1;
+			if (lo >= mid) return -1;
+			index = mid;
+			return lo;
+		}
+
+		/** Throws an exception if elements were removed from this array during traversal. */
+		protected final void checkSize() {
+			if (size < fence) throw new ConcurrentModificationException();
+		}
+
+		public long estimateSize() {
+			return fence() - index;
+		}
+
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED
+					| Spliterator.NONNULL;
+		}
+	}
+
+	private final class ValueSpliterator extends IndexSpliterator
+			implements Spliterator<JsonValue> {
+
+		ValueSpliterator(int index, int fence) {
+			super(index, fence);
+		}
+
+		@Override
+		public Spliterator<JsonValue> trySplit() {
+			int lo = split();
+			return (lo < 0) ? null : new ValueSpliterator(lo, index);
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super JsonValue> action) {
+			if (action == null) throw new NullPointerException("Action may not be null.");
+			if (index >= fence()) return false;
+			checkSize();
+			action.accept(elementAt(index++));
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super JsonValue> action) {
+			if (action == null) throw new NullPointerException("Action may not be null.");
+			final int hi = fence();
+			for (int i = index; i < hi; ++i) {
+				checkSize();
+				action.accept(elementAt(i));
+			}
+			index = hi;
+		}
+	}
+
+	private final class LongSpliterator extends IndexSpliterator implements Spliterator.OfLong {
+
+		LongSpliterator(int index, int fence) {
+			super(index, fence);
+		}
+
+		@Override
+		public Spliterator.OfLong trySplit() {
+			int lo = split();
+			return (lo < 0) ? null : new LongSpliterator(lo, index);
+		}
+
+		@Override
+		public boolean tryAdvance(LongConsumer action) {
+			if (action == null) throw new NullPointerException("Action may not be null.");
+			if (index >= fence()) return false;
+			checkSize();
+			action.accept(longAt(index++));
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(LongConsumer action) {
+			if (action == null) throw new NullPointerException("Action may not be null.");
+			final int hi = fence();
+			checkSize();
+			final long[] packed = longs;
+			if (packed != null) {
+				for (int i = index; i < hi; ++i) {
+					action.accept(packed[i]);
+				}
+			} else {
+				for (int i = index; i < hi; ++i) {
+					action.accept(longAt(i));
+				}
+			}
+			index = hi;
+			checkSize();
+		}
+	}
+
+	private final class DoubleSpliterator extends IndexSpliterator
+			implements Spliterator.OfDouble {
+
+		DoubleSpliterator(int index, int fence) {
+			super(index, fence);
+		}
+
+		@Override
+		public Spliterator.OfDouble trySplit() {
+			int lo = split();
+			return (lo < 0) ? null : new DoubleSpliterator(lo, index);
+		}
+
+		@Override
+		public boolean tryAdvance(DoubleConsumer action) {
+			if (action == null) throw new NullPointerException("Action may not be null.");
+			if (index >= fence()) return false;
+			checkSize();
+			action.accept(doubleAt(index++));
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(DoubleConsumer action) {
+			if (action == null) throw new NullPointerException("Action may not be null.");
+			final int hi = fence();
+			checkSize();
+			final double[] packed = doubles;
+			if (packed != null) {
+				for (int i = index; i < hi; ++i) {
+					action.accept(packed[i]);
+				}
+			} else {
+				for (int i = index; i < hi; ++i) {
+					action.accept(doubleAt(i));
+				}
+			}
+			index = hi;
+			checkSize();
+		}
+	}
+
+	/**
+	 * Two arrays are equal if they have equal elements in the same order. Arrays of any other
+	 * implementation and other lists are equal to this array if they have the same elements too.
+	 * Arrays of different size or with different cached hash codes are rejected without comparing
+	 * their elements.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) return true;
+		if (o instanceof JsonArray) {
+			JsonArray array = (JsonArray) o;
+			if (size != array.size) return false;
+			if (hash != array.hash && isHashCurrent() && array.isHashCurrent()) return false;
+			return contentEquals(array);
+		}
+		return arrayEquals(this, o);
+	}
+
+	@Override
+	boolean contentEquals(JsonValue value) {
+		if (value == this) return true;
+		if (!(value instanceof JsonArray)) return arrayEquals(this, value);
+		JsonArray array = (JsonArray) value;
+		if (size != array.size) return false;
+		if (elements == array.elements && longs == array.longs && doubles == array.doubles) {
+			return true; // an unmodified copy
+		}
+		if (longs != null && array.longs != null) {
+			for (int i = 0; i < size; ++i) {
+				if (longs[i] != array.longs[i]) return false;
+			}
+		} else if (doubles != null && array.doubles != null) {
+			for (int i = 0; i < size; ++i) {
+				if (Double.doubleToRawLongBits(doubles[i])
+						!= Double.doubleToRawLongBits(array.doubles[i])
+						|| isIntegralAt(i) != array.isIntegralAt(i)) return false;
+			}
+		} else if (elements != null && array.elements != null) {
+			for (int i = 0; i < size; ++i) {
+				if (!elements[i].contentEquals(array.elements[i])) return false;
+			}
+		} else {
+			for (int i = 0; i < size; ++i) {
+				if (!elementEquals(i, array.peek(i))) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the hash code of this array, combining the hash codes of its elements as
+	 * <code>List</code> does. The result is cached until this array or any value nested in it is
+	 * modified.
+	 */
 	@Override
-	// http://www.linuxtopia.org/online_books/programming_books/thinking_in_java/TIJ313_029.htm
 	public int hashCode() {
-		int h = 17;
-		for (int i = 0; i < list.size(); ++i) {
-			JsonValue v = list.get(i);
-			h = 37 * h + v.hashCode();
+		final long s = stamp;
+		if (hashStamp == s) {
+			return hash;
+		}
+		int h = 1;
+		for (int i = 0; i < size; ++i) {
+			int elementHash;
+			if (longs != null) {
+				elementHash = (int) ((longs[i] >>> 32) ^ longs[i]);
+			} else if (doubles != null) {
+				long bits = isIntegralAt(i)
+						? (long) doubles[i] : Double.doubleToRawLongBits(doubles[i]);
+				elementHash = (int) ((bits >>> 32) ^ bits);
+			} else {
+				// register first, so that a concurrent modification cannot slip in unnoticed
+				if (containers > 0) elements[i].addHashDependent(this);
+				elementHash = elements[i].hashCode();
+			}
+			h = 31 * h + elementHash;
 		}
+		hash = h;
+		hashStamp = s;
 		return h;
 	}
 
+	@Override
+	boolean isExposed() {
+		return exposed;
+	}
+
+	@Override
+	void setExposed(boolean exposed) {
+		this.exposed = exposed;
+	}
+
+	/**
+	 * Returns a deep copy of this array. The copy is made lazily: both arrays share their storage
+	 * until one of them is modified or hands out a nested object or array, at which point only
+	 * that level is copied. Nested objects and arrays which have been handed out, and may thus be
+	 * modified directly, are copied right away (lazily in turn).
+	 */
 	@Override
 	public JsonValue copy() {
-		JsonArray array = new JsonArray(list.size());
-		for (int i = 0; i < list.size(); ++i) {
-			array.add(list.get(i).copy());
+		JsonArray array = new JsonArray();
+		if (size > 0) {
+			JsonValue[] copiedElements = elements;
+			if (containers > 0) {
+				for (int i = 0; i < size; ++i) {
+					if (elements[i].isExposed()) {
+						if (copiedElements == elements) copiedElements = elements.clone();
+						copiedElements[i] = concealedCopy(elements[i]);
+					}
+				}
+			}
+			array.elements = copiedElements;
+			array.longs = longs;
+			array.doubles = doubles;
+			array.integral = integral;
+			array.size = size;
+			array.shared = shared = true;
+			array.containers = containers;
+			if (isHashCurrent()) {
+				// the copy keeps the cached hash code, so it must hear of nested modifications too
+				for (int i = 0; i < size && containers > 0; ++i) {
+					copiedElements[i].addHashDependent(array);
+				}
+				array.hash = hash;
+				array.hashStamp = array.stamp;
+			}
 		}
 		return array;
 	}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compact binary stream format of {@link JsonValue#writeBinary(OutputStream)} and
+ * {@link JsonValue#readBinary(InputStream)}. Unlike the layout of {@link BinaryJson} it has no
+ * offset tables, and is written and read in a single pass.
+ * <p>
+ * A stream starts with {@link #MAGIC} followed by a single value. Every value starts with a
+ * one-byte tag:
+ * <ul>
+ * <li><code>NULL</code>, <code>FALSE</code>, <code>TRUE</code>: no payload.</li>
+ * <li><code>INT</code>: a zigzag varint. <code>DOUBLE</code>: the raw bits of a 64-bit IEEE
+ * double, little-endian.</li>
+ * <li><code>STRING</code>: a string, that is a varint number of bytes followed by each UTF-16 code
+ * unit encoded as one to three bytes, as in UTF-8. Unpaired surrogates survive unchanged.</li>
+ * <li><code>DATE</code>: the epoch milliseconds as a zigzag varint, followed by the date as it was
+ * written as a string, so that it is not parsed again.</li>
+ * <li><code>ARRAY</code>: a varint number of elements followed by the elements.
+ * <code>LONGS</code> and <code>DOUBLES</code>: a varint number of elements followed by zigzag
+ * varints or raw doubles.</li>
+ * <li><code>OBJECT</code>: a varint number of entries, each a key reference followed by the value.
+ * A key reference of zero is followed by a new key string, which is added to the key dictionary
+ * of the stream. Any other reference is the position in the dictionary plus one.</li>
+ * </ul>
+ */
+final class JsonBinaryCodec {
+
+	/** The first four bytes of every stream, <code>"AJS1"</code>. */
+	private static final byte[] MAGIC = {'A', 'J', 'S', '1'};
+
+	private static final int NULL = 0;
+	private static final int FALSE = 1;
+	private static final int TRUE = 2;
+	private static final int INT = 3;
+	private static final int DOUBLE = 4;
+	private static final int STRING = 5;
+	private static final int DATE = 6;
+	private static final int ARRAY = 7;
+	private static final int LONGS = 8;
+	private static final int DOUBLES = 9;
+	private static final int OBJECT = 10;
+
+	/** The largest initial capacity of a decoded container, as the stream may be corrupt. */
+	static final int MAX_INITIAL_CAPACITY = 4096;
+
+	private JsonBinaryCodec() {}
+
+	static void write(JsonValue value, OutputStream out) throws IOException {
+		Writer writer = new Writer(new BinaryOutput(out));
+		for (byte b : MAGIC) writer.out.writeByte(b);
+		writer.write(value);
+		writer.out.flush();
+	}
+
+	static JsonValue read(InputStream in) throws IOException, JsonParseException {
+		Reader reader = new Reader(new BinaryInput(in));
+		for (byte b : MAGIC) {
+			if (reader.in.readByte() != b) {
+				throw new JsonParseException("Stream does not contain binary JSON.");
+			}
+		}
+		JsonValue value = reader.read();
+		reader.in.finish();
+		return value;
+	}
+
+	private static long zigzag(long l) {
+		return (l << 1) ^ (l >> 63);
+	}
+
+	private static long unzigzag(long l) {
+		return (l >>> 1) ^ -(l & 1L);
+	}
+
+	private static final class Writer {
+
+		private final BinaryOutput out;
+
+		/** The position of every key written so far in the key dictionary. */
+		private final Map<String,Integer> keys = new HashMap<String,Integer>();
+
+		private Writer(BinaryOutput out) {
+			this.out = out;
+		}
+
+		private void writeVarint(long l) throws IOException {
+			out.ensure(10);
+			final byte[] buffer = out.buffer;
+			int position = out.position;
+			while ((l & ~0x7FL) != 0L) {
+				buffer[position++] = (byte) ((l & 0x7F) | 0x80);
+				l >>>= 7;
+			}
+			buffer[position++] = (byte) l;
+			out.position = position;
+		}
+
+		private void writeDouble(double d) throws IOException {
+			out.writeLittleEndian(Double.doubleToRawLongBits(d), 8);
+		}
+
+		private void writeString(String s) throws IOException {
+			final int n = s.length();
+			long length = 0;
+			for (int i = 0; i < n; ++i) {
+				char c = s.charAt(i);
+				length += (c < 0x80) ? 1 : (c < 0x800) ? 2 : 3;
+			}
+			writeVarint(length);
+			final byte[] buffer = out.buffer;
+			for (int i = 0; i < n; ++i) {
+				out.ensure(3);
+				char c = s.charAt(i);
+				if (c < 0x80) {
+					buffer[out.position++] = (byte) c;
+				} else if (c < 0x800) {
+					buffer[out.position++] = (byte) (0xC0 | (c >> 6));
+					buffer[out.position++] = (byte) (0x80 | (c & 0x3F));
+				} else {
+					buffer[out.position++] = (byte) (0xE0 | (c >> 12));
+					buffer[out.position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					buffer[out.position++] = (byte) (0x80 | (c & 0x3F));
+				}
+			}
+		}
+
+		private void write(JsonValue value) throws IOException {
+			switch (value.getType()) {
+				case NULL: out.writeByte(NULL); break;
+				case BOOLEAN: out.writeByte(value.asBoolean() ? TRUE : FALSE); break;
+				case NUMBER: {
+					if (value instanceof JsonNumber && !((JsonNumber) value).isInteger()) {
+						out.writeByte(DOUBLE);
+						writeDouble(value.asDouble());
+					} else {
+						out.writeByte(INT);
+						writeVarint(zigzag(value.asLong()));
+					}
+					break;
+				}
+				case STRING: out.writeByte(STRING); writeString(value.asString()); break;
+				case DATE: {
+					out.writeByte(DATE);
+					writeVarint(zigzag(value.asDate().getTime()));
+					writeString(value.asString());
+					break;
+				}
+				case ARRAY: writeArray(value); break;
+				case MAP: writeObject(value); break;
+			}
+		}
+
+		private void writeArray(JsonValue value) throws IOException {
+			if (value instanceof JsonArray) {
+				JsonArray array = (JsonArray) value;
+				final int n = array.size();
+				long[] longs = array.packedLongs();
+				double[] doubles = array.packedDoubles();
+				if (longs != null) {
+					out.writeByte(LONGS);
+					writeVarint(n);
+					for (int i = 0; i < n; ++i) writeVarint(zigzag(longs[i]));
+					return;
+				} else if (doubles != null) {
+					out.writeByte(DOUBLES);
+					writeVarint(n);
+					for (int i = 0; i < n; ++i) writeDouble(doubles[i]);
+					return;
+				}
+			}
+			List<JsonValue> elements = JsonValue.elementsOf(value);
+			out.writeByte(ARRAY);
+			writeVarint(elements.size());
+			for (JsonValue element : elements) {
+				write(element);
+			}
+		}
+
+		private void writeObject(JsonValue value) throws IOException {
+			Collection<Map.Entry<String,JsonValue>> entries = JsonValue.entriesOf(value);
+			out.writeByte(OBJECT);
+			writeVarint(entries.size());
+			for (Map.Entry<String,JsonValue> e : entries) {
+				Integer key = keys.get(e.getKey());
+				if (key != null) {
+					writeVarint(key + 1);
+				} else {
+					keys.put(e.getKey(), keys.size());
+					writeVarint(0);
+					writeString(e.getKey());
+				}
+				write(e.getValue());
+			}
+		}
+	}
+
+	private static final class Reader {
+
+		private final BinaryInput in;
+
+		/** The key dictionary of the stream. */
+		private final List<String> keys = new ArrayList<String>();
+
+		/** Reusable characters for decoding strings. */
+		private char[] chars = new char[64];
+
+		private Reader(BinaryInput in) {
+			this.in = in;
+		}
+
+		private long readVarint() throws IOException {
+			long l = 0L;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = in.readByte();
+				l |= (long) (b & 0x7F) << shift;
+				if (b < 0x80) return l;
+			}
+			throw new JsonParseException("Malformed varint.");
+		}
+
+		private int readLength() throws IOException {
+			long l = readVarint();
+			if (l < 0L || l > Integer.MAX_VALUE) {
+				throw new JsonParseException("Malformed length: " + l);
+			}
+			return (int) l;
+		}
+
+		private double readDouble() throws IOException {
+			return Double.longBitsToDouble(in.readLittleEndian(8));
+		}
+
+		private String readString() throws IOException {
+			int length = readLength();
+			if (length > chars.length) {
+				chars = new char[Math.max(length, 2 * chars.length)];
+			}
+			final byte[] buffer = in.buffer;
+			int n = 0;
+			while (length > 0) {
+				in.require(1);
+				int c = buffer[in.position] & 0xFF;
+				if (c < 0x80) {
+					chars[n++] = (char) c;
+					++in.position;
+					--length;
+				} else {
+					int bytes = (c < 0xE0) ? 2 : 3;
+					if (bytes > length) throw new JsonParseException("Malformed string.");
+					in.require(bytes);
+					int p = in.position;
+					chars[n++] = (bytes == 2)
+							? (char) (((c & 0x1F) << 6) | (buffer[p + 1] & 0x3F))
+							: (char) (((c & 0x0F) << 12) | ((buffer[p + 1] & 0x3F) << 6)
+									| (buffer[p + 2] & 0x3F));
+					in.position += bytes;
+					length -= bytes;
+				}
+			}
+			return new String(chars, 0, n);
+		}
+
+		private JsonValue read() throws IOException {
+			switch (in.readByte()) {
+				case NULL: return JsonValue.getNull();
+				case FALSE: return JsonValue.getBoolean(false);
+				case TRUE: return JsonValue.getBoolean(true);
+				case INT: return JsonNumber.valueOf(unzigzag(readVarint()));
+				case DOUBLE: return new JsonNumber(readDouble());
+				case STRING: return JsonString.valueOf(readString());
+				case DATE: {
+					long time = unzigzag(readVarint());
+					return new JsonDate(new Date(time), readString());
+				}
+				case ARRAY: {
+					final int n = readLength();
+					JsonArray array = new JsonArray(Math.min(n, MAX_INITIAL_CAPACITY));
+					List<JsonObject> shapes = new ArrayList<JsonObject>();
+					for (int i = 0; i < n; ++i) {
+						JsonValue value = read();
+						if (value.getType() == JsonValue.Type.MAP) {
+							JsonObject.shareShape((JsonObject) value, shapes);
+						}
+						array.add(value);
+					}
+					return array;
+				}
+				case LONGS: {
+					final int n = readLength();
+					long[] longs = new long[Math.min(n, MAX_INITIAL_CAPACITY)];
+					for (int i = 0; i < n; ++i) {
+						if (i == longs.length) longs = Arrays.copyOf(longs, Math.min(n, 2 * i));
+						longs[i] = unzigzag(readVarint());
+					}
+					return new JsonArray(longs);
+				}
+				case DOUBLES: {
+					final int n = readLength();
+					double[] doubles = new double[Math.min(n, MAX_INITIAL_CAPACITY)];
+					for (int i = 0; i < n; ++i) {
+						if (i == doubles.length) doubles = Arrays.copyOf(doubles, Math.min(n, 2 * i));
+						doubles[i] = readDouble();
+					}
+					return new JsonArray(doubles);
+				}
+				case OBJECT: {
+					final int n = readLength();
+					JsonObject obj = new JsonObject(Math.min(n, MAX_INITIAL_CAPACITY));
+					for (int i = 0; i < n; ++i) {
+						int ref = readLength();
+						String key;
+						if (ref == 0) {
+							key = readString();
+							keys.add(key);
+						} else if (ref <= keys.size()) {
+							key = keys.get(ref - 1);
+						} else {
+							throw new JsonParseException("Unknown key reference: " + ref);
+						}
+						obj.put(key, read());
+					}
+					return obj;
+				}
+				default: throw new JsonParseException("Unknown tag.");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,1427 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps Java objects of a class to and from JSON, either as {@link JsonValue}s or directly with a
+ * {@link JsonWriter} and {@link JsonReader}.
+ * <p>
+ * Plain objects are mapped to JSON objects with a member for each of their fields, including
+ * inherited and private fields but not static and transient ones. They are created with their
+ * constructor without arguments. Records are mapped to JSON objects with a member for each
+ * component, and created with their canonical constructor. Fields and components may be of any
+ * primitive type, a wrapper type, <code>String</code>, <code>Date</code>, an enum (by name), a
+ * {@link JsonValue}, an array, a <code>Collection</code>, a <code>Map</code> with string keys,
+ * or any other such class, which is mapped in the same way.
+ * 
+ * <pre>
+ * JsonBinder&lt;Order&gt; orders = JsonBinder.of(Order.class);
+ * Order order = orders.read(new JsonReader(in));
+ * orders.write(new JsonWriter(out), order);
+ * </pre>
+ * 
+ * The binder of a class is built once, from method handles for its fields and constructors, so
+ * that no reflection is needed to map its objects. Primitive fields are read and written without
+ * boxing them, and objects are read from a <code>JsonReader</code> without an intermediate map.
+ * Members which have no field are ignored, and fields which have no member keep their default
+ * value. Binders may be used by several threads at once. Cyclic object graphs are not supported.
+ */
+public final class JsonBinder<T> {
+
+	private static final ClassValue<JsonBinder<?>> BINDERS = new ClassValue<JsonBinder<?>>() {
+		@Override
+		protected JsonBinder<?> computeValue(Class<?> type) {
+			return create(type);
+		}
+	};
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	/** The reflective methods of records, which are <code>null</code> before Java 16. */
+	private static final Method IS_RECORD;
+	private static final Method RECORD_COMPONENTS;
+	private static final Method COMPONENT_NAME;
+	private static final Method COMPONENT_ACCESSOR;
+	private static final Method COMPONENT_TYPE;
+
+	static {
+		Method[] methods = new Method[5];
+		try {
+			Class<?> component = Class.forName("java.lang.reflect.RecordComponent");
+			methods[0] = Class.class.getMethod("isRecord");
+			methods[1] = Class.class.getMethod("getRecordComponents");
+			methods[2] = component.getMethod("getName");
+			methods[3] = component.getMethod("getAccessor");
+			methods[4] = component.getMethod("getGenericType");
+		} catch (ReflectiveOperationException e) {
+			Arrays.fill(methods, null); // no records
+		}
+		IS_RECORD = methods[0];
+		RECORD_COMPONENTS = methods[1];
+		COMPONENT_NAME = methods[2];
+		COMPONENT_ACCESSOR = methods[3];
+		COMPONENT_TYPE = methods[4];
+	}
+
+	/** Handles which read and write the slots of a {@link Frame}. */
+	private static final MethodHandle LONG_AT;
+	private static final MethodHandle DOUBLE_AT;
+	private static final MethodHandle REF_AT;
+	private static final MethodHandle SET_LONG;
+	private static final MethodHandle SET_DOUBLE;
+	private static final MethodHandle SET_REF;
+
+	static {
+		try {
+			LONG_AT = frameHandle("longAt", long.class, Frame.class, int.class);
+			DOUBLE_AT = frameHandle("doubleAt", double.class, Frame.class, int.class);
+			REF_AT = frameHandle("refAt", Object.class, Frame.class, int.class);
+			SET_LONG = frameHandle("setLong", void.class, Frame.class, int.class, long.class);
+			SET_DOUBLE = frameHandle("setDouble", void.class, Frame.class, int.class, double.class);
+			SET_REF = frameHandle("setRef", void.class, Frame.class, int.class, Object.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final Class<T> type;
+
+	private final Codec codec;
+
+	private JsonBinder(Class<T> type, Codec codec) {
+		this.type = type;
+		this.codec = codec;
+	}
+
+	/**
+	 * Returns the binder of the given class, which is built the first time it is needed.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the class has a field of a type which cannot be mapped, such as a map
+	 *             whose keys are not strings.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> JsonBinder<T> of(Class<T> type) throws IllegalArgumentException {
+		if (type == null) { throw new NullPointerException("Type may not be null."); }
+		return (JsonBinder<T>) BINDERS.get(type);
+	}
+
+	private static <T> JsonBinder<T> create(Class<T> type) {
+		return new JsonBinder<T>(type, isBean(type) ? new BeanCodec(type) : codecFor(type));
+	}
+
+	/** Returns the class of the objects of this binder. */
+	public Class<T> type() {
+		return type;
+	}
+
+	/** Converts an object into a JSON value. A <code>null</code> object becomes JSON null. */
+	public JsonValue toJson(T value) {
+		return encode(codec, value);
+	}
+
+	/**
+	 * Converts a JSON value into an object. JSON null becomes <code>null</code>.
+	 * 
+	 * @throws JsonCastException
+	 *             If the value does not have the shape of an object of this binder.
+	 */
+	@SuppressWarnings("unchecked")
+	public T fromJson(JsonValue value) throws JsonCastException {
+		if (value == null) { throw new NullPointerException("Value may not be null."); }
+		return (T) decode(codec, value);
+	}
+
+	/** Writes an object as the next value of a writer. */
+	public void write(JsonWriter writer, T value) throws IOException {
+		if (writer == null) { throw new NullPointerException("Writer may not be null."); }
+		write(codec, writer, value);
+	}
+
+	/**
+	 * Reads the next value of a reader into an object.
+	 * 
+	 * @throws JsonCastException
+	 *             If the value does not have the shape of an object of this binder.
+	 */
+	@SuppressWarnings("unchecked")
+	public T read(JsonReader reader) throws IOException, JsonParseException, JsonCastException {
+		if (reader == null) { throw new NullPointerException("Reader may not be null."); }
+		return (T) read(codec, reader);
+	}
+
+	@Override
+	public String toString() {
+		return "JsonBinder<" + type.getName() + ">";
+	}
+
+	private static JsonValue encode(Codec codec, Object value) {
+		return (value == null) ? JsonValue.getNull() : codec.toJson(value);
+	}
+
+	private static Object decode(Codec codec, JsonValue value) {
+		return (value.getType() == JsonValue.Type.NULL) ? null : codec.fromJson(value);
+	}
+
+	private static void write(Codec codec, JsonWriter writer, Object value) throws IOException {
+		if (value == null) {
+			writer.nullValue();
+		} else {
+			codec.write(writer, value);
+		}
+	}
+
+	private static Object read(Codec codec, JsonReader reader)
+			throws IOException, JsonParseException {
+		if (reader.peek() == JsonReader.Token.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		return codec.read(reader);
+	}
+
+	/** Returns the elements of a JSON array. */
+	private static List<JsonValue> elements(JsonValue value) throws JsonCastException {
+		if (value.getType() != JsonValue.Type.ARRAY) {
+			throw new JsonCastException("Expected an array but found " + value.getType() + ".");
+		}
+		return JsonValue.elementsOf(value);
+	}
+
+	private static char toChar(String s) throws JsonCastException {
+		if (s.length() != 1) {
+			throw new JsonCastException("Expected a single character but found \"" + s + "\".");
+		}
+		return s.charAt(0);
+	}
+
+	/** Rethrows an exception of a method handle which is not an {@link IOException}. */
+	private static RuntimeException rethrow(Throwable t) {
+		if (t instanceof RuntimeException) throw (RuntimeException) t;
+		if (t instanceof Error) throw (Error) t;
+		return new JsonCastException((Exception) t);
+	}
+
+	/**
+	 * Returns <code>true</code> if objects of the given class are mapped field by field, or
+	 * component by component.
+	 */
+	private static boolean isBean(Class<?> c) {
+		return !c.isPrimitive() && !c.isArray() && !c.isEnum() && !c.isInterface()
+				&& !Modifier.isAbstract(c.getModifiers()) && c != String.class
+				&& c != Boolean.class && c != Character.class && !Number.class.isAssignableFrom(c)
+				&& !Date.class.isAssignableFrom(c) && !JsonValue.class.isAssignableFrom(c)
+				&& !Collection.class.isAssignableFrom(c) && !Map.class.isAssignableFrom(c)
+				&& c != Object.class;
+	}
+
+	private static boolean isRecord(Class<?> c) {
+		try {
+			return IS_RECORD != null && (Boolean) IS_RECORD.invoke(c);
+		} catch (ReflectiveOperationException e) {
+			return false;
+		}
+	}
+
+	/** Returns the class of a generic type. */
+	private static Class<?> rawType(Type type) {
+		if (type instanceof Class<?>) {
+			return (Class<?>) type;
+		} else if (type instanceof ParameterizedType) {
+			return rawType(((ParameterizedType) type).getRawType());
+		} else if (type instanceof GenericArrayType) {
+			Type component = ((GenericArrayType) type).getGenericComponentType();
+			return Array.newInstance(rawType(component), 0).getClass();
+		} else if (type instanceof WildcardType) {
+			return rawType(((WildcardType) type).getUpperBounds()[0]);
+		} else if (type instanceof TypeVariable<?>) {
+			return rawType(((TypeVariable<?>) type).getBounds()[0]);
+		}
+		return Object.class;
+	}
+
+	/** Returns the type argument of a generic type, or <code>Object</code> if it is raw. */
+	private static Type typeArgument(Type type, int index) {
+		return (type instanceof ParameterizedType)
+				? ((ParameterizedType) type).getActualTypeArguments()[index] : Object.class;
+	}
+
+	/** Returns the codec of values of the given type, which is not primitive. */
+	private static Codec codecFor(Type type) throws IllegalArgumentException {
+		if (type instanceof GenericArrayType) {
+			Type component = ((GenericArrayType) type).getGenericComponentType();
+			return new ArrayCodec(rawType(component), codecFor(component));
+		}
+		final Class<?> c = rawType(type);
+		if (c == String.class) return new ScalarCodec(ScalarCodec.STRING);
+		if (c == Boolean.class || c == boolean.class) return new ScalarCodec(ScalarCodec.BOOLEAN);
+		if (c == Character.class || c == char.class) return new ScalarCodec(ScalarCodec.CHARACTER);
+		if (c == Byte.class || c == byte.class) return new ScalarCodec(ScalarCodec.BYTE);
+		if (c == Short.class || c == short.class) return new ScalarCodec(ScalarCodec.SHORT);
+		if (c == Integer.class || c == int.class) return new ScalarCodec(ScalarCodec.INTEGER);
+		if (c == Long.class || c == long.class) return new ScalarCodec(ScalarCodec.LONG);
+		if (c == Float.class || c == float.class) return new ScalarCodec(ScalarCodec.FLOAT);
+		if (c == Double.class || c == double.class) return new ScalarCodec(ScalarCodec.DOUBLE);
+		if (c == Number.class) return new ScalarCodec(ScalarCodec.NUMBER);
+		if (c == Date.class) return new ScalarCodec(ScalarCodec.DATE);
+		if (c.isEnum()) return new EnumCodec(c);
+		if (JsonValue.class.isAssignableFrom(c)) return new JsonValueCodec(c);
+		if (c.isArray()) {
+			Class<?> component = c.getComponentType();
+			return component.isPrimitive() ? new PrimitiveArrayCodec(component)
+					: new ArrayCodec(component, codecFor(component));
+		}
+		if (Collection.class.isAssignableFrom(c)) {
+			return new CollectionCodec(c, collectionFactory(c), codecFor(typeArgument(type, 0)));
+		}
+		if (Map.class.isAssignableFrom(c)) {
+			Type key = typeArgument(type, 0);
+			if (key != String.class && key != Object.class) {
+				throw new IllegalArgumentException("The keys of a map must be strings: " + type);
+			}
+			return new MapCodec(c, mapFactory(c), codecFor(typeArgument(type, 1)));
+		}
+		return isBean(c) ? new DeferredCodec(c) : new ObjectCodec(c);
+	}
+
+	/** Returns a handle which creates an empty collection of the given class, or an interface. */
+	private static MethodHandle collectionFactory(Class<?> c) {
+		if (c.isInterface() || Modifier.isAbstract(c.getModifiers())) {
+			if (c.isAssignableFrom(ArrayList.class)) {
+				c = ArrayList.class;
+			} else if (c.isAssignableFrom(LinkedHashSet.class)) {
+				c = LinkedHashSet.class;
+			} else if (c.isAssignableFrom(TreeSet.class)) {
+				c = TreeSet.class; // SortedSet and NavigableSet
+			} else if (c.isAssignableFrom(ArrayDeque.class)) {
+				c = ArrayDeque.class; // Queue and Deque
+			}
+		}
+		return factory(c);
+	}
+
+	/** Returns a handle which creates an empty map of the given class, or an interface. */
+	private static MethodHandle mapFactory(Class<?> c) {
+		if (c.isInterface() || Modifier.isAbstract(c.getModifiers())) {
+			if (c.isAssignableFrom(LinkedHashMap.class)) {
+				c = LinkedHashMap.class;
+			} else if (c.isAssignableFrom(TreeMap.class)) {
+				c = TreeMap.class; // SortedMap and NavigableMap
+			} else if (c.isAssignableFrom(ConcurrentHashMap.class)) {
+				c = ConcurrentHashMap.class;
+			}
+		}
+		return factory(c);
+	}
+
+	/**
+	 * Returns a handle of type <code>()Object</code> for the constructor without arguments, or
+	 * <code>null</code> if there is none, in which case objects of the class can only be written.
+	 */
+	private static MethodHandle factory(Class<?> c) {
+		try {
+			Constructor<?> constructor = c.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			return LOOKUP.unreflectConstructor(constructor)
+					.asType(MethodType.methodType(Object.class));
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (RuntimeException e) {
+			return null; // not accessible, or abstract
+		}
+	}
+
+	/** Invokes a handle returned by {@link #factory(Class)}. */
+	private static Object create(MethodHandle factory, Class<?> type) {
+		if (factory == null) {
+			throw new UnsupportedOperationException("Cannot create an instance of "
+					+ type.getName() + ".");
+		}
+		try {
+			return (Object) factory.invokeExact();
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	private static MethodHandle frameHandle(String name, Class<?> returnType, Class<?>... types)
+			throws ReflectiveOperationException {
+		return LOOKUP.findStatic(JsonBinder.class, name, MethodType.methodType(returnType, types));
+	}
+
+	/**
+	 * The arguments of the canonical constructor of a record while it is being read, in slots of
+	 * their primitive kind, so that they are not boxed.
+	 */
+	private static final class Frame {
+
+		final long[] longs;
+
+		final double[] doubles;
+
+		final Object[] refs;
+
+		Frame(int longs, int doubles, int refs) {
+			this.longs = new long[longs];
+			this.doubles = new double[doubles];
+			this.refs = new Object[refs];
+		}
+	}
+
+	private static long longAt(Frame frame, int slot) {
+		return frame.longs[slot];
+	}
+
+	private static double doubleAt(Frame frame, int slot) {
+		return frame.doubles[slot];
+	}
+
+	private static Object refAt(Frame frame, int slot) {
+		return frame.refs[slot];
+	}
+
+	private static void setLong(Frame frame, int slot, long value) {
+		frame.longs[slot] = value;
+	}
+
+	private static void setDouble(Frame frame, int slot, double value) {
+		frame.doubles[slot] = value;
+	}
+
+	private static void setRef(Frame frame, int slot, Object value) {
+		frame.refs[slot] = value;
+	}
+
+	/** Maps values of a type, which are never <code>null</code> or JSON null. */
+	private static abstract class Codec {
+
+		abstract JsonValue toJson(Object value);
+
+		abstract Object fromJson(JsonValue value);
+
+		abstract void write(JsonWriter writer, Object value) throws IOException;
+
+		abstract Object read(JsonReader reader) throws IOException, JsonParseException;
+	}
+
+	/** Maps strings, dates, and boxed primitives. */
+	private static final class ScalarCodec extends Codec {
+
+		static final int STRING = 0;
+		static final int BOOLEAN = 1;
+		static final int CHARACTER = 2;
+		static final int BYTE = 3;
+		static final int SHORT = 4;
+		static final int INTEGER = 5;
+		static final int LONG = 6;
+		static final int FLOAT = 7;
+		static final int DOUBLE = 8;
+		static final int NUMBER = 9;
+		static final int DATE = 10;
+
+		private final int kind;
+
+		ScalarCodec(int kind) {
+			this.kind = kind;
+		}
+
+		@Override
+		JsonValue toJson(Object value) {
+			switch (kind) {
+				case STRING: return JsonString.valueOf((String) value);
+				case BOOLEAN: return JsonValue.getBoolean((Boolean) value);
+				case CHARACTER: return JsonString.valueOf(value.toString());
+				case FLOAT:
+				case DOUBLE: return new JsonNumber(((Number) value).doubleValue());
+				case NUMBER: return JsonNumber.valueOf((Number) value);
+				case DATE: return new JsonDate((Date) value);
+				default: return JsonNumber.valueOf(((Number) value).longValue());
+			}
+		}
+
+		@Override
+		Object fromJson(JsonValue value) {
+			switch (kind) {
+				case STRING: return value.asString();
+				case BOOLEAN: return value.asBoolean();
+				case CHARACTER: return toChar(value.asString());
+				case BYTE: return (byte) value.asLong();
+				case SHORT: return (short) value.asLong();
+				case INTEGER: return (int) value.asLong();
+				case LONG: return value.asLong();
+				case FLOAT: return (float) value.asDouble();
+				case DOUBLE: return value.asDouble();
+				case NUMBER: return value.asNumber();
+				default: return value.asDate();
+			}
+		}
+
+		@Override
+		void write(JsonWriter writer, Object value) throws IOException {
+			switch (kind) {
+				case STRING: writer.value((String) value); break;
+				case BOOLEAN: writer.value(((Boolean) value).booleanValue()); break;
+				case CHARACTER: writer.value(value.toString()); break;
+				case FLOAT:
+				case DOUBLE: writer.value(((Number) value).doubleValue()); break;
+				case NUMBER: {
+					// as JsonNumber.valueOf(Number) converts it
+					final double d = ((Number) value).doubleValue();
+					final long l = ((Number) value).longValue();
+					if (d == (double) l) {
+						writer.value(l);
+					} else {
+						writer.value(d);
+					}
+					break;
+				}
+				case DATE: writer.value(JsonDate.toIso8601String((Date) value)); break;
+				default: writer.value(((Number) value).longValue()); break;
+			}
+		}
+
+		@Override
+		Object read(JsonReader reader) throws IOException, JsonParseException {
+			switch (kind) {
+				case STRING: return reader.nextString();
+				case BOOLEAN: return reader.nextBoolean();
+				case CHARACTER: return toChar(reader.nextString());
+				case BYTE: return (byte) reader.nextLong();
+				case SHORT: return (short) reader.nextLong();
+				case INTEGER: return (int) reader.nextLong();
+				case LONG: return reader.nextLong();
+				case FLOAT: return (float) reader.nextDouble();
+				case DOUBLE: return reader.nextDouble();
+				case NUMBER: return reader.nextValue().asNumber();
+				default: {
+					try {
+						return JsonDate.asDate(reader.nextString());
+					} catch (ParseException e) {
+						throw new JsonCastException(e);
+					}
+				}
+			}
+		}
+	}
+
+	/** Maps the constants of an enum to their names. */
+	private static final class EnumCodec extends Codec {
+
+		private final Map<String,Object> constants = new HashMap<String,Object>();
+
+		EnumCodec(Class<?> type) {
+			for (Object constant : type.getEnumConstants()) {
+				constants.put(((Enum<?>) constant).name(), constant);
+			}
+		}
+
+		private Object constant(String name) throws JsonCastException {
+			Object constant = constants.get(name);
+			if (constant == null) {
+				throw new JsonCastException("Unknown constant \"" + name + "\".");
+			}
+			return constant;
+		}
+
+		@Override
+		JsonValue toJson(Object value) {
+			return JsonString.valueOf(((Enum<?>) value).name());
+		}
+
+		@Override
+		Object fromJson(JsonValue value) {
+			return constant(value.asString());
+		}
+
+		@Override
+		void write(JsonWriter writer, Object value) throws IOException {
+			writer.value(((Enum<?>) value).name());
+		}
+
+		@Override
+		Object read(JsonReader reader) throws IOException, JsonParseException {
+			return constant(reader.nextString());
+		}
+	}
+
+	/** Passes JSON values through as they are. */
+	private static final class JsonValueCodec extends Codec {
+
+		private final Class<?> type;
+
+		JsonValueCodec(Class<?> type) {
+			this.type = type;
+		}
+
+		@Override
+		JsonValue toJson(Object value) {
+			return (JsonValue) value;
+		}
+
+		@Override
+		Object fromJson(JsonValue value) {
+			if (type == JsonObject.class) return value.asMap();
+			if (type == JsonArray.class) return value.asArray();
+			if (!type.isInstance(value)) {
+				throw new JsonCastException("Expected " + type.getSimpleName() + " but found "
+						+ value.getType() + ".");
+			}
+			return value;
+		}
+
+		@Override
+		void write(JsonWriter writer, Object value) throws IOException {
+			writer.value((JsonValue) value);
+		}
+
+		@Override
+		Object read(JsonReader reader) throws IOException, JsonParseException {
+			return fromJson(reader.nextValue());
+		}
+	}
+
+	/**
+	 * Maps values of a type which is not known until they are written, such as
+	 * <code>Object</code> or an interface. Values of type <code>Object</code> are read as JSON
+	 * values, and values of other such types cannot be read.
+	 */
+	private static final class ObjectCodec extends Codec {
+
+		private final Class<?> type;
+
+		ObjectCodec(Class<?> type) {
+			this.type = type;
+		}
+
+		private Codec codecOf(Object value) {
+			return of(value.getClass()).codec;
+		}
+
+		private Object check(JsonValue value) throws JsonCastException {
+			if (type != Object.class) {
+				throw new JsonCastException("Cannot create an instance of " + type.getName() + ".");
+			}
+			return value;
+		}
+
+		@Override
+		JsonValue toJson(Object value) {
+			return codecOf(value).toJson(value);
+		}
+
+		@Override
+		Object fromJson(JsonValue value) {
+			return check(value);
+		}
+
+		@Override
+		void write(JsonWriter writer, Object value) throws IOException {
+			codecOf(value).write(writer, value);
+		}
+
+		@Override
+		Object read(JsonReader reader) throws IOException, JsonParseException {
+			return check(reader.nextValue());
+		}
+	}
+
+	/**
+	 * Maps objects of another class with the binder of that class, which is only looked up when it
+	 * is first needed, so that classes may refer to themselves.
+	 */
+	private static final class DeferredCodec extends Codec {
+
+		private final Class<?> type;
+
+		private volatile Codec codec;
+
+		DeferredCodec(Class<?> type) {
+			this.type = type;
+		}
+
+		private Codec codec() {
+			Codec c = codec;
+			if (c == null) {
+				codec = c = of(type).codec; // may be looked up twice, but is the same
+			}
+			return c;
+		}
+
+		@Override
+		JsonValue toJson(Object value) {
+			return codec().toJson(value);
+		}
+
+		@Override
+		Object fromJson(JsonValue value) {
+			return codec().fromJson(value);
+		}
+
+		@Override
+		void write(JsonWriter writer, Object value) throws IOException {
+			codec().write(writer, value);
+		}
+
+		@Override
+		Object read(JsonReader reader) throws IOException, JsonParseException {
+			return codec().read(reader);
+		}
+	}
+
+	/** Maps arrays of objects to JSON arrays. */
+	private static final class ArrayCodec extends Codec {
+
+		private final Class<?> component;
+
+		private final Codec codec;
+
+		ArrayCodec(Class<?> component, Codec codec) {
+			this.component = component;
+			this.codec = codec;
+		}
+
+		@Override
+		JsonValue toJson(Object value) {
+			final Object[] array = (Object[]) value;
+			JsonArray json = new JsonArray();
+			for (Object element : array) {
+				json.add(encode(codec, element));
+			}
+			return json;
+		}
+
+		@Override
+		Object fromJson(JsonValue value) {
+			final List<JsonValue> elements = elements(value);
+			final Object[] array = (Object[]) Array.newInstance(component, elements.size());
+			for (int i = 0; i < array.length; ++i) {
+				array[i] = decode(codec, elements.get(i));
+			}
+			return array;
+		}
+
+		@Override
+		void write(JsonWriter writer, Object value) throws IOException {
+			writer.beginArray();
+			for (Object element : (Object[]) value) {
+				JsonBinder.write(codec, writer, element);
+			}
+			writer.endArray();
+		}
+
+		@Override
+		Object read(JsonReader reader) throws IOException, JsonParseException {
+			List<Object> elements = new ArrayList<Object>();
+			reader.beginArray();
+			while (reader.hasNext()) {
+				elements.add(JsonBinder.read(codec, reader));
+			}
+			reader.endArray();
+			return elements.toArray((Object[]) Array.newInstance(component, elements.size()));
+		}
+	}
+
+	/**
+	 * Maps arrays of primitives to JSON arrays without boxing their elements, except for
+	 * <code>char[]</code>, which is mapped to a string.
+	 */
+	private static final class PrimitiveArrayCodec extends Codec {
+
+		private final Class<?> component;
+
+		PrimitiveArrayCodec(Class<?> component) {
+			this.component = component;
+		}
+
+		@Override
+		JsonValue toJson(Object value) {
+			if (component == char.class) {
+				return JsonString.valueOf(new String((char[]) value));
+			}
+			if (component == boolean.class) {
+				JsonArray json = new JsonArray();
+				for (boolean b : (boolean[]) value) {
+					json.add(JsonValue.getBoolean(b));
+				}
+				return json;
+			}
+			final int n = Array.getLength(value);
+			if (component == float.class || component == double.class) {
+				double[] doubles = new double[n];
+				for (int i = 0; i < n; ++i) {
+					doubles[i] = (component == float.class)
+							? ((float[]) value)[i] : ((double[]) value)[i];
+				}
+				return new JsonArray(doubles);
+			}
+			long[] longs = new long[n];
+			for (int i = 0; i < n; ++i) {
+				longs[i] = longAt(value, i);
+			}
+			return new JsonArray(longs);
+		}
+
+		/** Returns an element of an array of integers. */
+		private long longAt(Object array, int i) {
+			if (component == int.class) return ((int[]) array)[i];
+			if (component == long.class) return ((long[]) array)[i];
+			if (component == short.class) return ((short[]) array)[i];
+			return ((byte[]) array)[i];
+		}
+
+		/** Creates an array from the buffered elements. */
+		private Object toArray(long[] longs, double[] doubles, int n) {
+			final Object array = Array.newInstance(component, n);
+			for (int i = 0; i < n; ++i) {
+				if (component == int.class) {
+					((int[]) array)[i] = (int) longs[i];
+				} else if (component == long.class) {
+					((long[]) array)[i] = longs[i];
+				} else if (component == double.class) {
+					((double[]) array)[i] = doubles[i];
+				} else if (component == float.class) {
+					((float[]) array)[i] = (float) doubles[i];
+				} else if (component == boolean.class) {
+					((boolean[]) array)[i] = longs[i] != 0;
+				} else if (component == short.class) {
+					((short[]) array)[i] = (short) longs[i];
+				} else {
+					((byte[]) array)[i] = (byte) longs[i];
+				}
+			}
+			return array;
+		}
+
+		private boolean isReal() {
+			return component == float.class || component == double.class;
+		}
+
+		@Override
+		Object fromJson(JsonValue value) {
+			if (component == char.class) {
+				return value.asString().toCharArray();
+			}
+			final List<JsonValue> elements = elements(value);
+			final JsonArray array = (elements instanceof JsonArray) ? (JsonArray) elements : null;
+			final int n = elements.size();
+			long[] longs = isReal() ? null : new long[n];
+			double[] doubles = isReal() ? new double[n] : null;
+			for (int i = 0; i < n; ++i) {
+				if (component == boolean.class) {
+					longs[i] = elements.get(i).asBoolean() ? 1L : 0L;
+				} else if (doubles != null) {
+					doubles[i] = (array != null) ? array.getDouble(i) : elements.get(i).asDouble();
+				} else {
+					longs[i] = (array != null) ? array.getLong(i) : elements.get(i).asLong();
+				}
+			}
+			return toArray(longs, doubles, n);
+		}
+
+		@Override
+		void write(JsonWriter writer, Object value) throws IOException {
+			if (component == char.class) {
+				writer.value(new String((char[]) value));
+				return;
+			}
+			writer.beginArray();
+			final int n = Array.getLength(value);
+			if (component == boolean.class) {
+				for (boolean b : (boolean[]) value) {
+					writer.value(b);
+				}
+			} else if (component == double.class) {
+				for (double d : (double[]) value) {
+					writer.value(d);
+				}
+			} else if (component == float.class) {
+				for (float f : (float[]) value) {
+					writer.value(f);
+				}
+			} else {
+				for (int i = 0; i < n; ++i) {
+					writer.value(longAt(value, i));
+				}
+			}
+			writer.endArray();
+		}
+
+		@Override
+		Object read(JsonReader reader) throws IOException, JsonParseException {
+			if (component == char.class) {
+				return reader.nextString().toCharArray();
+			}
+			long[] longs = isReal() ? null : new long[16];
+			double[] doubles = isReal() ? new double[16] : null;
+			int n = 0;
+			reader.beginArray();
+			for (; reader.hasNext(); ++n) {
+				if (doubles != null) {
+					if (n == doubles.length) doubles = Arrays.copyOf(doubles, 2 * n);
+					doubles[n] = reader.nextDouble();
+				} else {
+					if (n == longs.length) longs = Arrays.copyOf(longs, 2 * n);
+					longs[n] = (component == boolean.class)
+							? (reader.nextBoolean() ? 1L : 0L) : reader.nextLong();
+				}
+			}
+			reader.endArray();
+			return toArray(longs, doubles, n);
+		}
+	}
+
+	/** Maps collections to JSON arrays. */
+	private static final class CollectionCodec extends Codec {
+
+		private final Class<?> type;
+
+		/** Creates an empty collection, or <code>null</code>. */
+		private final MethodHandle factory;
+
+		private final Codec codec;
+
+		CollectionCodec(Class<?> type, MethodHandle factory, Codec codec) {
+			this.type = type;
+			this.factory = factory;
+			this.codec = codec;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Collection<Object> create() {
+			return (Collection<Object>) JsonBinder.create(factory, type);
+		}
+
+		@Override
+		JsonValue toJson(Object value) {
+			JsonArray json = new JsonArray();
+			for (Object element : (Collection<?>) value) {
+				json.add(encode(codec, element));
+			}
+			return json;
+		}
+
+		@Override
+		Object fromJson(JsonValue value) {
+			Collection<Object> collection = create();
+			for (JsonValue element : elements(value)) {
+				collection.add(decode(codec, element));
+			}
+			return collection;
+		}
+
+		@Override
+		void write(JsonWriter writer, Object value) throws IOException {
+			writer.beginArray();
+			for (Object element : (Collection<?>) value) {
+				JsonBinder.write(codec, writer, element);
+			}
+			writer.endArray();
+		}
+
+		@Override
+		Object read(JsonReader reader) throws IOException, JsonParseException {
+			Collection<Object> collection = create();
+			reader.beginArray();
+			while (reader.hasNext()) {
+				collection.add(JsonBinder.read(codec, reader));
+			}
+			reader.endArray();
+			return collection;
+		}
+	}
+
+	/** Maps maps with string keys to JSON objects. */
+	private static final class MapCodec extends Codec {
+
+		private final Class<?> type;
+
+		/** Creates an empty map, or <code>null</code>. */
+		private final MethodHandle factory;
+
+		private final Codec codec;
+
+		MapCodec(Class<?> type, MethodHandle factory, Codec codec) {
+			this.type = type;
+			this.factory = factory;
+			this.codec = codec;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Map<String,Object> create() {
+			return (Map<String,Object>) JsonBinder.create(factory, type);
+		}
+
+		@Override
+		JsonValue toJson(Object value) {
+			JsonObject json = new JsonObject();
+			for (Map.Entry<?,?> entry : ((Map<?,?>) value).entrySet()) {
+				json.put(String.valueOf(entry.getKey()), encode(codec, entry.getValue()));
+			}
+			return json;
+		}
+
+		@Override
+		Object fromJson(JsonValue value) {
+			if (value.getType() != JsonValue.Type.MAP) {
+				throw new JsonCastException("Expected a map but found " + value.getType() + ".");
+			}
+			Map<String,Object> map = create();
+			for (Map.Entry<String,JsonValue> entry : JsonValue.entriesOf(value)) {
+				map.put(entry.getKey(), decode(codec, entry.getValue()));
+			}
+			return map;
+		}
+
+		@Override
+		void write(JsonWriter writer, Object value) throws IOException {
+			writer.beginObject();
+			for (Map.Entry<?,?> entry : ((Map<?,?>) value).entrySet()) {
+				writer.name(String.valueOf(entry.getKey()));
+				JsonBinder.write(codec, writer, entry.getValue());
+			}
+			writer.endObject();
+		}
+
+		@Override
+		Object read(JsonReader reader) throws IOException, JsonParseException {
+			Map<String,Object> map = create();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String key = reader.nextName();
+				map.put(key, JsonBinder.read(codec, reader));
+			}
+			reader.endObject();
+			return map;
+		}
+	}
+
+	/**
+	 * Maps plain objects and records to JSON objects. Plain objects are created first, and their
+	 * fields are set as the members are read. The components of records are collected in a
+	 * {@link Frame} from which the canonical constructor is invoked.
+	 */
+	private static final class BeanCodec extends Codec {
+
+		private final Class<?> type;
+
+		private final Property[] properties;
+
+		private final Map<String,Property> byName = new HashMap<String,Property>();
+
+		/** Creates a plain object, of type <code>()Object</code>, or <code>null</code>. */
+		private final MethodHandle create;
+
+		/** Creates a record from a frame, of type <code>(Object)Object</code>. */
+		private final MethodHandle construct;
+
+		private int longSlots;
+
+		private int doubleSlots;
+
+		private int refSlots;
+
+		BeanCodec(Class<?> type) throws IllegalArgumentException {
+			this.type = type;
+			List<Property> properties = new ArrayList<Property>();
+			try {
+				if (isRecord(type)) {
+					create = null;
+					construct = recordProperties(properties);
+				} else {
+					construct = null;
+					create = factory(type);
+					fieldProperties(type, properties);
+				}
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalArgumentException("Cannot bind " + type.getName(), e);
+			}
+			this.properties = properties.toArray(new Property[properties.size()]);
+			for (Property property : this.properties) {
+				byName.put(property.name, property);
+			}
+		}
+
+		private void fieldProperties(Class<?> c, List<Property> properties)
+				throws ReflectiveOperationException {
+			if (c.getSuperclass() != null && c.getSuperclass() != Object.class) {
+				fieldProperties(c.getSuperclass(), properties);
+			}
+			for (Field field : c.getDeclaredFields()) {
+				final int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+						|| field.isSynthetic()) {
+					continue;
+				}
+				field.setAccessible(true);
+				MethodHandle setter;
+				try {
+					setter = LOOKUP.unreflectSetter(field);
+				} catch (IllegalAccessException e) {
+					setter = null; // a final field, which can only be written
+				}
+				properties.add(property(field.getName(), field.getGenericType(),
+						LOOKUP.unreflectGetter(field), setter));
+			}
+		}
+
+		/** Adds the components of a record, and returns the handle of its constructor. */
+		private MethodHandle recordProperties(List<Property> properties)
+				throws ReflectiveOperationException {
+			final Object[] components = (Object[]) RECORD_COMPONENTS.invoke(type);
+			final Class<?>[] types = new Class<?>[components.length];
+			final MethodHandle[] arguments = new MethodHandle[components.length];
+			for (int i = 0; i < components.length; ++i) {
+				final Method accessor = (Method) COMPONENT_ACCESSOR.invoke(components[i]);
+				accessor.setAccessible(true);
+				final Class<?> c = accessor.getReturnType();
+				types[i] = c;
+				final MethodHandle slot;
+				final MethodHandle setter;
+				if (c == double.class || c == float.class) {
+					slot = MethodHandles.insertArguments(DOUBLE_AT, 1, doubleSlots);
+					setter = MethodHandles.insertArguments(SET_DOUBLE, 1, doubleSlots++);
+				} else if (c.isPrimitive()) {
+					slot = MethodHandles.insertArguments(LONG_AT, 1, longSlots);
+					setter = MethodHandles.insertArguments(SET_LONG, 1, longSlots++);
+				} else {
+					slot = MethodHandles.insertArguments(REF_AT, 1, refSlots);
+					setter = MethodHandles.insertArguments(SET_REF, 1, refSlots++);
+				}
+				arguments[i] = MethodHandles.explicitCastArguments(slot,
+						MethodType.methodType(c, Frame.class));
+				properties.add(property((String) COMPONENT_NAME.invoke(components[i]),
+						(Type) COMPONENT_TYPE.invoke(components[i]), LOOKUP.unreflect(accessor),
+						setter));
+			}
+			final Constructor<?> constructor = type.getDeclaredConstructor(types);
+			constructor.setAccessible(true);
+			MethodHandle handle = MethodHandles.filterArguments(
+					LOOKUP.unreflectConstructor(constructor), 0, arguments);
+			handle = MethodHandles.permuteArguments(handle,
+					MethodType.methodType(type, Frame.class), new int[components.length]);
+			return handle.asType(MethodType.methodType(Object.class, Object.class));
+		}
+
+		/**
+		 * Returns the property for the given accessors, whose types are adapted to those of the
+		 * property. The setter may be <code>null</code>.
+		 */
+		private static Property property(String name, Type type, MethodHandle getter,
+				MethodHandle setter) {
+			final Class<?> c = rawType(type);
+			if (c == double.class || c == float.class) {
+				return new DoubleProperty(name,
+						MethodHandles.explicitCastArguments(getter,
+								MethodType.methodType(double.class, Object.class)),
+						(setter == null) ? null : MethodHandles.explicitCastArguments(setter,
+								MethodType.methodType(void.class, Object.class, double.class)));
+			} else if (c.isPrimitive()) {
+				return new LongProperty(name, c,
+						MethodHandles.explicitCastArguments(getter,
+								MethodType.methodType(long.class, Object.class)),
+						(setter == null) ? null : MethodHandles.explicitCastArguments(setter,
+								MethodType.methodType(void.class, Object.class, long.class)));
+			} else {
+				return new RefProperty(name, codecFor(type),
+						getter.asType(MethodType.methodType(Object.class, Object.class)),
+						(setter == null) ? null : setter.asType(
+								MethodType.methodType(void.class, Object.class, Object.class)));
+			}
+		}
+
+		/** Returns a new object, or the frame of a new record, whose properties are then set. */
+		private Object begin() {
+			if (construct != null) {
+				return new Frame(longSlots, doubleSlots, refSlots);
+			}
+			return JsonBinder.create(create, type);
+		}
+
+		/** Returns the object whose properties have been set. */
+		private Object end(Object target) {
+			if (construct == null) {
+				return target;
+			}
+			try {
+				return (Object) construct.invokeExact(target);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		JsonValue toJson(Object value) {
+			JsonObject json = new JsonObject();
+			try {
+				for (Property property : properties) {
+					json.put(property.name, property.toJson(value));
+				}
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+			return json;
+		}
+
+		@Override
+		Object fromJson(JsonValue value) {
+			if (value.getType() != JsonValue.Type.MAP) {
+				throw new JsonCastException("Expected a map but found " + value.getType() + ".");
+			}
+			final Object target = begin();
+			try {
+				for (Property property : properties) {
+					JsonValue member = value.findMember(property.name);
+					if (member != null && property.setter != null) {
+						property.fromJson(target, member);
+					}
+				}
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+			return end(target);
+		}
+
+		@Override
+		void write(JsonWriter writer, Object value) throws IOException {
+			writer.beginObject();
+			try {
+				for (Property property : properties) {
+					writer.escapedName(property.escapedName);
+					property.write(writer, value);
+				}
+			} catch (IOException e) {
+				throw e;
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+			writer.endObject();
+		}
+
+		@Override
+		Object read(JsonReader reader) throws IOException, JsonParseException {
+			final Object target = begin();
+			reader.beginObject();
+			try {
+				while (reader.hasNext()) {
+					Property property = byName.get(reader.nextName());
+					if (property == null || property.setter == null) {
+						reader.skipValue();
+					} else {
+						property.read(target, reader);
+					}
+				}
+			} catch (IOException e) {
+				throw e;
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+			reader.endObject();
+			return end(target);
+		}
+	}
+
+	/**
+	 * A field of a plain object or a component of a record. The getter takes the object, and the
+	 * setter takes the object or the frame of a record.
+	 */
+	private static abstract class Property {
+
+		final String name;
+
+		final String escapedName;
+
+		final MethodHandle getter;
+
+		/** The setter, or <code>null</code> if the property cannot be set. */
+		final MethodHandle setter;
+
+		Property(String name, MethodHandle getter, MethodHandle setter) {
+			this.name = name;
+			this.escapedName = JsonString.jsonEscape(name);
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		abstract JsonValue toJson(Object bean) throws Throwable;
+
+		abstract void fromJson(Object target, JsonValue value) throws Throwable;
+
+		abstract void write(JsonWriter writer, Object bean) throws Throwable;
+
+		abstract void read(Object target, JsonReader reader) throws Throwable;
+	}
+
+	/**
+	 * A property of a primitive type other than <code>float</code> and <code>double</code>, whose
+	 * accessors have been adapted to a <code>long</code>.
+	 */
+	private static final class LongProperty extends Property {
+
+		private final Class<?> type;
+
+		LongProperty(String name, Class<?> type, MethodHandle getter, MethodHandle setter) {
+			super(name, getter, setter);
+			this.type = type;
+		}
+
+		@Override
+		JsonValue toJson(Object bean) throws Throwable {
+			final long value = (long) getter.invokeExact(bean);
+			if (type == boolean.class) return JsonValue.getBoolean(value != 0);
+			if (type == char.class) return JsonString.valueOf(String.valueOf((char) value));
+			return JsonNumber.valueOf(value);
+		}
+
+		@Override
+		void fromJson(Object target, JsonValue value) throws Throwable {
+			final long l;
+			if (type == boolean.class) {
+				l = value.asBoolean() ? 1L : 0L;
+			} else if (type == char.class) {
+				l = toChar(value.asString());
+			} else {
+				l = value.asLong();
+			}
+			setter.invokeExact(target, l);
+		}
+
+		@Override
+		void write(JsonWriter writer, Object bean) throws Throwable {
+			final long value = (long) getter.invokeExact(bean);
+			if (type == boolean.class) {
+				writer.value(value != 0);
+			} else if (type == char.class) {
+				writer.value(String.valueOf((char) value));
+			} else {
+				writer.value(value);
+			}
+		}
+
+		@Override
+		void read(Object target, JsonReader reader) throws Throwable {
+			final long l;
+			if (type == boolean.class) {
+				l = reader.nextBoolean() ? 1L : 0L;
+			} else if (type == char.class) {
+				l = toChar(reader.nextString());
+			} else {
+				l = reader.nextLong();
+			}
+			setter.invokeExact(target, l);
+		}
+	}
+
+	/** A <code>float</code> or <code>double</code> property, adapted to a <code>double</code>. */
+	private static final class DoubleProperty extends Property {
+
+		DoubleProperty(String name, MethodHandle getter, MethodHandle setter) {
+			super(name, getter, setter);
+		}
+
+		@Override
+		JsonValue toJson(Object bean) throws Throwable {
+			return new JsonNumber((double) getter.invokeExact(bean));
+		}
+
+		@Override
+		void fromJson(Object target, JsonValue value) throws Throwable {
+			setter.invokeExact(target, value.asDouble());
+		}
+
+		@Override
+		void write(JsonWriter writer, Object bean) throws Throwable {
+			writer.value((double) getter.invokeExact(bean));
+		}
+
+		@Override
+		void read(Object target, JsonReader reader) throws Throwable {
+			setter.invokeExact(target, reader.nextDouble());
+		}
+	}
+
+	/** A property of a reference type, which is mapped by a codec. */
+	private static final class RefProperty extends Property {
+
+		private final Codec codec;
+
+		RefProperty(String name, Codec codec, MethodHandle getter, MethodHandle setter) {
+			super(name, getter, setter);
+			this.codec = codec;
+		}
+
+		@Override
+		JsonValue toJson(Object bean) throws Throwable {
+			return encode(codec, (Object) getter.invokeExact(bean));
+		}
+
+		@Override
+		void fromJson(Object target, JsonValue value) throws Throwable {
+			setter.invokeExact(target, decode(codec, value));
+		}
+
+		@Override
+		void write(JsonWriter writer, Object bean) throws Throwable {
+			JsonBinder.write(codec, writer, (Object) getter.invokeExact(bean));
+		}
+
+		@Override
+		void read(Object target, JsonReader reader) throws Throwable {
+			setter.invokeExact(target, JsonBinder.read(codec, reader));
+		}
+	}
+}
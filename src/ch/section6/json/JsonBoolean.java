@@ -70,7 +70,7 @@ public final class JsonBoolean extends JsonValue {
 	@Override
 	public boolean equals(Object o) {
 		if (o != null) {
-			if (o instanceof JsonString) {
+			if (o instanceof JsonBoolean) {
 				JsonBoolean jsonBoolean = (JsonBoolean) o;
 				return bool == jsonBoolean.bool;
 			}
@@ -56,6 +56,12 @@ public final class JsonDate extends JsonValue {
 		this.dateString = dateString;
 	}
 
+	/** Creates a date which was already parsed from the given string. */
+	JsonDate(Date date, String dateString) {
+		this.date = date;
+		this.dateString = dateString;
+	}
+
 	@Override
 	protected void appendTokenList(List<String> tokenList) {
 		tokenList.add(toString());
@@ -76,6 +82,21 @@ public final class JsonDate extends JsonValue {
 		return dateString;
 	}
 
+	/**
+	 * Returns the given string as a date if it is one, or <code>null</code> otherwise. A date has a
+	 * 'T' and colons, which most strings can be ruled out by without parsing them.
+	 */
+	static JsonDate tryParse(String s) {
+		if (s.indexOf(':') > 0 && s.indexOf('T') > 0) {
+			try {
+				return new JsonDate(s);
+			} catch (ParseException e) {
+				// not a date
+			}
+		}
+		return null;
+	}
+
 	// this method is synchronized because there is only one DateFormat object
 	/** Convert an ISO-8601-format <code>String</code> into a <code>Date</code>. */
 	public static Date asDate(String s) throws ParseException {
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the differences between two documents as a {@link JsonPatch}, which turns the first
+ * document into the second.
+ * 
+ * <pre>
+ * JsonPatch patch = JsonDiff.diff(before, after);
+ * send(patch.toString());
+ * </pre>
+ * 
+ * Subtrees which are the same instance, or which are equal, are skipped as a whole. Objects and
+ * arrays cache their hash codes, so that most unchanged subtrees of a document are recognised
+ * without being compared. Members of objects are compared by their keys. Elements of arrays are
+ * aligned such that as few as possible are added or removed (a longest common subsequence), in
+ * time proportional to the length of the arrays times the number of differences. Elements which
+ * take the place of others are compared in turn.
+ * <p>
+ * Arrays of objects which have an identifier, such as <code>/id</code>, are better aligned by
+ * that identifier with {@link #diff(JsonValue, JsonValue, String)}. Elements with the same
+ * identifier are then compared member by member even if they changed.
+ */
+public final class JsonDiff {
+
+	/**
+	 * The number of additions and removals in a single array beyond which elements are no longer
+	 * aligned, but compared by their positions.
+	 */
+	private static final int MAX_EDITS = 1024;
+
+	private static final JsonPath ROOT = JsonPath.compilePointer("");
+
+	/** The path to the identifiers of array elements, or <code>null</code>. */
+	private final JsonPath idPath;
+
+	private final JsonPatch.Builder patch = new JsonPatch.Builder();
+
+	private JsonDiff(JsonPath idPath) {
+		this.idPath = idPath;
+	}
+
+	/** Returns a patch which turns <code>a</code> into <code>b</code>. */
+	public static JsonPatch diff(JsonValue a, JsonValue b) {
+		return diff(a, b, (JsonPath) null);
+	}
+
+	/**
+	 * Returns a patch which turns <code>a</code> into <code>b</code>, aligning the elements of
+	 * arrays by the values at the given path, e.g. <code>/id</code>. Elements which lack an
+	 * identifier are aligned by their values.
+	 */
+	public static JsonPatch diff(JsonValue a, JsonValue b, String idPath) {
+		if (idPath == null) { throw new NullPointerException("Id path may not be null."); }
+		return diff(a, b, JsonPath.compile(idPath));
+	}
+
+	private static JsonPatch diff(JsonValue a, JsonValue b, JsonPath idPath) {
+		if (a == null || b == null) { throw new NullPointerException("Values may not be null."); }
+		JsonDiff diff = new JsonDiff(idPath);
+		diff.compare(ROOT, a, b);
+		return diff.patch.build();
+	}
+
+	/** Adds the operations which turn <code>a</code> into <code>b</code> at the given path. */
+	private void update(JsonPath path, JsonValue a, JsonValue b) {
+		if (!equal(a, b)) {
+			compare(path, a, b);
+		}
+	}
+
+	/**
+	 * Adds the operations which turn <code>a</code> into <code>b</code>, like
+	 * {@link #update(JsonPath, JsonValue, JsonValue)}, but without comparing objects and arrays as
+	 * a whole first. Unless both hash codes happen to be cached, comparing a value which most
+	 * likely differs would only waste a walk over it.
+	 */
+	private void compare(JsonPath path, JsonValue a, JsonValue b) {
+		if (a == b) return;
+		final JsonValue.Type type = a.getType();
+		if (type == JsonValue.Type.MAP && b.getType() == type) {
+			compareObjects(path, a, b);
+		} else if (type == JsonValue.Type.ARRAY && b.getType() == type) {
+			compareArrays(path, JsonValue.elementsOf(a), JsonValue.elementsOf(b));
+		} else if (!a.equals(b)) {
+			patch.replace(path, b);
+		}
+	}
+
+	private void compareObjects(JsonPath path, JsonValue a, JsonValue b) {
+		for (Map.Entry<String,JsonValue> e : JsonValue.entriesOf(a)) {
+			JsonValue value = b.findMember(e.getKey());
+			if (value == null) {
+				patch.remove(path.child(e.getKey()));
+			} else {
+				update(path.child(e.getKey()), e.getValue(), value);
+			}
+		}
+		for (Map.Entry<String,JsonValue> e : JsonValue.entriesOf(b)) {
+			if (a.findMember(e.getKey()) == null) {
+				patch.add(path.child(e.getKey()), e.getValue());
+			}
+		}
+	}
+
+	private void compareArrays(JsonPath path, List<JsonValue> a, List<JsonValue> b) {
+		final int n = a.size();
+		final int m = b.size();
+		final JsonValue[] idsA = ids(a);
+		final JsonValue[] idsB = ids(b);
+		// the common prefix and suffix are aligned without searching
+		int start = 0;
+		while (start < n && start < m && matches(a, idsA, start, b, idsB, start)) {
+			if (idsA != null) {
+				update(path.child(start), a.get(start), b.get(start));
+			}
+			++start;
+		}
+		int endA = n;
+		int endB = m;
+		while (endA > start && endB > start && matches(a, idsA, endA - 1, b, idsB, endB - 1)) {
+			--endA;
+			--endB;
+		}
+		int[] pairs = align(a, idsA, start, endA, b, idsB, start, endB);
+		// walk the aligned elements, and edit the elements between them
+		int i = start;
+		int j = start;
+		for (int p = 0; p <= pairs.length; p += 2) {
+			final int nextA = (p < pairs.length) ? pairs[p] : endA;
+			final int nextB = (p < pairs.length) ? pairs[p + 1] : endB;
+			final int replaced = Math.min(nextA - i, nextB - j);
+			for (int r = 0; r < replaced; ++r) {
+				update(path.child(j), a.get(i++), b.get(j++));
+			}
+			for (; i < nextA; ++i) {
+				patch.remove(path.child(j));
+			}
+			for (; j < nextB; ++j) {
+				patch.add(path.child(j), b.get(j));
+			}
+			if (p < pairs.length) {
+				if (idsA != null) {
+					update(path.child(j), a.get(i), b.get(j));
+				}
+				++i;
+				++j;
+			}
+		}
+		// the elements of the suffix are now where they are in b
+		if (idsA != null) {
+			for (i = endA; j < m; ++i, ++j) {
+				update(path.child(j), a.get(i), b.get(j));
+			}
+		}
+	}
+
+	/**
+	 * Returns the pairs of indices of the elements of <code>a</code> and <code>b</code> in the
+	 * given ranges which are aligned with each other, as consecutive entries. This is the
+	 * algorithm of Myers, "An O(ND) Difference Algorithm and Its Variations" (1986). If the ranges
+	 * differ by more than {@link #MAX_EDITS} elements, no elements are aligned.
+	 */
+	private int[] align(List<JsonValue> a, JsonValue[] idsA, int startA, int endA,
+			List<JsonValue> b, JsonValue[] idsB, int startB, int endB) {
+		final int n = endA - startA;
+		final int m = endB - startB;
+		if (n == 0 || m == 0) return new int[0];
+		final int max = Math.min(n + m, MAX_EDITS);
+		final int offset = max + 1;
+		final int[] v = new int[2 * max + 3];
+		// trace[d] holds v[k] for -d <= k <= d after d edits
+		final int[][] trace = new int[max + 1][];
+		for (int d = 0; d <= max; ++d) {
+			for (int k = -d; k <= d; k += 2) {
+				int x = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+						? v[offset + k + 1] : v[offset + k - 1] + 1;
+				int y = x - k;
+				while (x < n && y < m && matches(a, idsA, startA + x, b, idsB, startB + y)) {
+					++x;
+					++y;
+				}
+				v[offset + k] = x;
+				if (x >= n && y >= m) {
+					trace[d] = Arrays.copyOfRange(v, offset - d, offset + d + 1);
+					return backtrack(trace, d, n, m, startA, startB);
+				}
+			}
+			trace[d] = Arrays.copyOfRange(v, offset - d, offset + d + 1);
+		}
+		return new int[0];
+	}
+
+	/** Follows the edits of {@link #align} back from the end, collecting the aligned pairs. */
+	private static int[] backtrack(int[][] trace, int edits, int n, int m, int startA, int startB) {
+		int[] pairs = new int[2 * Math.min(n, m)];
+		int p = pairs.length;
+		int x = n;
+		int y = m;
+		for (int d = edits; d > 0; --d) {
+			final int[] previous = trace[d - 1]; // holds v[k] at previous[k + d - 1]
+			final int k = x - y;
+			final int previousK = (k == -d || (k != d && previous[k + d - 2] < previous[k + d]))
+					? k + 1 : k - 1;
+			final int previousX = previous[previousK + d - 1];
+			final int previousY = previousX - previousK;
+			while (x > previousX && y > previousY) {
+				pairs[--p] = startB + --y;
+				pairs[--p] = startA + --x;
+			}
+			x = previousX;
+			y = previousY;
+		}
+		while (x > 0 && y > 0) {
+			pairs[--p] = startB + --y;
+			pairs[--p] = startA + --x;
+		}
+		return Arrays.copyOfRange(pairs, p, pairs.length);
+	}
+
+	/** Returns the identifiers of the elements of an array, or <code>null</code>. */
+	private JsonValue[] ids(List<JsonValue> array) {
+		if (idPath == null) return null;
+		JsonValue[] ids = new JsonValue[array.size()];
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = idPath.find(array.get(i));
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns <code>true</code> if two elements are to be aligned: if they have the same
+	 * identifier, or if neither has one and they are equal.
+	 */
+	private static boolean matches(List<JsonValue> a, JsonValue[] idsA, int i,
+			List<JsonValue> b, JsonValue[] idsB, int j) {
+		if (idsA != null && (idsA[i] != null || idsB[j] != null)) {
+			return idsA[i] != null && idsB[j] != null && idsA[i].equals(idsB[j]);
+		}
+		return equal(a.get(i), b.get(j));
+	}
+
+	/** Compares the cached hash codes of two values before comparing the values themselves. */
+	private static boolean equal(JsonValue a, JsonValue b) {
+		return a == b || (a.hashCode() == b.hashCode() && a.equals(b));
+	}
+
+}
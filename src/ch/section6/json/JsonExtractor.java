@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Extracts the values which match any of several {@link JsonQuery}s from a {@link JsonReader} in
+ * a single pass, without building the document. Only the matching values are built, so that
+ * values can be pulled out of documents which are much larger than the heap.
+ * 
+ * <pre>
+ * JsonExtractor extractor = JsonExtractor.compile("/records/*&#47;user/id", "/meta/count");
+ * extractor.forEach(new JsonReader(in), (query, value) -&gt; ...);
+ * </pre>
+ * 
+ * Matches are delivered in document order, and a value which matches several queries is
+ * delivered once for each of them, in the order of the queries. As with
+ * {@link JsonQuery#forEach(JsonReader, Consumer)}, the values tested by a filter, and arrays which
+ * are indexed from their end, are read into memory one at a time. An extractor may be used by
+ * several threads at once.
+ */
+public final class JsonExtractor {
+
+	private final JsonQuery[] queries;
+
+	private JsonExtractor(JsonQuery[] queries) {
+		this.queries = queries;
+	}
+
+	/**
+	 * Compiles an extractor for the given queries.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If a query is not valid.
+	 */
+	public static JsonExtractor compile(String... queries) throws IllegalArgumentException {
+		if (queries == null) { throw new NullPointerException("Queries may not be null."); }
+		JsonQuery[] compiled = new JsonQuery[queries.length];
+		for (int i = 0; i < queries.length; ++i) {
+			compiled[i] = JsonQuery.compile(queries[i]);
+		}
+		return new JsonExtractor(compiled);
+	}
+
+	/** Returns an extractor for the given queries. */
+	public static JsonExtractor of(JsonQuery... queries) {
+		if (queries == null) { throw new NullPointerException("Queries may not be null."); }
+		JsonQuery[] copy = queries.clone();
+		for (JsonQuery query : copy) {
+			if (query == null) { throw new NullPointerException("Queries may not be null."); }
+		}
+		return new JsonExtractor(copy);
+	}
+
+	/** Returns the queries of this extractor. */
+	public List<JsonQuery> queries() {
+		return Collections.unmodifiableList(Arrays.asList(queries));
+	}
+
+	/**
+	 * Reads the next value from the given reader, and performs the given action on every value in
+	 * it which matches one of the queries, together with the query which it matches.
+	 */
+	public void forEach(JsonReader reader,
+			final BiConsumer<? super JsonQuery, ? super JsonValue> action)
+			throws IOException, JsonParseException {
+		if (action == null) { throw new NullPointerException("Action may not be null."); }
+		Scan scan = new Scan(reader) {
+			@Override
+			void found(int query, JsonValue value) {
+				action.accept(queries[query], value);
+			}
+		};
+		while (scan.step()) {
+			// every match has been delivered
+		}
+	}
+
+	/**
+	 * Returns an iterator over the values in the next value of the given reader which match one of
+	 * the queries. The reader is only read as far as is needed to find the next match. An
+	 * {@link IOException} of the reader is thrown as an {@link UncheckedIOException}.
+	 */
+	public Iterator<JsonValue> iterator(JsonReader reader) {
+		final ArrayDeque<JsonValue> pending = new ArrayDeque<JsonValue>();
+		final Scan scan = new Scan(reader) {
+			@Override
+			void found(int query, JsonValue value) {
+				pending.add(value);
+			}
+		};
+		return new Iterator<JsonValue>() {
+			@Override
+			public boolean hasNext() {
+				try {
+					while (pending.isEmpty() && scan.step()) {
+						// scan until the next match
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return !pending.isEmpty();
+			}
+
+			@Override
+			public JsonValue next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				return pending.poll();
+			}
+		};
+	}
+
+	/** Returns the queries of this extractor, separated by commas. */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < queries.length; ++i) {
+			if (i > 0) sb.append(',');
+			sb.append(queries[i]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A walk over a single value of a reader, which can be interrupted after every child. Every
+	 * open object or array has a frame with the active steps of every query for it.
+	 */
+	private abstract class Scan {
+
+		private final JsonReader reader;
+
+		/** The actions which deliver the matches of each query to {@link #found}. */
+		private final Consumer<JsonValue>[] sinks;
+
+		/** The active steps of every query, for every open object or array and the next value. */
+		private long[][] frames;
+
+		/** Whether each open frame is an object, rather than an array. */
+		private boolean[] objects;
+
+		/** The index of the next element of each open array. */
+		private int[] counters;
+
+		/** The innermost open frame, or -1. */
+		private int top;
+
+		private boolean started;
+
+		@SuppressWarnings("unchecked")
+		Scan(JsonReader reader) {
+			if (reader == null) { throw new NullPointerException("Reader may not be null."); }
+			this.reader = reader;
+			sinks = (Consumer<JsonValue>[]) new Consumer<?>[queries.length];
+			for (int i = 0; i < queries.length; ++i) {
+				final int query = i;
+				sinks[i] = new Consumer<JsonValue>() {
+					@Override
+					public void accept(JsonValue value) {
+						found(query, value);
+					}
+				};
+			}
+			frames = new long[8][queries.length];
+			objects = new boolean[8];
+			counters = new int[8];
+			top = -1;
+		}
+
+		/** Delivers a match of the given query. */
+		abstract void found(int query, JsonValue value);
+
+		/**
+		 * Reads the next child of the innermost open object or array, or the end of it. Returns
+		 * <code>false</code> once the whole value has been read.
+		 */
+		boolean step() throws IOException, JsonParseException {
+			if (!started) {
+				started = true;
+				Arrays.fill(frames[0], JsonQuery.start());
+				visit(0);
+				return true;
+			}
+			if (top < 0) return false;
+			final int depth = top;
+			final long[] states = frames[depth];
+			if (!reader.hasNext()) {
+				if (objects[depth]) {
+					reader.endObject();
+				} else {
+					reader.endArray();
+				}
+				--top;
+				return true;
+			}
+			final String key = objects[depth] ? reader.nextName() : null;
+			final int index = objects[depth] ? -1 : counters[depth]++;
+			boolean filtered = false;
+			for (int q = 0; q < queries.length; ++q) {
+				if (queries[q].needsChildren(states[q])) {
+					filtered = true;
+					break;
+				}
+			}
+			if (filtered) {
+				// the child is tested, so it is read for all queries
+				JsonValue child = reader.nextValue();
+				for (int q = 0; q < queries.length; ++q) {
+					long next = queries[q].advance(states[q], key, index, -1, child);
+					if (next != 0) queries[q].evaluate(child, next, sinks[q]);
+				}
+			} else {
+				if (depth + 1 == frames.length) grow();
+				final long[] next = frames[depth + 1];
+				for (int q = 0; q < queries.length; ++q) {
+					next[q] = queries[q].advance(states[q], key, index, -1, null);
+				}
+				visit(depth + 1);
+			}
+			return true;
+		}
+
+		/** Reads the value which is reached with the steps of the given frame. */
+		private void visit(int depth) throws IOException, JsonParseException {
+			final long[] states = frames[depth];
+			boolean active = false;
+			for (int q = 0; q < queries.length; ++q) {
+				states[q] = queries[q].enter(states[q]);
+				active |= states[q] != 0;
+			}
+			if (!active) {
+				reader.skipValue();
+				return;
+			}
+			final JsonReader.Token token = reader.peek();
+			for (int q = 0; q < queries.length; ++q) {
+				if (queries[q].needsValue(states[q], token)) {
+					// the value itself is needed, so the rest of it is evaluated in memory
+					JsonValue value = reader.nextValue();
+					for (int r = 0; r < queries.length; ++r) {
+						if (states[r] != 0) queries[r].evaluate(value, states[r], sinks[r]);
+					}
+					return;
+				}
+			}
+			switch (token) {
+				case BEGIN_OBJECT: reader.beginObject(); break;
+				case BEGIN_ARRAY: reader.beginArray(); break;
+				default: reader.skipValue(); return;
+			}
+			objects[depth] = (token == JsonReader.Token.BEGIN_OBJECT);
+			counters[depth] = 0;
+			top = depth;
+		}
+
+		private void grow() {
+			final int n = frames.length;
+			frames = Arrays.copyOf(frames, 2 * n);
+			for (int i = n; i < frames.length; ++i) {
+				frames[i] = new long[queries.length];
+			}
+			objects = Arrays.copyOf(objects, 2 * n);
+			counters = Arrays.copyOf(counters, 2 * n);
+		}
+	}
+}
@@ -0,0 +1,540 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import java.util.Arrays;
+
+/**
+ * A secondary index over the elements of a {@link JsonArray}, usually objects, keyed by the
+ * values at one or more paths. An index finds the elements with given keys in constant time,
+ * instead of testing every element of the array. Sorted indexes can in addition find all elements
+ * whose keys lie in a range.
+ * 
+ * <pre>
+ * JsonIndex byId = users.createIndex("/id");
+ * JsonObject user = byId.get(42).asMap();
+ * JsonIndex byAge = users.createSortedIndex("/age");
+ * JsonArray adults = byAge.range(18, null);
+ * </pre>
+ * 
+ * Indexes are created with {@link JsonArray#createIndex(String...)} and
+ * {@link JsonArray#createSortedIndex(String...)}, and are kept up to date as the array is
+ * modified through its own methods until they are dropped again. Elements which lack one of the
+ * keys are not indexed. Changes <i>inside</i> of the elements are not noticed, and an index must
+ * be rebuilt with {@link #rebuild()} after the keys of an indexed element were changed in place.
+ * <p>
+ * An index stores only the positions of the elements in its array, in an open-addressing hash
+ * table of <code>int</code>s, and its keys are read from the elements themselves. It therefore
+ * takes between 5 and 11 bytes per element, and twice that if it is sorted. Appending, replacing
+ * and removing the last element update an index in constant time, while inserting or removing an
+ * element anywhere else renumbers all positions after it, like the array does itself. Sorted
+ * indexes sort newly added elements when they are next queried for a range.
+ * <p>
+ * Keys are equal if they are equal {@link JsonValue}s. Ranges order <code>null</code>, booleans,
+ * numbers by their values, strings and dates as the strings they were written as, and finally
+ * arrays and objects, which are not ordered among each other. Like the array, an index is not
+ * synchronized.
+ */
+public final class JsonIndex {
+
+	/** The capacity of the hash table of an empty index. */
+	private static final int MIN_CAPACITY = 16;
+
+	private final JsonArray array;
+
+	private final JsonPath[] paths;
+
+	/**
+	 * The hash table of this index. Each slot holds the position of an element plus one, or zero
+	 * if it is empty. Collisions are resolved by linear probing.
+	 */
+	private int[] slots;
+
+	/** The number of indexed elements. */
+	private int count;
+
+	/** The positions of the indexed elements ordered by their keys, if the index is sorted. */
+	private int[] order;
+
+	/** The number of positions in <code>order</code>. */
+	private int ordered;
+
+	/** The positions of elements which were added since <code>order</code> was last sorted. */
+	private int[] pending;
+
+	/** The number of positions in <code>pending</code>. */
+	private int pendingCount;
+
+	JsonIndex(JsonArray array, JsonPath[] paths, boolean sorted) {
+		if (paths.length == 0) {
+			throw new IllegalArgumentException("An index needs at least one key path.");
+		}
+		this.array = array;
+		this.paths = paths;
+		if (sorted) {
+			order = new int[0];
+			pending = new int[0];
+		}
+		rebuild();
+	}
+
+	/** Returns the array which is indexed by this index. */
+	public JsonArray array() {
+		return array;
+	}
+
+	/** Returns the number of indexed elements, i.e. those which have all keys of this index. */
+	public int size() {
+		return count;
+	}
+
+	/** Returns <code>true</code> if this index supports range queries. */
+	public boolean isSorted() {
+		return order != null;
+	}
+
+	/**
+	 * Rebuilds this index from the current elements of its array. This is necessary only if the
+	 * keys of indexed elements were modified in place.
+	 */
+	public void rebuild() {
+		final int size = array.size();
+		int capacity = MIN_CAPACITY;
+		while (capacity - (capacity >> 2) <= size && capacity < (1 << 30)) {
+			capacity <<= 1;
+		}
+		slots = new int[capacity];
+		count = 0;
+		if (order != null) {
+			ordered = 0;
+			pendingCount = 0;
+		}
+		for (int i = 0; i < size; ++i) {
+			link(i);
+		}
+	}
+
+	/**
+	 * Returns an element whose keys are equal to the given values, or <code>null</code> if there is
+	 * none. If several elements have these keys, any one of them is returned.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the number of values is not the number of key paths of this index.
+	 */
+	public JsonValue get(Object... key) throws IllegalArgumentException {
+		int i = indexOf(key);
+		return (i < 0) ? null : array.get(i);
+	}
+
+	/**
+	 * Returns the position in the array of an element whose keys are equal to the given values,
+	 * or -1 if there is none.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the number of values is not the number of key paths of this index.
+	 */
+	public int indexOf(Object... key) throws IllegalArgumentException {
+		JsonValue[] values = toKey(key);
+		final int mask = slots.length - 1;
+		for (int i = hash(values) & mask; slots[i] != 0; i = (i + 1) & mask) {
+			if (matches(slots[i] - 1, values)) return slots[i] - 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns all elements whose keys are equal to the given values, in the order of the array.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the number of values is not the number of key paths of this index.
+	 */
+	public JsonArray getAll(Object... key) throws IllegalArgumentException {
+		JsonValue[] values = toKey(key);
+		int[] positions = new int[4];
+		int n = 0;
+		final int mask = slots.length - 1;
+		for (int i = hash(values) & mask; slots[i] != 0; i = (i + 1) & mask) {
+			if (matches(slots[i] - 1, values)) {
+				if (n == positions.length) positions = Arrays.copyOf(positions, n << 1);
+				positions[n++] = slots[i] - 1;
+			}
+		}
+		Arrays.sort(positions, 0, n);
+		return elementsAt(positions, 0, n);
+	}
+
+	/**
+	 * Returns all elements whose first key is at least <code>from</code> and less than
+	 * <code>to</code>, ordered by their keys. A <code>null</code> bound is unbounded.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             If this index is not sorted.
+	 */
+	public JsonArray range(Object from, Object to) throws UnsupportedOperationException {
+		return range(from, true, to, false);
+	}
+
+	/**
+	 * Returns all elements whose first key lies between <code>from</code> and <code>to</code>,
+	 * ordered by their keys. A <code>null</code> bound is unbounded.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             If this index is not sorted.
+	 */
+	public JsonArray range(Object from, boolean fromInclusive, Object to, boolean toInclusive)
+			throws UnsupportedOperationException {
+		if (order == null) {
+			throw new UnsupportedOperationException("This index is not sorted.");
+		}
+		sortPending();
+		int start = 0;
+		int end = ordered;
+		if (from != null) {
+			start = search(JsonValue.objectToJsonValue(from), fromInclusive ? -1 : 0);
+		}
+		if (to != null) {
+			end = search(JsonValue.objectToJsonValue(to), toInclusive ? 0 : -1);
+		}
+		return elementsAt(order, start, Math.max(start, end));
+	}
+
+	@Override
+	public String toString() {
+		return (order != null ? "sorted index on " : "index on ") + Arrays.toString(paths);
+	}
+
+	/*
+	 * Maintenance, called by the array.
+	 */
+
+	/** Called after an element was inserted at the given position. */
+	void inserted(int position) {
+		if (position < array.size() - 1) {
+			renumber(position, 1);
+		}
+		link(position);
+	}
+
+	/** Called before the element at the given position is removed. */
+	void removing(int position) {
+		unlink(position);
+		if (position < array.size() - 1) {
+			renumber(position + 1, -1);
+		}
+	}
+
+	/**
+	 * Adds the element at the given position to this index. Its position must not be indexed
+	 * yet.
+	 */
+	void link(int position) {
+		if (!isIndexed(position)) return;
+		if (count + 1 > slots.length - (slots.length >> 2)) {
+			grow();
+		}
+		final int mask = slots.length - 1;
+		int i = spread(keyHash(position)) & mask;
+		while (slots[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		slots[i] = position + 1;
+		++count;
+		if (order != null) {
+			if (pendingCount == pending.length) {
+				pending = Arrays.copyOf(pending, Math.max(16, pendingCount + (pendingCount >> 1)));
+			}
+			pending[pendingCount++] = position;
+		}
+	}
+
+	/**
+	 * Removes the element at the given position from this index, if it is indexed. The element
+	 * must still be in the array.
+	 */
+	void unlink(int position) {
+		if (!isIndexed(position)) return;
+		final int mask = slots.length - 1;
+		int i = spread(keyHash(position)) & mask;
+		while (slots[i] != position + 1) {
+			if (slots[i] == 0) return;
+			i = (i + 1) & mask;
+		}
+		// backward shift deletion keeps the probe sequences of the following slots intact
+		for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+			int home = spread(keyHash(slots[j] - 1)) & mask;
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				slots[i] = slots[j];
+				i = j;
+			}
+		}
+		slots[i] = 0;
+		--count;
+		if (order != null) {
+			unlinkOrdered(position);
+		}
+	}
+
+	/*
+	 * Internals.
+	 */
+
+	/** Converts the values of a key, and checks that there is one for every path. */
+	private JsonValue[] toKey(Object[] key) throws IllegalArgumentException {
+		if (key.length != paths.length) {
+			throw new IllegalArgumentException(String.format(
+					"Expected %d key values but got %d.", paths.length, key.length));
+		}
+		JsonValue[] values = new JsonValue[key.length];
+		for (int i = 0; i < key.length; ++i) {
+			values[i] = JsonValue.objectToJsonValue(key[i]);
+		}
+		return values;
+	}
+
+	private static int hash(JsonValue[] key) {
+		int h = 0;
+		for (JsonValue value : key) {
+			h = 31 * h + value.hashCode();
+		}
+		return spread(h);
+	}
+
+	/** Scrambles a hash code, such that its low bits can be used as the slot. */
+	private static int spread(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/** Returns the unspread hash of the keys of the indexed element at the given position. */
+	private int keyHash(int position) {
+		final JsonValue element = array.peek(position);
+		int h = 0;
+		for (JsonPath path : paths) {
+			h = 31 * h + path.find(element).hashCode();
+		}
+		return h;
+	}
+
+	/** Returns <code>true</code> if the element at the given position has all keys. */
+	private boolean isIndexed(int position) {
+		final JsonValue element = array.peek(position);
+		for (JsonPath path : paths) {
+			if (path.find(element) == null) return false;
+		}
+		return true;
+	}
+
+	/** Returns <code>true</code> if the keys of the element at the given position are equal. */
+	private boolean matches(int position, JsonValue[] key) {
+		final JsonValue element = array.peek(position);
+		for (int i = 0; i < paths.length; ++i) {
+			if (!key[i].equals(paths[i].find(element))) return false;
+		}
+		return true;
+	}
+
+	/** Doubles the capacity of the hash table. */
+	private void grow() {
+		if (slots.length == (1 << 30)) {
+			throw new IllegalStateException("The index is full.");
+		}
+		int[] oldSlots = slots;
+		slots = new int[oldSlots.length << 1];
+		final int mask = slots.length - 1;
+		for (int slot : oldSlots) {
+			if (slot != 0) {
+				int i = spread(keyHash(slot - 1)) & mask;
+				while (slots[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				slots[i] = slot;
+			}
+		}
+	}
+
+	/** Adds <code>delta</code> to all positions from the given one onwards. */
+	private void renumber(int from, int delta) {
+		final int[] slots = this.slots;
+		for (int i = 0; i < slots.length; ++i) {
+			if (slots[i] > from) slots[i] += delta; // slots hold positions plus one
+		}
+		if (order != null) {
+			for (int i = 0; i < ordered; ++i) {
+				if (order[i] >= from) order[i] += delta;
+			}
+			for (int i = 0; i < pendingCount; ++i) {
+				if (pending[i] >= from) pending[i] += delta;
+			}
+		}
+	}
+
+	/** Removes a position from the sorted or pending positions. */
+	private void unlinkOrdered(int position) {
+		for (int i = 0; i < pendingCount; ++i) {
+			if (pending[i] == position) {
+				pending[i] = pending[--pendingCount];
+				return;
+			}
+		}
+		// the position is among the positions with equal keys, which start at the insertion point
+		for (int i = search(position); i < ordered; ++i) {
+			if (order[i] == position) {
+				System.arraycopy(order, i + 1, order, i, --ordered - i);
+				return;
+			}
+		}
+	}
+
+	/** Returns the first index in <code>order</code> whose keys are not less than at a position. */
+	private int search(int position) {
+		int lo = 0;
+		int hi = ordered;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(order[mid], position) < 0) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the first index in <code>order</code> whose first key compares to the given value as
+	 * more than <code>bias</code>, i.e. the first which is not less (-1) or greater (0) than it.
+	 */
+	private int search(JsonValue value, int bias) {
+		int lo = 0;
+		int hi = ordered;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (compare(paths[0].find(array.peek(order[mid])), value) <= bias) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/** Sorts the pending positions and merges them into the sorted positions. */
+	private void sortPending() {
+		if (pendingCount == 0) return;
+		sort(pending, 0, pendingCount, new int[pendingCount]);
+		int n = ordered + pendingCount;
+		if (order.length < n) {
+			order = Arrays.copyOf(order, Math.max(n, ordered + (ordered >> 1)));
+		}
+		// merge from the back, such that no elements are overwritten before they are moved
+		int i = ordered - 1;
+		int j = pendingCount - 1;
+		for (int k = n - 1; j >= 0; --k) {
+			order[k] = (i >= 0 && compare(order[i], pending[j]) > 0) ? order[i--] : pending[j--];
+		}
+		ordered = n;
+		pendingCount = 0;
+		if (pending.length > 1024) {
+			pending = new int[0];
+		}
+	}
+
+	/** Sorts positions by their keys with a stable merge sort. */
+	private void sort(int[] a, int from, int to, int[] buffer) {
+		if (to - from < 8) {
+			for (int i = from + 1; i < to; ++i) {
+				int p = a[i];
+				int j = i - 1;
+				while (j >= from && compare(a[j], p) > 0) {
+					a[j + 1] = a[j];
+					--j;
+				}
+				a[j + 1] = p;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sort(a, from, mid, buffer);
+		sort(a, mid, to, buffer);
+		if (compare(a[mid - 1], a[mid]) <= 0) return; // already in order
+		System.arraycopy(a, from, buffer, from, to - from);
+		int i = from;
+		int j = mid;
+		for (int k = from; k < to; ++k) {
+			a[k] = (j >= to || (i < mid && compare(buffer[i], buffer[j]) <= 0))
+					? buffer[i++] : buffer[j++];
+		}
+	}
+
+	/** Compares the keys of the elements at two positions, the first key first. */
+	private int compare(int a, int b) {
+		final JsonValue elementA = array.peek(a);
+		final JsonValue elementB = array.peek(b);
+		for (JsonPath path : paths) {
+			int c = compare(path.find(elementA), path.find(elementB));
+			if (c != 0) return c;
+		}
+		return 0;
+	}
+
+	/** Compares two keys by their kind, and then by their values. */
+	private static int compare(JsonValue a, JsonValue b) {
+		int c = rank(a) - rank(b);
+		if (c != 0) return c;
+		switch (a.getType()) {
+			case BOOLEAN: return Boolean.compare(a.asBoolean(), b.asBoolean());
+			case NUMBER: {
+				if (isInteger(a) && isInteger(b)) {
+					return Long.compare(a.asLong(), b.asLong());
+				}
+				return Double.compare(a.asDouble(), b.asDouble());
+			}
+			case STRING:
+			case DATE: return a.asString().compareTo(b.asString());
+			default: return 0;
+		}
+	}
+
+	private static int rank(JsonValue value) {
+		switch (value.getType()) {
+			case NULL: return 0;
+			case BOOLEAN: return 1;
+			case NUMBER: return 2;
+			case STRING:
+			case DATE: return 3;
+			default: return 4;
+		}
+	}
+
+	private static boolean isInteger(JsonValue value) {
+		return (value instanceof JsonNumber) && ((JsonNumber) value).isInteger();
+	}
+
+	private JsonArray elementsAt(int[] positions, int from, int to) {
+		JsonArray elements = new JsonArray(to - from);
+		for (int i = from; i < to; ++i) {
+			elements.add(array.get(positions[i]));
+		}
+		return elements;
+	}
+
+}
@@ -27,11 +27,27 @@
 
 package ch.section6.json;
 
+import java.math.BigDecimal;
 import java.util.List;
 
 /** A JSON representation of a {@link Number}. */
 public class JsonNumber extends JsonValue {
 
+	/** The smallest integer held in the small-integer cache. */
+	private static final int CACHE_LOW = -128;
+
+	/** The largest integer held in the small-integer cache. */
+	private static final int CACHE_HIGH = 1023;
+
+	/** Canonical instances for all integers between {@link #CACHE_LOW} and {@link #CACHE_HIGH}. */
+	private static final JsonNumber[] CACHE = new JsonNumber[CACHE_HIGH - CACHE_LOW + 1];
+
+	static {
+		for (int i = 0; i < CACHE.length; ++i) {
+			CACHE[i] = new JsonNumber(CACHE_LOW + i);
+		}
+	}
+
 	private final long value;
 
 	/**
@@ -77,10 +93,108 @@ public class JsonNumber extends JsonValue {
 				.doubleToRawLongBits(value.doubleValue());
 	}
 
+	/**
+	 * Returns a <code>JsonNumber</code> for the given integral value. Small values are shared
+	 * instances, so this method should be preferred to the constructor.
+	 */
+	public static JsonNumber valueOf(long value) {
+		if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+			return CACHE[(int) value - CACHE_LOW];
+		} else {
+			return new JsonNumber(value);
+		}
+	}
+
+	/**
+	 * Returns a <code>JsonNumber</code> for the given value, using a shared instance if the value is
+	 * a small integer.
+	 */
+	public static JsonNumber valueOf(Number value) {
+		if (value == null) { throw new NullPointerException("Number argument may not be null."); }
+		long l = value.longValue();
+		return (value.doubleValue() == ((double) l)) ? valueOf(l) : new JsonNumber(value.doubleValue());
+	}
+
+	/**
+	 * Parses the numeric lexeme between the given indices. Integers which fit into a
+	 * <code>long</code> become integral values. Everything else, <code>-0</code> included, is parsed
+	 * as a <code>double</code>.
+	 */
+	static JsonNumber parse(String str, int start, int end) throws NumberFormatException {
+		return parse(str, start, end, false);
+	}
+
+	/**
+	 * Parses the numeric lexeme between the given indices. If <code>lazy</code> is
+	 * <code>true</code>, only integers which are written exactly as {@link Long#toString(long)}
+	 * would write them are converted, and any other lexeme is kept in a {@link LazyJsonNumber}.
+	 * Either way, an integer part with a leading zero, such as in <code>00</code> or
+	 * <code>-01.5</code>, is rejected as JSON requires.
+	 */
+	static JsonNumber parse(String str, int start, int end, boolean lazy)
+			throws NumberFormatException {
+		while (end > start && Character.isWhitespace(str.charAt(end - 1))) {
+			--end; // the lexeme may include trailing whitespace
+		}
+		final boolean negative = (str.charAt(start) == '-');
+		int i = negative ? start + 1 : start;
+		if (i + 1 < end && str.charAt(i) == '0'
+				&& str.charAt(i + 1) >= '0' && str.charAt(i + 1) <= '9') {
+			throw new NumberFormatException("Not a JSON number: " + str.substring(start, end));
+		}
+		if (i < end && end - i <= 19) { // longs have up to 19 decimal digits
+			// accumulated as a negative number, which can hold Long.MIN_VALUE too
+			long l = 0L;
+			for (; i < end; ++i) {
+				char c = str.charAt(i);
+				if (c < '0' || c > '9' || l < Long.MIN_VALUE / 10L) break;
+				l = 10L * l - (c - '0');
+				if (l > 0L) break; // overflow
+			}
+			// "-0" is the real number negative zero, which has no integral counterpart
+			if (i == end && (l != 0L || !negative)) {
+				if (negative) {
+					return valueOf(l);
+				} else if (l != Long.MIN_VALUE) {
+					return valueOf(-l);
+				}
+			}
+		}
+		if (lazy) {
+			return LazyJsonNumber.parse(str, start, end);
+		} else {
+			return new JsonNumber(str.substring(start, end));
+		}
+	}
+
 	public boolean isInteger() {
 		return isInteger;
 	}
 
+	/** Returns the raw value of this number, the bits of a <code>double</code> if it is real. */
+	long bits() {
+		return value;
+	}
+
+	/**
+	 * Returns the value of this number as a {@link BigDecimal}. Real numbers are converted from
+	 * the shortest decimal which represents their <code>double</code>, as in {@link #toString()}.
+	 * 
+	 * @throws JsonCastException
+	 *             If this number is infinite or not a number.
+	 */
+	@Override
+	public BigDecimal asBigDecimal() throws JsonCastException {
+		if (isInteger) {
+			return BigDecimal.valueOf(value);
+		}
+		try {
+			return BigDecimal.valueOf(Double.longBitsToDouble(value));
+		} catch (NumberFormatException e) {
+			throw new JsonCastException(e);
+		}
+	}
+
 	@Override
 	public Type getType() {
 		return Type.NUMBER;
@@ -96,6 +210,16 @@ public class JsonNumber extends JsonValue {
 		return isInteger ? value : Double.longBitsToDouble(value);
 	}
 
+	@Override
+	public long asLong() {
+		return isInteger ? value : (long) Double.longBitsToDouble(value);
+	}
+
+	@Override
+	public double asDouble() {
+		return isInteger ? (double) value : Double.longBitsToDouble(value);
+	}
+
 	@Override
 	public boolean asBoolean() {
 		return isInteger ? (value != 0L) : (Double.longBitsToDouble(value) != 0.0);
@@ -116,7 +240,7 @@ public class JsonNumber extends JsonValue {
 		if (o != null) {
 			if (o instanceof JsonNumber) {
 				JsonNumber jsonNumber = (JsonNumber) o;
-				return (value == jsonNumber.value);
+				return (bits() == jsonNumber.bits());
 			}
 		}
 		return false;
@@ -124,6 +248,7 @@ public class JsonNumber extends JsonValue {
 
 	@Override
 	public int hashCode() {
+		final long value = bits();
 		return (int) ((value >>> 32) ^ value);
 	}
 
@@ -28,43 +28,139 @@
 package ch.section6.json;
 
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
-/** A JSON representation of a {@link Map}. */
+/**
+ * A JSON representation of a {@link Map}. Entries are kept in insertion order in a pair of flat
+ * key/value arrays. Small objects are searched linearly; once an object grows beyond
+ * {@link #HASH_THRESHOLD} entries an open-addressed hash index is built over the keys.
+ * <p>
+ * Objects with the same keys in the same order, such as the records of a parsed array, may share
+ * a single key array and hash index (their "shape"), each holding only its own values. An object
+ * takes a private copy of its shape as soon as a key is added or removed.
+ * <p>
+ * {@link #copy()} is lazy: the copy shares its storage with the original until either of them is
+ * modified, or hands out one of its nested objects or arrays. Nested objects and arrays which
+ * have already been handed out are copied right away, so that the copy is fully isolated.
+ */
 public final class JsonObject extends JsonValue implements Map<String,JsonValue>, ImmutableJsonObject {
 
-	private final Map<String, JsonValue> map;
+	/** The number of entries beyond which keys are looked up via a hash index. */
+	private static final int HASH_THRESHOLD = 8;
+
+	/** The capacity allocated on the first insertion into an empty object. */
+	private static final int DEFAULT_CAPACITY = 4;
+
+	private static final String[] EMPTY_KEYS = new String[0];
+
+	private static final JsonValue[] EMPTY_VALUES = new JsonValue[0];
+
+	/** The number of distinct key layouts the parser tracks per array. */
+	private static final int MAX_SHAPES = 8;
+
+	private static final AtomicReferenceFieldUpdater<JsonObject,HashDependents> HASH_DEPENDENTS =
+			AtomicReferenceFieldUpdater.newUpdater(JsonObject.class, HashDependents.class,
+					"hashDependents");
+
+	/** The keys of this object in insertion order. Only the first <code>size</code> are used. */
+	private String[] keys;
+
+	/**
+	 * The values of this object, parallel to <code>keys</code>. Its length is the capacity of this
+	 * object, since a shared key array may be longer.
+	 */
+	private JsonValue[] values;
+
+	/** The number of entries in this object. */
+	private int size;
+
+	/**
+	 * An open-addressed (linear probing) index from key hash to slot in <code>keys</code>, offset
+	 * by one such that zero marks an empty bucket. It is <code>null</code> while the object is
+	 * small enough that a linear scan is cheaper.
+	 */
+	private int[] table;
+
+	/**
+	 * <code>true</code> if <code>keys</code> and <code>table</code> may be shared with other
+	 * objects, in which case they must be copied before the keys of this object are modified.
+	 */
+	private boolean sharedKeys;
+
+	/**
+	 * <code>true</code> if <code>values</code>, and the objects and arrays in it, may be shared with
+	 * a copy of this object. Both must then be copied before they are modified or handed out.
+	 */
+	private volatile boolean sharedValues;
+
+	/**
+	 * <code>true</code> if a reference to this object may be held outside of the object or array
+	 * it is in, see {@link JsonValue#isExposed()}.
+	 */
+	private boolean exposed = true;
+
+	/** Counts the modifications of this object and of the values nested in it. */
+	private volatile long stamp;
+
+	/** The cached hash code of this object, valid if <code>hashStamp</code> is current. */
+	private int hash;
+
+	/**
+	 * The <code>stamp</code> at which <code>hash</code> was computed, or <code>-1</code> if it has
+	 * not been. It is written after <code>hash</code>, which it thereby publishes to other threads.
+	 */
+	private volatile long hashStamp = -1L;
+
+	/** The containers whose cached hash codes cover this object, see {@link HashDependents}. */
+	private volatile HashDependents hashDependents;
 
 	/** Creates an empty JSON object. */
 	public JsonObject() {
-		map = new HashMap<String, JsonValue>();
+		keys = EMPTY_KEYS;
+		values = EMPTY_VALUES;
+	}
+
+	/** Creates an empty JSON object with room for the given number of entries. */
+	public JsonObject(int initialCapacity) {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException("Initial capacity may not be negative.");
+		}
+		keys = (initialCapacity == 0) ? EMPTY_KEYS : new String[initialCapacity];
+		values = (initialCapacity == 0) ? EMPTY_VALUES : new JsonValue[initialCapacity];
 	}
 
 	/** A convenience constructor for a new object with a single entry. */
 	public JsonObject(String key, JsonValue value) {
-		map = new HashMap<String, JsonValue>();
-		map.put(key, value);
+		this(1);
+		put(key, value);
 	}
 
 	@Override
 	protected void appendTokenList(List<String> tokenList) {
-		if (map.isEmpty()) {
+		if (size == 0) {
 			tokenList.add("{");
 			tokenList.add("}");
 		} else {
 			tokenList.add("{");
 			tokenList.add("\n");
 			tokenList.add("\t");
-			for (Map.Entry<String, JsonValue> e : map.entrySet()) {
-				tokenList.add(JsonString.jsonEscape(e.getKey()));
+			for (int i = 0; i < size; ++i) {
+				tokenList.add(JsonString.jsonEscape(keys[i]));
 				tokenList.add(":");
-				e.getValue().appendTokenList(tokenList);
+				values[i].appendTokenList(tokenList);
 				tokenList.add(",");
 				tokenList.add("\n");
 				tokenList.add("\t");
@@ -79,13 +175,13 @@ public final class JsonObject extends JsonValue implements Map<String,JsonValue>
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("{");
-		for (Map.Entry<String, JsonValue> e : map.entrySet()) {
-			sb.append(JsonString.jsonEscape(e.getKey()));
+		for (int i = 0; i < size; ++i) {
+			sb.append(JsonString.jsonEscape(keys[i]));
 			sb.append(":");
-			sb.append(e.getValue().toString());
+			sb.append(values[i].toString());
 			sb.append(",");
 		}
-		if (!map.isEmpty())
+		if (size > 0)
 			sb.deleteCharAt(sb.length() - 1); // clear trailing comma
 		sb.append("}");
 		return sb.toString();
@@ -103,22 +199,58 @@ public final class JsonObject extends JsonValue implements Map<String,JsonValue>
 
 	@Override
 	public void clear() {
-		map.clear();
+		invalidateHash();
+		if (sharedKeys || sharedValues) {
+			keys = EMPTY_KEYS;
+			values = EMPTY_VALUES;
+			sharedKeys = false;
+			sharedValues = false;
+		} else {
+			Arrays.fill(keys, 0, size, null);
+			Arrays.fill(values, 0, size, null);
+		}
+		size = 0;
+		table = null;
 	}
 
 	@Override
 	public boolean containsKey(Object key) {
-		return map.containsKey(key);
+		return indexOf(key) >= 0;
 	}
 
 	@Override
 	public boolean containsValue(Object value) {
-		return map.containsValue(value);
+		for (int i = 0; i < size; ++i) {
+			if (values[i].equals(value)) return true;
+		}
+		return false;
 	}
 
+	/** Returns a view of the entries of this object, in insertion order. */
 	@Override
 	public Set<Map.Entry<String,JsonValue>> entrySet() {
-		return map.entrySet();
+		return new AbstractSet<Map.Entry<String,JsonValue>>() {
+			@Override
+			public Iterator<Map.Entry<String,JsonValue>> iterator() {
+				if (sharedValues) unshareValues();
+				return new SlotIterator<Map.Entry<String,JsonValue>>() {
+					@Override
+					protected Map.Entry<String,JsonValue> element(int slot) {
+						return new Entry(keys[slot], valueAt(slot));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public void clear() {
+				JsonObject.this.clear();
+			}
+		};
 	}
 
 	/**
@@ -127,34 +259,57 @@ public final class JsonObject extends JsonValue implements Map<String,JsonValue>
 	 */
 	@Override
 	public JsonValue get(Object key) {
-		if (map.containsKey(key)) {
-			return map.get(key);
+		int i = indexOf(key);
+		if (i >= 0) {
+			return valueAt(i);
 		} else {
 			throw new UnknownKeyException(key.toString());
 		}
 	}
 
+	@Override
+	JsonValue getMember(String key) {
+		return get(key);
+	}
+
+	@Override
+	JsonValue findMember(String key) {
+		return get(key, null);
+	}
+
 	public JsonValue get(Object key, JsonValue defaultValue) {
-		return map.containsKey(key) ? map.get(key) : defaultValue;
+		int i = indexOf(key);
+		return (i >= 0) ? valueAt(i) : defaultValue;
 	}
 
 	@Override
 	public JsonValue getByPath(String path) throws IllegalArgumentException, NumberFormatException {
 		return super.getByPath(path);
 	}
+
+	@Override
+	public JsonValue getByPath(JsonPath path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
 	
 	@Override
 	public boolean setByPath(String path, Object o) throws IllegalArgumentException, NumberFormatException {
 		return super.setByPath(path, o);
 	}
 
+	@Override
+	public boolean setByPath(JsonPath path, Object o) throws IllegalArgumentException, NumberFormatException {
+		return super.setByPath(path, o);
+	}
+
 	@Override
 	public String getString(String key) throws JsonCastException {
 		return get(key).asString();
 	}
 
 	public String getString(String key, String defaultString) throws JsonCastException {
-		return map.containsKey(key) ? get(key).asString() : defaultString;
+		int i = indexOf(key);
+		return (i >= 0) ? values[i].asString() : defaultString;
 	}
 
 	@Override
@@ -163,7 +318,8 @@ public final class JsonObject extends JsonValue implements Map<String,JsonValue>
 	}
 
 	public Date getDate(String key, Date defaultDate) throws JsonCastException {
-		return map.containsKey(key) ? get(key).asDate() : defaultDate;
+		int i = indexOf(key);
+		return (i >= 0) ? values[i].asDate() : defaultDate;
 	}
 
 	@Override
@@ -176,7 +332,8 @@ public final class JsonObject extends JsonValue implements Map<String,JsonValue>
 	 * default if the value does not exist.
 	 */
 	public boolean getBoolean(String key, Boolean defaultBoolean) throws JsonCastException {
-		return map.containsKey(key) ? get(key).asBoolean() : defaultBoolean;
+		int i = indexOf(key);
+		return (i >= 0) ? values[i].asBoolean() : defaultBoolean;
 	}
 
 	@Override
@@ -195,53 +352,202 @@ public final class JsonObject extends JsonValue implements Map<String,JsonValue>
 	}
 
 	public Number getNumber(String key, Number defaultNumber) throws JsonCastException {
-		return map.containsKey(key) ? get(key).asNumber() : defaultNumber;
+		int i = indexOf(key);
+		return (i >= 0) ? values[i].asNumber() : defaultNumber;
+	}
+
+	@Override
+	public long getLong(String key) throws JsonCastException {
+		return get(key).asLong();
+	}
+
+	public long getLong(String key, long defaultLong) throws JsonCastException {
+		int i = indexOf(key);
+		return (i >= 0) ? values[i].asLong() : defaultLong;
+	}
+
+	@Override
+	public double getDouble(String key) throws JsonCastException {
+		return get(key).asDouble();
+	}
+
+	public double getDouble(String key, double defaultDouble) throws JsonCastException {
+		int i = indexOf(key);
+		return (i >= 0) ? values[i].asDouble() : defaultDouble;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return map.isEmpty();
+		return size == 0;
 	}
 
+	/** Returns a view of the keys of this object, in insertion order. */
 	@Override
 	public Set<String> keySet() {
-		return map.keySet();
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new SlotIterator<String>() {
+					@Override
+					protected String element(int slot) {
+						return keys[slot];
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				int i = indexOf(o);
+				if (i >= 0) {
+					removeAt(i);
+					return true;
+				}
+				return false;
+			}
+
+			@Override
+			public void clear() {
+				JsonObject.this.clear();
+			}
+		};
 	}
 
 	@Override
 	public void putAll(Map<? extends String, ? extends JsonValue> m) {
-		map.putAll(m);
+		ensureCapacity(size + m.size());
+		for (Map.Entry<? extends String, ? extends JsonValue> e : m.entrySet()) {
+			put(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Applies a JSON Merge Patch as defined by RFC 7386 to this object in place. The members of
+	 * the patch replace those of this object, members whose value is <code>null</code> are
+	 * removed, and objects are merged recursively. Branches of this object which the patch does
+	 * not mention are neither visited nor copied.
+	 * 
+	 * <pre>
+	 * config.mergePatch(JsonObject.parse("{\"log\":{\"level\":\"debug\"},\"proxy\":null}"));
+	 * </pre>
+	 * 
+	 * @return This object, or a copy of the patch if it is not an object, in which case it
+	 *         replaces this object as a whole and this object is left unchanged.
+	 */
+	public JsonValue mergePatch(JsonValue patch) {
+		return mergePatch(new JsonValue[] {patch});
+	}
+
+	/**
+	 * Applies several JSON Merge Patches to this object in place, with the same result as applying
+	 * them one after the other. If one of them is not an object, which replaces this object as a
+	 * whole, only the patches after it are applied, and this object is left unchanged.
+	 * 
+	 * @return This object, or the result of the patches if one of them is not an object.
+	 */
+	public JsonValue mergePatch(JsonValue... patches) {
+		int last = -1;
+		for (int i = 0; i < patches.length; ++i) {
+			if (patches[i] == null) { throw new NullPointerException("Patch may not be null."); }
+			if (patches[i].getType() != Type.MAP) last = i;
+		}
+		if (last == patches.length - 1) {
+			return patches[last].copy();
+		}
+		JsonObject obj = (last < 0) ? this : new JsonObject();
+		for (int i = last + 1; i < patches.length; ++i) {
+			merge(obj, patches[i]);
+		}
+		return obj;
+	}
+
+	/** Merges a patch which is an object into an object. */
+	private static void merge(JsonObject target, JsonValue patch) {
+		for (Map.Entry<String,JsonValue> e : entriesOf(patch)) {
+			final String key = e.getKey();
+			final JsonValue value = e.getValue();
+			switch (value.getType()) {
+				case NULL: target.remove(key); break;
+				case MAP: {
+					JsonValue child = target.get(key, null);
+					JsonObject obj;
+					if (child instanceof JsonObject) {
+						obj = (JsonObject) child;
+					} else {
+						// immutable objects are copied, and anything else is replaced
+						obj = (child != null && child.getType() == Type.MAP)
+								? child.asMap() : new JsonObject();
+						target.put(key, obj);
+					}
+					merge(obj, value);
+					break;
+				}
+				default: target.put(key, value.copy()); break;
+			}
+		}
 	}
 
 	@Override
 	public JsonValue remove(Object key) {
-		return map.remove(key);
+		int i = indexOf(key);
+		return (i >= 0) ? removeAt(i) : null;
 	}
 
 	@Override
 	public int size() {
-		return map.size();
+		return size;
 	}
 
+	/** Returns a view of the values of this object, in insertion order. */
 	@Override
 	public Collection<JsonValue> values() {
-		return map.values();
+		return new AbstractCollection<JsonValue>() {
+			@Override
+			public Iterator<JsonValue> iterator() {
+				if (sharedValues) unshareValues();
+				return new SlotIterator<JsonValue>() {
+					@Override
+					protected JsonValue element(int slot) {
+						return valueAt(slot);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public void clear() {
+				JsonObject.this.clear();
+			}
+		};
 	}
 
 	public JsonValue put(String key, String value) {
-		return map.put(key, new JsonString(value));
+		return put(key, JsonString.valueOf(value));
 	}
 
 	public JsonValue put(String key, Date date) {
-		return map.put(key, new JsonDate(date));
+		return put(key, new JsonDate(date));
 	}
 
 	public JsonValue put(String key, Number value) {
-		return map.put(key, new JsonNumber(value));
+		return put(key, JsonNumber.valueOf(value));
 	}
 
 	public JsonValue put(String key, Boolean value) {
-		return map.put(key, getBoolean(value));
+		return put(key, getBoolean(value));
 	}
 
 	/**
@@ -250,59 +556,468 @@ public final class JsonObject extends JsonValue implements Map<String,JsonValue>
 	 * is automatically detected and converted into the corresponding JSON type.
 	 */
 	public JsonValue put(String key, Object... values) {
-		return map.put(key, new JsonArray(values));
+		return put(key, new JsonArray(values));
 	}
 
 	@Override
 	public JsonValue put(String key, JsonValue value) {
-		return map.put(key, (value != null) ? value : JsonValue.getNull());
+		if (key == null) { throw new NullPointerException("Key argument may not be null."); }
+		if (value == null) value = JsonValue.getNull();
+		if (sharedValues) unshareValues();
+		int i = indexOf(key);
+		if (i >= 0) {
+			JsonValue oldValue = values[i];
+			values[i] = value;
+			invalidateHash();
+			return oldValue;
+		} else {
+			ensureCapacity(size + 1);
+			unshareKeys();
+			keys[size] = key;
+			values[size] = value;
+			if (table != null) {
+				tableInsert(size);
+			}
+			if (++size > HASH_THRESHOLD && table == null) {
+				rebuildTable();
+			}
+			invalidateHash();
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the value of the given key like {@link #get(Object)}, but without unsharing the
+	 * values of this object, or <code>null</code>. The value must not be modified or handed out.
+	 */
+	JsonValue peek(String key) {
+		int i = indexOf(key);
+		return (i >= 0) ? values[i] : null;
+	}
+
+	/** Returns the position of the given key in insertion order, or -1 if it is not present. */
+	int slotOf(String key) {
+		return indexOf(key);
+	}
+
+	/**
+	 * Adds an entry for a key which is not in this object at the given position in insertion
+	 * order, such that an entry which was removed can be restored to where it was.
+	 */
+	void insertAt(int slot, String key, JsonValue value) {
+		put(key, value);
+		final int last = size - 1;
+		if (slot < last) {
+			System.arraycopy(keys, slot, keys, slot + 1, last - slot);
+			System.arraycopy(values, slot, values, slot + 1, last - slot);
+			keys[slot] = key;
+			values[slot] = (value != null) ? value : JsonValue.getNull();
+			if (table != null) {
+				rebuildTable();
+			}
+		}
+	}
+
+	/** Returns the slot of the given key, or <code>-1</code> if it is not in this object. */
+	private int indexOf(Object key) {
+		if (key == null) return -1;
+		if (table == null) {
+			for (int i = 0; i < size; ++i) {
+				String k = keys[i];
+				if (k == key || k.equals(key)) return i;
+			}
+		} else {
+			final int mask = table.length - 1;
+			for (int b = hash(key) & mask; table[b] != 0; b = (b + 1) & mask) {
+				String k = keys[table[b] - 1];
+				if (k == key || k.equals(key)) return table[b] - 1;
+			}
+		}
+		return -1;
+	}
+
+	/** Spreads the higher bits of a key's hash code into the lower (masked) bits. */
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/** Grows the key and value arrays such that they can hold at least the given number of entries. */
+	private void ensureCapacity(int capacity) {
+		if (capacity > values.length) {
+			int newCapacity = Math.max(Math.max(DEFAULT_CAPACITY, values.length * 2), capacity);
+			keys = Arrays.copyOf(keys, newCapacity);
+			values = Arrays.copyOf(values, newCapacity);
+			sharedKeys = false; // the key array is now private, and so will the index be
+			if (table != null) {
+				rebuildTable();
+			}
+		}
+	}
+
+	/**
+	 * (Re)builds the hash index over all current keys. The index is sized to at least twice the
+	 * capacity of this object, such that its load factor never exceeds one half.
+	 */
+	private void rebuildTable() {
+		int n = Integer.highestOneBit(Math.max(values.length, HASH_THRESHOLD + 1) * 2 - 1) << 1;
+		table = new int[n];
+		for (int i = 0; i < size; ++i) {
+			tableInsert(i);
+		}
+	}
+
+	/** Adds the key in the given slot to the hash index. */
+	private void tableInsert(int slot) {
+		final int mask = table.length - 1;
+		int b = hash(keys[slot]) & mask;
+		while (table[b] != 0) {
+			b = (b + 1) & mask;
+		}
+		table[b] = slot + 1;
+	}
+
+	/**
+	 * Removes the entry in the given slot, shifting all later entries down by one in order to
+	 * preserve insertion order.
+	 */
+	private JsonValue removeAt(int slot) {
+		if (sharedValues) unshareValues();
+		unshareKeys();
+		JsonValue oldValue = values[slot];
+		int moved = size - slot - 1;
+		if (moved > 0) {
+			System.arraycopy(keys, slot + 1, keys, slot, moved);
+			System.arraycopy(values, slot + 1, values, slot, moved);
+		}
+		--size;
+		keys[size] = null;
+		values[size] = null;
+		if (table != null) {
+			if (size > HASH_THRESHOLD) {
+				rebuildTable();
+			} else {
+				table = null;
+			}
+		}
+		invalidateHash();
+		return oldValue;
+	}
+
+	private static boolean isContainer(JsonValue value) {
+		return value.getType() == Type.MAP || value.getType() == Type.ARRAY;
+	}
+
+	/** Returns <code>true</code> if the cached hash code of this object is current. */
+	boolean isHashCurrent() {
+		return hashStamp == stamp;
 	}
 
 	@Override
-	public boolean equals(Object o) {
-		if (o != null) {
-			if (o instanceof JsonObject) {
-				JsonObject obj = (JsonObject) o;
-				if (map.size() == obj.size()) {
-					for (String key : map.keySet()) {
-						if (!map.get(key).equals(obj.get(key)))
-							return false;
-					}
-					return true;
+	void addHashDependent(JsonValue container) {
+		HashDependents.register(HASH_DEPENDENTS, this, container);
+	}
+
+	/**
+	 * Invalidates the cached hash code of this object, and those of the containers it is in, before
+	 * it is modified.
+	 */
+	@Override
+	void invalidateHash() {
+		++stamp;
+		HashDependents.invalidate(HASH_DEPENDENTS, this);
+	}
+
+	/**
+	 * Adopts the key layout of the given object if it has exactly the same keys in the same order,
+	 * such that only the values of both objects are held separately. Nested objects in the same
+	 * slots share their layouts in turn.
+	 *
+	 * @return <code>true</code> if the layout is now shared.
+	 */
+	boolean shareKeysWith(JsonObject obj) {
+		if (obj == this || obj.size != size) return false;
+		if (obj.keys != keys) {
+			for (int i = 0; i < size; ++i) {
+				String k = keys[i];
+				if (k != obj.keys[i] && !k.equals(obj.keys[i])) return false;
+			}
+			keys = obj.keys;
+			table = obj.table;
+			sharedKeys = true;
+			obj.sharedKeys = true;
+			if (values.length > size) {
+				values = Arrays.copyOf(values, size); // shaped objects are rarely extended
+			}
+		}
+		for (int i = 0; i < size; ++i) {
+			if (values[i].getType() == Type.MAP && obj.values[i].getType() == Type.MAP) {
+				values[i].asMap().shareKeysWith(obj.values[i].asMap());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the key in the given slot. The slots from zero to <code>size() - 1</code> hold the
+	 * entries in insertion order.
+	 */
+	String keyAt(int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * Returns the value in the given slot, which is about to be handed out. If it is an object or
+	 * array which may be shared with a copy of this object, the values of this object are unshared
+	 * first.
+	 */
+	JsonValue valueAt(int slot) {
+		JsonValue value = values[slot];
+		if (isContainer(value)) {
+			if (sharedValues) {
+				unshareValues();
+				value = values[slot];
+			}
+			value.setExposed(true);
+		}
+		return value;
+	}
+
+	/**
+	 * Gives this object a private copy of its values, replacing each nested object or array with a
+	 * (lazy) copy of its own. Only this level of the tree is copied. Exposed objects and arrays are
+	 * kept, since {@link #copy()} never shares them.
+	 */
+	private synchronized void unshareValues() {
+		if (sharedValues) {
+			JsonValue[] newValues = values.clone();
+			for (int i = 0; i < size; ++i) {
+				if (!newValues[i].isExposed()) {
+					newValues[i] = concealedCopy(newValues[i]);
+					newValues[i].addHashDependent(this); // the cached hash code may cover it
 				}
 			}
+			values = newValues;
+			sharedValues = false;
+		}
+	}
+
+	/** Gives this object a private copy of its key layout before its keys are modified. */
+	private void unshareKeys() {
+		if (sharedKeys) {
+			keys = Arrays.copyOf(keys, values.length);
+			if (table != null) {
+				table = table.clone();
+			}
+			sharedKeys = false;
 		}
-		return false;
 	}
 
+	/** An iterator over the slots of this object which supports removal. */
+	private abstract class SlotIterator<T> implements Iterator<T> {
+
+		/** The slot of the next element to be returned. */
+		private int nextSlot = 0;
+
+		/** The slot of the element last returned, or <code>-1</code> if there is none. */
+		private int lastSlot = -1;
+
+		@Override
+		public boolean hasNext() {
+			return nextSlot < size;
+		}
+
+		@Override
+		public T next() {
+			if (nextSlot >= size) {
+				throw new NoSuchElementException();
+			}
+			lastSlot = nextSlot++;
+			return element(lastSlot);
+		}
+
+		@Override
+		public void remove() {
+			if (lastSlot < 0) {
+				throw new IllegalStateException();
+			}
+			removeAt(lastSlot);
+			nextSlot = lastSlot;
+			lastSlot = -1;
+		}
+
+		/** Returns the element for the given slot. */
+		protected abstract T element(int slot);
+	}
+
+	/** A map entry which writes changes to its value through to this object. */
+	private final class Entry extends AbstractMap.SimpleEntry<String,JsonValue> {
+
+		private static final long serialVersionUID = 1L;
+
+		private Entry(String key, JsonValue value) {
+			super(key, value);
+		}
+
+		@Override
+		public JsonValue setValue(JsonValue value) {
+			if (value == null) value = JsonValue.getNull();
+			put(getKey(), value);
+			return super.setValue(value);
+		}
+	}
+
+	/**
+	 * Two objects are equal if they have equal entries, regardless of order. Objects of any other
+	 * implementation and other maps are equal to this object if they have the same entries too.
+	 * Objects of different size or with different cached hash codes are rejected without comparing
+	 * their entries.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) return true;
+		if (o instanceof JsonObject) {
+			JsonObject obj = (JsonObject) o;
+			if (size != obj.size) return false;
+			if (hash != obj.hash && isHashCurrent() && obj.isHashCurrent()) return false;
+			return contentEquals(obj);
+		}
+		return objectEquals(this, o);
+	}
+
+	@Override
+	boolean contentEquals(JsonValue value) {
+		if (value == this) return true;
+		if (!(value instanceof JsonObject)) return objectEquals(this, value);
+		JsonObject obj = (JsonObject) value;
+		if (size != obj.size) return false;
+		if (keys == obj.keys) {
+			if (values == obj.values) return true; // an unmodified copy
+			// same shape, compare slot by slot
+			for (int i = 0; i < size; ++i) {
+				if (!values[i].contentEquals(obj.values[i])) return false;
+			}
+		} else {
+			for (int i = 0; i < size; ++i) {
+				int j = obj.indexOf(keys[i]);
+				if (j < 0 || !values[i].contentEquals(obj.values[j])) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the sum of the hash codes of all entries, as {@link AbstractMap} does. The result is
+	 * cached until this object or any value nested in it is modified.
+	 */
 	@Override
 	public int hashCode() {
-		int keysHash = map.keySet().hashCode();
-		int valuesHash = new HashSet<JsonValue>(map.values()).hashCode();
-		return (keysHash ^ valuesHash);
+		final long s = stamp;
+		if (hashStamp == s) {
+			return hash;
+		}
+		int h = 0;
+		for (int i = 0; i < size; ++i) {
+			// register first, so that a concurrent modification cannot slip in unnoticed
+			values[i].addHashDependent(this);
+			h += keys[i].hashCode() ^ values[i].hashCode();
+		}
+		hash = h;
+		hashStamp = s;
+		return h;
 	}
 
+	/**
+	 * Returns a deep copy of this object. The copy is made lazily: both objects share their storage
+	 * until one of them is modified or hands out a nested object or array, at which point only
+	 * that level is copied. Nested objects and arrays which have been handed out, and may thus be
+	 * modified directly, are copied right away (lazily in turn).
+	 */
 	@Override
 	public JsonValue copy() {
 		JsonObject obj = new JsonObject();
-		for (Map.Entry<String,JsonValue> e : map.entrySet()) {
-			obj.put(e.getKey(), e.getValue().copy());
+		if (size > 0) {
+			JsonValue[] copiedValues = values;
+			for (int i = 0; i < size; ++i) {
+				if (values[i].isExposed()) {
+					if (copiedValues == values) copiedValues = values.clone();
+					copiedValues[i] = concealedCopy(values[i]);
+				}
+			}
+			obj.keys = keys;
+			obj.values = copiedValues;
+			obj.table = table;
+			obj.size = size;
+			obj.sharedKeys = sharedKeys = true;
+			obj.sharedValues = sharedValues = true;
+			if (isHashCurrent()) {
+				// the copy keeps the cached hash code, so it must hear of nested modifications too
+				for (int i = 0; i < size; ++i) {
+					copiedValues[i].addHashDependent(obj);
+				}
+				obj.hash = hash;
+				obj.hashStamp = obj.stamp;
+			}
 		}
 		return obj;
 	}
 
+	@Override
+	boolean isExposed() {
+		return exposed;
+	}
+
+	@Override
+	void setExposed(boolean exposed) {
+		this.exposed = exposed;
+	}
+
 	@Override
 	public ImmutableJsonObject asImmutable() {
 		return this;
 	}
 
+	/**
+	 * Returns a {@link PersistentJsonObject} with the same entries as this object. Nested objects
+	 * and arrays are converted as well.
+	 * <p>
+	 * The insertion order of the keys is not kept: a persistent object iterates and serializes
+	 * its entries in the order of their keys' hashes, so <code>toPersistent().toString()</code>
+	 * generally lists the keys in a different order than <code>toString()</code>. The same holds
+	 * for objects stored in persistent and concurrent values, which are converted by this method.
+	 */
+	public PersistentJsonObject toPersistent() {
+		return PersistentJsonObject.copyOf(this);
+	}
+
+	/**
+	 * Returns a {@link BinaryJsonObject} with the same entries as this object, encoded into a new direct
+	 * buffer. Nested objects and arrays are encoded as well.
+	 */
+	public BinaryJsonObject toBinary() {
+		return new BinaryJsonObject(BinaryJson.encode(this), 4);
+	}
+
+	@Override
+	JsonValue freeze() {
+		return toPersistent();
+	}
+
 	public static JsonValue parse(String jsonString) throws JsonParseException {
+		return parse(jsonString, new JsonParseOption[0]);
+	}
+
+	/** Parses a JSON string with the given options. */
+	public static JsonValue parse(String jsonString, JsonParseOption... options)
+			throws JsonParseException {
 		if (jsonString == null) {
 			return JsonValue.getNull();
 		} else if (jsonString.isEmpty()) {
 			return new JsonString("");
 		} else {
-			return parseValue(0, jsonString.length(), jsonString);
+			Set<JsonParseOption> optionSet = EnumSet.noneOf(JsonParseOption.class);
+			optionSet.addAll(Arrays.asList(options));
+			return parseValue(0, jsonString.length(), jsonString, optionSet);
 		}
 	}
 
@@ -329,8 +1044,8 @@ public final class JsonObject extends JsonValue implements Map<String,JsonValue>
 			int k = i;
 			do {
 				k = str.indexOf('"', k + 1);
-			} while (str.charAt(k - 1) == '\\'); // ignore \" escape
-			if (k < j) return k + 1;
+			} while (k > 0 && isEscaped(k, str)); // ignore \" escape
+			if (k > 0 && k < j) return k + 1;
 			throw new JsonParseException("No balancing quote found for string.");
 		}
 		case '{': {
@@ -357,7 +1072,8 @@ public final class JsonObject extends JsonValue implements Map<String,JsonValue>
 		}
 	}
 
-	private static JsonValue parseValue(int i, int j, String str) throws JsonParseException {
+	private static JsonValue parseValue(int i, int j, String str, Set<JsonParseOption> options)
+			throws JsonParseException {
 		switch (str.charAt(i)) {
 			case 't': {
 				if (str.substring(i, i + 4).equals("true")) {
@@ -384,20 +1100,23 @@ public final class JsonObject extends JsonValue implements Map<String,JsonValue>
 			case '0': case '1': case '2': case '3': case '4':
 			case '5': case '6': case '7': case '8': case '9': {
 				try {
-					return new JsonNumber(str.substring(i, j));
+					boolean lazy = options.contains(JsonParseOption.LAZY_NUMBERS);
+					return JsonNumber.parse(str, i, j, lazy);
 				} catch (NumberFormatException e) {
 					throw new JsonParseException(e);
 				}
 			}
 			case '"': {
-				String substr = str.substring(i + 1, j - 1);
+				if (options.contains(JsonParseOption.LAZY_STRINGS)) {
+					return parseLazyString(i, j, str);
+				}
+				String substr = (JsonString.indexOfEscape(str, i + 1, j - 1) < 0)
+						? str.substring(i + 1, j - 1) : JsonString.jsonUnescape(str, i + 1, j - 1);
 				try {
 					return new JsonDate(substr); // is this string a date?
 				} catch (ParseException e) {
 					// nope, must be a normal string
-					substr = substr.replace("\\\\", "\\"); // '\\' -> '\'
-					substr = substr.replace("\\\"", "\""); // '\"' -> '"'
-					return new JsonString(substr);
+					return JsonString.valueOf(substr);
 				}
 			}
 			case '{': {
@@ -405,7 +1124,7 @@ public final class JsonObject extends JsonValue implements Map<String,JsonValue>
 				i = skipWhitespace(i + 1, str);
 				while (str.charAt(i) != '}') {
 					int k = nextValueString(i, j, str);
-					JsonValue key = parseValue(i, k, str);
+					JsonValue key = parseValue(i, k, str, options);
 					if (key.getType() != JsonValue.Type.STRING)
 						throw new JsonParseException(
 								"Expected a string as a map key. Instead, parsed a "
@@ -415,21 +1134,28 @@ public final class JsonObject extends JsonValue implements Map<String,JsonValue>
 						throw new JsonParseException();
 					i = skipWhitespace(i + 1, str);
 					k = nextValueString(i, j, str);
-					JsonValue value = parseValue(i, k, str);
+					JsonValue value = parseValue(i, k, str, options);
 					i = skipWhitespace(k, str);
 					if (str.charAt(i) == ',')
 						i = skipWhitespace(i + 1, str);
 	
+					value.setExposed(false); // only the parser has seen it
 					obj.put(key.asString(), value);
 				}
 				return obj;
 			}
 			case '[': {
 				JsonArray array = new JsonArray();
+				List<JsonObject> shapes = null; // distinct key layouts of the records in this array
 				i = skipWhitespace(i + 1, str);
 				while (str.charAt(i) != ']') {
 					int k = nextValueString(i, j, str);
-					JsonValue value = parseValue(i, k, str);
+					JsonValue value = parseValue(i, k, str, options);
+					if (value.getType() == JsonValue.Type.MAP) {
+						if (shapes == null) shapes = new ArrayList<JsonObject>(MAX_SHAPES);
+						shareShape(value.asMap(), shapes);
+					}
+					value.setExposed(false); // only the parser has seen it
 					array.add(value);
 					i = skipWhitespace(k, str);
 					if (str.charAt(i) == ',')
@@ -443,6 +1169,50 @@ public final class JsonObject extends JsonValue implements Map<String,JsonValue>
 		}
 	}
 
+	/**
+	 * Parses the JSON text of a string into a {@link LazyJsonString}, or into a {@link JsonDate}
+	 * if it has no escape sequences and is a date.
+	 */
+	private static JsonValue parseLazyString(int i, int j, String str) throws JsonParseException {
+		while (j > i && Character.isWhitespace(str.charAt(j - 1))) {
+			--j; // the token may include trailing whitespace
+		}
+		LazyJsonString string = LazyJsonString.parse(str, i, j);
+		String s = string.toString();
+		// a date has a 'T' and colons, which most strings can be ruled out by without parsing
+		if (!string.isEscaped() && s.indexOf(':') > 0 && s.indexOf('T') > 0) {
+			try {
+				return new JsonDate(string.asString());
+			} catch (ParseException e) {
+				// not a date
+			}
+		}
+		return string;
+	}
+
+	/**
+	 * Lets a parsed or decoded record share the key layout of an earlier record of the same array,
+	 * or remembers its layout if it is new and fewer than {@link #MAX_SHAPES} layouts are known.
+	 */
+	static void shareShape(JsonObject obj, List<JsonObject> shapes) {
+		for (int s = 0; s < shapes.size(); ++s) {
+			if (obj.shareKeysWith(shapes.get(s))) return;
+		}
+		if (shapes.size() < MAX_SHAPES) {
+			shapes.add(obj);
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the character at the given index is escaped, that is preceded
+	 * by an odd number of backslashes.
+	 */
+	private static boolean isEscaped(int i, String str) {
+		int k = i - 1;
+		while (str.charAt(k) == '\\') --k;
+		return ((i - k) & 1) == 0;
+	}
+
 	private static int skipWhitespace(int i, String str) {
 		while (i < str.length() && (str.charAt(i) == ' '
 				|| str.charAt(i) == '\n'
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+/** Options which change how {@link JsonObject#parse(String, JsonParseOption...)} builds values. */
+public enum JsonParseOption {
+
+	/**
+	 * Keeps the text of every number which is not a plain <code>long</code>, and converts it only
+	 * when the value is first read. Such numbers are written exactly as they were parsed, and
+	 * {@link JsonNumber#asBigDecimal()} returns their full precision. Arrays of them are not
+	 * packed into primitive arrays.
+	 */
+	LAZY_NUMBERS,
+
+	/**
+	 * Keeps the JSON text of every string, and unescapes it only when the value is first read.
+	 * Such strings are written exactly as they were parsed. Escape sequences are decoded as
+	 * defined by JSON, including <code>&#92;uXXXX</code>, just as without this option. Strings
+	 * which look like dates are still parsed into {@link JsonDate}s.
+	 * <p>
+	 * Memory is only saved on strings which are passed through without being read. A string
+	 * which has been read keeps its JSON text as well as the unescaped string, as a string which
+	 * is parsed without this option does.
+	 */
+	LAZY_STRINGS
+
+}
@@ -0,0 +1,705 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A JSON Patch as defined by RFC 6902, i.e. a sequence of <code>add</code>, <code>remove</code>,
+ * <code>replace</code>, <code>move</code>, <code>copy</code> and <code>test</code> operations
+ * which is applied to a document in place.
+ * 
+ * <pre>
+ * JsonPatch patch = JsonPatch.parse("[{\"op\":\"test\",\"path\":\"/version\",\"value\":3},"
+ *     + "{\"op\":\"replace\",\"path\":\"/version\",\"value\":4}]");
+ * patch.apply(document);
+ * </pre>
+ * 
+ * A patch is validated and its paths are compiled when it is parsed, so that it can be applied
+ * to any number of documents, also by several threads at once. The operations of a patch are
+ * applied in a single pass, in which each operation continues from the deepest value it shares
+ * with the path of the previous one instead of from the root of the document.
+ * <p>
+ * Applying a patch is atomic: if an operation fails, because a <code>test</code> does not hold or
+ * a path does not exist, all operations applied before it are undone and a
+ * {@link JsonPatchException} is thrown. Patches modify {@link JsonObject}s and {@link JsonArray}s,
+ * and may replace immutable values but not modify them.
+ * <p>
+ * A {@link ConcurrentJsonObject} or {@link ConcurrentJsonArray} is patched by applying the patch
+ * to a mutable copy of its current version, which then replaces that version by compare-and-set.
+ * If another thread modified the document in the meantime, the patch is applied again to the new
+ * version. Concurrent readers and writers thus see the patch applied either as a whole or not at
+ * all, at the cost of copying the document for every attempt.
+ */
+public final class JsonPatch {
+
+	private static final byte ADD = 0;
+	private static final byte REMOVE = 1;
+	private static final byte REPLACE = 2;
+	private static final byte MOVE = 3;
+	private static final byte COPY = 4;
+	private static final byte TEST = 5;
+
+	private static final String[] NAMES = {"add", "remove", "replace", "move", "copy", "test"};
+
+	private final byte[] ops;
+
+	private final JsonPath[] paths;
+
+	/** The source path of every <code>move</code> and <code>copy</code>, or <code>null</code>. */
+	private final JsonPath[] froms;
+
+	/** The value of every <code>add</code>, <code>replace</code> and <code>test</code>. */
+	private final JsonValue[] values;
+
+	private JsonPatch(byte[] ops, JsonPath[] paths, JsonPath[] froms, JsonValue[] values) {
+		this.ops = ops;
+		this.paths = paths;
+		this.froms = froms;
+		this.values = values;
+	}
+
+	/**
+	 * Parses a patch from its JSON representation.
+	 * 
+	 * @throws JsonParseException
+	 *             If the string is not valid JSON.
+	 * @throws IllegalArgumentException
+	 *             If the JSON is not a valid patch.
+	 */
+	public static JsonPatch parse(String json) throws JsonParseException, IllegalArgumentException {
+		if (json == null) { throw new NullPointerException("Patch may not be null."); }
+		return valueOf(JsonObject.parse(json));
+	}
+
+	/**
+	 * Returns the patch which is represented by an array of operations.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the value is not a valid patch.
+	 */
+	public static JsonPatch valueOf(JsonValue patch) throws IllegalArgumentException {
+		if (patch == null) { throw new NullPointerException("Patch may not be null."); }
+		if (patch.getType() != JsonValue.Type.ARRAY) {
+			throw new IllegalArgumentException("A JSON patch must be an array of operations.");
+		}
+		List<JsonValue> operations = JsonValue.elementsOf(patch);
+		final int n = operations.size();
+		byte[] ops = new byte[n];
+		JsonPath[] paths = new JsonPath[n];
+		JsonPath[] froms = new JsonPath[n];
+		JsonValue[] values = new JsonValue[n];
+		for (int i = 0; i < n; ++i) {
+			JsonValue operation = operations.get(i);
+			if (operation.getType() != JsonValue.Type.MAP) {
+				throw invalid(i, "An operation must be an object.");
+			}
+			ops[i] = opOf(i, operation.findMember("op"));
+			paths[i] = pointerOf(i, operation, "path");
+			switch (ops[i]) {
+				case ADD:
+				case REPLACE:
+				case TEST: {
+					JsonValue value = operation.findMember("value");
+					if (value == null) {
+						throw invalid(i, "Missing \"value\".");
+					}
+					values[i] = value.copy();
+					break;
+				}
+				case MOVE: {
+					froms[i] = pointerOf(i, operation, "from");
+					if (isProperPrefix(froms[i], paths[i])) {
+						throw invalid(i, "A value cannot be moved into itself.");
+					}
+					break;
+				}
+				case COPY: froms[i] = pointerOf(i, operation, "from"); break;
+				default: break;
+			}
+		}
+		return new JsonPatch(ops, paths, froms, values);
+	}
+
+	private static byte opOf(int i, JsonValue op) throws IllegalArgumentException {
+		if (op != null && op.getType() == JsonValue.Type.STRING) {
+			String name = op.asString();
+			for (byte j = 0; j < NAMES.length; ++j) {
+				if (NAMES[j].equals(name)) return j;
+			}
+			throw invalid(i, "Unknown operation \"" + name + "\".");
+		}
+		throw invalid(i, "Missing \"op\".");
+	}
+
+	private static JsonPath pointerOf(int i, JsonValue operation, String member)
+			throws IllegalArgumentException {
+		JsonValue pointer = operation.findMember(member);
+		if (pointer == null || pointer.getType() != JsonValue.Type.STRING) {
+			throw invalid(i, "Missing \"" + member + "\".");
+		}
+		try {
+			return JsonPath.compilePointer(pointer.asString());
+		} catch (IllegalArgumentException e) {
+			throw invalid(i, e.getMessage());
+		}
+	}
+
+	private static IllegalArgumentException invalid(int i, String message) {
+		return new IllegalArgumentException(String.format("Operation %d: %s", i, message));
+	}
+
+	/** Returns <code>true</code> if a path leads to a value nested in the value of another. */
+	private static boolean isProperPrefix(JsonPath prefix, JsonPath path) {
+		if (prefix.size() >= path.size()) return false;
+		for (int i = 0; i < prefix.size(); ++i) {
+			if (!prefix.segment(i).equals(path.segment(i))) return false;
+		}
+		return true;
+	}
+
+	/** Collects the operations of a patch which is created by {@link JsonDiff}. */
+	static final class Builder {
+
+		private byte[] ops = new byte[8];
+
+		private JsonPath[] paths = new JsonPath[8];
+
+		private JsonValue[] values = new JsonValue[8];
+
+		private int size;
+
+		void add(JsonPath path, JsonValue value) {
+			append(ADD, path, value.copy());
+		}
+
+		void remove(JsonPath path) {
+			append(REMOVE, path, null);
+		}
+
+		void replace(JsonPath path, JsonValue value) {
+			append(REPLACE, path, value.copy());
+		}
+
+		private void append(byte op, JsonPath path, JsonValue value) {
+			if (size == ops.length) {
+				ops = Arrays.copyOf(ops, size << 1);
+				paths = Arrays.copyOf(paths, size << 1);
+				values = Arrays.copyOf(values, size << 1);
+			}
+			ops[size] = op;
+			paths[size] = path;
+			values[size] = value;
+			++size;
+		}
+
+		JsonPatch build() {
+			return new JsonPatch(Arrays.copyOf(ops, size), Arrays.copyOf(paths, size),
+					new JsonPath[size], Arrays.copyOf(values, size));
+		}
+	}
+
+	/** Returns the number of operations of this patch. */
+	public int size() {
+		return ops.length;
+	}
+
+	/**
+	 * Applies this patch to a document. The document is modified in place and returned, unless
+	 * the patch replaces it as a whole, in which case its replacement is returned. If an operation
+	 * fails, the document is restored to its original state.
+	 * 
+	 * @throws JsonPatchException
+	 *             If an operation fails.
+	 */
+	public JsonValue apply(JsonValue document) throws JsonPatchException {
+		if (document == null) { throw new NullPointerException("Document may not be null."); }
+		if (document instanceof ConcurrentJsonObject) {
+			ConcurrentJsonObject obj = (ConcurrentJsonObject) document;
+			while (true) {
+				PersistentJsonObject current = obj.snapshot();
+				JsonObject working = current.asMap();
+				thawPaths(working);
+				JsonValue result = applyInPlace(working);
+				if (result != working) return result;
+				if (obj.swap(current, (PersistentJsonObject) working.freeze())) return obj;
+			}
+		}
+		if (document instanceof ConcurrentJsonArray) {
+			ConcurrentJsonArray array = (ConcurrentJsonArray) document;
+			while (true) {
+				PersistentJsonArray current = array.snapshot();
+				JsonArray working = current.asArray();
+				thawPaths(working);
+				JsonValue result = applyInPlace(working);
+				if (result != working) return result;
+				if (array.swap(current, (PersistentJsonArray) working.freeze())) return array;
+			}
+		}
+		return applyInPlace(document);
+	}
+
+	/**
+	 * Replaces the immutable objects and arrays along the paths of this patch in a mutable
+	 * document by mutable copies, such that the patch can modify them.
+	 */
+	private void thawPaths(JsonValue document) {
+		for (int i = 0; i < ops.length; ++i) {
+			if (ops[i] != TEST) {
+				thawPath(document, paths[i]);
+				if (froms[i] != null) thawPath(document, froms[i]);
+			}
+		}
+	}
+
+	private static void thawPath(JsonValue document, JsonPath path) {
+		JsonValue parent = document;
+		for (int k = 0; k < path.size(); ++k) {
+			final int index = path.indexAt(k);
+			JsonValue child;
+			switch (parent.getType()) {
+				case MAP: child = parent.findMember(path.segment(k)); break;
+				case ARRAY: child = (index < 0) ? null : parent.findElement(index); break;
+				default: return;
+			}
+			if (child == null) return;
+			if (child.getType() == JsonValue.Type.MAP && !(child instanceof JsonObject)) {
+				child = child.asMap();
+			} else if (child.getType() == JsonValue.Type.ARRAY && !(child instanceof JsonArray)) {
+				child = child.asArray();
+			} else {
+				parent = child;
+				continue;
+			}
+			if (parent.getType() == JsonValue.Type.MAP) {
+				((JsonObject) parent).put(path.segment(k), child);
+			} else {
+				((JsonArray) parent).set(index, child);
+			}
+			parent = child;
+		}
+	}
+
+	private JsonValue applyInPlace(JsonValue document) throws JsonPatchException {
+		Transaction transaction = new Transaction(document);
+		try {
+			for (int i = 0; i < ops.length; ++i) {
+				transaction.apply(i);
+			}
+		} catch (RuntimeException e) {
+			transaction.rollback();
+			throw e;
+		}
+		return transaction.root;
+	}
+
+	/** Returns the JSON representation of this patch. */
+	public JsonArray toJson() {
+		JsonArray array = new JsonArray(ops.length);
+		for (int i = 0; i < ops.length; ++i) {
+			JsonObject operation = new JsonObject(3);
+			operation.put("op", NAMES[ops[i]]);
+			if (froms[i] != null) {
+				operation.put("from", froms[i].toString());
+			}
+			operation.put("path", paths[i].toString());
+			if (values[i] != null) {
+				operation.put("value", values[i].copy());
+			}
+			array.add(operation);
+		}
+		return array;
+	}
+
+	@Override
+	public String toString() {
+		return toJson().toString();
+	}
+
+	/**
+	 * Returns <code>true</code> if two values are equal in the sense of the <code>test</code>
+	 * operation: numbers are compared by their values, and the members of objects regardless of
+	 * their order.
+	 */
+	static boolean equal(JsonValue a, JsonValue b) {
+		if (a == b) return true;
+		final JsonValue.Type ta = a.getType();
+		final JsonValue.Type tb = b.getType();
+		if (ta == JsonValue.Type.NUMBER && tb == JsonValue.Type.NUMBER) {
+			if (isInteger(a) && isInteger(b)) {
+				return a.asLong() == b.asLong();
+			}
+			return a.asDouble() == b.asDouble();
+		}
+		if ((ta == JsonValue.Type.STRING || ta == JsonValue.Type.DATE)
+				&& (tb == JsonValue.Type.STRING || tb == JsonValue.Type.DATE)) {
+			return a.asString().equals(b.asString());
+		}
+		if (ta != tb) return false;
+		switch (ta) {
+			case MAP: {
+				if (JsonValue.entriesOf(a).size() != JsonValue.entriesOf(b).size()) return false;
+				for (Map.Entry<String,JsonValue> e : JsonValue.entriesOf(a)) {
+					JsonValue value = b.findMember(e.getKey());
+					if (value == null || !equal(e.getValue(), value)) return false;
+				}
+				return true;
+			}
+			case ARRAY: {
+				List<JsonValue> ea = JsonValue.elementsOf(a);
+				List<JsonValue> eb = JsonValue.elementsOf(b);
+				if (ea.size() != eb.size()) return false;
+				for (int i = 0; i < ea.size(); ++i) {
+					if (!equal(ea.get(i), eb.get(i))) return false;
+				}
+				return true;
+			}
+			default: return a.equals(b);
+		}
+	}
+
+	private static boolean isInteger(JsonValue value) {
+		return (value instanceof JsonNumber) && ((JsonNumber) value).isInteger();
+	}
+
+	/*
+	 * Application.
+	 */
+
+	/** Undoes the replacement of the document. */
+	private static final byte UNDO_ROOT = 0;
+	/** Undoes the change of a member, restoring or removing it. */
+	private static final byte UNDO_MEMBER = 1;
+	/** Undoes the insertion of an element. */
+	private static final byte UNDO_INSERT = 2;
+	/** Undoes the replacement of an element. */
+	private static final byte UNDO_SET = 3;
+	/** Undoes the removal of an element. */
+	private static final byte UNDO_REMOVE = 4;
+
+	/** A change made by a patch, which can be undone. */
+	private static final class Undo {
+
+		final Undo previous;
+
+		final byte kind;
+
+		final Object container;
+
+		final String key;
+
+		/** The index of an element, or the slot a member was removed from, or -1. */
+		final int index;
+
+		/** The previous value, or <code>null</code> if there was none. */
+		final JsonValue value;
+
+		Undo(Undo previous, byte kind, Object container, String key, int index, JsonValue value) {
+			this.previous = previous;
+			this.kind = kind;
+			this.container = container;
+			this.key = key;
+			this.index = index;
+			this.value = value;
+		}
+	}
+
+	/** The application of this patch to one document. */
+	private final class Transaction {
+
+		JsonValue root;
+
+		/**
+		 * The values along the path which was resolved last: <code>chain[k]</code> is reached by
+		 * following its first <code>k</code> segments. The first <code>known</code> are current.
+		 */
+		private JsonValue[] chain = new JsonValue[8];
+
+		private JsonPath last;
+
+		private int known;
+
+		/** The most recent change, or <code>null</code> if nothing has been changed yet. */
+		private Undo undo;
+
+		Transaction(JsonValue root) {
+			setRoot(root);
+		}
+
+		void apply(int i) throws JsonPatchException {
+			final JsonPath path = paths[i];
+			switch (ops[i]) {
+				case ADD: add(i, path, values[i].copy()); break;
+				case REMOVE: remove(i, path); break;
+				case REPLACE: replace(i, path, values[i].copy()); break;
+				case MOVE: {
+					if (froms[i].equals(path)) {
+						resolve(i, path, path.size()); // must exist, but nothing moves
+					} else {
+						add(i, path, remove(i, froms[i]));
+					}
+					break;
+				}
+				case COPY: add(i, path, resolve(i, froms[i], froms[i].size()).copy()); break;
+				case TEST: {
+					JsonValue value = resolve(i, path, path.size());
+					if (!equal(value, values[i])) {
+						throw new JsonPatchException(i, "Test failed at '" + path + "'.");
+					}
+					break;
+				}
+				default: throw new IllegalStateException();
+			}
+		}
+
+		/** Undoes all changes, most recent first. */
+		void rollback() {
+			for (Undo u = undo; u != null; u = u.previous) {
+				switch (u.kind) {
+					case UNDO_ROOT: root = u.value; break;
+					case UNDO_MEMBER: {
+						Map<String,JsonValue> obj = asMap(u.container);
+						if (u.value == null) {
+							obj.remove(u.key);
+						} else if (u.index >= 0 && obj instanceof JsonObject) {
+							((JsonObject) obj).insertAt(u.index, u.key, u.value);
+						} else {
+							obj.put(u.key, u.value);
+						}
+						break;
+					}
+					case UNDO_INSERT: asList(u.container).remove(u.index); break;
+					case UNDO_SET: asList(u.container).set(u.index, u.value); break;
+					default: insert(asList(u.container), u.index, u.value); break;
+				}
+			}
+			undo = null;
+		}
+
+		private void setRoot(JsonValue value) {
+			if (root != null) {
+				undo = new Undo(undo, UNDO_ROOT, null, null, -1, root);
+			}
+			root = value;
+			chain[0] = value;
+			last = null;
+			known = 1;
+		}
+
+		private void add(int i, JsonPath path, JsonValue value) throws JsonPatchException {
+			final int n = path.size();
+			if (n == 0) {
+				setRoot(value);
+				return;
+			}
+			final JsonValue parent = resolve(i, path, n - 1);
+			final String key = path.segment(n - 1);
+			switch (parent.getType()) {
+				case MAP: {
+					JsonValue oldValue = mutableMap(i, path, parent).put(key, value);
+					undo = new Undo(undo, UNDO_MEMBER, parent, key, -1, oldValue);
+					break;
+				}
+				case ARRAY: {
+					List<JsonValue> array = mutableList(i, path, parent);
+					int index = key.equals("-") ? array.size() : indexOf(i, path, n - 1);
+					if (index > array.size()) {
+						throw new JsonPatchException(i, "Index out of bounds at '" + path + "'.");
+					}
+					insert(array, index, value);
+					undo = new Undo(undo, UNDO_INSERT, parent, null, index, null);
+					break;
+				}
+				default: throw notAContainer(i, path);
+			}
+		}
+
+		private JsonValue remove(int i, JsonPath path) throws JsonPatchException {
+			final int n = path.size();
+			if (n == 0) {
+				throw new JsonPatchException(i, "The document itself cannot be removed.");
+			}
+			final JsonValue parent = resolve(i, path, n - 1);
+			final String key = path.segment(n - 1);
+			switch (parent.getType()) {
+				case MAP: {
+					Map<String,JsonValue> obj = mutableMap(i, path, parent);
+					int slot = (obj instanceof JsonObject) ? ((JsonObject) obj).slotOf(key) : -1;
+					if (slot < 0 && !obj.containsKey(key)) {
+						throw missing(i, path);
+					}
+					JsonValue oldValue = obj.remove(key);
+					undo = new Undo(undo, UNDO_MEMBER, parent, key, slot, oldValue);
+					return oldValue;
+				}
+				case ARRAY: {
+					List<JsonValue> array = mutableList(i, path, parent);
+					int index = indexOf(i, path, n - 1);
+					if (index >= array.size()) {
+						throw missing(i, path);
+					}
+					JsonValue oldValue = array.remove(index);
+					undo = new Undo(undo, UNDO_REMOVE, parent, null, index, oldValue);
+					return oldValue;
+				}
+				default: throw notAContainer(i, path);
+			}
+		}
+
+		private void replace(int i, JsonPath path, JsonValue value) throws JsonPatchException {
+			final int n = path.size();
+			if (n == 0) {
+				setRoot(value);
+				return;
+			}
+			final JsonValue parent = resolve(i, path, n - 1);
+			final String key = path.segment(n - 1);
+			switch (parent.getType()) {
+				case MAP: {
+					Map<String,JsonValue> obj = mutableMap(i, path, parent);
+					if (!obj.containsKey(key)) {
+						throw missing(i, path);
+					}
+					JsonValue oldValue = obj.put(key, value);
+					undo = new Undo(undo, UNDO_MEMBER, parent, key, -1, oldValue);
+					break;
+				}
+				case ARRAY: {
+					List<JsonValue> array = mutableList(i, path, parent);
+					int index = indexOf(i, path, n - 1);
+					if (index >= array.size()) {
+						throw missing(i, path);
+					}
+					JsonValue oldValue = array.set(index, value);
+					undo = new Undo(undo, UNDO_SET, parent, null, index, oldValue);
+					break;
+				}
+				default: throw notAContainer(i, path);
+			}
+		}
+
+		/**
+		 * Returns the value which is reached by following the first <code>depth</code> segments
+		 * of a path, starting from the deepest value it shares with the path resolved last. Every
+		 * change is made to the last value resolved, so the values before it remain current.
+		 */
+		private JsonValue resolve(int i, JsonPath path, int depth) throws JsonPatchException {
+			int k = 0;
+			if (last != null) {
+				final int limit = Math.min(known - 1, depth);
+				while (k < limit && path.segment(k).equals(last.segment(k))) {
+					++k;
+				}
+			}
+			if (chain.length <= depth) {
+				chain = Arrays.copyOf(chain, Math.max(depth + 1, chain.length << 1));
+			}
+			JsonValue value = chain[k];
+			for (; k < depth; ++k) {
+				switch (value.getType()) {
+					case MAP: value = value.findMember(path.segment(k)); break;
+					case ARRAY: {
+						int index = indexOf(i, path, k);
+						value = value.findElement(index);
+						break;
+					}
+					default: value = null; break;
+				}
+				if (value == null) {
+					throw missing(i, path);
+				}
+				chain[k + 1] = value;
+			}
+			last = path;
+			known = depth + 1;
+			return value;
+		}
+
+		/** Returns a segment as an array index, which must not have leading zeros. */
+		private int indexOf(int i, JsonPath path, int k) throws JsonPatchException {
+			final int index = path.indexAt(k);
+			if (index < 0 || (path.segment(k).charAt(0) == '0' && path.segment(k).length() > 1)) {
+				throw new JsonPatchException(i, String.format("Invalid array index \"%s\" in '%s'.",
+						path.segment(k), path));
+			}
+			return index;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Map<String,JsonValue> mutableMap(int i, JsonPath path, JsonValue obj)
+				throws JsonPatchException {
+			if (!(obj instanceof Map)) {
+				throw new JsonPatchException(i, "Cannot modify an immutable object at '" + path + "'.");
+			}
+			return (Map<String,JsonValue>) obj;
+		}
+
+		@SuppressWarnings("unchecked")
+		private List<JsonValue> mutableList(int i, JsonPath path, JsonValue array)
+				throws JsonPatchException {
+			if (!(array instanceof List)) {
+				throw new JsonPatchException(i, "Cannot modify an immutable array at '" + path + "'.");
+			}
+			return (List<JsonValue>) array;
+		}
+
+		/**
+		 * Inserts an element into a list. {@link JsonArray#add(int, JsonValue)} pads with
+		 * <code>null</code>s when adding at the end, so that is an append instead.
+		 */
+		private void insert(List<JsonValue> array, int index, JsonValue value) {
+			if (index == array.size()) {
+				array.add(value);
+			} else {
+				array.add(index, value);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private Map<String,JsonValue> asMap(Object obj) {
+			return (Map<String,JsonValue>) obj;
+		}
+
+		@SuppressWarnings("unchecked")
+		private List<JsonValue> asList(Object array) {
+			return (List<JsonValue>) array;
+		}
+
+		private JsonPatchException missing(int i, JsonPath path) {
+			return new JsonPatchException(i, "Path '" + path + "' does not exist.");
+		}
+
+		private JsonPatchException notAContainer(int i, JsonPath path) {
+			return new JsonPatchException(i, "The parent of '" + path
+					+ "' is neither an object nor an array.");
+		}
+	}
+
+}
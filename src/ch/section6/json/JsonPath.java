@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A path to a nested value, e.g. <code>/a/b/0/c</code>, which has been split into its segments
+ * once so that it can be evaluated any number of times by {@link JsonObject#getByPath(JsonPath)}
+ * and {@link JsonObject#setByPath(JsonPath, Object)} without parsing it again. Segments which are
+ * integers are converted to array indices in advance. Whether a segment is used as a key or an
+ * index depends on whether it is applied to an object or an array, as with string paths.
+ * <p>
+ * Paths are immutable and may be shared freely between threads.
+ */
+public final class JsonPath {
+
+	/** Marks a segment which is not an integer, and which therefore cannot be an array index. */
+	static final int NOT_AN_INDEX = Integer.MIN_VALUE;
+
+	private final String path;
+
+	private final String[] keys;
+
+	/** The array index of every segment, or {@link #NOT_AN_INDEX}. */
+	private final int[] indices;
+
+	private JsonPath(String path, String[] keys, int[] indices) {
+		this.path = path;
+		this.keys = keys;
+		this.indices = indices;
+	}
+
+	/**
+	 * Compiles a path of the format <code>/a/b/0/c</code>. Empty segments are ignored.
+	 * 
+	 * @throws NullPointerException
+	 *             If the path is <code>null</code>.
+	 */
+	public static JsonPath compile(String path) throws NullPointerException {
+		if (path == null) { throw new NullPointerException("Path may not be null."); }
+		List<String> segments = new ArrayList<String>();
+		for (int i = 0; i < path.length(); ) {
+			int j = path.indexOf('/', i);
+			if (j < 0) j = path.length();
+			if (j > i) segments.add(path.substring(i, j)); // ignore ""
+			i = j + 1;
+		}
+		String[] keys = segments.toArray(new String[segments.size()]);
+		int[] indices = new int[keys.length];
+		for (int i = 0; i < keys.length; ++i) {
+			indices[i] = parseIndex(keys[i]);
+		}
+		return new JsonPath(path, keys, indices);
+	}
+
+	/**
+	 * Compiles a JSON Pointer as defined by RFC 6901, such as <code>/a/b~1c/0</code>. Unlike
+	 * {@link #compile(String)}, every segment counts, including empty ones, and <code>~1</code>
+	 * and <code>~0</code> stand for <code>/</code> and <code>~</code> within a segment. The empty
+	 * pointer refers to the whole document.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the pointer is neither empty nor starts with <code>/</code>, or contains a
+	 *             <code>~</code> which is not followed by <code>0</code> or <code>1</code>.
+	 * @throws NullPointerException
+	 *             If the pointer is <code>null</code>.
+	 */
+	public static JsonPath compilePointer(String pointer) throws IllegalArgumentException,
+			NullPointerException {
+		if (pointer == null) { throw new NullPointerException("Pointer may not be null."); }
+		if (!pointer.isEmpty() && pointer.charAt(0) != '/') {
+			throw new IllegalArgumentException(String.format(
+					"A JSON pointer must start with '/': %s", pointer));
+		}
+		List<String> segments = new ArrayList<String>();
+		for (int i = 1; i <= pointer.length(); ) {
+			int j = pointer.indexOf('/', i);
+			if (j < 0) j = pointer.length();
+			segments.add(unescape(pointer, i, j));
+			i = j + 1;
+		}
+		String[] keys = segments.toArray(new String[segments.size()]);
+		int[] indices = new int[keys.length];
+		for (int i = 0; i < keys.length; ++i) {
+			indices[i] = keys[i].isEmpty() ? NOT_AN_INDEX : parseIndex(keys[i]);
+		}
+		return new JsonPath(pointer, keys, indices);
+	}
+
+	/** Returns the JSON pointer to a member of the value which this pointer leads to. */
+	JsonPath child(String key) {
+		String escaped = key;
+		if (key.indexOf('~') >= 0 || key.indexOf('/') >= 0) {
+			escaped = key.replace("~", "~0").replace("/", "~1");
+		}
+		return append(path + "/" + escaped, key, key.isEmpty() ? NOT_AN_INDEX : parseIndex(key));
+	}
+
+	/** Returns the JSON pointer to an element of the array which this pointer leads to. */
+	JsonPath child(int index) {
+		String key = Integer.toString(index);
+		return append(path + "/" + key, key, index);
+	}
+
+	private JsonPath append(String path, String key, int index) {
+		String[] newKeys = Arrays.copyOf(keys, keys.length + 1);
+		int[] newIndices = Arrays.copyOf(indices, indices.length + 1);
+		newKeys[keys.length] = key;
+		newIndices[keys.length] = index;
+		return new JsonPath(path, newKeys, newIndices);
+	}
+
+	/** Replaces the escape sequences of a segment of a JSON pointer. */
+	private static String unescape(String pointer, int start, int end) {
+		int i = pointer.indexOf('~', start);
+		if (i < 0 || i >= end) return pointer.substring(start, end);
+		StringBuilder segment = new StringBuilder(end - start);
+		segment.append(pointer, start, i);
+		for (; i < end; ++i) {
+			char c = pointer.charAt(i);
+			if (c == '~') {
+				char next = (i + 1 < end) ? pointer.charAt(++i) : ' ';
+				if (next != '0' && next != '1') {
+					throw new IllegalArgumentException(String.format(
+							"Invalid escape sequence in JSON pointer: %s", pointer));
+				}
+				c = (next == '0') ? '~' : '/';
+			}
+			segment.append(c);
+		}
+		return segment.toString();
+	}
+
+	/**
+	 * Returns the segment as an integer, or {@link #NOT_AN_INDEX} if it is not one. Most segments
+	 * are keys, which are ruled out without the cost of a <code>NumberFormatException</code>.
+	 */
+	static int parseIndex(String segment) {
+		for (int i = (segment.charAt(0) == '-') ? 1 : 0; i < segment.length(); ++i) {
+			if (segment.charAt(i) < '0' || segment.charAt(i) > '9') return NOT_AN_INDEX;
+		}
+		try {
+			return Integer.parseInt(segment);
+		} catch (NumberFormatException e) {
+			return NOT_AN_INDEX; // "-", or out of range
+		}
+	}
+
+	/** Returns the number of segments of this path. */
+	public int size() {
+		return keys.length;
+	}
+
+	/** Returns the segment with the given index. */
+	public String segment(int i) {
+		return keys[i];
+	}
+
+	/**
+	 * Returns the segment with the given index as an array index.
+	 * 
+	 * @throws NumberFormatException
+	 *             If the segment is not an integer.
+	 */
+	int index(int i) throws NumberFormatException {
+		if (indices[i] == NOT_AN_INDEX) {
+			throw new NumberFormatException("For input string: \"" + keys[i] + "\"");
+		}
+		return indices[i];
+	}
+
+	/** Returns the segment with the given index as an array index, or {@link #NOT_AN_INDEX}. */
+	int indexAt(int i) {
+		return indices[i];
+	}
+
+	/**
+	 * Returns the value which is reached by following the first <code>depth</code> segments of
+	 * this path from the given value.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If a segment is applied to a value which is neither an object nor an array.
+	 * @throws NumberFormatException
+	 *             If a segment which is applied to an array is not an integer.
+	 */
+	JsonValue resolve(JsonValue value, int depth) throws IllegalArgumentException,
+			NumberFormatException {
+		for (int i = 0; i < depth; ++i) {
+			switch (value.getType()) {
+				case MAP: value = value.getMember(keys[i]); break;
+				case ARRAY: value = value.getElement(index(i)); break;
+				default: throw new IllegalArgumentException(String.format("Unknown path: %s", path));
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the value which is reached by following this path from the given value, or
+	 * <code>null</code> if there is none.
+	 */
+	JsonValue find(JsonValue value) {
+		for (int i = 0; i < keys.length && value != null; ++i) {
+			switch (value.getType()) {
+				case MAP: value = value.findMember(keys[i]); break;
+				case ARRAY: {
+					value = (indices[i] != NOT_AN_INDEX) ? value.findElement(indices[i]) : null;
+					break;
+				}
+				default: return null;
+			}
+		}
+		return value;
+	}
+
+	/** Returns the path this path was compiled from. */
+	@Override
+	public String toString() {
+		return path;
+	}
+
+	/** Returns <code>true</code> if the given path has the same segments as this one. */
+	@Override
+	public boolean equals(Object o) {
+		return (o instanceof JsonPath) && Arrays.equals(keys, ((JsonPath) o).keys);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(keys);
+	}
+
+}
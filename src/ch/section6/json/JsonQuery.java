@@ -0,0 +1,721 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A query which selects all values of a document which match a pattern. Queries extend the
+ * path syntax of {@link JsonObject#getByPath(String)} with the following segments:
+ * <ul>
+ * <li><code>*</code> matches every value of an object and every element of an array.</li>
+ * <li><code>**</code> matches any number of nested levels, including none, so that
+ * <code>/**&#47;price</code> selects every <code>price</code> in the document.</li>
+ * <li><code>[n]</code> matches the element with the given index of an array, counting from the
+ * end if it is negative.</li>
+ * <li><code>[start:end:step]</code> matches a slice of an array, like a Python slice with a
+ * positive step. Any part may be omitted, and negative bounds count from the end.</li>
+ * <li><code>[?condition]</code> matches the values of an object or elements of an array for which
+ * the condition holds, e.g. <code>[?price &gt; 10]</code>. Conditions compare relative paths
+ * (<code>user/age</code>, or <code>@</code> for the value itself) and JSON literals with
+ * <code>==</code>, <code>!=</code>, <code>&lt;</code>, <code>&lt;=</code>, <code>&gt;</code> and
+ * <code>&gt;=</code>, and are combined with <code>&amp;&amp;</code>, <code>||</code> and
+ * parentheses. A path on its own tests whether the value exists.</li>
+ * </ul>
+ * All other segments are keys, or indices if they are applied to an array. A query is compiled
+ * into a plan once, and may be evaluated any number of times by several threads at once. Matches
+ * are delivered in document order. Plain {@link JsonObject}s and {@link JsonArray}s are walked by
+ * index, so evaluation allocates little: only the numbers of packed numeric arrays are boxed as
+ * they are visited, and objects and arrays of other implementations are walked through their
+ * entry sets or element lists.
+ * 
+ * <pre>
+ * JsonQuery expensive = JsonQuery.compile("/items/[?price &gt; 10]/name");
+ * for (JsonValue name : expensive.select(order)) {
+ *   System.out.println(name.asString());
+ * }
+ * </pre>
+ * 
+ * Queries can also be evaluated over a {@link JsonReader}, which builds only the values which
+ * match. The values tested by a filter, and arrays which are indexed from their end, must be
+ * read into memory one at a time. Several queries can be evaluated over a reader at once with a
+ * {@link JsonExtractor}.
+ */
+public final class JsonQuery {
+
+	private static final byte KEY = 0;
+	private static final byte INDEX = 1;
+	private static final byte WILDCARD = 2;
+	private static final byte DESCENT = 3;
+	private static final byte SLICE = 4;
+	private static final byte FILTER = 5;
+
+	/** The most steps a query can have, such that its active steps can be held in a long. */
+	private static final int MAX_STEPS = 63;
+
+	/** Marks an omitted bound of a slice. */
+	private static final int OMITTED = Integer.MIN_VALUE;
+
+	private final String query;
+
+	private final byte[] kinds;
+
+	/** The key of every {@link #KEY} step. */
+	private final String[] keys;
+
+	/** The index of every {@link #KEY} and {@link #INDEX} step, and the start of a slice. */
+	private final int[] indices;
+
+	/** The end of every slice. */
+	private final int[] ends;
+
+	/** The step of every slice. */
+	private final int[] strides;
+
+	private final Condition[] conditions;
+
+	/** The bit of the active steps which marks a match. */
+	private final long matched;
+
+	/** The steps which are applied to every child of a value, rather than looked up. */
+	private final long scanning;
+
+	/** The steps which match any number of levels. */
+	private final long descents;
+
+	/** The steps which need to know the size of an array. */
+	private final long sized;
+
+	/** The steps which need the values of the children they are applied to. */
+	private final long filtering;
+
+	private JsonQuery(String query, List<String> segments) throws IllegalArgumentException {
+		final int n = segments.size();
+		if (n > MAX_STEPS) {
+			throw new IllegalArgumentException("Query has more than " + MAX_STEPS + " steps: " + query);
+		}
+		this.query = query;
+		kinds = new byte[n];
+		keys = new String[n];
+		indices = new int[n];
+		ends = new int[n];
+		strides = new int[n];
+		conditions = new Condition[n];
+		long scanning = 0L;
+		long descents = 0L;
+		long sized = 0L;
+		long filtering = 0L;
+		for (int i = 0; i < n; ++i) {
+			final String segment = segments.get(i);
+			final long bit = 1L << i;
+			if (segment.equals("*") || segment.equals("[*]")) {
+				kinds[i] = WILDCARD;
+				scanning |= bit;
+			} else if (segment.equals("**")) {
+				kinds[i] = DESCENT;
+				scanning |= bit;
+				descents |= bit;
+			} else if (segment.startsWith("[") && segment.endsWith("]")) {
+				String inner = segment.substring(1, segment.length() - 1).trim();
+				if (inner.startsWith("?")) {
+					kinds[i] = FILTER;
+					conditions[i] = new ConditionParser(inner.substring(1), query).parse();
+					scanning |= bit;
+					filtering |= bit;
+				} else if (inner.indexOf(':') >= 0) {
+					String[] parts = inner.split(":", -1);
+					if (parts.length > 3) throw invalid(query, "Invalid slice " + segment);
+					kinds[i] = SLICE;
+					indices[i] = parseBound(parts[0], query);
+					ends[i] = parseBound(parts[1], query);
+					strides[i] = (parts.length == 3) ? parseBound(parts[2], query) : OMITTED;
+					if (strides[i] == OMITTED) {
+						strides[i] = 1;
+					} else if (strides[i] < 1) {
+						throw invalid(query, "The step of a slice must be positive");
+					}
+					scanning |= bit;
+					if (indices[i] < 0 && indices[i] != OMITTED || ends[i] < 0 && ends[i] != OMITTED) {
+						sized |= bit;
+					}
+				} else {
+					kinds[i] = INDEX;
+					indices[i] = parseBound(inner, query);
+					if (indices[i] == OMITTED) throw invalid(query, "Invalid index " + segment);
+					if (indices[i] < 0) sized |= bit;
+				}
+			} else {
+				kinds[i] = KEY;
+				keys[i] = segment;
+				indices[i] = JsonPath.parseIndex(segment);
+			}
+		}
+		matched = 1L << n;
+		this.scanning = scanning;
+		this.descents = descents;
+		this.sized = sized;
+		this.filtering = filtering;
+	}
+
+	/**
+	 * Compiles a query.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the query is not valid.
+	 */
+	public static JsonQuery compile(String query) throws IllegalArgumentException {
+		if (query == null) { throw new NullPointerException("Query may not be null."); }
+		List<String> segments = new ArrayList<String>();
+		int brackets = 0;
+		boolean quoted = false;
+		int start = 0;
+		for (int i = 0; i < query.length(); ++i) {
+			char c = query.charAt(i);
+			if (quoted) {
+				if (c == '\\') {
+					++i;
+				} else if (c == '"') {
+					quoted = false;
+				}
+			} else if (c == '"' && brackets > 0) {
+				quoted = true;
+			} else if (c == '[') {
+				++brackets;
+			} else if (c == ']') {
+				--brackets;
+			} else if (c == '/' && brackets == 0) {
+				if (i > start) segments.add(query.substring(start, i)); // ignore ""
+				start = i + 1;
+			}
+		}
+		if (brackets != 0 || quoted) {
+			throw invalid(query, "Unbalanced brackets or quotes");
+		}
+		if (query.length() > start) segments.add(query.substring(start));
+		return new JsonQuery(query, segments);
+	}
+
+	private static IllegalArgumentException invalid(String query, String message) {
+		return new IllegalArgumentException(message + " in query: " + query);
+	}
+
+	/** Parses an index or a bound of a slice, which is {@link #OMITTED} if it is empty. */
+	private static int parseBound(String s, String query) throws IllegalArgumentException {
+		s = s.trim();
+		if (s.isEmpty()) return OMITTED;
+		try {
+			return Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+			throw invalid(query, "Invalid index " + s);
+		}
+	}
+
+	/** Returns all values of the given document which match this query, in document order. */
+	public JsonArray select(JsonValue root) {
+		final JsonArray matches = new JsonArray();
+		forEach(root, new Consumer<JsonValue>() {
+			@Override
+			public void accept(JsonValue value) {
+				matches.add(value);
+			}
+		});
+		return matches;
+	}
+
+	/** Performs the given action on every value of the given document which matches this query. */
+	public void forEach(JsonValue root, Consumer<? super JsonValue> action) {
+		evaluate(root, start(), action);
+	}
+
+	/**
+	 * Reads the next value from the given reader, and performs the given action on every value in
+	 * it which matches this query. Only the matching values are built.
+	 */
+	public void forEach(JsonReader reader, Consumer<? super JsonValue> action)
+			throws IOException, JsonParseException {
+		stream(reader, start(), action);
+	}
+
+	/** Returns the steps which are active for the value at which this query is evaluated. */
+	static long start() {
+		return 1L;
+	}
+
+	/**
+	 * Returns the steps which are active for a value, given the steps with which it was reached.
+	 */
+	long enter(long states) {
+		return ((states & descents) != 0) ? closure(states) : states;
+	}
+
+	/**
+	 * Returns <code>true</code> if a value with the given first token must be read as a whole to
+	 * evaluate the given active steps, because it matches or is an array indexed from its end.
+	 */
+	boolean needsValue(long states, JsonReader.Token token) {
+		return (states & matched) != 0
+				|| (token == JsonReader.Token.BEGIN_ARRAY && (states & sized) != 0);
+	}
+
+	/** Returns <code>true</code> if the given active steps need the values of the children. */
+	boolean needsChildren(long states) {
+		return (states & filtering) != 0;
+	}
+
+	/** Adds the steps which follow every active {@link #DESCENT} step to the active steps. */
+	private long closure(long states) {
+		for (int step = 0; step < kinds.length; ++step) {
+			if ((states & (1L << step) & descents) != 0) {
+				states |= 1L << (step + 1);
+			}
+		}
+		return states;
+	}
+
+	/** Returns the index of an {@link #INDEX} step in an array of the given size. */
+	private static int resolve(int index, int size) {
+		return (index < 0) ? size + index : index;
+	}
+
+	/** Returns <code>true</code> if a slice contains the given index of an array of the given size. */
+	private boolean inSlice(int step, int index, int size) {
+		int start = indices[step];
+		int end = ends[step];
+		if (start == OMITTED) {
+			start = 0;
+		} else if (start < 0) {
+			start = Math.max(0, size + start);
+		}
+		if (end != OMITTED && end < 0) {
+			end = size + end;
+		}
+		return index >= start && (end == OMITTED || index < end)
+				&& (index - start) % strides[step] == 0;
+	}
+
+	/**
+	 * Returns the steps which are active for a child, given the steps which are active for its
+	 * parent. The child has either a key or an index, and its value is only needed by filters.
+	 * The size of the parent array is only needed by {@link #sized} steps.
+	 */
+	long advance(long states, String key, int index, int size, JsonValue child) {
+		long next = 0L;
+		for (long s = states; s != 0; s &= s - 1) {
+			final int step = Long.numberOfTrailingZeros(s);
+			final boolean accepted;
+			switch (kinds[step]) {
+				case KEY: accepted = (key != null) ? key.equals(keys[step]) : index == indices[step]; break;
+				case INDEX: accepted = (key == null) && index == resolve(indices[step], size); break;
+				case WILDCARD: accepted = true; break;
+				case DESCENT: next |= 1L << step; accepted = false; break;
+				case SLICE: accepted = (key == null) && inSlice(step, index, size); break;
+				default: accepted = conditions[step].test(child); break;
+			}
+			if (accepted) {
+				next |= 1L << (step + 1);
+			}
+		}
+		return next;
+	}
+
+	void evaluate(JsonValue value, long states, Consumer<? super JsonValue> action) {
+		if ((states & descents) != 0) {
+			states = closure(states);
+		}
+		if ((states & matched) != 0) {
+			action.accept(value);
+			states &= ~matched;
+			if (states == 0) return;
+		}
+		switch (value.getType()) {
+			case MAP: {
+				if ((states & scanning) == 0) {
+					// only keys, which are looked up
+					for (long s = states; s != 0; s &= s - 1) {
+						final int step = Long.numberOfTrailingZeros(s);
+						if (kinds[step] == KEY) {
+							JsonValue child = value.findMember(keys[step]);
+							if (child != null) evaluate(child, 1L << (step + 1), action);
+						}
+					}
+				} else if (value instanceof JsonObject) {
+					// by slot, which allocates no entries
+					final JsonObject obj = (JsonObject) value;
+					for (int i = 0; i < obj.size(); ++i) {
+						JsonValue child = obj.valueAt(i);
+						long next = advance(states, obj.keyAt(i), -1, -1, child);
+						if (next != 0) evaluate(child, next, action);
+					}
+				} else {
+					for (Map.Entry<String,JsonValue> entry : JsonValue.entriesOf(value)) {
+						long next = advance(states, entry.getKey(), -1, -1, entry.getValue());
+						if (next != 0) evaluate(entry.getValue(), next, action);
+					}
+				}
+				break;
+			}
+			case ARRAY: {
+				final List<JsonValue> elements = JsonValue.elementsOf(value);
+				final int size = elements.size();
+				if ((states & scanning) == 0) {
+					// only indices, which are looked up
+					for (long s = states; s != 0; s &= s - 1) {
+						final int step = Long.numberOfTrailingZeros(s);
+						final int index = resolve(indices[step], size);
+						if (indices[step] != JsonPath.NOT_AN_INDEX && index >= 0 && index < size) {
+							evaluate(elements.get(index), 1L << (step + 1), action);
+						}
+					}
+				} else {
+					for (int i = 0; i < size; ++i) {
+						JsonValue element = elements.get(i);
+						long next = advance(states, null, i, size, element);
+						if (next != 0) evaluate(element, next, action);
+					}
+				}
+				break;
+			}
+			default: break;
+		}
+	}
+
+	private void stream(JsonReader reader, long states, Consumer<? super JsonValue> action)
+			throws IOException, JsonParseException {
+		states = enter(states);
+		if (states == 0) {
+			reader.skipValue();
+			return;
+		}
+		final JsonReader.Token token = reader.peek();
+		if (needsValue(states, token)) {
+			// the value itself is needed
+			evaluate(reader.nextValue(), states, action);
+			return;
+		}
+		switch (token) {
+			case BEGIN_OBJECT: {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String key = reader.nextName();
+					streamChild(reader, states, key, -1, action);
+				}
+				reader.endObject();
+				break;
+			}
+			case BEGIN_ARRAY: {
+				reader.beginArray();
+				for (int i = 0; reader.hasNext(); ++i) {
+					streamChild(reader, states, null, i, action);
+				}
+				reader.endArray();
+				break;
+			}
+			default: reader.skipValue(); break;
+		}
+	}
+
+	private void streamChild(JsonReader reader, long states, String key, int index,
+			Consumer<? super JsonValue> action) throws IOException, JsonParseException {
+		if (needsChildren(states)) {
+			JsonValue child = reader.nextValue();
+			long next = advance(states, key, index, -1, child);
+			if (next != 0) evaluate(child, next, action);
+		} else {
+			stream(reader, advance(states, key, index, -1, null), action);
+		}
+	}
+
+	/** Returns the query this query was compiled from. */
+	@Override
+	public String toString() {
+		return query;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return (o instanceof JsonQuery) && query.equals(((JsonQuery) o).query);
+	}
+
+	@Override
+	public int hashCode() {
+		return query.hashCode();
+	}
+
+	/** The condition of a filter. */
+	private static abstract class Condition {
+
+		abstract boolean test(JsonValue value);
+	}
+
+	/** A value in a condition, which is either a literal or found by a path. */
+	private static final class Operand {
+
+		private final JsonValue literal;
+
+		private final JsonPath path;
+
+		private Operand(JsonValue literal, JsonPath path) {
+			this.literal = literal;
+			this.path = path;
+		}
+
+		/** Returns the value of this operand for the given value, or <code>null</code>. */
+		JsonValue resolve(JsonValue value) {
+			return (path != null) ? path.find(value) : literal;
+		}
+	}
+
+	private static final class Exists extends Condition {
+
+		private final Operand operand;
+
+		private Exists(Operand operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		boolean test(JsonValue value) {
+			return operand.resolve(value) != null;
+		}
+	}
+
+	private static final class And extends Condition {
+
+		private final Condition left;
+
+		private final Condition right;
+
+		private And(Condition left, Condition right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(JsonValue value) {
+			return left.test(value) && right.test(value);
+		}
+	}
+
+	private static final class Or extends Condition {
+
+		private final Condition left;
+
+		private final Condition right;
+
+		private Or(Condition left, Condition right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(JsonValue value) {
+			return left.test(value) || right.test(value);
+		}
+	}
+
+	private static final class Comparison extends Condition {
+
+		private static final String[] OPERATORS = {"==", "!=", "<=", ">=", "<", ">"};
+
+		/** The result of comparing values which have no order. */
+		private static final int UNORDERED = 2;
+
+		private final Operand left;
+
+		/** The index of the operator in {@link #OPERATORS}. */
+		private final int operator;
+
+		private final Operand right;
+
+		private Comparison(Operand left, int operator, Operand right) {
+			this.left = left;
+			this.operator = operator;
+			this.right = right;
+		}
+
+		@Override
+		boolean test(JsonValue value) {
+			final JsonValue a = left.resolve(value);
+			final JsonValue b = right.resolve(value);
+			switch (operator) {
+				case 0: return equal(a, b);
+				case 1: return !equal(a, b);
+				case 2: return compare(a, b) <= 0;
+				case 3: { int c = compare(a, b); return c == 0 || c == 1; }
+				case 4: return compare(a, b) < 0;
+				default: return compare(a, b) == 1;
+			}
+		}
+
+		/**
+		 * Returns <code>true</code> if both values are missing, or equal. Numbers are compared by
+		 * their values, and dates as the strings they were written as.
+		 */
+		private static boolean equal(JsonValue a, JsonValue b) {
+			if (a == null || b == null) return a == b;
+			int c = compare(a, b);
+			return (c == UNORDERED) ? a.equals(b) : c == 0;
+		}
+
+		/** Compares two numbers or two strings, returning {@link #UNORDERED} for anything else. */
+		private static int compare(JsonValue a, JsonValue b) {
+			if (a == null || b == null) return UNORDERED;
+			final JsonValue.Type ta = a.getType();
+			final JsonValue.Type tb = b.getType();
+			if (ta == JsonValue.Type.NUMBER && tb == JsonValue.Type.NUMBER) {
+				if (isInteger(a) && isInteger(b)) {
+					return Long.compare(a.asLong(), b.asLong());
+				}
+				double da = a.asDouble();
+				double db = b.asDouble();
+				return (da < db) ? -1 : (da > db) ? 1 : (da == db) ? 0 : UNORDERED;
+			}
+			if ((ta == JsonValue.Type.STRING || ta == JsonValue.Type.DATE)
+					&& (tb == JsonValue.Type.STRING || tb == JsonValue.Type.DATE)) {
+				return Integer.signum(a.asString().compareTo(b.asString()));
+			}
+			return UNORDERED;
+		}
+
+		private static boolean isInteger(JsonValue value) {
+			return (value instanceof JsonNumber) && ((JsonNumber) value).isInteger();
+		}
+	}
+
+	/** Parses the condition of a filter. */
+	private static final class ConditionParser {
+
+		private final String text;
+
+		private final String query;
+
+		private int position;
+
+		private ConditionParser(String text, String query) {
+			this.text = text;
+			this.query = query;
+		}
+
+		Condition parse() throws IllegalArgumentException {
+			Condition condition = parseOr();
+			if (skipSpaces() < text.length()) {
+				throw invalid(query, "Unexpected '" + text.charAt(position) + "' in filter");
+			}
+			return condition;
+		}
+
+		private int skipSpaces() {
+			while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+				++position;
+			}
+			return position;
+		}
+
+		private boolean accept(String token) {
+			skipSpaces();
+			if (text.startsWith(token, position)) {
+				position += token.length();
+				return true;
+			}
+			return false;
+		}
+
+		private Condition parseOr() {
+			Condition condition = parseAnd();
+			while (accept("||")) {
+				condition = new Or(condition, parseAnd());
+			}
+			return condition;
+		}
+
+		private Condition parseAnd() {
+			Condition condition = parseComparison();
+			while (accept("&&")) {
+				condition = new And(condition, parseComparison());
+			}
+			return condition;
+		}
+
+		private Condition parseComparison() {
+			if (accept("(")) {
+				Condition condition = parseOr();
+				if (!accept(")")) throw invalid(query, "Missing ')' in filter");
+				return condition;
+			}
+			Operand left = parseOperand();
+			for (int i = 0; i < Comparison.OPERATORS.length; ++i) {
+				if (accept(Comparison.OPERATORS[i])) {
+					return new Comparison(left, i, parseOperand());
+				}
+			}
+			return new Exists(left);
+		}
+
+		private Operand parseOperand() {
+			final int start = skipSpaces();
+			if (position < text.length() && text.charAt(position) == '"') {
+				for (++position; position < text.length() && text.charAt(position) != '"'; ++position) {
+					if (text.charAt(position) == '\\') ++position;
+				}
+				if (position >= text.length()) throw invalid(query, "Unbalanced quotes in filter");
+				final int end = position++;
+				try {
+					JsonString.indexOfEscape(text, start + 1, end);
+				} catch (JsonParseException e) {
+					throw invalid(query, e.getMessage());
+				}
+				return new Operand(JsonString.valueOf(JsonString.jsonUnescape(text, start + 1, end)), null);
+			}
+			while (position < text.length() && "=!<>&|() \t\r\n".indexOf(text.charAt(position)) < 0) {
+				++position;
+			}
+			final String token = text.substring(start, position);
+			if (token.isEmpty()) {
+				throw invalid(query, "Missing operand in filter");
+			} else if (token.equals("true") || token.equals("false")) {
+				return new Operand(JsonValue.getBoolean(token.equals("true")), null);
+			} else if (token.equals("null")) {
+				return new Operand(JsonValue.getNull(), null);
+			} else if (token.charAt(0) == '-' || (token.charAt(0) >= '0' && token.charAt(0) <= '9')) {
+				try {
+					return new Operand(JsonNumber.parse(token, 0, token.length()), null);
+				} catch (NumberFormatException e) {
+					throw invalid(query, "Invalid number " + token);
+				}
+			} else {
+				// "@" is the value itself
+				return new Operand(null, JsonPath.compile(token.startsWith("@") ? token.substring(1) : token));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,507 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A pull parser which reads a JSON document from a stream one token at a time, without building
+ * a tree of values. Only the current token is held in memory, so documents of any size can be
+ * read. {@link #nextValue()} builds the next value as a tree, and {@link #skipValue()} skips it.
+ * 
+ * <pre>
+ * JsonReader reader = new JsonReader(in);
+ * reader.beginObject();
+ * while (reader.hasNext()) {
+ *   String key = reader.nextName();
+ *   if (key.equals("id")) {
+ *     long id = reader.nextLong();
+ *   } else {
+ *     reader.skipValue();
+ *   }
+ * }
+ * reader.endObject();
+ * </pre>
+ * 
+ * Methods which read a token throw a {@link JsonParseException} if the document is not valid
+ * JSON, or if the next token is not of the expected kind. A reader must not be used by several
+ * threads at once.
+ */
+public final class JsonReader implements Closeable {
+
+	/** The kinds of tokens of a JSON document. */
+	public enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL,
+		END_DOCUMENT
+	}
+
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private final Reader in;
+
+	private final char[] buffer = new char[8192];
+
+	private int position;
+
+	private int limit;
+
+	/** The number of characters which were read before the start of the buffer. */
+	private long bufferOffset;
+
+	/** The scopes of the open arrays and objects, with the document at the bottom. */
+	private int[] scopes = new int[32];
+
+	private int depth = 1;
+
+	/** The next token, or <code>null</code> if it has not been peeked yet. */
+	private Token peeked;
+
+	/** The value of a peeked {@link Token#BOOLEAN}. */
+	private boolean peekedBoolean;
+
+	/** The text of a peeked {@link Token#NUMBER}, and of strings while they are read. */
+	private final StringBuilder text = new StringBuilder();
+
+	/** <code>true</code> if the peeked number has neither a fraction nor an exponent. */
+	private boolean integral;
+
+	/** Creates a reader for the given character stream. */
+	public JsonReader(Reader in) {
+		if (in == null) { throw new NullPointerException("Reader may not be null."); }
+		this.in = in;
+		scopes[0] = EMPTY_DOCUMENT;
+	}
+
+	/** Creates a reader for the given byte stream, assuming a UTF-8 character set. */
+	public JsonReader(InputStream in) {
+		this(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	/** Returns the kind of the next token without consuming it. */
+	public Token peek() throws IOException, JsonParseException {
+		if (peeked == null) {
+			peeked = nextToken();
+		}
+		return peeked;
+	}
+
+	/**
+	 * Returns <code>true</code> if the current array or object has another element or entry.
+	 */
+	public boolean hasNext() throws IOException, JsonParseException {
+		Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY
+				&& token != Token.END_DOCUMENT;
+	}
+
+	/** Returns the number of arrays and objects which are currently open. */
+	public int depth() {
+		return depth - 1;
+	}
+
+	/** Returns the number of characters which have been read so far. */
+	public long offset() {
+		return bufferOffset + position;
+	}
+
+	public void beginObject() throws IOException, JsonParseException {
+		consume(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws IOException, JsonParseException {
+		consume(Token.END_OBJECT);
+		--depth;
+	}
+
+	public void beginArray() throws IOException, JsonParseException {
+		consume(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws IOException, JsonParseException {
+		consume(Token.END_ARRAY);
+		--depth;
+	}
+
+	/** Returns the key of the next entry of an object. */
+	public String nextName() throws IOException, JsonParseException {
+		consume(Token.NAME);
+		return readString();
+	}
+
+	/** Returns the next string, or the text of the next number. */
+	public String nextString() throws IOException, JsonParseException {
+		if (peek() == Token.NUMBER) {
+			peeked = null;
+			return text.toString();
+		}
+		consume(Token.STRING);
+		return readString();
+	}
+
+	/** Returns the next number as a <code>long</code>, without boxing it. */
+	public long nextLong() throws IOException, JsonParseException {
+		consume(Token.NUMBER);
+		if (isShortInteger()) {
+			return parseLong();
+		}
+		return JsonNumber.parse(text.toString(), 0, text.length()).asLong();
+	}
+
+	/** Returns the next number as a <code>double</code>, without boxing it. */
+	public double nextDouble() throws IOException, JsonParseException {
+		consume(Token.NUMBER);
+		if (isShortInteger()) {
+			return parseLong();
+		}
+		return Double.parseDouble(text.toString());
+	}
+
+	public boolean nextBoolean() throws IOException, JsonParseException {
+		consume(Token.BOOLEAN);
+		return peekedBoolean;
+	}
+
+	public void nextNull() throws IOException, JsonParseException {
+		consume(Token.NULL);
+	}
+
+	/**
+	 * Reads the next value into a tree, as {@link JsonObject#parse(String)} would parse it.
+	 */
+	public JsonValue nextValue() throws IOException, JsonParseException {
+		switch (peek()) {
+			case BEGIN_OBJECT: {
+				beginObject();
+				JsonObject obj = new JsonObject();
+				while (hasNext()) {
+					String key = nextName();
+					JsonValue value = nextValue();
+					value.setExposed(false); // only the reader has seen it
+					obj.put(key, value);
+				}
+				endObject();
+				return obj;
+			}
+			case BEGIN_ARRAY: {
+				beginArray();
+				JsonArray array = new JsonArray();
+				List<JsonObject> shapes = null;
+				while (hasNext()) {
+					JsonValue value = nextValue();
+					if (value.getType() == JsonValue.Type.MAP) {
+						if (shapes == null) shapes = new ArrayList<JsonObject>();
+						JsonObject.shareShape(value.asMap(), shapes);
+					}
+					value.setExposed(false); // only the reader has seen it
+					array.add(value);
+				}
+				endArray();
+				return array;
+			}
+			case STRING: {
+				String s = nextString();
+				JsonDate date = JsonDate.tryParse(s);
+				return (date != null) ? date : JsonString.valueOf(s);
+			}
+			case NUMBER: {
+				peeked = null;
+				if (isShortInteger()) {
+					return JsonNumber.valueOf(parseLong());
+				}
+				return JsonNumber.parse(text.toString(), 0, text.length());
+			}
+			case BOOLEAN: return JsonValue.getBoolean(nextBoolean());
+			case NULL: nextNull(); return JsonValue.getNull();
+			default: throw syntaxError("Expected a value but found " + peek());
+		}
+	}
+
+	/** Skips the next value, including all values nested in it. */
+	public void skipValue() throws IOException, JsonParseException {
+		int open = 0;
+		do {
+			switch (peek()) {
+				case BEGIN_OBJECT: beginObject(); ++open; break;
+				case BEGIN_ARRAY: beginArray(); ++open; break;
+				case END_OBJECT: endObject(); --open; break;
+				case END_ARRAY: endArray(); --open; break;
+				case NAME: consume(Token.NAME); skipString(); break;
+				case STRING: consume(Token.STRING); skipString(); break;
+				case END_DOCUMENT: throw syntaxError("Expected a value but found " + peek());
+				default: peeked = null; break;
+			}
+		} while (open > 0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		peeked = Token.END_DOCUMENT;
+		in.close();
+	}
+
+	private void consume(Token token) throws IOException, JsonParseException {
+		if (peek() != token) {
+			throw syntaxError("Expected " + token + " but found " + peeked);
+		}
+		peeked = null;
+	}
+
+	private void push(int scope) {
+		if (depth == scopes.length) {
+			scopes = Arrays.copyOf(scopes, 2 * depth);
+		}
+		scopes[depth++] = scope;
+	}
+
+	JsonParseException syntaxError(String message) {
+		return new JsonParseException(message + " at offset " + offset() + ".");
+	}
+
+	/** Makes at least one more character available, returning <code>false</code> at the end. */
+	private boolean fill() throws IOException {
+		if (position < limit) return true;
+		bufferOffset += limit;
+		position = 0;
+		limit = 0;
+		int n;
+		do {
+			n = in.read(buffer, 0, buffer.length);
+		} while (n == 0);
+		if (n < 0) return false;
+		limit = n;
+		return true;
+	}
+
+	/** Returns the next character without consuming it, or -1 at the end of the input. */
+	private int peekChar() throws IOException {
+		return fill() ? buffer[position] : -1;
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		while (fill()) {
+			char c = buffer[position];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+			++position;
+		}
+		return -1;
+	}
+
+	private Token nextToken() throws IOException, JsonParseException {
+		final int scope = scopes[depth - 1];
+		int c = nextNonWhitespace();
+		switch (scope) {
+			case EMPTY_ARRAY:
+			case NONEMPTY_ARRAY: {
+				if (c == ']') {
+					++position;
+					return Token.END_ARRAY;
+				}
+				if (scope == NONEMPTY_ARRAY) {
+					if (c != ',') throw syntaxError("Expected ',' or ']'");
+					++position;
+					c = nextNonWhitespace();
+				}
+				scopes[depth - 1] = NONEMPTY_ARRAY;
+				break;
+			}
+			case EMPTY_OBJECT:
+			case NONEMPTY_OBJECT: {
+				if (c == '}') {
+					++position;
+					return Token.END_OBJECT;
+				}
+				if (scope == NONEMPTY_OBJECT) {
+					if (c != ',') throw syntaxError("Expected ',' or '}'");
+					++position;
+					c = nextNonWhitespace();
+				}
+				if (c != '"') throw syntaxError("Expected a string as a map key");
+				++position;
+				scopes[depth - 1] = DANGLING_NAME;
+				return Token.NAME;
+			}
+			case DANGLING_NAME: {
+				if (c != ':') throw syntaxError("Expected ':'");
+				++position;
+				c = nextNonWhitespace();
+				scopes[depth - 1] = NONEMPTY_OBJECT;
+				break;
+			}
+			case EMPTY_DOCUMENT: {
+				scopes[depth - 1] = NONEMPTY_DOCUMENT;
+				break;
+			}
+			default: {
+				if (c != -1) throw syntaxError("Unexpected character after the JSON value");
+				return Token.END_DOCUMENT;
+			}
+		}
+
+		switch (c) {
+			case -1: throw syntaxError("Unexpected end of input");
+			case '{': ++position; return Token.BEGIN_OBJECT;
+			case '[': ++position; return Token.BEGIN_ARRAY;
+			case '"': ++position; return Token.STRING;
+			case 't': readLiteral("true"); peekedBoolean = true; return Token.BOOLEAN;
+			case 'f': readLiteral("false"); peekedBoolean = false; return Token.BOOLEAN;
+			case 'n': readLiteral("null"); return Token.NULL;
+			default: readNumber(); return Token.NUMBER;
+		}
+	}
+
+	private void readLiteral(String literal) throws IOException, JsonParseException {
+		for (int i = 0; i < literal.length(); ++i) {
+			if (peekChar() != literal.charAt(i)) throw syntaxError("Expected " + literal);
+			++position;
+		}
+	}
+
+	/** Reads a number into {@link #text}, checking it against the JSON grammar. */
+	private void readNumber() throws IOException, JsonParseException {
+		text.setLength(0);
+		integral = true;
+		if (peekChar() == '-') appendChar();
+		readDigits();
+		if (peekChar() == '.') {
+			integral = false;
+			appendChar();
+			readDigits();
+		}
+		int c = peekChar();
+		if (c == 'e' || c == 'E') {
+			integral = false;
+			appendChar();
+			c = peekChar();
+			if (c == '+' || c == '-') appendChar();
+			readDigits();
+		}
+	}
+
+	private void readDigits() throws IOException, JsonParseException {
+		int c = peekChar();
+		if (c < '0' || c > '9') throw syntaxError("Unexpected character");
+		do {
+			appendChar();
+			c = peekChar();
+		} while (c >= '0' && c <= '9');
+	}
+
+	private void appendChar() {
+		text.append(buffer[position++]);
+	}
+
+	/**
+	 * Returns <code>true</code> if {@link #text} is an integer of at most 18 digits, which
+	 * {@link #parseLong()} converts. <code>-0</code> is left to {@link JsonNumber}, which parses it
+	 * as a negative zero.
+	 */
+	private boolean isShortInteger() {
+		return integral && text.length() <= 18
+				&& !(text.length() == 2 && text.charAt(0) == '-' && text.charAt(1) == '0');
+	}
+
+	/** Parses the integral number of at most 18 digits in {@link #text}. */
+	private long parseLong() {
+		final boolean negative = text.charAt(0) == '-';
+		long l = 0L;
+		for (int i = negative ? 1 : 0; i < text.length(); ++i) {
+			l = 10L * l + (text.charAt(i) - '0');
+		}
+		return negative ? -l : l;
+	}
+
+	/** Reads and unescapes the rest of a string whose opening quote has been consumed. */
+	private String readString() throws IOException, JsonParseException {
+		text.setLength(0);
+		while (true) {
+			if (!fill()) throw syntaxError("No balancing quote found for string");
+			// copy runs of plain characters at once
+			int start = position;
+			while (position < limit) {
+				char c = buffer[position];
+				if (c == '"' || c == '\\') break;
+				++position;
+			}
+			text.append(buffer, start, position - start);
+			if (position == limit) continue;
+			if (buffer[position++] == '"') return text.toString();
+			text.append(readEscape());
+		}
+	}
+
+	/** Skips the rest of a string whose opening quote has been consumed. */
+	private void skipString() throws IOException, JsonParseException {
+		while (true) {
+			if (!fill()) throw syntaxError("No balancing quote found for string");
+			char c = buffer[position++];
+			if (c == '"') return;
+			if (c == '\\') readEscape();
+		}
+	}
+
+	/** Reads an escape sequence whose backslash has been consumed. */
+	private char readEscape() throws IOException, JsonParseException {
+		if (!fill()) throw syntaxError("Invalid escape sequence");
+		char c = buffer[position++];
+		switch (c) {
+			case '"': case '\\': case '/': return c;
+			case 'b': return '\b';
+			case 'f': return '\f';
+			case 'n': return '\n';
+			case 'r': return '\r';
+			case 't': return '\t';
+			case 'u': {
+				int u = 0;
+				for (int i = 0; i < 4; ++i) {
+					int digit = fill() ? Character.digit(buffer[position++], 16) : -1;
+					if (digit < 0) throw syntaxError("Invalid unicode escape sequence");
+					u = (u << 4) | digit;
+				}
+				return (char) u;
+			}
+			default: throw syntaxError("Invalid escape sequence");
+		}
+	}
+
+}
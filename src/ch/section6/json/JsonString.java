@@ -34,6 +34,15 @@ import java.util.List;
 /** A JSON representation of a {@link String}. */
 public class JsonString extends JsonValue {
 
+	/** Strings longer than this are not held in the string cache. */
+	private static final int CACHE_MAX_LENGTH = 32;
+
+	/**
+	 * A bounded, direct-mapped cache of recently requested short strings. Entries are replaced
+	 * without locking; this is safe because <code>JsonString</code>s are immutable.
+	 */
+	private static final JsonString[] CACHE = new JsonString[4096];
+
 	/** The original string. */
 	private final String string;
 
@@ -48,6 +57,35 @@ public class JsonString extends JsonValue {
 		escapedString = jsonEscape(string);
 	}
 
+	/**
+	 * Creates a string which is held by a subclass. The subclass must override
+	 * {@link #asString()} and {@link #toString()}, which all other methods are based on.
+	 */
+	JsonString() {
+		string = null;
+		escapedString = null;
+	}
+
+	/**
+	 * Returns a <code>JsonString</code> for the given string. Short strings are shared via a bounded
+	 * cache, so this method should be preferred to the constructor.
+	 */
+	public static JsonString valueOf(String string) {
+		if (string == null) { throw new NullPointerException("String argument may not be null."); }
+		if (string.length() > CACHE_MAX_LENGTH) {
+			return new JsonString(string);
+		}
+		int h = string.hashCode();
+		int index = (h ^ (h >>> 16)) & (CACHE.length - 1);
+		JsonString cached = CACHE[index];
+		if (cached != null && cached.string.equals(string)) {
+			return cached;
+		}
+		cached = new JsonString(string);
+		CACHE[index] = cached;
+		return cached;
+	}
+
 	@Override
 	public Type getType() {
 		return Type.STRING;
@@ -61,7 +99,7 @@ public class JsonString extends JsonValue {
 	@Override
 	public Number asNumber() {
 		try {
-			return Double.parseDouble(string);
+			return Double.parseDouble(asString());
 		}
 		catch (NumberFormatException e) {
 			throw new JsonCastException(e);
@@ -71,7 +109,7 @@ public class JsonString extends JsonValue {
 	@Override
 	public Date asDate() {
 		try {
-			return JsonDate.asDate(string);
+			return JsonDate.asDate(asString());
 		}
 		catch (ParseException e) {
 			throw new JsonCastException(e);
@@ -93,6 +131,90 @@ public class JsonString extends JsonValue {
 		return String.format("\"%s\"", s);
 	}
 
+	/**
+	 * Returns the index of the first escape sequence in the JSON text of a string between the
+	 * given indices, or -1 if there is none.
+	 * 
+	 * @throws JsonParseException
+	 *             If an escape sequence is invalid.
+	 */
+	static int indexOfEscape(String json, int start, int end) throws JsonParseException {
+		int first = -1;
+		for (int i = indexOf('\\', json, start, end); i >= 0; i = indexOf('\\', json, i, end)) {
+			if (first < 0) first = i;
+			unescape(json, i, end);
+			i += escapeLength(json, i);
+		}
+		return first;
+	}
+
+	/**
+	 * Returns the string held by the JSON text between the given indices, which may only contain
+	 * escape sequences accepted by {@link #indexOfEscape(String, int, int)}.
+	 */
+	static String jsonUnescape(String json, int start, int end) {
+		StringBuilder sb = new StringBuilder(end - start);
+		int i = start;
+		for (int k = indexOf('\\', json, i, end); k >= 0; k = indexOf('\\', json, i, end)) {
+			sb.append(json, i, k);
+			sb.append(unescape(json, k, end));
+			i = k + escapeLength(json, k);
+		}
+		sb.append(json, i, end);
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the character which the escape sequence starting at the given index stands for.
+	 * Every parser decodes escape sequences with this method, so that they all read the same
+	 * strings.
+	 * 
+	 * @throws JsonParseException
+	 *             If the escape sequence is invalid, or does not end before <code>end</code>.
+	 */
+	static char unescape(String json, int index, int end) throws JsonParseException {
+		char c = (index + 1 < end) ? json.charAt(index + 1) : 0;
+		switch (c) {
+			case '"': case '\\': case '/': return c;
+			case 'b': return '\b';
+			case 'f': return '\f';
+			case 'n': return '\n';
+			case 'r': return '\r';
+			case 't': return '\t';
+			case 'u': {
+				if (index + 6 > end) {
+					throw new JsonParseException("Incomplete unicode escape sequence.");
+				}
+				int u = 0;
+				for (int k = index + 2; k < index + 6; ++k) {
+					int digit = Character.digit(json.charAt(k), 16);
+					if (digit < 0) {
+						throw new JsonParseException("Invalid unicode escape sequence.");
+					}
+					u = (u << 4) | digit;
+				}
+				return (char) u;
+			}
+			default: throw new JsonParseException("Invalid escape sequence.");
+		}
+	}
+
+	/** Returns the length of the valid escape sequence starting at the given index. */
+	static int escapeLength(String json, int index) {
+		return (json.charAt(index + 1) == 'u') ? 6 : 2;
+	}
+
+	/**
+	 * Returns the index of a character between the given indices, or -1 if there is none. Unlike
+	 * {@link String#indexOf(int, int)}, the search never runs past the end of the string value.
+	 */
+	private static int indexOf(char c, String json, int start, int end) {
+		for (int i = start; i < end; ++i) {
+			if (json.charAt(i) == c) return i;
+		}
+		return -1;
+	}
+
 	@Override
 	protected void appendTokenList(List<String> tokenList) {
 		tokenList.add(toString());
@@ -108,7 +230,7 @@ public class JsonString extends JsonValue {
 		if (o != null) {
 			if (o instanceof JsonString) {
 				JsonString jsonString = (JsonString) o;
-				return string.equals(jsonString.string);
+				return asString().equals(jsonString.asString());
 			}
 		}
 		return false;
@@ -116,6 +238,6 @@ public class JsonString extends JsonValue {
 
 	@Override
 	public int hashCode() {
-		return string.hashCode();
+		return asString().hashCode();
 	}
 }
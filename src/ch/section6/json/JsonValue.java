@@ -36,9 +36,21 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /** An abstract superclass of all JSON values. */
 public abstract class JsonValue implements Cloneable {
@@ -167,6 +179,24 @@ public abstract class JsonValue implements Cloneable {
 				toString()));
 	}
 
+	/** Returns this value as a <code>long</code>, without boxing it if it is a number. */
+	public long asLong() throws JsonCastException {
+		return asNumber().longValue();
+	}
+
+	/** Returns this value as a <code>double</code>, without boxing it if it is a number. */
+	public double asDouble() throws JsonCastException {
+		return asNumber().doubleValue();
+	}
+
+	/**
+	 * Returns this value as a {@link BigDecimal}. Numbers parsed with
+	 * {@link JsonParseOption#LAZY_NUMBERS} keep their full precision.
+	 */
+	public BigDecimal asBigDecimal() throws JsonCastException {
+		return JsonNumber.valueOf(asNumber()).asBigDecimal();
+	}
+
 	/** Returns this value as a {@link String}. */
 	public String asString() throws JsonCastException {
 		throw new JsonCastException(String.format("JsonValue %s cannot be cast to a string.",
@@ -198,9 +228,9 @@ public abstract class JsonValue implements Cloneable {
 		} else if (o instanceof JsonValue) {
 			return (JsonValue) o;
 		} else  if (o instanceof String) {
-			return new JsonString((String) o);
+			return JsonString.valueOf((String) o);
 		} else if (o instanceof Number) {
-			return new JsonNumber((Number) o);
+			return JsonNumber.valueOf((Number) o);
 		} else if (o instanceof Boolean) {
 			return JsonValue.getBoolean((Boolean) o);
 		} else if (o instanceof Date) {
@@ -211,6 +241,227 @@ public abstract class JsonValue implements Cloneable {
 		}
 	}
 	
+	/**
+	 * Returns the value with the given key of a {@link Type#MAP} value, without converting this
+	 * value into a {@link JsonObject}.
+	 */
+	JsonValue getMember(String key) {
+		return asMap().get(key);
+	}
+
+	/**
+	 * Returns the element with the given index of an {@link Type#ARRAY} value, without converting
+	 * this value into a {@link JsonArray}.
+	 */
+	JsonValue getElement(int index) {
+		return asArray().get(index);
+	}
+
+	/**
+	 * Returns the value with the given key of a {@link Type#MAP} value, or <code>null</code> if
+	 * there is none. Unlike {@link #getMember(String)}, a missing key is not an error.
+	 */
+	JsonValue findMember(String key) {
+		return asMap().get(key, null);
+	}
+
+	/**
+	 * Returns the element with the given index of an {@link Type#ARRAY} value, or
+	 * <code>null</code> if the index is out of bounds.
+	 */
+	JsonValue findElement(int index) {
+		JsonArray array = asArray();
+		return (index >= 0 && index < array.size()) ? array.get(index) : null;
+	}
+
+	/**
+	 * Returns an immutable equivalent of this value. Mutable containers are converted into their
+	 * persistent counterparts, all other values are returned as they are.
+	 */
+	JsonValue freeze() {
+		return this;
+	}
+
+	/**
+	 * Returns <code>true</code> if a reference to this value may be held outside of the container
+	 * it is in, such that it can be modified behind the back of that container. Lazy copies of the
+	 * container must then copy this value right away. Only mutable containers are ever exposed.
+	 */
+	boolean isExposed() {
+		return false;
+	}
+
+	/**
+	 * Records whether a reference to this value may be held outside of the container it is in, see
+	 * {@link #isExposed()}. Containers are exposed when they are created or handed out, and are
+	 * concealed by whoever creates them only to insert them, such as the parser.
+	 */
+	void setExposed(boolean exposed) {
+		// immutable values may always be shared
+	}
+
+	/**
+	 * Returns a lazy copy of the given value, for a copied container to hold in place of the value
+	 * it shares with the original. Nobody else holds the copy, so it is not exposed.
+	 */
+	static JsonValue concealedCopy(JsonValue value) {
+		JsonValue copy = value.copy();
+		copy.setExposed(false);
+		return copy;
+	}
+
+	/**
+	 * Registers a container whose cached hash code covers this value, so that modifying this value
+	 * invalidates it, see {@link HashDependents}. Mutable containers override this; the hash code
+	 * of any other value never changes.
+	 */
+	void addHashDependent(JsonValue container) {
+		// immutable values never invalidate a hash code
+	}
+
+	/**
+	 * Invalidates the cached hash code of this value, if it has one, and those of the containers
+	 * covering it. Mutable containers call it before they are modified.
+	 */
+	void invalidateHash() {
+		// only containers cache their hash codes
+	}
+
+	/**
+	 * Compares this value to another like {@link #equals(Object)}, but without consulting cached
+	 * hash codes. Containers use it for nested values once their own hash codes have been compared.
+	 */
+	boolean contentEquals(JsonValue value) {
+		return equals(value);
+	}
+
+	/**
+	 * Returns the elements of an {@link Type#ARRAY} value of any implementation, for encoders.
+	 * Concurrent arrays are read from a consistent snapshot.
+	 */
+	static List<JsonValue> elementsOf(JsonValue array) {
+		if (array instanceof ConcurrentJsonArray) {
+			array = array.freeze();
+		}
+		if (array instanceof JsonArray) {
+			return (JsonArray) array;
+		}
+		List<JsonValue> elements = new ArrayList<JsonValue>();
+		if (array instanceof Iterable<?>) {
+			for (Object o : (Iterable<?>) array) {
+				elements.add((JsonValue) o);
+			}
+		} else {
+			elements.addAll(array.asArray());
+		}
+		return elements;
+	}
+
+	/**
+	 * Returns the entries of a {@link Type#MAP} value of any implementation, for encoders.
+	 * Concurrent objects are read from a consistent snapshot.
+	 */
+	static Collection<Map.Entry<String,JsonValue>> entriesOf(JsonValue obj) {
+		if (obj instanceof ConcurrentJsonObject) {
+			obj = obj.freeze();
+		}
+		return (obj instanceof ImmutableJsonObject)
+				? ((ImmutableJsonObject) obj).entrySet() : obj.asMap().entrySet();
+	}
+
+	/**
+	 * Compares an {@link Type#MAP} value to another object like <code>Map.equals</code> does. The
+	 * other object may be a MAP value of any implementation, or any <code>Map</code> if the value
+	 * is itself a map. All objects compare this way, and hash their entries as a
+	 * <code>Map</code> does, such that equal entries are equal across implementations.
+	 */
+	static boolean objectEquals(JsonValue obj, Object o) {
+		if (o == obj) return true;
+		JsonValue other = null;
+		Map<?,?> map = null;
+		if (o instanceof ImmutableJsonObject && o instanceof JsonValue) {
+			other = (o instanceof ConcurrentJsonObject) ? ((JsonValue) o).freeze() : (JsonValue) o;
+		} else if (o instanceof Map && obj instanceof Map) {
+			map = (Map<?,?>) o;
+		} else {
+			return false;
+		}
+		if (obj instanceof ConcurrentJsonObject) obj = obj.freeze();
+		ImmutableJsonObject entries = (ImmutableJsonObject) obj;
+		int otherSize = (other != null) ? ((ImmutableJsonObject) other).size() : map.size();
+		if (entries.size() != otherSize) return false;
+		for (String key : entries.keySet()) {
+			Object otherValue = (other != null) ? peekEntry(other, key) : map.get(key);
+			if (!peekEntry(obj, key).equals(otherValue)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the value of a key in an {@link Type#MAP} value of any implementation, or
+	 * <code>null</code>. Nested values of a {@link JsonObject} are not handed out.
+	 */
+	private static JsonValue peekEntry(JsonValue obj, String key) {
+		if (obj instanceof JsonObject) {
+			return ((JsonObject) obj).peek(key);
+		} else if (obj instanceof PersistentJsonObject) {
+			return ((PersistentJsonObject) obj).get(key, null);
+		} else if (obj instanceof BinaryJsonObject) {
+			return ((BinaryJsonObject) obj).get(key, null);
+		} else if (obj instanceof ArenaJsonObject) {
+			return ((ArenaJsonObject) obj).get(key, null);
+		} else {
+			return obj.asMap().get(key);
+		}
+	}
+
+	/**
+	 * Compares an {@link Type#ARRAY} value to another object like <code>List.equals</code> does.
+	 * The other object may be an ARRAY value of any implementation, or any <code>List</code> if
+	 * the value is itself a list. All arrays compare this way, and hash their elements as a
+	 * <code>List</code> does, such that equal elements are equal across implementations.
+	 */
+	static boolean arrayEquals(JsonValue array, Object o) {
+		if (o == array) return true;
+		List<?> others;
+		if (o instanceof ImmutableJsonArray && o instanceof JsonValue) {
+			others = comparableElements((JsonValue) o);
+		} else if (o instanceof List && array instanceof List) {
+			others = (List<?>) o;
+		} else {
+			return false;
+		}
+		List<JsonValue> elements = comparableElements(array);
+		if (elements.size() != others.size()) return false;
+		Iterator<?> it = others.iterator();
+		for (JsonValue element : elements) {
+			if (!element.equals(it.next())) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the elements of an {@link Type#ARRAY} value for comparing them. Nested values of a
+	 * {@link JsonArray} are not handed out.
+	 */
+	private static List<JsonValue> comparableElements(final JsonValue array) {
+		if (array instanceof JsonArray) {
+			return new AbstractList<JsonValue>() {
+				@Override
+				public JsonValue get(int index) {
+					return ((JsonArray) array).peek(index);
+				}
+
+				@Override
+				public int size() {
+					return ((JsonArray) array).size();
+				}
+			};
+		}
+		return elementsOf(array);
+	}
+
+
 	/**
 	 * Return a value according to its path, e.g. <code>/a/b/0/c</code>.
 	 * 
@@ -222,12 +473,15 @@ public abstract class JsonValue implements Cloneable {
 	 */
 	protected JsonValue getByPath(String path) throws IllegalArgumentException, NumberFormatException {
 		JsonValue value = this;
-		if (path != null && !path.isEmpty()) { // early exit condition
-			for (String p : path.split("/")) {
-				if (p.isEmpty()) continue; // ignore ""
+		if (path != null) {
+			for (int i = 0, j; i < path.length(); i = j + 1) {
+				j = path.indexOf('/', i);
+				if (j < 0) j = path.length();
+				if (j == i) continue; // ignore ""
+				String p = path.substring(i, j);
 				switch (value.getType()) {
-					case MAP: value = value.asMap().get(p); break;
-					case ARRAY: value = value.asArray().get(Integer.parseInt(p)); break;
+					case MAP: value = value.getMember(p); break;
+					case ARRAY: value = value.getElement(Integer.parseInt(p)); break;
 					default: {
 						throw new IllegalArgumentException(
 								String.format("Unknown path: %s", path));
@@ -237,7 +491,21 @@ public abstract class JsonValue implements Cloneable {
 		}
 		return value;
 	}
-	
+
+	/**
+	 * Return a value according to a compiled path. Unlike {@link #getByPath(String)}, the path is
+	 * not parsed again.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If no value could be found at that path.
+	 * @throws NumberFormatException
+	 *             If an array index is expected but the next path address is
+	 *             not an integer.
+	 */
+	protected JsonValue getByPath(JsonPath path) throws IllegalArgumentException, NumberFormatException {
+		return path.resolve(this, path.size());
+	}
+
 	/**
 	 * Set a value according to its path.
 	 * 
@@ -249,10 +517,25 @@ public abstract class JsonValue implements Cloneable {
 	 */
 	protected boolean setByPath(String path, Object o)
 			throws IllegalArgumentException, NumberFormatException {
+		return (path != null) && setByPath(JsonPath.compile(path), o);
+	}
+
+	/**
+	 * Set a value according to a compiled path. The parent of the value is found by following all
+	 * but the last segment of the path, without parsing it again.
+	 * 
+	 * @param path
+	 *          A compiled path of the format <code>/a/b/0/c</code>.
+	 * @param newValue
+	 *          The new value.
+	 * @return <code>true</code> if successful. <code>false</code> otherwise.
+	 */
+	protected boolean setByPath(JsonPath path, Object o)
+			throws IllegalArgumentException, NumberFormatException {
 		if (path != null) {
 			JsonValue newValue = objectToJsonValue(o);
 			
-			if (path.isEmpty() || path.equals("/")) {
+			if (path.size() == 0) {
 				if (this.getType() == Type.MAP && newValue.getType() == Type.MAP) {
 					this.asMap().putAll(newValue.asMap());
 					return true;
@@ -262,18 +545,12 @@ public abstract class JsonValue implements Cloneable {
 				}
 			}
 	
-			if (path.endsWith("/")) {
-				throw new IllegalArgumentException(
-						String.format("Path %s cannot end with trailing \"/\".", path));
-			}
-
-			int lastSlash = path.lastIndexOf("/");
-			String lastPath = path.substring(lastSlash+1);
-
-			JsonValue value = getByPath(path.substring(0, lastSlash));
+			checkSetPath(path);
+			final int last = path.size() - 1;
+			JsonValue value = path.resolve(this, last);
 			switch (value.getType()) {
-				case MAP: value.asMap().put(lastPath, newValue); break;
-				case ARRAY: value.asArray().set(Integer.parseInt(lastPath), newValue); break;
+				case MAP: value.asMap().put(path.segment(last), newValue); break;
+				case ARRAY: value.asArray().set(path.index(last), newValue); break;
 				default: throw new IllegalArgumentException(String.format("Unknown path: %s", path));
 			}
 			
@@ -283,6 +560,53 @@ public abstract class JsonValue implements Cloneable {
 		}
 	}
 
+	/**
+	 * Checks that a value can be set at the given path.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the path has no segments, or ends with a trailing "/".
+	 */
+	static void checkSetPath(JsonPath path) throws IllegalArgumentException {
+		if (path.toString().endsWith("/")) {
+			throw new IllegalArgumentException(
+					String.format("Path %s cannot end with trailing \"/\".", path));
+		}
+		if (path.size() == 0) {
+			throw new IllegalArgumentException(String.format("Unknown path: %s", path));
+		}
+	}
+
+	/**
+	 * Returns a new version of the given persistent value in which the value at the given path is
+	 * replaced. Only the objects and arrays along the path are copied.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If no value could be found at that path.
+	 */
+	static JsonValue withPath(JsonValue root, JsonPath path, JsonValue newValue)
+			throws IllegalArgumentException, NumberFormatException {
+		checkSetPath(path);
+		return withPath(root, path, 0, newValue);
+	}
+
+	private static JsonValue withPath(JsonValue value, JsonPath path, int i, JsonValue newValue) {
+		if (i == path.size()) {
+			return newValue;
+		}
+		boolean last = (i == path.size() - 1);
+		if (value instanceof PersistentJsonObject) {
+			PersistentJsonObject obj = (PersistentJsonObject) value;
+			String key = path.segment(i);
+			return obj.with(key, withPath(last ? null : obj.get(key), path, i + 1, newValue));
+		} else if (value instanceof PersistentJsonArray) {
+			PersistentJsonArray array = (PersistentJsonArray) value;
+			int index = path.index(i);
+			return array.with(index, withPath(last ? null : array.get(index), path, i + 1, newValue));
+		} else {
+			throw new IllegalArgumentException(String.format("Unknown path: %s", path));
+		}
+	}
+
 	/**
 	 * A convenience method to Save this value to file with the given indent, assuming a UTF-8
 	 * character set.
@@ -373,4 +697,136 @@ public abstract class JsonValue implements Cloneable {
 		return JsonObject.parse(new String(baos.toByteArray(), charsetName));
 	}
 
+	/**
+	 * Returns a stream of the elements of the top-level array in an input stream, assuming a UTF-8
+	 * character set. The elements are parsed lazily, one at a time as the stream is consumed, so
+	 * arrays larger than memory can be processed. If the stream is made parallel, batches of parsed
+	 * elements are handed to other threads while the input is being read. Closing the stream closes
+	 * the input stream.
+	 * <p>
+	 * An {@link IOException} of the input stream is thrown as an {@link UncheckedIOException}, and
+	 * a {@link JsonParseException} is thrown once the stream reaches the invalid element.
+	 */
+	public static Stream<JsonValue> streamElements(InputStream in) {
+		if (in == null) throw new NullPointerException("Input stream may not be null.");
+		final JsonReader reader = new JsonReader(in);
+		Spliterator<JsonValue> elements = new Spliterators.AbstractSpliterator<JsonValue>(
+				Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+			private boolean started = false;
+			private boolean finished = false;
+
+			@Override
+			public boolean tryAdvance(Consumer<? super JsonValue> action) {
+				if (finished) return false;
+				try {
+					if (!started) {
+						reader.beginArray();
+						started = true;
+					}
+					if (reader.hasNext()) {
+						action.accept(reader.nextValue());
+						return true;
+					}
+					reader.endArray();
+					reader.peek(); // rejects anything after the array
+					finished = true;
+					return false;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+		return StreamSupport.stream(elements, false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes this value to an output stream in a compact binary format, which can be read much
+	 * faster than JSON text with {@link #readBinary(InputStream)}. Numbers, dates and keys do not
+	 * need to be parsed again: integers are stored as varints, real numbers as their raw bits,
+	 * dates as epoch milliseconds along with their original string, and every distinct key only
+	 * once. The stream is flushed, but not closed.
+	 * 
+	 * @throws IOException
+	 *             If the output stream could not be written.
+	 */
+	public void writeBinary(OutputStream out) throws IOException {
+		JsonBinaryCodec.write(this, out);
+	}
+
+	/**
+	 * Reads a value written by {@link #writeBinary(OutputStream)} from an input stream. The value
+	 * is read in chunks, so a buffered stream is not necessary. If the stream supports
+	 * {@link InputStream#mark(int)}, exactly the bytes of the value are consumed and the stream
+	 * may contain further values or other data.
+	 * 
+	 * @throws IOException
+	 *             If the input stream could not be read, or ended before the value did.
+	 * @throws JsonParseException
+	 *             If the input stream does not contain a binary value.
+	 */
+	public static JsonValue readBinary(InputStream in) throws IOException, JsonParseException {
+		return JsonBinaryCodec.read(in);
+	}
+
+	/**
+	 * Writes this value to an output stream as CBOR (RFC 8949). Dates are written as standard
+	 * date/time strings (tag 0). The stream is flushed, but not closed.
+	 * 
+	 * @throws IOException
+	 *             If the output stream could not be written.
+	 */
+	public void writeCbor(OutputStream out) throws IOException {
+		CborCodec.write(this, out);
+	}
+
+	/**
+	 * Reads a CBOR data item from an input stream. Maps become {@link JsonObject}s, arrays
+	 * {@link JsonArray}s and date tags {@link JsonDate}s. Like {@link #readBinary(InputStream)},
+	 * exactly the bytes of the item are consumed if the stream supports marking.
+	 * 
+	 * @throws IOException
+	 *             If the input stream could not be read, or ended before the item did.
+	 * @throws JsonParseException
+	 *             If the input stream does not contain well-formed CBOR, or an item which has no
+	 *             JSON equivalent.
+	 */
+	public static JsonValue readCbor(InputStream in) throws IOException, JsonParseException {
+		return CborCodec.read(in);
+	}
+
+	/**
+	 * Writes this value to an output stream as MessagePack. Dates are written with the timestamp
+	 * extension type. The stream is flushed, but not closed.
+	 * 
+	 * @throws IOException
+	 *             If the output stream could not be written.
+	 */
+	public void writeMessagePack(OutputStream out) throws IOException {
+		MessagePackCodec.write(this, out);
+	}
+
+	/**
+	 * Reads a MessagePack object from an input stream. Maps become {@link JsonObject}s, arrays
+	 * {@link JsonArray}s and timestamps {@link JsonDate}s. Like {@link #readBinary(InputStream)},
+	 * exactly the bytes of the object are consumed if the stream supports marking.
+	 * 
+	 * @throws IOException
+	 *             If the input stream could not be read, or ended before the object did.
+	 * @throws JsonParseException
+	 *             If the input stream does not contain valid MessagePack, or an object which has no
+	 *             JSON equivalent.
+	 */
+	public static JsonValue readMessagePack(InputStream in) throws IOException, JsonParseException {
+		return MessagePackCodec.read(in);
+	}
+
 }
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Writes a JSON document to a stream one token at a time, the counterpart of {@link JsonReader}.
+ * Nothing but the nesting of the open arrays and objects is held in memory, so documents of any
+ * size can be written. The output is compact, and exactly what {@link JsonValue#toString()}
+ * returns for the same document.
+ * 
+ * <pre>
+ * JsonWriter writer = new JsonWriter(out);
+ * writer.beginObject();
+ * writer.name("id").value(42);
+ * writer.name("tags").beginArray().value("a").value("b").endArray();
+ * writer.endObject();
+ * writer.close();
+ * </pre>
+ * 
+ * Methods which would make the document invalid, such as a value in an object without a name,
+ * throw an {@link IllegalStateException}. A writer must not be used by several threads at once.
+ */
+public final class JsonWriter implements Closeable, Flushable {
+
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private final Writer out;
+
+	private final char[] buffer = new char[8192];
+
+	private int position;
+
+	/** The scopes of the open arrays and objects, with the document at the bottom. */
+	private int[] scopes = new int[32];
+
+	private int depth = 1;
+
+	/** Creates a writer for the given character stream. */
+	public JsonWriter(Writer out) {
+		if (out == null) { throw new NullPointerException("Writer may not be null."); }
+		this.out = out;
+		scopes[0] = EMPTY_DOCUMENT;
+	}
+
+	/** Creates a writer for the given byte stream, using a UTF-8 character set. */
+	public JsonWriter(OutputStream out) {
+		this(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+	}
+
+	/** Returns the number of arrays and objects which are currently open. */
+	public int depth() {
+		return depth - 1;
+	}
+
+	public JsonWriter beginObject() throws IOException {
+		beforeValue();
+		write('{');
+		push(EMPTY_OBJECT);
+		return this;
+	}
+
+	public JsonWriter endObject() throws IOException {
+		final int scope = scopes[depth - 1];
+		if (scope != EMPTY_OBJECT && scope != NONEMPTY_OBJECT) {
+			throw new IllegalStateException("Not in an object, or a value is missing.");
+		}
+		--depth;
+		write('}');
+		return this;
+	}
+
+	public JsonWriter beginArray() throws IOException {
+		beforeValue();
+		write('[');
+		push(EMPTY_ARRAY);
+		return this;
+	}
+
+	public JsonWriter endArray() throws IOException {
+		final int scope = scopes[depth - 1];
+		if (scope != EMPTY_ARRAY && scope != NONEMPTY_ARRAY) {
+			throw new IllegalStateException("Not in an array.");
+		}
+		--depth;
+		write(']');
+		return this;
+	}
+
+	/** Writes the key of the next entry of an object. */
+	public JsonWriter name(String key) throws IOException {
+		if (key == null) { throw new NullPointerException("Key may not be null."); }
+		beforeName();
+		writeString(key);
+		write(':');
+		return this;
+	}
+
+	/**
+	 * Writes the key of the next entry of an object, which has already been escaped and quoted by
+	 * {@link JsonString#jsonEscape(String)}.
+	 */
+	void escapedName(String json) throws IOException {
+		beforeName();
+		write(json);
+		write(':');
+	}
+
+	/** Writes a string, or <code>null</code>. */
+	public JsonWriter value(String value) throws IOException {
+		if (value == null) return nullValue();
+		beforeValue();
+		writeString(value);
+		return this;
+	}
+
+	public JsonWriter value(long value) throws IOException {
+		beforeValue();
+		write(Long.toString(value));
+		return this;
+	}
+
+	/**
+	 * Writes a real number, as a {@link JsonNumber} with this value would be written.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the value is infinite or not a number, which JSON cannot represent.
+	 */
+	public JsonWriter value(double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException("Numbers must be finite: " + value);
+		}
+		beforeValue();
+		write(Double.toString(value));
+		return this;
+	}
+
+	public JsonWriter value(boolean value) throws IOException {
+		beforeValue();
+		write(value ? "true" : "false");
+		return this;
+	}
+
+	public JsonWriter nullValue() throws IOException {
+		beforeValue();
+		write("null");
+		return this;
+	}
+
+	/**
+	 * Writes a value and all values nested in it. A <code>null</code> reference is written as
+	 * JSON <code>null</code>.
+	 */
+	public JsonWriter value(JsonValue value) throws IOException {
+		if (value == null) return nullValue();
+		switch (value.getType()) {
+			case MAP: {
+				beginObject();
+				for (Map.Entry<String,JsonValue> entry : JsonValue.entriesOf(value)) {
+					name(entry.getKey());
+					value(entry.getValue());
+				}
+				endObject();
+				break;
+			}
+			case ARRAY: {
+				beginArray();
+				for (JsonValue element : JsonValue.elementsOf(value)) {
+					value(element);
+				}
+				endArray();
+				break;
+			}
+			default: {
+				beforeValue();
+				write(value.toString());
+				break;
+			}
+		}
+		return this;
+	}
+
+	/** Writes all buffered characters to the underlying stream, and flushes it. */
+	@Override
+	public void flush() throws IOException {
+		drain();
+		out.flush();
+	}
+
+	/**
+	 * Flushes and closes the underlying stream.
+	 * 
+	 * @throws IOException
+	 *             If the document is incomplete.
+	 */
+	@Override
+	public void close() throws IOException {
+		drain();
+		out.close();
+		if (depth > 1 || scopes[0] != NONEMPTY_DOCUMENT) {
+			throw new IOException("Incomplete document.");
+		}
+	}
+
+	private void push(int scope) {
+		if (depth == scopes.length) {
+			scopes = Arrays.copyOf(scopes, 2 * depth);
+		}
+		scopes[depth++] = scope;
+	}
+
+	private void beforeName() throws IOException {
+		switch (scopes[depth - 1]) {
+			case NONEMPTY_OBJECT: write(','); break;
+			case EMPTY_OBJECT: break;
+			default: throw new IllegalStateException("A name is only allowed in an object.");
+		}
+		scopes[depth - 1] = DANGLING_NAME;
+	}
+
+	private void beforeValue() throws IOException {
+		switch (scopes[depth - 1]) {
+			case EMPTY_DOCUMENT: scopes[depth - 1] = NONEMPTY_DOCUMENT; break;
+			case EMPTY_ARRAY: scopes[depth - 1] = NONEMPTY_ARRAY; break;
+			case NONEMPTY_ARRAY: write(','); break;
+			case DANGLING_NAME: scopes[depth - 1] = NONEMPTY_OBJECT; break;
+			case NONEMPTY_DOCUMENT: throw new IllegalStateException("A document has one value.");
+			default: throw new IllegalStateException("A value in an object needs a name.");
+		}
+	}
+
+	/** Writes a string escaped as {@link JsonString#jsonEscape(String)} escapes it. */
+	private void writeString(String s) throws IOException {
+		write('"');
+		int start = 0;
+		final int n = s.length();
+		for (int i = 0; i < n; ++i) {
+			final String escape;
+			switch (s.charAt(i)) {
+				case '\\': escape = "\\\\"; break;
+				case '"': escape = "\\\""; break;
+				case '\n': escape = "\\n"; break;
+				case '\r': escape = "\\r"; break;
+				case '\t': escape = "\\t"; break;
+				case '\b': escape = "\\b"; break;
+				case '\f': escape = "\\f"; break;
+				default: continue;
+			}
+			write(s, start, i);
+			write(escape);
+			start = i + 1;
+		}
+		write(s, start, n);
+		write('"');
+	}
+
+	private void write(char c) throws IOException {
+		if (position == buffer.length) drain();
+		buffer[position++] = c;
+	}
+
+	private void write(String s) throws IOException {
+		write(s, 0, s.length());
+	}
+
+	private void write(String s, int start, int end) throws IOException {
+		while (start < end) {
+			if (position == buffer.length) drain();
+			final int n = Math.min(end - start, buffer.length - position);
+			s.getChars(start, start + n, buffer, position);
+			position += n;
+			start += n;
+		}
+	}
+
+	/** Writes all buffered characters to the underlying stream. */
+	private void drain() throws IOException {
+		if (position > 0) {
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+}
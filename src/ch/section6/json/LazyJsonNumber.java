@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.math.BigDecimal;
+
+/**
+ * A number parsed with {@link JsonParseOption#LAZY_NUMBERS}. It keeps its original text, which
+ * it is serialized as, and converts it into a <code>long</code> or <code>double</code> only when
+ * it is first read.
+ */
+final class LazyJsonNumber extends JsonNumber {
+
+	/** The original text of this number. */
+	private final String lexeme;
+
+	/**
+	 * The converted value, or <code>null</code> if it has not been needed yet. Since a
+	 * <code>JsonNumber</code> is immutable, the field may be read and written without
+	 * synchronization.
+	 */
+	private JsonNumber decoded;
+
+	private LazyJsonNumber(String lexeme) {
+		super(0L);
+		this.lexeme = lexeme;
+	}
+
+	/**
+	 * Returns a lazy number for the lexeme between the given indices, which is checked against the
+	 * JSON number grammar but not converted.
+	 * 
+	 * @throws NumberFormatException
+	 *             If the lexeme is not a JSON number.
+	 */
+	static LazyJsonNumber parse(String str, int start, int end) throws NumberFormatException {
+		int i = start;
+		if (i < end && str.charAt(i) == '-') ++i;
+		if (i < end && str.charAt(i) == '0') {
+			++i;
+		} else {
+			i = skipDigits(str, i, end);
+		}
+		if (i < end && str.charAt(i) == '.') {
+			i = skipDigits(str, i + 1, end);
+		}
+		if (i < end && (str.charAt(i) == 'e' || str.charAt(i) == 'E')) {
+			++i;
+			if (i < end && (str.charAt(i) == '+' || str.charAt(i) == '-')) ++i;
+			i = skipDigits(str, i, end);
+		}
+		if (i != end) {
+			throw new NumberFormatException("Not a JSON number: " + str.substring(start, end));
+		}
+		return new LazyJsonNumber(str.substring(start, end));
+	}
+
+	/** Returns the index after the digits starting at the given index, of which there must be one. */
+	private static int skipDigits(String str, int i, int end) throws NumberFormatException {
+		final int first = i;
+		while (i < end && str.charAt(i) >= '0' && str.charAt(i) <= '9') ++i;
+		if (i == first) {
+			throw new NumberFormatException("Digit expected at index " + first + ".");
+		}
+		return i;
+	}
+
+	private JsonNumber decoded() {
+		JsonNumber number = decoded;
+		if (number == null) {
+			number = JsonNumber.parse(lexeme, 0, lexeme.length());
+			decoded = number;
+		}
+		return number;
+	}
+
+	@Override
+	long bits() {
+		return decoded().bits();
+	}
+
+	@Override
+	public boolean isInteger() {
+		return decoded().isInteger();
+	}
+
+	/** Returns the original text of this number. */
+	@Override
+	public String asString() {
+		return lexeme;
+	}
+
+	@Override
+	public Number asNumber() {
+		return decoded().asNumber();
+	}
+
+	@Override
+	public long asLong() {
+		return decoded().asLong();
+	}
+
+	@Override
+	public double asDouble() {
+		return decoded().asDouble();
+	}
+
+	@Override
+	public boolean asBoolean() {
+		return decoded().asBoolean();
+	}
+
+	/** Returns the exact value of the original text. */
+	@Override
+	public BigDecimal asBigDecimal() {
+		return new BigDecimal(lexeme);
+	}
+
+	@Override
+	public String toString() {
+		return lexeme;
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+/**
+ * A string parsed with {@link JsonParseOption#LAZY_STRINGS}. It keeps its JSON text as it was
+ * parsed, which it is serialized as, and unescapes it only when it is first read. From then on it
+ * holds both, as a {@link JsonString} does, since the text is still what it is written as.
+ */
+final class LazyJsonString extends JsonString {
+
+	/** The JSON text of this string as it was parsed, including the quotes. */
+	private final String json;
+
+	/** <code>true</code> if the JSON text contains escape sequences. */
+	private final boolean escaped;
+
+	/**
+	 * The unescaped string, or <code>null</code> if it has not been needed yet. Since it is always
+	 * the same string, the field may be read and written without synchronization.
+	 */
+	private String string;
+
+	private LazyJsonString(String json, boolean escaped) {
+		this.json = json;
+		this.escaped = escaped;
+	}
+
+	/**
+	 * Returns a lazy string for the JSON text between the given indices, including the quotes.
+	 * Escape sequences are checked, but not replaced.
+	 * 
+	 * @throws JsonParseException
+	 *             If an escape sequence is invalid.
+	 */
+	static LazyJsonString parse(String str, int start, int end) throws JsonParseException {
+		boolean escaped = JsonString.indexOfEscape(str, start + 1, end - 1) >= 0;
+		return new LazyJsonString(str.substring(start, end), escaped);
+	}
+
+	/** Returns <code>true</code> if the JSON text of this string contains escape sequences. */
+	boolean isEscaped() {
+		return escaped;
+	}
+
+	@Override
+	public String asString() {
+		String s = string;
+		if (s == null) {
+			final int end = json.length() - 1;
+			s = escaped ? JsonString.jsonUnescape(json, 1, end) : json.substring(1, end);
+			string = s;
+		}
+		return s;
+	}
+
+	/** Returns the JSON text of this string as it was parsed. */
+	@Override
+	public String toString() {
+		return json;
+	}
+
+}
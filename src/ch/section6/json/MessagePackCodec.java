@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes and decodes values as MessagePack, see {@link JsonValue#writeMessagePack(OutputStream)}
+ * and {@link JsonValue#readMessagePack(InputStream)}.
+ * <p>
+ * Integers are written in their shortest form, real numbers as 64-bit floats, and dates with the
+ * timestamp extension type. Timestamps carry no time zone, so decoded dates are formatted in the
+ * local one. Decoding also accepts 32-bit floats, binary data, which becomes base64url strings as
+ * in {@link CborCodec}, and map keys other than strings, which are converted into strings.
+ */
+final class MessagePackCodec {
+
+	/** The extension type of timestamps. */
+	private static final int TIMESTAMP = -1;
+
+	private static final int MAX_INITIAL_CAPACITY = JsonBinaryCodec.MAX_INITIAL_CAPACITY;
+
+	private MessagePackCodec() {}
+
+	static void write(JsonValue value, OutputStream out) throws IOException {
+		BinaryOutput output = new BinaryOutput(out);
+		write(value, output);
+		output.flush();
+	}
+
+	static JsonValue read(InputStream in) throws IOException, JsonParseException {
+		BinaryInput input = new BinaryInput(in);
+		JsonValue value = read(input);
+		input.finish();
+		return value;
+	}
+
+	private static void writeLong(BinaryOutput out, long l) throws IOException {
+		if (l >= -32L && l < 128L) {
+			out.writeByte((int) l); // positive or negative fixint
+		} else if (l >= 0L) {
+			if (l <= 0xFFL) {
+				out.writeByte(0xCC);
+				out.writeByte((int) l);
+			} else if (l <= 0xFFFFL) {
+				out.writeByte(0xCD);
+				out.writeBigEndian(l, 2);
+			} else if (l <= 0xFFFFFFFFL) {
+				out.writeByte(0xCE);
+				out.writeBigEndian(l, 4);
+			} else {
+				out.writeByte(0xCF);
+				out.writeBigEndian(l, 8);
+			}
+		} else {
+			if (l >= Byte.MIN_VALUE) {
+				out.writeByte(0xD0);
+				out.writeByte((int) l);
+			} else if (l >= Short.MIN_VALUE) {
+				out.writeByte(0xD1);
+				out.writeBigEndian(l, 2);
+			} else if (l >= Integer.MIN_VALUE) {
+				out.writeByte(0xD2);
+				out.writeBigEndian(l, 4);
+			} else {
+				out.writeByte(0xD3);
+				out.writeBigEndian(l, 8);
+			}
+		}
+	}
+
+	/** Writes the header of a string, array or map in the shortest form. */
+	private static void writeHeader(BinaryOutput out, int fix, int fixLimit, int first, int n)
+			throws IOException {
+		if (n < fixLimit) {
+			out.writeByte(fix | n);
+		} else if (first == 0xD9 && n <= 0xFF) { // str 8, which arrays and maps don't have
+			out.writeByte(first);
+			out.writeByte(n);
+		} else if (n <= 0xFFFF) {
+			out.writeByte((first == 0xD9) ? 0xDA : first);
+			out.writeBigEndian(n, 2);
+		} else {
+			out.writeByte((first == 0xD9) ? 0xDB : first + 1);
+			out.writeBigEndian(n, 4);
+		}
+	}
+
+	private static void writeString(BinaryOutput out, String s) throws IOException {
+		byte[] bytes = BinaryOutput.utf8(s);
+		writeHeader(out, 0xA0, 32, 0xD9, bytes.length);
+		out.writeBytes(bytes);
+	}
+
+	private static void writeTimestamp(BinaryOutput out, long millis) throws IOException {
+		long seconds = Math.floorDiv(millis, 1000L);
+		long nanos = Math.floorMod(millis, 1000L) * 1000000L;
+		if ((seconds >>> 34) == 0L) {
+			if (nanos == 0L && (seconds >>> 32) == 0L) {
+				out.writeByte(0xD6); // fixext 4
+				out.writeByte(TIMESTAMP);
+				out.writeBigEndian(seconds, 4);
+			} else {
+				out.writeByte(0xD7); // fixext 8
+				out.writeByte(TIMESTAMP);
+				out.writeBigEndian((nanos << 34) | seconds, 8);
+			}
+		} else {
+			out.writeByte(0xC7); // ext 8
+			out.writeByte(12);
+			out.writeByte(TIMESTAMP);
+			out.writeBigEndian(nanos, 4);
+			out.writeBigEndian(seconds, 8);
+		}
+	}
+
+	private static void write(JsonValue value, BinaryOutput out) throws IOException {
+		switch (value.getType()) {
+			case NULL: out.writeByte(0xC0); break;
+			case BOOLEAN: out.writeByte(value.asBoolean() ? 0xC3 : 0xC2); break;
+			case NUMBER: {
+				if (value instanceof JsonNumber && !((JsonNumber) value).isInteger()) {
+					out.writeByte(0xCB);
+					out.writeBigEndian(Double.doubleToRawLongBits(value.asDouble()), 8);
+				} else {
+					writeLong(out, value.asLong());
+				}
+				break;
+			}
+			case STRING: writeString(out, value.asString()); break;
+			case DATE: writeTimestamp(out, value.asDate().getTime()); break;
+			case ARRAY: {
+				List<JsonValue> elements = JsonValue.elementsOf(value);
+				writeHeader(out, 0x90, 16, 0xDC, elements.size());
+				for (JsonValue element : elements) {
+					write(element, out);
+				}
+				break;
+			}
+			case MAP: {
+				Collection<Map.Entry<String,JsonValue>> entries = JsonValue.entriesOf(value);
+				writeHeader(out, 0x80, 16, 0xDE, entries.size());
+				for (Map.Entry<String,JsonValue> e : entries) {
+					writeString(out, e.getKey());
+					write(e.getValue(), out);
+				}
+				break;
+			}
+		}
+	}
+
+	private static int readLength(BinaryInput in, int bytes) throws IOException {
+		long length = in.readBigEndian(bytes);
+		if (length > Integer.MAX_VALUE) {
+			throw new JsonParseException("Unsupported MessagePack length: " + length);
+		}
+		return (int) length;
+	}
+
+	private static JsonValue read(BinaryInput in) throws IOException {
+		final int b = in.readByte();
+		if (b < 0x80) return JsonNumber.valueOf(b);
+		if (b >= 0xE0) return JsonNumber.valueOf((byte) b);
+		if (b < 0x90) return readMap(in, b & 0x0F);
+		if (b < 0xA0) return readArray(in, b & 0x0F);
+		if (b < 0xC0) return JsonString.valueOf(in.readUtf8(b & 0x1F));
+		switch (b) {
+			case 0xC0: return JsonValue.getNull();
+			case 0xC2: return JsonValue.getBoolean(false);
+			case 0xC3: return JsonValue.getBoolean(true);
+			case 0xC4: return readBinary(in, readLength(in, 1));
+			case 0xC5: return readBinary(in, readLength(in, 2));
+			case 0xC6: return readBinary(in, readLength(in, 4));
+			case 0xC7: return readExtension(in, readLength(in, 1));
+			case 0xC8: return readExtension(in, readLength(in, 2));
+			case 0xC9: return readExtension(in, readLength(in, 4));
+			case 0xCA: return new JsonNumber(Float.intBitsToFloat((int) in.readBigEndian(4)));
+			case 0xCB: return new JsonNumber(Double.longBitsToDouble(in.readBigEndian(8)));
+			case 0xCC: return JsonNumber.valueOf(in.readBigEndian(1));
+			case 0xCD: return JsonNumber.valueOf(in.readBigEndian(2));
+			case 0xCE: return JsonNumber.valueOf(in.readBigEndian(4));
+			case 0xCF: {
+				long l = in.readBigEndian(8);
+				return (l >= 0L)
+						? JsonNumber.valueOf(l) : new JsonNumber(((double) (l >>> 1)) * 2.0 + (l & 1L));
+			}
+			case 0xD0: return JsonNumber.valueOf((byte) in.readBigEndian(1));
+			case 0xD1: return JsonNumber.valueOf((short) in.readBigEndian(2));
+			case 0xD2: return JsonNumber.valueOf((int) in.readBigEndian(4));
+			case 0xD3: return JsonNumber.valueOf(in.readBigEndian(8));
+			case 0xD4: return readExtension(in, 1);
+			case 0xD5: return readExtension(in, 2);
+			case 0xD6: return readExtension(in, 4);
+			case 0xD7: return readExtension(in, 8);
+			case 0xD8: return readExtension(in, 16);
+			case 0xD9: return JsonString.valueOf(in.readUtf8(readLength(in, 1)));
+			case 0xDA: return JsonString.valueOf(in.readUtf8(readLength(in, 2)));
+			case 0xDB: return JsonString.valueOf(in.readUtf8(readLength(in, 4)));
+			case 0xDC: return readArray(in, readLength(in, 2));
+			case 0xDD: return readArray(in, readLength(in, 4));
+			case 0xDE: return readMap(in, readLength(in, 2));
+			case 0xDF: return readMap(in, readLength(in, 4));
+			default: throw new JsonParseException("Unsupported MessagePack format: " + b);
+		}
+	}
+
+	private static JsonValue readBinary(BinaryInput in, int n) throws IOException {
+		byte[] bytes = in.readBytes(n);
+		return JsonString.valueOf(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes));
+	}
+
+	private static JsonValue readExtension(BinaryInput in, int n) throws IOException {
+		final int type = (byte) in.readByte();
+		if (type != TIMESTAMP) {
+			throw new JsonParseException("Unsupported MessagePack extension type: " + type);
+		}
+		long seconds;
+		long nanos;
+		switch (n) {
+			case 4: {
+				seconds = in.readBigEndian(4);
+				nanos = 0L;
+				break;
+			}
+			case 8: {
+				long l = in.readBigEndian(8);
+				seconds = l & 0x3FFFFFFFFL;
+				nanos = l >>> 34;
+				break;
+			}
+			case 12: {
+				nanos = in.readBigEndian(4);
+				seconds = in.readBigEndian(8);
+				break;
+			}
+			default: throw new JsonParseException("Malformed MessagePack timestamp.");
+		}
+		return new JsonDate(new Date(seconds * 1000L + nanos / 1000000L));
+	}
+
+	private static JsonArray readArray(BinaryInput in, int n) throws IOException {
+		JsonArray array = new JsonArray(Math.min(n, MAX_INITIAL_CAPACITY));
+		List<JsonObject> shapes = new ArrayList<JsonObject>();
+		for (int i = 0; i < n; ++i) {
+			JsonValue value = read(in);
+			if (value.getType() == JsonValue.Type.MAP) {
+				JsonObject.shareShape((JsonObject) value, shapes);
+			}
+			array.add(value);
+		}
+		return array;
+	}
+
+	private static JsonObject readMap(BinaryInput in, int n) throws IOException {
+		JsonObject obj = new JsonObject(Math.min(n, MAX_INITIAL_CAPACITY));
+		for (int i = 0; i < n; ++i) {
+			JsonValue key = read(in);
+			if (key.getType() == JsonValue.Type.MAP || key.getType() == JsonValue.Type.ARRAY) {
+				throw new JsonParseException("Unsupported MessagePack map key: " + key);
+			}
+			obj.put(key.asString(), read(in));
+		}
+		return obj;
+	}
+
+}
@@ -0,0 +1,629 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * A persistent (immutable) JSON array. Modifications such as {@link #with(int, Object)} and
+ * {@link #plus(Object)} return a new version of the array which shares all unchanged structure
+ * with the original. Instances may be shared freely between threads without synchronization.
+ * <p>
+ * Elements are stored in a 32-way radix-balanced trie with a separate tail, such that indexed
+ * access and replacement take O(log<sub>32</sub> n) time and appending or removing the last
+ * element takes amortized constant time. All nested objects and arrays are persistent as well.
+ * {@link #asArray()} returns a mutable copy.
+ */
+public final class PersistentJsonArray extends JsonValue implements ImmutableJsonArray,
+		Iterable<JsonValue> {
+
+	/** The number of index bits consumed per level of the trie. */
+	private static final int BITS = 5;
+
+	/** The number of slots in each node. */
+	private static final int WIDTH = 1 << BITS;
+
+	private static final int MASK = WIDTH - 1;
+
+	private static final Object[] EMPTY_NODE = new Object[WIDTH];
+
+	private static final PersistentJsonArray EMPTY =
+			new PersistentJsonArray(0, BITS, EMPTY_NODE, new Object[0]);
+
+	private final int size;
+
+	/** The shift of the root node, i.e. <code>BITS</code> times the height of the trie. */
+	private final int shift;
+
+	/** The root of the trie, holding all elements before the tail. */
+	private final Object[] root;
+
+	/** The last (up to 32) elements, which are kept outside of the trie. */
+	private final Object[] tail;
+
+	/** The cached hash code, or zero if it has not been computed yet. */
+	private int hash;
+
+	private PersistentJsonArray(int size, int shift, Object[] root, Object[] tail) {
+		this.size = size;
+		this.shift = shift;
+		this.root = root;
+		this.tail = tail;
+	}
+
+	/** Returns the empty persistent array. */
+	public static PersistentJsonArray empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Returns a persistent array with the elements of the given collection. Nested mutable objects
+	 * and arrays are converted into persistent ones.
+	 */
+	public static PersistentJsonArray copyOf(Collection<? extends JsonValue> values) {
+		Object[] elements = new Object[values.size()];
+		int n = 0;
+		for (JsonValue value : values) {
+			elements[n++] = objectToJsonValue(value).freeze();
+		}
+		return build(elements, n);
+	}
+
+	/** Builds an array bottom-up from the given (already persistent) elements. */
+	private static PersistentJsonArray build(Object[] elements, int n) {
+		if (n == 0) {
+			return EMPTY;
+		}
+		int tailOffset = ((n - 1) >>> BITS) << BITS;
+		Object[] tail = new Object[n - tailOffset];
+		System.arraycopy(elements, tailOffset, tail, 0, tail.length);
+		if (tailOffset == 0) {
+			return new PersistentJsonArray(n, BITS, EMPTY_NODE, tail);
+		}
+
+		// chunk the elements into leaves, and then group each level into parents
+		Object[] level = new Object[tailOffset >>> BITS];
+		for (int i = 0; i < level.length; ++i) {
+			Object[] leaf = new Object[WIDTH];
+			System.arraycopy(elements, i << BITS, leaf, 0, WIDTH);
+			level[i] = leaf;
+		}
+		int shift = BITS;
+		while (level.length > WIDTH) {
+			Object[] parents = new Object[(level.length + MASK) >>> BITS];
+			for (int i = 0; i < parents.length; ++i) {
+				Object[] parent = new Object[WIDTH];
+				System.arraycopy(level, i << BITS, parent, 0, Math.min(WIDTH, level.length - (i << BITS)));
+				parents[i] = parent;
+			}
+			level = parents;
+			shift += BITS;
+		}
+		Object[] root = new Object[WIDTH];
+		System.arraycopy(level, 0, root, 0, level.length);
+		return new PersistentJsonArray(n, shift, root, tail);
+	}
+
+	/** Returns the index of the first element stored in the tail. */
+	private int tailOffset() {
+		return (size < WIDTH) ? 0 : ((size - 1) >>> BITS) << BITS;
+	}
+
+	/** Returns the leaf array holding the element with the given index. */
+	private Object[] leafFor(int index) {
+		if (index >= tailOffset()) {
+			return tail;
+		}
+		Object[] node = root;
+		for (int level = shift; level > 0; level -= BITS) {
+			node = (Object[]) node[(index >>> level) & MASK];
+		}
+		return node;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, size));
+		}
+	}
+
+	public JsonValue get(int index) {
+		checkIndex(index);
+		return (JsonValue) leafFor(index)[index & MASK];
+	}
+
+	@Override
+	JsonValue getElement(int index) {
+		return get(index);
+	}
+
+	@Override
+	JsonValue findElement(int index) {
+		return (index >= 0 && index < size()) ? get(index) : null;
+	}
+
+	@Override
+	public JsonValue getByPath(String path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	@Override
+	public JsonValue getByPath(JsonPath path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	/**
+	 * Returns a new version of this array with the element at the given index replaced. An index
+	 * equal to the size of this array appends the value. The value is made persistent if it is a
+	 * mutable object or array.
+	 */
+	public PersistentJsonArray with(int index, Object value) {
+		if (index == size) {
+			return plus(value);
+		}
+		checkIndex(index);
+		JsonValue v = objectToJsonValue(value).freeze();
+		if (index >= tailOffset()) {
+			Object[] newTail = tail.clone();
+			newTail[index & MASK] = v;
+			return new PersistentJsonArray(size, shift, root, newTail);
+		} else {
+			return new PersistentJsonArray(size, shift, assoc(shift, root, index, v), tail);
+		}
+	}
+
+	private static Object[] assoc(int level, Object[] node, int index, JsonValue value) {
+		Object[] newNode = node.clone();
+		if (level == 0) {
+			newNode[index & MASK] = value;
+		} else {
+			int i = (index >>> level) & MASK;
+			newNode[i] = assoc(level - BITS, (Object[]) node[i], index, value);
+		}
+		return newNode;
+	}
+
+	/**
+	 * Returns a new version of this array with the value appended. The value is made persistent if
+	 * it is a mutable object or array.
+	 */
+	public PersistentJsonArray plus(Object value) {
+		JsonValue v = objectToJsonValue(value).freeze();
+		if (size - tailOffset() < WIDTH) {
+			Object[] newTail = new Object[tail.length + 1];
+			System.arraycopy(tail, 0, newTail, 0, tail.length);
+			newTail[tail.length] = v;
+			return new PersistentJsonArray(size + 1, shift, root, newTail);
+		}
+
+		// the tail is full, so push it into the trie
+		Object[] newRoot;
+		int newShift = shift;
+		if ((size >>> BITS) > (1 << shift)) { // the trie is full, so grow it by one level
+			newRoot = new Object[WIDTH];
+			newRoot[0] = root;
+			newRoot[1] = newPath(shift, tail);
+			newShift += BITS;
+		} else {
+			newRoot = pushTail(shift, root, tail);
+		}
+		return new PersistentJsonArray(size + 1, newShift, newRoot, new Object[] {v});
+	}
+
+	/**
+	 * Returns a new version of this array with the first n of the given (already persistent)
+	 * values appended. The tail is copied once per block of values rather than once per value.
+	 */
+	PersistentJsonArray plusAll(JsonValue[] values, int n) {
+		PersistentJsonArray array = this;
+		int i = 0;
+		while (i < n) {
+			Object[] tail = array.tail;
+			if (tail.length == WIDTH) {
+				array = array.plus(values[i++]);
+				continue;
+			}
+			int count = Math.min(WIDTH - tail.length, n - i);
+			Object[] newTail = new Object[tail.length + count];
+			System.arraycopy(tail, 0, newTail, 0, tail.length);
+			System.arraycopy(values, i, newTail, tail.length, count);
+			array = new PersistentJsonArray(array.size + count, array.shift, array.root, newTail);
+			i += count;
+		}
+		return array;
+	}
+
+	private Object[] pushTail(int level, Object[] parent, Object[] tailNode) {
+		int i = ((size - 1) >>> level) & MASK;
+		Object[] newParent = parent.clone();
+		if (level == BITS) {
+			newParent[i] = tailNode;
+		} else {
+			Object[] child = (Object[]) parent[i];
+			newParent[i] = (child != null)
+					? pushTail(level - BITS, child, tailNode)
+					: newPath(level - BITS, tailNode);
+		}
+		return newParent;
+	}
+
+	private static Object[] newPath(int level, Object[] node) {
+		if (level == 0) {
+			return node;
+		}
+		Object[] path = new Object[WIDTH];
+		path[0] = newPath(level - BITS, node);
+		return path;
+	}
+
+	/** Returns a new version of this array without its last element. */
+	public PersistentJsonArray withoutLast() {
+		if (size == 0) {
+			throw new IllegalStateException("Cannot remove the last element of an empty array.");
+		}
+		if (size == 1) {
+			return EMPTY;
+		}
+		if (size - tailOffset() > 1) {
+			Object[] newTail = new Object[tail.length - 1];
+			System.arraycopy(tail, 0, newTail, 0, newTail.length);
+			return new PersistentJsonArray(size - 1, shift, root, newTail);
+		}
+
+		// the tail becomes empty, so pull the last leaf out of the trie
+		Object[] newTail = leafFor(size - 2);
+		Object[] newRoot = popTail(shift, root);
+		int newShift = shift;
+		if (newRoot == null) {
+			newRoot = EMPTY_NODE;
+		}
+		if (shift > BITS && newRoot[1] == null) {
+			newRoot = (Object[]) newRoot[0];
+			newShift -= BITS;
+		}
+		return new PersistentJsonArray(size - 1, newShift, newRoot, newTail);
+	}
+
+	private Object[] popTail(int level, Object[] node) {
+		int i = ((size - 2) >>> level) & MASK;
+		if (level > BITS) {
+			Object[] newChild = popTail(level - BITS, (Object[]) node[i]);
+			if (newChild == null && i == 0) {
+				return null;
+			}
+			Object[] newNode = node.clone();
+			newNode[i] = newChild;
+			return newNode;
+		} else if (i == 0) {
+			return null;
+		} else {
+			Object[] newNode = node.clone();
+			newNode[i] = null;
+			return newNode;
+		}
+	}
+
+	/**
+	 * Returns a new version of this array without the element at the given index. Removing any
+	 * element but the last rebuilds the trie, and takes O(n) time.
+	 */
+	public PersistentJsonArray without(int index) {
+		checkIndex(index);
+		if (index == size - 1) {
+			return withoutLast();
+		}
+		Object[] elements = new Object[size - 1];
+		for (int i = 0, j = 0; i < size; ++i) {
+			if (i != index) {
+				elements[j++] = get(i);
+			}
+		}
+		return build(elements, elements.length);
+	}
+
+	@Override
+	public Iterator<JsonValue> iterator() {
+		return new Iterator<JsonValue>() {
+			private int nextIndex = 0;
+			private Object[] leaf = (size > 0) ? leafFor(0) : null;
+
+			@Override
+			public boolean hasNext() {
+				return nextIndex < size;
+			}
+
+			@Override
+			public JsonValue next() {
+				if (nextIndex >= size) {
+					throw new NoSuchElementException();
+				}
+				if (nextIndex > 0 && (nextIndex & MASK) == 0) {
+					leaf = leafFor(nextIndex); // move on to the next leaf
+				}
+				return (JsonValue) leaf[nextIndex++ & MASK];
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("PersistentJsonArray is immutable.");
+			}
+		};
+	}
+
+	@Override
+	public String getString(int index) throws JsonCastException {
+		return get(index).asString();
+	}
+
+	@Override
+	public Number getNumber(int index) throws JsonCastException {
+		return get(index).asNumber();
+	}
+
+	@Override
+	public long getLong(int index) throws JsonCastException {
+		return get(index).asLong();
+	}
+
+	@Override
+	public double getDouble(int index) throws JsonCastException {
+		return get(index).asDouble();
+	}
+
+	@Override
+	public boolean getBoolean(int index) throws JsonCastException {
+		return get(index).asBoolean();
+	}
+
+	@Override
+	public ImmutableJsonArray getArray(int index) throws JsonCastException {
+		JsonValue value = get(index);
+		return (value instanceof ImmutableJsonArray) ? (ImmutableJsonArray) value : value.asArray();
+	}
+
+	@Override
+	public ImmutableJsonObject getObject(int index) throws JsonCastException {
+		JsonValue value = get(index);
+		return (value instanceof ImmutableJsonObject) ? (ImmutableJsonObject) value : value.asMap();
+	}
+
+	@Override
+	public Date getDate(int index) throws JsonCastException {
+		return get(index).asDate();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public void forEachLong(LongConsumer action) throws JsonCastException {
+		for (JsonValue value : this) {
+			action.accept(value.asLong());
+		}
+	}
+
+	@Override
+	public void forEachDouble(DoubleConsumer action) throws JsonCastException {
+		for (JsonValue value : this) {
+			action.accept(value.asDouble());
+		}
+	}
+
+	@Override
+	public long[] toLongArray() throws JsonCastException {
+		long[] array = new long[size];
+		int i = 0;
+		for (JsonValue value : this) {
+			array[i++] = value.asLong();
+		}
+		return array;
+	}
+
+	@Override
+	public double[] toDoubleArray() throws JsonCastException {
+		double[] array = new double[size];
+		int i = 0;
+		for (JsonValue value : this) {
+			array[i++] = value.asDouble();
+		}
+		return array;
+	}
+
+	@Override
+	public Iterable<String> stringIterable() {
+		return new Iterable<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				final Iterator<JsonValue> it = PersistentJsonArray.this.iterator();
+				return new Iterator<String>() {
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					@Override
+					public String next() {
+						return it.next().asString();
+					}
+
+					@Override
+					public void remove() {
+						it.remove();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Boolean> booleanIterable() {
+		return new Iterable<Boolean>() {
+			@Override
+			public Iterator<Boolean> iterator() {
+				final Iterator<JsonValue> it = PersistentJsonArray.this.iterator();
+				return new Iterator<Boolean>() {
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					@Override
+					public Boolean next() {
+						return it.next().asBoolean();
+					}
+
+					@Override
+					public void remove() {
+						it.remove();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Iterable<Number> numberIterable() {
+		return new Iterable<Number>() {
+			@Override
+			public Iterator<Number> iterator() {
+				final Iterator<JsonValue> it = PersistentJsonArray.this.iterator();
+				return new Iterator<Number>() {
+					@Override
+					public boolean hasNext() {
+						return it.hasNext();
+					}
+
+					@Override
+					public Number next() {
+						return it.next().asNumber();
+					}
+
+					@Override
+					public void remove() {
+						it.remove();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public Type getType() {
+		return Type.ARRAY;
+	}
+
+	/**
+	 * Returns a new mutable {@link JsonArray} with the elements of this array. Changes to the
+	 * returned array are not reflected in this one.
+	 */
+	@Override
+	public JsonArray asArray() {
+		JsonArray array = new JsonArray(size);
+		for (JsonValue value : this) {
+			array.add(value);
+		}
+		return array;
+	}
+
+	@Override
+	public ImmutableJsonArray asImmutable() {
+		return this;
+	}
+
+	/** Returns this array, since it is immutable. */
+	@Override
+	public JsonValue copy() {
+		return this;
+	}
+
+	@Override
+	protected void appendTokenList(List<String> tokenList) {
+		asArray().appendTokenList(tokenList);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("[");
+		for (JsonValue value : this) {
+			sb.append(value.toString());
+			sb.append(",");
+		}
+		if (size > 0)
+			sb.deleteCharAt(sb.length() - 1); // clear trailing comma
+		sb.append("]");
+		return sb.toString();
+	}
+
+	/**
+	 * Two arrays are equal if they have equal elements in the same order, regardless of their
+	 * implementation. Arrays of different size or hash code are rejected first.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) return true;
+		if (o instanceof PersistentJsonArray) {
+			PersistentJsonArray array = (PersistentJsonArray) o;
+			if (size != array.size || hashCode() != array.hashCode()) return false;
+			Iterator<JsonValue> it = array.iterator();
+			for (JsonValue value : this) {
+				if (!value.equals(it.next())) return false;
+			}
+			return true;
+		}
+		return arrayEquals(this, o);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			h = 1; // as List does
+			for (JsonValue value : this) {
+				h = 31 * h + value.hashCode();
+			}
+			hash = h;
+		}
+		return h;
+	}
+
+}
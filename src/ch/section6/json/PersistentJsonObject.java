@@ -0,0 +1,728 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A persistent (immutable) JSON object. Modifications such as {@link #with(String, Object)} and
+ * {@link #without(String)} return a new version of the object which shares all unchanged
+ * structure with the original, in O(log n) time and space. Instances may be shared freely between
+ * threads without synchronization.
+ * <p>
+ * Entries are stored in a hash array mapped trie, and are therefore iterated in the order of
+ * their keys' hashes rather than in insertion order. All nested objects and arrays are persistent
+ * as well. {@link #asMap()} returns a mutable copy.
+ */
+public final class PersistentJsonObject extends JsonValue implements ImmutableJsonObject {
+
+	/** The number of hash bits consumed per level of the trie. */
+	private static final int BITS = 5;
+
+	private static final int MASK = (1 << BITS) - 1;
+
+	private static final PersistentJsonObject EMPTY = new PersistentJsonObject(null, 0);
+
+	/** The root of the trie, or <code>null</code> if this object is empty. */
+	private final Node root;
+
+	private final int size;
+
+	/** The cached hash code, or zero if it has not been computed yet. */
+	private int hash;
+
+	private PersistentJsonObject(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/** Returns the empty persistent object. */
+	public static PersistentJsonObject empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Returns a persistent object with the entries of the given map. Nested mutable objects and
+	 * arrays are converted into persistent ones.
+	 */
+	public static PersistentJsonObject copyOf(Map<String, ? extends JsonValue> map) {
+		PersistentJsonObject obj = EMPTY;
+		for (Map.Entry<String, ? extends JsonValue> e : map.entrySet()) {
+			obj = obj.with(e.getKey(), e.getValue());
+		}
+		return obj;
+	}
+
+	/**
+	 * Returns a new version of this object in which the given key maps to the given value. The
+	 * value is converted as by {@link JsonObject#put(String, JsonValue)}, and made persistent if it
+	 * is a mutable object or array.
+	 */
+	public PersistentJsonObject with(String key, Object value) {
+		if (key == null) { throw new NullPointerException("Key argument may not be null."); }
+		JsonValue v = objectToJsonValue(value).freeze();
+		boolean[] added = new boolean[1];
+		Node newRoot = (root == null)
+				? BitmapNode.EMPTY.with(0, hashOf(key), key, v, added)
+				: root.with(0, hashOf(key), key, v, added);
+		return (newRoot == root) ? this : new PersistentJsonObject(newRoot, added[0] ? size + 1 : size);
+	}
+
+	/** Returns a new version of this object without the given key. */
+	public PersistentJsonObject without(String key) {
+		if (root == null || key == null) return this;
+		Node newRoot = root.without(0, hashOf(key), key);
+		if (newRoot == root) {
+			return this;
+		} else {
+			return (newRoot == null) ? EMPTY : new PersistentJsonObject(newRoot, size - 1);
+		}
+	}
+
+	/**
+	 * Gets the value associated with the key. If the key does not exist, a
+	 * <code>UnknownKeyException</code> is thrown.
+	 */
+	public JsonValue get(String key) {
+		JsonValue value = get(key, null);
+		if (value != null) {
+			return value;
+		} else {
+			throw new UnknownKeyException(String.valueOf(key));
+		}
+	}
+
+	public JsonValue get(String key, JsonValue defaultValue) {
+		if (root == null || key == null) return defaultValue;
+		JsonValue value = root.find(0, hashOf(key), key);
+		return (value != null) ? value : defaultValue;
+	}
+
+	public boolean containsKey(String key) {
+		return get(key, null) != null;
+	}
+
+	@Override
+	JsonValue getMember(String key) {
+		return get(key);
+	}
+
+	@Override
+	JsonValue findMember(String key) {
+		return get(key, null);
+	}
+
+	@Override
+	public JsonValue getByPath(String path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	@Override
+	public JsonValue getByPath(JsonPath path) throws IllegalArgumentException, NumberFormatException {
+		return super.getByPath(path);
+	}
+
+	@Override
+	public String getString(String key) throws JsonCastException {
+		return get(key).asString();
+	}
+
+	@Override
+	public boolean getBoolean(String key) throws JsonCastException {
+		return get(key).asBoolean();
+	}
+
+	@Override
+	public ImmutableJsonObject getObject(String key) throws JsonCastException {
+		JsonValue value = get(key);
+		return (value instanceof ImmutableJsonObject) ? (ImmutableJsonObject) value : value.asMap();
+	}
+
+	@Override
+	public ImmutableJsonArray getArray(String key) throws JsonCastException {
+		JsonValue value = get(key);
+		return (value instanceof ImmutableJsonArray) ? (ImmutableJsonArray) value : value.asArray();
+	}
+
+	@Override
+	public Number getNumber(String key) throws JsonCastException {
+		return get(key).asNumber();
+	}
+
+	@Override
+	public long getLong(String key) throws JsonCastException {
+		return get(key).asLong();
+	}
+
+	@Override
+	public double getDouble(String key) throws JsonCastException {
+		return get(key).asDouble();
+	}
+
+	@Override
+	public Date getDate(String key) throws JsonCastException {
+		return get(key).asDate();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/** Returns an unmodifiable view of the keys of this object. */
+	@Override
+	public Set<String> keySet() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new TrieIterator<String>() {
+					@Override
+					protected String element(Object key, Object value) {
+						return (String) key;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return (o instanceof String) && containsKey((String) o);
+			}
+		};
+	}
+
+	/** Returns an unmodifiable view of the entries of this object. */
+	@Override
+	public Set<Map.Entry<String,JsonValue>> entrySet() {
+		return new AbstractSet<Map.Entry<String,JsonValue>>() {
+			@Override
+			public Iterator<Map.Entry<String,JsonValue>> iterator() {
+				return new TrieIterator<Map.Entry<String,JsonValue>>() {
+					@Override
+					protected Map.Entry<String,JsonValue> element(Object key, Object value) {
+						return new AbstractMap.SimpleImmutableEntry<String,JsonValue>(
+								(String) key, (JsonValue) value);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/** Returns an unmodifiable view of the values of this object. */
+	@Override
+	public Collection<JsonValue> values() {
+		return new AbstractCollection<JsonValue>() {
+			@Override
+			public Iterator<JsonValue> iterator() {
+				return new TrieIterator<JsonValue>() {
+					@Override
+					protected JsonValue element(Object key, Object value) {
+						return (JsonValue) value;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	@Override
+	public Type getType() {
+		return Type.MAP;
+	}
+
+	/**
+	 * Returns a new mutable {@link JsonObject} with the entries of this object. Changes to the
+	 * returned object are not reflected in this one.
+	 */
+	@Override
+	public JsonObject asMap() {
+		JsonObject obj = new JsonObject(size);
+		for (Map.Entry<String,JsonValue> e : entrySet()) {
+			obj.put(e.getKey(), e.getValue());
+		}
+		return obj;
+	}
+
+	@Override
+	public ImmutableJsonObject asImmutable() {
+		return this;
+	}
+
+	/** Returns this object, since it is immutable. */
+	@Override
+	public JsonValue copy() {
+		return this;
+	}
+
+	@Override
+	protected void appendTokenList(List<String> tokenList) {
+		asMap().appendTokenList(tokenList);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{");
+		for (Map.Entry<String,JsonValue> e : entrySet()) {
+			sb.append(JsonString.jsonEscape(e.getKey()));
+			sb.append(":");
+			sb.append(e.getValue().toString());
+			sb.append(",");
+		}
+		if (size > 0)
+			sb.deleteCharAt(sb.length() - 1); // clear trailing comma
+		sb.append("}");
+		return sb.toString();
+	}
+
+	/**
+	 * Two objects are equal if they have equal entries, regardless of order and of their
+	 * implementation. Objects of different size or hash code are rejected first.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) return true;
+		if (o instanceof PersistentJsonObject) {
+			PersistentJsonObject obj = (PersistentJsonObject) o;
+			if (size != obj.size || hashCode() != obj.hashCode()) return false;
+			for (Map.Entry<String,JsonValue> e : entrySet()) {
+				if (!e.getValue().equals(obj.get(e.getKey(), null))) return false;
+			}
+			return true;
+		}
+		return objectEquals(this, o);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			// the sum of all entry hashes is independent of the trie layout
+			for (Map.Entry<String,JsonValue> e : entrySet()) {
+				h += e.getKey().hashCode() ^ e.getValue().hashCode();
+			}
+			hash = h;
+		}
+		return h;
+	}
+
+	private static int hashOf(String key) {
+		return key.hashCode();
+	}
+
+	/** Returns the part holding the given key when an object is {@link #split(int)} in n parts. */
+	static int partOf(String key, int n) {
+		return hashOf(key) & (n - 1);
+	}
+
+	/**
+	 * Splits this object into n parts, where n is a power of two of at most 32, by the slots of
+	 * the root node. Part i holds the keys for which {@link #partOf(String, int)} returns i. The
+	 * sub-tries are shared, and are only traversed to count their entries.
+	 */
+	PersistentJsonObject[] split(int n) {
+		PersistentJsonObject[] parts = new PersistentJsonObject[n];
+		BitmapNode node = (root != null) ? (BitmapNode) root : BitmapNode.EMPTY;
+		for (int i = 0; i < n; ++i) {
+			int bitmap = 0;
+			for (int slot = i; slot <= MASK; slot += n) {
+				bitmap |= node.bitmap & (1 << slot);
+			}
+			if (bitmap == 0) {
+				parts[i] = EMPTY;
+				continue;
+			}
+			Object[] array = new Object[2 * Integer.bitCount(bitmap)];
+			int count = 0;
+			for (int slot = i, j = 0; slot <= MASK; slot += n) {
+				int bit = 1 << slot;
+				if ((bitmap & bit) == 0) continue;
+				int k = 2 * node.index(bit);
+				array[j++] = node.array[k];
+				array[j++] = node.array[k + 1];
+				count += (node.array[k] != null) ? 1 : countEntries((Node) node.array[k + 1]);
+			}
+			parts[i] = new PersistentJsonObject(new BitmapNode(bitmap, array), count);
+		}
+		return parts;
+	}
+
+	private static int countEntries(Node node) {
+		Object[] array = node.array();
+		int count = 0;
+		for (int i = 0; i < array.length; i += 2) {
+			count += (array[i] != null) ? 1 : countEntries((Node) array[i + 1]);
+		}
+		return count;
+	}
+
+	/**
+	 * Joins the parts of an object as returned by {@link #split(int)} into one object, in O(1)
+	 * time.
+	 */
+	static PersistentJsonObject join(PersistentJsonObject[] parts) {
+		int n = parts.length;
+		int bitmap = 0;
+		int size = 0;
+		for (PersistentJsonObject part : parts) {
+			if (part.root != null) bitmap |= ((BitmapNode) part.root).bitmap;
+			size += part.size;
+		}
+		if (size == 0) return EMPTY;
+		Object[] array = new Object[2 * Integer.bitCount(bitmap)];
+		for (int slot = 0, j = 0; slot <= MASK; ++slot) {
+			int bit = 1 << slot;
+			if ((bitmap & bit) == 0) continue;
+			BitmapNode node = (BitmapNode) parts[slot & (n - 1)].root;
+			int k = 2 * node.index(bit);
+			array[j++] = node.array[k];
+			array[j++] = node.array[k + 1];
+		}
+		return new PersistentJsonObject(new BitmapNode(bitmap, array), size);
+	}
+
+	/**
+	 * Returns <code>true</code> if the root nodes of both objects hold the very same entries and
+	 * sub-tries, which implies that the objects are equal, in O(1) time.
+	 */
+	boolean sharesRoot(PersistentJsonObject other) {
+		if (root == other.root) return true;
+		if (root == null || other.root == null) return false;
+		BitmapNode a = (BitmapNode) root;
+		BitmapNode b = (BitmapNode) other.root;
+		if (a.bitmap != b.bitmap) return false;
+		for (int i = 0; i < a.array.length; ++i) {
+			if (a.array[i] != b.array[i]) return false;
+		}
+		return true;
+	}
+
+	/** Returns the index of the given hash into a node at the given shift. */
+	private static int bitFor(int shift, int hash) {
+		return 1 << ((hash >>> shift) & MASK);
+	}
+
+	/** A node of the trie. Nodes are never modified once they are published. */
+	private static abstract class Node {
+
+		/** Returns the value for the given key, or <code>null</code> if it is not in this node. */
+		abstract JsonValue find(int shift, int hash, String key);
+
+		/**
+		 * Returns a node with the given entry added or replaced, or this node if nothing changed.
+		 * <code>added[0]</code> is set if a new key was added.
+		 */
+		abstract Node with(int shift, int hash, String key, JsonValue value, boolean[] added);
+
+		/**
+		 * Returns a node without the given key, this node if the key is not present, or
+		 * <code>null</code> if the node would be empty.
+		 */
+		abstract Node without(int shift, int hash, String key);
+
+		/** Returns the array of alternating keys and values (or <code>null</code> and sub-nodes). */
+		abstract Object[] array();
+	}
+
+	/**
+	 * A node holding up to 32 entries or sub-nodes, indexed by the next five bits of the key hash.
+	 * Only the occupied positions are stored, as given by the bitmap.
+	 */
+	private static final class BitmapNode extends Node {
+
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		final int bitmap;
+
+		/** Alternating keys and values. A <code>null</code> key marks a sub-node as value. */
+		final Object[] array;
+
+		BitmapNode(int bitmap, Object[] array) {
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		@Override
+		JsonValue find(int shift, int hash, String key) {
+			int bit = bitFor(shift, hash);
+			if ((bitmap & bit) == 0) return null;
+			int i = 2 * index(bit);
+			Object k = array[i];
+			if (k == null) {
+				return ((Node) array[i + 1]).find(shift + BITS, hash, key);
+			} else {
+				return key.equals(k) ? (JsonValue) array[i + 1] : null;
+			}
+		}
+
+		@Override
+		Node with(int shift, int hash, String key, JsonValue value, boolean[] added) {
+			int bit = bitFor(shift, hash);
+			int i = 2 * index(bit);
+			if ((bitmap & bit) != 0) {
+				Object k = array[i];
+				Object v = array[i + 1];
+				if (k == null) {
+					Node node = ((Node) v).with(shift + BITS, hash, key, value, added);
+					return (node == v) ? this : new BitmapNode(bitmap, replace(array, i + 1, node));
+				} else if (key.equals(k)) {
+					return (value == v) ? this : new BitmapNode(bitmap, replace(array, i + 1, value));
+				} else {
+					added[0] = true;
+					Node node = createNode(shift + BITS, (String) k, (JsonValue) v, hash, key, value);
+					Object[] newArray = replace(array, i + 1, node);
+					newArray[i] = null;
+					return new BitmapNode(bitmap, newArray);
+				}
+			} else {
+				added[0] = true;
+				Object[] newArray = new Object[array.length + 2];
+				System.arraycopy(array, 0, newArray, 0, i);
+				newArray[i] = key;
+				newArray[i + 1] = value;
+				System.arraycopy(array, i, newArray, i + 2, array.length - i);
+				return new BitmapNode(bitmap | bit, newArray);
+			}
+		}
+
+		@Override
+		Node without(int shift, int hash, String key) {
+			int bit = bitFor(shift, hash);
+			if ((bitmap & bit) == 0) return this;
+			int i = 2 * index(bit);
+			Object k = array[i];
+			if (k == null) {
+				Node node = (Node) array[i + 1];
+				Node newNode = node.without(shift + BITS, hash, key);
+				if (newNode == node) {
+					return this;
+				} else if (newNode != null) {
+					return new BitmapNode(bitmap, replace(array, i + 1, newNode));
+				}
+			} else if (!key.equals(k)) {
+				return this;
+			}
+			if (bitmap == bit) return null;
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy(array, 0, newArray, 0, i);
+			System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+			return new BitmapNode(bitmap ^ bit, newArray);
+		}
+
+		@Override
+		Object[] array() {
+			return array;
+		}
+	}
+
+	/** A node holding entries whose keys have the same full hash. */
+	private static final class CollisionNode extends Node {
+
+		final int hash;
+
+		/** Alternating keys and values. */
+		final Object[] array;
+
+		CollisionNode(int hash, Object[] array) {
+			this.hash = hash;
+			this.array = array;
+		}
+
+		private int indexOf(String key) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (key.equals(array[i])) return i;
+			}
+			return -1;
+		}
+
+		@Override
+		JsonValue find(int shift, int hash, String key) {
+			int i = indexOf(key);
+			return (i >= 0) ? (JsonValue) array[i + 1] : null;
+		}
+
+		@Override
+		Node with(int shift, int hash, String key, JsonValue value, boolean[] added) {
+			if (hash == this.hash) {
+				int i = indexOf(key);
+				if (i >= 0) {
+					return (array[i + 1] == value) ? this : new CollisionNode(hash, replace(array, i + 1, value));
+				}
+				added[0] = true;
+				Object[] newArray = new Object[array.length + 2];
+				System.arraycopy(array, 0, newArray, 0, array.length);
+				newArray[array.length] = key;
+				newArray[array.length + 1] = value;
+				return new CollisionNode(hash, newArray);
+			} else {
+				// nest this node in a bitmap node and add the entry there
+				return new BitmapNode(bitFor(shift, this.hash), new Object[] {null, this})
+						.with(shift, hash, key, value, added);
+			}
+		}
+
+		@Override
+		Node without(int shift, int hash, String key) {
+			int i = indexOf(key);
+			if (i < 0) return this;
+			if (array.length == 2) return null;
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy(array, 0, newArray, 0, i);
+			System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+			return new CollisionNode(hash, newArray);
+		}
+
+		@Override
+		Object[] array() {
+			return array;
+		}
+	}
+
+	/** Creates a node holding the two given entries, whose keys differ. */
+	private static Node createNode(int shift, String key1, JsonValue value1,
+			int hash2, String key2, JsonValue value2) {
+		int hash1 = hashOf(key1);
+		if (hash1 == hash2) {
+			return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+		}
+		boolean[] added = new boolean[1];
+		return BitmapNode.EMPTY
+				.with(shift, hash1, key1, value1, added)
+				.with(shift, hash2, key2, value2, added);
+	}
+
+	/** Returns a copy of the array with the given position replaced. */
+	private static Object[] replace(Object[] array, int i, Object o) {
+		Object[] newArray = array.clone();
+		newArray[i] = o;
+		return newArray;
+	}
+
+	/** A depth-first iterator over all entries of the trie. */
+	private abstract class TrieIterator<T> implements Iterator<T> {
+
+		/** The arrays of the nodes on the path to the current entry. */
+		private final Object[][] arrays = new Object[8][];
+
+		/** The position of the next key in each array on the path. */
+		private final int[] positions = new int[8];
+
+		private int depth = -1;
+
+		/** The key and value of the next entry, or <code>null</code> at the end. */
+		private Object nextKey;
+		private Object nextValue;
+
+		TrieIterator() {
+			if (root != null) {
+				depth = 0;
+				arrays[0] = root.array();
+				advance();
+			}
+		}
+
+		/** Moves on to the next entry, descending into and returning from sub-nodes as needed. */
+		private void advance() {
+			nextKey = null;
+			while (depth >= 0) {
+				Object[] array = arrays[depth];
+				int i = positions[depth];
+				if (i >= array.length) {
+					--depth;
+					continue;
+				}
+				positions[depth] = i + 2;
+				if (array[i] == null) {
+					++depth;
+					arrays[depth] = ((Node) array[i + 1]).array();
+					positions[depth] = 0;
+				} else {
+					nextKey = array[i];
+					nextValue = array[i + 1];
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return nextKey != null;
+		}
+
+		@Override
+		public T next() {
+			if (nextKey == null) {
+				throw new NoSuchElementException();
+			}
+			T element = element(nextKey, nextValue);
+			advance();
+			return element;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("PersistentJsonObject is immutable.");
+		}
+
+		/** Returns the element for the given entry. */
+		protected abstract T element(Object key, Object value);
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BinaryJsonTest {
+
+	private static final String DOCUMENT =
+			"{\"id\":7,\"name\":\"x\",\"tags\":[\"a\",\"b\"],\"pos\":{\"x\":1.5,\"y\":[1,2,3]},\"n\":null}";
+
+	@Test
+	public void roundTripsThroughJsonObject() {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		BinaryJsonObject binary = obj.toBinary();
+		assertEquals(obj, binary.asMap());
+		assertEquals(obj, JsonObject.parse(binary.toString()));
+		assertEquals(obj, BinaryJsonObject.wrap(binary.buffer()).asMap());
+		assertEquals(7L, binary.getLong("id"));
+		assertEquals(2L, binary.getObject("pos").getArray("y").getLong(1));
+	}
+
+	@Test
+	public void equalsObjectsOfAnyImplementation() {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		BinaryJsonObject binary = obj.toBinary();
+		assertEquals(binary, obj);
+		assertEquals(obj, binary);
+		assertEquals(binary, obj.toPersistent());
+		assertEquals(obj.toPersistent(), binary);
+		assertEquals(obj.hashCode(), binary.hashCode());
+		assertEquals(binary, obj.toBinary());
+		obj.put("id", 8);
+		assertNotEquals(binary, obj);
+		assertNotEquals(obj, binary);
+		assertNotEquals(binary, obj.toBinary());
+	}
+
+	@Test
+	public void equalsWhenNestedInJsonObject() {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		JsonObject a = new JsonObject("n", obj.toBinary());
+		JsonObject b = new JsonObject("n", obj);
+		assertEquals(a, b);
+		assertEquals(b, a);
+		assertEquals(a.hashCode(), b.hashCode());
+	}
+
+	@Test
+	public void arrayEqualsArraysOfAnyImplementation() {
+		String[] documents = {
+				"[1,2.5,\"s\",{\"k\":[true]},[1,2],null]", "[1,2,3]", "[0.5,-2.25]", "[]"};
+		for (String document : documents) {
+			JsonArray array = JsonObject.parse(document).asArray();
+			BinaryJsonArray binary = array.toBinary();
+			List<JsonValue> list = new ArrayList<JsonValue>(array);
+			assertEquals(binary, array);
+			assertEquals(array, binary);
+			assertEquals(binary, array.toPersistent());
+			assertFalse(binary.equals(list)); // not a List, as list.equals() would agree
+			assertEquals(list.hashCode(), binary.hashCode());
+			assertEquals(array.hashCode(), binary.hashCode());
+		}
+	}
+
+	@Test
+	public void mutableCopiesAreIndependent() {
+		BinaryJsonObject binary = JsonObject.parse(DOCUMENT).asMap().toBinary();
+		JsonObject obj = binary.asMap();
+		obj.getObject("pos").put("x", 9);
+		obj.put("name", "y");
+		assertEquals(JsonObject.parse(DOCUMENT), binary);
+		assertTrue(binary.getObject("pos").getDouble("x") == 1.5);
+	}
+}
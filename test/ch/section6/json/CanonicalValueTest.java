@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class CanonicalValueTest {
+
+	@Test
+	public void sharesSmallIntegers() {
+		assertSame(JsonNumber.valueOf(-128L), JsonNumber.valueOf(-128L));
+		assertSame(JsonNumber.valueOf(1023L), JsonNumber.valueOf(1023L));
+		assertSame(JsonNumber.valueOf(7L), JsonNumber.valueOf(Integer.valueOf(7)));
+		assertSame(JsonNumber.valueOf(7L), JsonNumber.valueOf(Double.valueOf(7.0)));
+		assertNotSame(JsonNumber.valueOf(1024L), JsonNumber.valueOf(1024L));
+		assertNotSame(JsonNumber.valueOf(-129L), JsonNumber.valueOf(-129L));
+		assertEquals(JsonNumber.valueOf(1024L), JsonNumber.valueOf(1024L));
+		assertEquals("0.5", JsonNumber.valueOf(0.5).toString());
+
+		JsonArray parsed = JsonObject.parse("[5,5,2000]").asArray();
+		assertSame(JsonNumber.valueOf(5L), parsed.get(0));
+		assertSame(parsed.get(0), parsed.get(1));
+		assertEquals("[5,5,2000]", parsed.toString());
+	}
+
+	@Test
+	public void sharesShortStrings() {
+		assertSame(JsonString.valueOf("name"), JsonString.valueOf(new String("name")));
+		char[] chars = new char[33];
+		Arrays.fill(chars, 'x');
+		String longString = new String(chars);
+		assertNotSame(JsonString.valueOf(longString), JsonString.valueOf(longString));
+		assertEquals(JsonString.valueOf(longString), JsonString.valueOf(longString));
+	}
+
+	@Test
+	public void sharesParsedKeys() {
+		JsonObject a = JsonObject.parse("{\"name\":1}").asMap();
+		JsonObject b = JsonObject.parse("{\"other\":{\"name\":2}}").asMap().getObject("other");
+		assertSame(a.keySet().iterator().next(), b.keySet().iterator().next());
+
+		a.put("name", 3);
+		assertEquals(JsonObject.parse("{\"name\":3}"), a);
+		assertEquals(JsonObject.parse("{\"name\":2}"), b);
+	}
+
+	@Test
+	public void parsesNineteenDigitIntegersExactly() {
+		String json = "[9223372036854775807,-9223372036854775808,1234567890123456789]";
+		JsonArray parsed = JsonObject.parse(json).asArray();
+		assertEquals(Long.MAX_VALUE, parsed.getLong(0));
+		assertEquals(Long.MIN_VALUE, parsed.getLong(1));
+		assertEquals(1234567890123456789L, parsed.getLong(2));
+		assertTrue(((JsonNumber) parsed.get(2)).isInteger());
+		assertEquals(json, parsed.toString());
+		assertEquals(parsed, new JsonArena().parse(json));
+
+		JsonArray tooLarge = JsonObject.parse("[9223372036854775808]").asArray();
+		assertFalse(((JsonNumber) tooLarge.get(0)).isInteger());
+		assertEquals(9.223372036854775807E18, tooLarge.getDouble(0), 0.0);
+	}
+
+	@Test
+	public void parsesMinusZeroAsNegativeZero() throws IOException {
+		JsonValue[] parsed = {
+				JsonObject.parse("[-0]").asArray().get(0),
+				new JsonArena().parse("[-0]").asArray().get(0),
+				new JsonReader(new StringReader("-0")).nextValue()};
+		for (JsonValue zero : parsed) {
+			assertEquals("-0.0", zero.toString());
+			assertEquals(Double.doubleToRawLongBits(-0.0),
+					Double.doubleToRawLongBits(zero.asDouble()));
+			assertFalse(zero.equals(JsonNumber.valueOf(0L)));
+		}
+		assertSame(JsonNumber.valueOf(0L), JsonObject.parse("[0]").asArray().get(0));
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import org.junit.Test;
+
+public class CborMessagePackTest {
+
+	private static final String DOCUMENT = "{\"id\":7,\"neg\":-1234567890123,\"pi\":3.25,"
+			+ "\"s\":\"\u00e9\",\"t\":true,\"f\":false,\"n\":null,\"a\":[1,2,300,70000],"
+			+ "\"o\":[{\"k\":1},{\"k\":[]}]}";
+
+	private static byte[] cbor(JsonValue value) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		value.writeCbor(out);
+		return out.toByteArray();
+	}
+
+	private static byte[] messagePack(JsonValue value) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		value.writeMessagePack(out);
+		return out.toByteArray();
+	}
+
+	private static byte[] bytes(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			bytes[i] = (byte) values[i];
+		}
+		return bytes;
+	}
+
+	@Test
+	public void writesShortestEncodings() throws IOException {
+		JsonValue value = JsonObject.parse("{\"a\":[1,-1,24,256]}");
+		assertArrayEquals(bytes(0xA1, 0x61, 'a', 0x84, 0x01, 0x20, 0x18, 24, 0x19, 0x01, 0x00),
+				cbor(value));
+		assertArrayEquals(bytes(0x81, 0xA1, 'a', 0x94, 0x01, 0xFF, 24, 0xCD, 0x01, 0x00),
+				messagePack(value));
+	}
+
+	@Test
+	public void roundTripsEveryImplementation() throws IOException {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		obj.put("date", new Date(1356998400000L));
+		JsonValue[] sources = {obj, obj.toBinary(), obj.toPersistent()};
+		for (JsonValue source : sources) {
+			JsonValue fromCbor = JsonValue.readCbor(new ByteArrayInputStream(cbor(source)));
+			JsonValue fromMessagePack =
+					JsonValue.readMessagePack(new ByteArrayInputStream(messagePack(source)));
+			assertEquals(obj, fromCbor);
+			assertEquals(obj, fromMessagePack);
+			assertTrue(fromCbor.asMap().get("date") instanceof JsonDate);
+			assertTrue(fromMessagePack.asMap().get("date") instanceof JsonDate);
+		}
+	}
+
+	@Test
+	public void readsForeignItems() throws IOException {
+		// indefinite-length array of a half float and a byte string, then an epoch date tag
+		ByteArrayInputStream in = new ByteArrayInputStream(bytes(0x9F, 0xF9, 0x3C, 0x00,
+				0x42, 0xFB, 0xFF, 0xFF, 0xC1, 0x1A, 0x50, 0xE2, 0x27, 0x00));
+		assertEquals(JsonObject.parse("[1.0,\"-_8\"]"), JsonValue.readCbor(in));
+		assertEquals(1356998400000L, JsonValue.readCbor(in).asDate().getTime());
+		assertEquals(0, in.available());
+		// MessagePack with a float 32 and an integer key
+		JsonValue value = JsonValue.readMessagePack(new ByteArrayInputStream(
+				bytes(0x81, 0x07, 0xCA, 0x3F, 0xC0, 0x00, 0x00)));
+		assertEquals(JsonObject.parse("{\"7\":1.5}"), value);
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConcurrentJsonTest {
+
+	private static final String DOCUMENT =
+			"{\"id\":7,\"name\":\"x\",\"tags\":[\"a\",\"b\"],\"pos\":{\"x\":1.5,\"y\":[1,2,3]},\"n\":null}";
+
+	@Test
+	public void roundTripsThroughJsonObject() {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		ConcurrentJsonObject concurrent = new ConcurrentJsonObject(obj);
+		assertEquals(obj, concurrent.asMap());
+		assertEquals(obj, JsonObject.parse(concurrent.toString()));
+	}
+
+	@Test
+	public void equalsAnyObjectWithSameEntries() {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		ConcurrentJsonObject concurrent = new ConcurrentJsonObject(obj);
+		Map<String,JsonValue> map = new HashMap<String,JsonValue>(obj);
+		assertEquals(concurrent, obj);
+		assertEquals(obj, concurrent);
+		assertEquals(concurrent, obj.toPersistent());
+		assertEquals(obj.toPersistent(), concurrent);
+		assertEquals(concurrent, map);
+		assertEquals(map, concurrent);
+		assertEquals(obj.hashCode(), concurrent.hashCode());
+		assertEquals(map.hashCode(), concurrent.hashCode());
+		concurrent.put("id", 8);
+		assertNotEquals(concurrent, obj);
+		assertNotEquals(obj, concurrent);
+	}
+
+	@Test
+	public void arrayEqualsAnyArrayWithSameElements() {
+		JsonArray array = JsonObject.parse("[1,2.5,\"s\",{\"k\":[true]},[1,2]]").asArray();
+		ConcurrentJsonArray concurrent = new ConcurrentJsonArray(array);
+		List<JsonValue> list = new ArrayList<JsonValue>(array);
+		assertEquals(concurrent, array);
+		assertEquals(array, concurrent);
+		assertEquals(concurrent, array.toPersistent());
+		assertEquals(array.toPersistent(), concurrent);
+		assertEquals(concurrent, list);
+		assertEquals(list, concurrent);
+		assertEquals(list.hashCode(), concurrent.hashCode());
+		concurrent.add(3L);
+		assertNotEquals(concurrent, array);
+	}
+
+	@Test
+	public void hashCodeFollowsWrites() {
+		ConcurrentJsonObject concurrent = new ConcurrentJsonObject();
+		JsonObject expected = new JsonObject();
+		assertEquals(expected.hashCode(), concurrent.hashCode());
+		concurrent.put("a", 1);
+		expected.put("a", 1);
+		assertEquals(expected.hashCode(), concurrent.hashCode());
+		JsonObject outer = new JsonObject("c", concurrent);
+		int hash = outer.hashCode();
+		concurrent.put("b", true);
+		assertNotEquals(hash, outer.hashCode());
+	}
+
+	@Test
+	public void snapshotsAndCopiesAreIsolated() {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		ConcurrentJsonObject concurrent = new ConcurrentJsonObject(obj);
+		PersistentJsonObject snapshot = concurrent.snapshot();
+		ConcurrentJsonObject copy = (ConcurrentJsonObject) concurrent.copy();
+		JsonObject mutable = concurrent.asMap();
+		concurrent.put("id", 8);
+		concurrent.remove("tags");
+		mutable.getObject("pos").put("x", 0);
+		assertEquals(JsonObject.parse(DOCUMENT), snapshot);
+		assertEquals(JsonObject.parse(DOCUMENT), copy);
+		copy.put("extra", "y");
+		assertFalse(concurrent.containsKey("extra"));
+		assertEquals(8L, concurrent.getLong("id"));
+	}
+
+	@Test
+	public void concurrentWritesAreNotLost() throws InterruptedException {
+		final ConcurrentJsonObject obj = new ConcurrentJsonObject();
+		final ConcurrentJsonArray array = new ConcurrentJsonArray();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			final int id = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 1000; ++i) {
+						obj.put(id + ":" + i, i);
+						array.add((long) i);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) thread.join();
+		assertEquals(4000, obj.size());
+		assertEquals(4000, array.size());
+		assertTrue(obj.containsKey("3:999"));
+	}
+
+	@Test
+	public void patchesNestedValuesAtomically() {
+		ConcurrentJsonObject obj = new ConcurrentJsonObject(JsonObject.parse(DOCUMENT).asMap());
+		PersistentJsonObject before = obj.snapshot();
+		JsonPatch patch = JsonPatch.parse("[{\"op\":\"replace\",\"path\":\"/pos/y/0\",\"value\":9},"
+				+ "{\"op\":\"move\",\"from\":\"/tags/0\",\"path\":\"/pos/first\"}]");
+		assertSame(obj, patch.apply(obj));
+		assertEquals(JsonObject.parse("[9,2,3]"), obj.getObject("pos").getArray("y"));
+		assertEquals("a", obj.getObject("pos").getString("first"));
+		assertEquals(JsonObject.parse("[\"b\"]"), obj.getArray("tags"));
+		assertEquals(JsonObject.parse(DOCUMENT), before);
+
+		ConcurrentJsonArray array =
+				new ConcurrentJsonArray(JsonObject.parse("[[1],{\"k\":[]}]").asArray());
+		JsonPatch.parse("[{\"op\":\"add\",\"path\":\"/1/k/-\",\"value\":true}]").apply(array);
+		assertEquals(JsonObject.parse("[[1],{\"k\":[true]}]"), array);
+	}
+
+	@Test
+	public void failedPatchLeavesConcurrentObjectUnchanged() {
+		ConcurrentJsonObject obj = new ConcurrentJsonObject(JsonObject.parse(DOCUMENT).asMap());
+		PersistentJsonObject before = obj.snapshot();
+		try {
+			JsonPatch.parse("[{\"op\":\"replace\",\"path\":\"/pos/x\",\"value\":0},"
+					+ "{\"op\":\"test\",\"path\":\"/id\",\"value\":8}]").apply(obj);
+			fail();
+		} catch (JsonPatchException e) {
+			// expected
+		}
+		assertTrue(before.sharesRoot(obj.snapshot()));
+		JsonValue replacement = JsonPatch.parse(
+				"[{\"op\":\"replace\",\"path\":\"\",\"value\":[1]}]").apply(obj);
+		assertEquals(JsonObject.parse("[1]"), replacement);
+		assertTrue(before.sharesRoot(obj.snapshot()));
+	}
+
+	@Test
+	public void serializesInTheOrderOfPersistentObjects() {
+		JsonObject obj = new JsonObject();
+		for (int i = 0; i < 500; ++i) {
+			obj.put("key" + i, i);
+		}
+		obj.put("Aa", 1); // "Aa" and "BB" have the same hash
+		obj.put("BB", 2);
+		ConcurrentJsonObject concurrent = new ConcurrentJsonObject(obj);
+		assertEquals(obj.toPersistent().toString(), concurrent.toString());
+		assertEquals(502, concurrent.size());
+		concurrent.remove("BB");
+		obj.remove("BB");
+		assertEquals(obj.toPersistent().toString(), concurrent.snapshot().toString());
+		assertEquals(obj.hashCode(), concurrent.hashCode());
+	}
+
+	@Test
+	public void snapshotsSeeWritesToSeveralKeysAtOnce() throws InterruptedException {
+		final ConcurrentJsonObject obj = new ConcurrentJsonObject();
+		obj.put("a", 0);
+		obj.put("b", 0); // in another stripe than "a"
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 1; i <= 20000; ++i) {
+					Map<String,JsonValue> m = new HashMap<String,JsonValue>();
+					m.put("a", JsonNumber.valueOf(i));
+					m.put("b", JsonNumber.valueOf(i));
+					obj.putAll(m);
+				}
+			}
+		};
+		writer.start();
+		while (writer.isAlive()) {
+			PersistentJsonObject snapshot = obj.snapshot();
+			assertEquals(snapshot.get("a"), snapshot.get("b"));
+		}
+		writer.join();
+		assertEquals(20000L, obj.getLong("b"));
+	}
+
+	@Test
+	public void concurrentAppendsKeepTheOrderOfEachThread() throws InterruptedException {
+		final ConcurrentJsonArray array = new ConcurrentJsonArray();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			final long id = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (long i = 0; i < 5000; ++i) {
+						array.add(id << 32 | i);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) thread.join();
+		assertEquals(20000, array.size());
+		long[] next = new long[threads.length];
+		for (long value : array.toLongArray()) {
+			int id = (int) (value >>> 32);
+			assertEquals(next[id]++, value & 0xFFFFFFFFL);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HashCacheTest {
+
+	private static final String DOCUMENT =
+			"{\"records\":[{\"id\":1,\"pos\":{\"x\":1.5}},{\"id\":2,\"pos\":{\"x\":2.5}}],\"n\":[1,2]}";
+
+	@Test
+	public void equalDocumentsHaveEqualHashCodes() {
+		JsonObject doc = JsonObject.parse(DOCUMENT).asMap();
+		assertEquals(JsonObject.parse(DOCUMENT).hashCode(), doc.hashCode());
+		assertEquals(doc.hashCode(), doc.hashCode());
+		assertEquals(doc.hashCode(), doc.copy().hashCode());
+	}
+
+	@Test
+	public void nestedWriteInvalidatesCachedHashCode() {
+		JsonObject doc = JsonObject.parse(DOCUMENT).asMap();
+		JsonObject pos = doc.getArray("records").getObject(1).getObject("pos");
+		int hash = doc.hashCode();
+		pos.put("x", 9);
+		assertNotEquals(hash, doc.hashCode());
+		assertNotEquals(JsonObject.parse(DOCUMENT), doc);
+		pos.put("x", 2.5);
+		assertEquals(hash, doc.hashCode());
+		assertEquals(JsonObject.parse(DOCUMENT), doc);
+	}
+
+	@Test
+	public void writeAfterRepeatedHashingInvalidatesCachedHashCode() {
+		JsonObject doc = JsonObject.parse(DOCUMENT).asMap();
+		JsonArray numbers = doc.getArray("n");
+		int hash = doc.hashCode();
+		assertEquals(hash, doc.hashCode());
+		numbers.add(JsonNumber.valueOf(3L));
+		int grown = doc.hashCode();
+		assertNotEquals(hash, grown);
+		numbers.remove(2);
+		assertEquals(hash, doc.hashCode());
+	}
+
+	@Test
+	public void writeToCopyInvalidatesOnlyTheCopy() {
+		JsonObject doc = JsonObject.parse(DOCUMENT).asMap();
+		int hash = doc.hashCode();
+		JsonObject copy = doc.copy().asMap();
+		copy.getArray("records").getObject(0).put("id", 7);
+		assertNotEquals(hash, copy.hashCode());
+		assertEquals(hash, doc.hashCode());
+	}
+
+	@Test
+	public void concurrentChildInvalidatesCachedHashCode() {
+		ConcurrentJsonObject child = new ConcurrentJsonObject();
+		JsonObject doc = new JsonObject("c", child);
+		int hash = doc.hashCode();
+		child.put("k", JsonString.valueOf("v"));
+		assertNotEquals(hash, doc.hashCode());
+		child.remove("k");
+		assertEquals(hash, doc.hashCode());
+	}
+
+	@Test
+	public void cachedHashCodesDoNotShortCircuitEqualContent() {
+		JsonArray a = JsonObject.parse("[{\"k\":1}]").asArray();
+		JsonArray b = JsonObject.parse("[{\"k\":2}]").asArray();
+		a.hashCode();
+		b.hashCode();
+		b.getObject(0).put("k", 1);
+		assertEquals(a, b);
+	}
+
+	@Test
+	public void unrelatedWriteKeepsCachedHashCode() {
+		JsonObject doc = JsonObject.parse(DOCUMENT).asMap();
+		JsonObject other = JsonObject.parse(DOCUMENT).asMap();
+		doc.hashCode();
+		other.getArray("records").getObject(0).put("id", 7);
+		other.put("n", 0);
+		assertTrue(doc.isHashCurrent());
+
+		JsonObject first = doc.getArray("records").getObject(0);
+		JsonObject second = doc.getArray("records").getObject(1);
+		doc.hashCode();
+		first.hashCode();
+		second.getObject("pos").put("x", 9);
+		assertTrue(first.isHashCurrent());
+		assertFalse(second.isHashCurrent());
+		assertFalse(doc.isHashCurrent());
+	}
+
+	@Test
+	public void writeToSharedChildInvalidatesEveryParent() {
+		JsonArray child = JsonObject.parse("[1,2]").asArray();
+		JsonObject a = new JsonObject("c", child);
+		JsonObject b = new JsonObject("d", new JsonObject("c", child));
+		int hashA = a.hashCode();
+		int hashB = b.hashCode();
+		child.add(JsonNumber.valueOf(3L));
+		assertFalse(a.isHashCurrent());
+		assertFalse(b.isHashCurrent());
+		assertNotEquals(hashA, a.hashCode());
+		assertNotEquals(hashB, b.hashCode());
+	}
+
+	@Test
+	public void copiesKeepCachedHashCodeUntilTheyAreModified() {
+		JsonObject doc = JsonObject.parse(DOCUMENT).asMap();
+		int hash = doc.hashCode();
+		JsonObject copy = doc.copy().asMap();
+		assertTrue(copy.isHashCurrent());
+		JsonArray numbers = copy.getArray("n");
+		assertTrue(copy.isHashCurrent());
+		numbers.add(JsonNumber.valueOf(3L));
+		assertFalse(copy.isHashCurrent());
+		assertTrue(doc.isHashCurrent());
+		assertEquals(hash, doc.hashCode());
+		assertEquals(JsonObject.parse(DOCUMENT).hashCode(), hash);
+		assertNotEquals(hash, copy.hashCode());
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class JsonArenaTest {
+
+	private static final String DOCUMENT =
+			"{\"id\":7,\"name\":\"x\",\"tags\":[\"a\",\"b\"],\"pos\":{\"x\":1.5,\"y\":[1,2,3]},\"n\":null}";
+
+	@Test
+	public void parsesLikeJsonObject() {
+		JsonArena arena = new JsonArena(16);
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		JsonValue parsed = arena.parse(DOCUMENT);
+		assertEquals(obj, parsed.asMap());
+		assertEquals(obj, JsonObject.parse(parsed.toString()));
+		assertEquals(3L, parsed.getByPath("/pos/y/2").asLong());
+	}
+
+	@Test
+	public void equalsObjectsOfAnyImplementation() {
+		JsonArena arena = new JsonArena();
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		JsonValue parsed = arena.parse(DOCUMENT);
+		assertEquals(parsed, obj);
+		assertEquals(obj, parsed);
+		assertEquals(parsed, obj.toPersistent());
+		assertEquals(obj.toBinary(), parsed);
+		assertEquals(obj.hashCode(), parsed.hashCode());
+		assertEquals(parsed, arena.parse(DOCUMENT));
+		obj.put("id", 8);
+		assertNotEquals(parsed, obj);
+		assertNotEquals(obj, parsed);
+		assertEquals(new JsonObject("n", obj), new JsonObject("n", arena.parse(obj.toString())));
+	}
+
+	@Test
+	public void arrayEqualsArraysOfAnyImplementation() {
+		String[] documents = {"[1,2.5,\"s\",{\"k\":[true]},[1,2],null]", "[1,2,3]", "[]"};
+		JsonArena arena = new JsonArena();
+		for (String document : documents) {
+			JsonArray array = JsonObject.parse(document).asArray();
+			JsonValue parsed = arena.parse(document);
+			List<JsonValue> list = new ArrayList<JsonValue>(array);
+			assertEquals(parsed, array);
+			assertEquals(array, parsed);
+			assertEquals(parsed, array.toPersistent());
+			assertEquals(parsed, array.toBinary());
+			assertFalse(parsed.equals(list)); // not a List, as list.equals() would agree
+			assertEquals(list.hashCode(), parsed.hashCode());
+		}
+	}
+
+	@Test
+	public void mutableCopiesAreIndependent() {
+		JsonArena arena = new JsonArena();
+		JsonValue parsed = arena.parse(DOCUMENT);
+		JsonObject obj = parsed.asMap();
+		arena.reset();
+		obj.getObject("pos").put("x", 9);
+		assertEquals(9L, obj.getByPath("/pos/x").asLong());
+		assertEquals(JsonObject.parse("[1,2,3]"), obj.getObject("pos").getArray("y"));
+		try {
+			parsed.toString();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void mapViewsAreIndependentCopies() {
+		JsonArena arena = new JsonArena();
+		JsonValue parsed = arena.parse(DOCUMENT);
+		JsonObject first = parsed.asMap();
+		first.getObject("pos").getArray("y").add(JsonNumber.valueOf(4L));
+		first.put("id", 8);
+		JsonObject second = parsed.asMap();
+		assertEquals(JsonObject.parse(DOCUMENT), second);
+		assertEquals(JsonObject.parse(DOCUMENT), parsed.copy());
+		assertEquals(7L, parsed.getByPath("/id").asLong());
+	}
+
+	@Test
+	public void unescapesStringsLikeJsonObject() {
+		String[] escapes = {"\\\"", "\\\\", "\\/", "\\b", "\\f", "\\n", "\\r", "\\t",
+				"\\u00e9", "\\u0041", "\\ud83d\\ude00", "x", " "};
+		Random random = new Random(17);
+		JsonArena arena = new JsonArena();
+		for (int n = 0; n < 500; ++n) {
+			StringBuilder sb = new StringBuilder("{");
+			for (int e = random.nextInt(4); e >= 0; --e) {
+				if (sb.length() > 1) sb.append(',');
+				sb.append("\"k").append(e).append(escapes[random.nextInt(escapes.length)])
+						.append("\":[\"");
+				for (int k = random.nextInt(6); k >= 0; --k) {
+					sb.append(escapes[random.nextInt(escapes.length)]);
+				}
+				sb.append("\"]");
+			}
+			String document = sb.append('}').toString();
+			JsonValue parsed = arena.parse(document);
+			assertEquals(document, JsonObject.parse(document), parsed);
+			assertEquals(document, parsed, JsonObject.parse(document));
+			assertEquals(document, JsonObject.parse(document, JsonParseOption.LAZY_STRINGS), parsed);
+			arena.reset();
+		}
+	}
+}
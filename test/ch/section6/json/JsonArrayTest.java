@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class JsonArrayTest {
+
+	@Test
+	public void packedArraysBehaveLikeBoxedOnes() {
+		JsonArray longs = new JsonArray(new long[] {1, 2, 3});
+		JsonArray doubles = new JsonArray(new double[] {0.5, 2});
+		JsonArray parsed = JsonObject.parse("[1,2,3]").asArray();
+		List<JsonValue> boxed = new ArrayList<JsonValue>(parsed);
+		assertEquals(boxed, longs);
+		assertEquals(longs, boxed);
+		assertEquals(boxed.hashCode(), longs.hashCode());
+		assertEquals(parsed, longs);
+		assertEquals("[1,2,3]", longs.toString());
+		assertEquals("[0.5,2.0]", doubles.toString());
+		assertEquals(JsonNumber.valueOf(0.5), doubles.get(0));
+		longs.add(0, JsonNumber.valueOf(0L));
+		longs.remove(3);
+		assertEquals(JsonObject.parse("[0,1,2]"), longs);
+	}
+
+	@Test
+	public void unpacksForOtherValues() {
+		JsonArray array = JsonObject.parse("[1,2,3]").asArray();
+		array.add(0.5);
+		array.set(0, "one");
+		array.add(JsonObject.parse("{\"k\":1}"));
+		array.add((JsonValue) null);
+		assertEquals(JsonObject.parse("[\"one\",2,3,0.5,{\"k\":1},null]"), array);
+
+		JsonArray copy = (JsonArray) new JsonArray(new long[] {1, 2}).copy();
+		copy.add("x");
+		assertEquals(JsonObject.parse("[1,2,\"x\"]"), copy);
+	}
+
+	@Test
+	public void primitiveAccessorsReadPackedAndBoxedArrays() {
+		JsonArray[] arrays = {
+				new JsonArray(new long[] {1, 2, 3}),
+				new JsonArray(new double[] {1, 2, 3}),
+				JsonObject.parse("[1,2.0,3]").asArray()};
+		for (JsonArray array : arrays) {
+			assertEquals(2L, array.getLong(1));
+			assertEquals(3.0, array.getDouble(2), 0.0);
+			assertArrayEquals(new long[] {1, 2, 3}, array.toLongArray());
+			assertArrayEquals(new double[] {1, 2, 3}, array.toDoubleArray(), 0.0);
+			final long[] sum = {0};
+			array.forEachLong(l -> sum[0] += l);
+			assertEquals(6L, sum[0]);
+			final double[] total = {0};
+			array.forEachDouble(d -> total[0] += d);
+			assertEquals(6.0, total[0], 0.0);
+		}
+
+		JsonArray mixed = JsonObject.parse("[1,{}]").asArray();
+		try {
+			mixed.toLongArray();
+			fail();
+		} catch (JsonCastException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void mixedIntegersAndRealsStayPacked() {
+		JsonArray series = JsonObject.parse("[10,10.5,11]").asArray();
+		assertTrue(series.isPacked());
+		assertNull(series.packedLongs());
+		assertArrayEquals(new double[] {10, 10.5, 11}, series.toDoubleArray(), 0.0);
+		assertEquals("[10,10.5,11]", series.toString());
+		assertSame(JsonNumber.valueOf(10L), series.get(0));
+		assertEquals(JsonNumber.valueOf(10.5), series.get(1));
+		List<JsonValue> boxed = new ArrayList<JsonValue>();
+		boxed.add(JsonNumber.valueOf(10L));
+		boxed.add(JsonNumber.valueOf(10.5));
+		boxed.add(JsonNumber.valueOf(11L));
+		assertEquals(boxed, series);
+		assertEquals(series, boxed);
+		assertEquals(boxed.hashCode(), series.hashCode());
+		assertFalse(series.equals(JsonObject.parse("[10.0,10.5,11.0]")));
+
+		series.remove(1);
+		series.add(0, JsonNumber.valueOf(9L));
+		assertEquals(JsonObject.parse("[9,10,11]"), series);
+		JsonArray copy = (JsonArray) series.copy();
+		copy.set(0, JsonNumber.valueOf(0.5));
+		assertEquals("[9,10,11]", series.toString());
+		assertEquals("[0.5,10,11]", copy.toString());
+		assertTrue(copy.isPacked());
+
+		JsonArray large = JsonObject.parse("[9007199254740993,0.5]").asArray();
+		assertEquals(9007199254740993L, large.getLong(0));
+		assertEquals("[9007199254740993,0.5]", large.toString());
+		assertFalse(large.isPacked());
+	}
+}
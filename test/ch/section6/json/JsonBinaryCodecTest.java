@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Test;
+
+public class JsonBinaryCodecTest {
+
+	private static final String DOCUMENT = "{\"id\":7,\"big\":-1234567890123,\"pi\":3.25,"
+			+ "\"s\":\"\u00e9\",\"t\":true,\"n\":null,\"a\":[1,2,3],\"d\":[0.5,1.5],"
+			+ "\"o\":[{\"k\":1},{\"k\":2}]}";
+
+	private static byte[] write(JsonValue value) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		value.writeBinary(out);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void roundTripsEveryImplementation() throws IOException {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		obj.put("date", new Date(1356998400000L));
+		JsonValue[] sources = {
+				obj, obj.toBinary(), obj.toPersistent(), new ConcurrentJsonObject(obj)};
+		for (JsonValue source : sources) {
+			JsonValue copy = JsonValue.readBinary(new ByteArrayInputStream(write(source)));
+			assertEquals(obj, copy);
+			assertEquals(source.toString(), copy.toString()); // in the order of the source
+			assertTrue(copy.asMap().get("date") instanceof JsonDate);
+		}
+	}
+
+	@Test
+	public void readsConsecutiveValuesFromOneStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JsonObject.parse("[1,\"x\"]").writeBinary(out);
+		JsonObject.parse("{\"y\":null}").writeBinary(out);
+		JsonNumber.valueOf(5L).writeBinary(out);
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		assertEquals(JsonObject.parse("[1,\"x\"]"), JsonValue.readBinary(in));
+		assertEquals(JsonObject.parse("{\"y\":null}"), JsonValue.readBinary(in));
+		assertEquals(JsonNumber.valueOf(5L), JsonValue.readBinary(in));
+		assertEquals(0, in.available());
+	}
+
+	@Test
+	public void rejectsTruncatedAndForeignInput() throws IOException {
+		byte[] bytes = write(JsonObject.parse(DOCUMENT));
+		try {
+			JsonValue.readBinary(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 3)));
+			fail();
+		} catch (EOFException e) {
+			// expected
+		}
+		try {
+			JsonValue.readBinary(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")));
+			fail();
+		} catch (JsonParseException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JsonBinderTest {
+
+	enum Color { RED, GREEN }
+
+	static class Base {
+		private long id;
+	}
+
+	static class Item extends Base {
+		static int instances;
+		transient int ignored = 7;
+		private String name;
+		int count;
+		double weight;
+		boolean fragile;
+		char code;
+		Integer boxed;
+		Color color;
+		Date created;
+		int[] sizes;
+		List<String> tags;
+		Map<String,Item> parts;
+		JsonValue extra;
+	}
+
+	private static Item item() {
+		Item item = new Item();
+		((Base) item).id = 42L;
+		item.name = "bolt";
+		item.count = 3;
+		item.weight = 0.5;
+		item.fragile = true;
+		item.code = 'x';
+		item.color = Color.GREEN;
+		item.created = new Date(1356998400000L);
+		item.sizes = new int[] {1, 2};
+		item.tags = new ArrayList<String>();
+		item.tags.add("t");
+		item.parts = new LinkedHashMap<String,Item>();
+		item.parts.put("nut", new Item());
+		item.extra = JsonObject.parse("{\"k\":[1]}");
+		return item;
+	}
+
+	@Test
+	public void mapsEveryKindOfField() {
+		JsonBinder<Item> binder = JsonBinder.of(Item.class);
+		JsonObject json = binder.toJson(item()).asMap();
+		assertEquals(42L, json.getLong("id"));
+		assertEquals("bolt", json.getString("name"));
+		assertEquals("GREEN", json.getString("color"));
+		assertEquals(JsonObject.parse("[1,2]"), json.get("sizes"));
+		assertEquals(JsonValue.getNull(), json.get("boxed"));
+		assertEquals(0L, json.getObject("parts").getObject("nut").getLong("count"));
+		assertFalse(json.containsKey("ignored"));
+		assertFalse(json.containsKey("instances"));
+
+		Item copy = binder.fromJson(json);
+		assertEquals(42L, ((Base) copy).id);
+		assertEquals("bolt", copy.name);
+		assertEquals('x', copy.code);
+		assertNull(copy.boxed);
+		assertEquals(Color.GREEN, copy.color);
+		assertEquals(1356998400000L, copy.created.getTime());
+		assertArrayEquals(new int[] {1, 2}, copy.sizes);
+		assertEquals(item().tags, copy.tags);
+		assertEquals(0, copy.parts.get("nut").count);
+		assertEquals(item().extra, copy.extra);
+		assertEquals(7, copy.ignored);
+	}
+
+	@Test
+	public void streamsWhatItBuilds() throws IOException {
+		JsonBinder<Item> binder = JsonBinder.of(Item.class);
+		StringWriter out = new StringWriter();
+		JsonWriter writer = new JsonWriter(out);
+		binder.write(writer, item());
+		writer.flush();
+		assertEquals(binder.toJson(item()).toString(), out.toString());
+		Item copy = binder.read(new JsonReader(new StringReader(out.toString())));
+		assertEquals(binder.toJson(item()), binder.toJson(copy));
+		assertEquals(JsonBinder.of(Item.class), binder);
+	}
+
+	@Test
+	public void skipsUnknownMembersAndRejectsWrongTypes() throws IOException {
+		JsonBinder<Item> binder = JsonBinder.of(Item.class);
+		Item item = binder.read(new JsonReader(new StringReader(
+				"{\"name\":\"n\",\"unknown\":{\"a\":[1,2]},\"count\":5}")));
+		assertEquals("n", item.name);
+		assertEquals(5, item.count);
+		try {
+			binder.fromJson(JsonObject.parse("{\"count\":\"five\"}"));
+			fail();
+		} catch (JsonCastException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void writerChecksItsStructure() throws IOException {
+		StringWriter out = new StringWriter();
+		JsonWriter writer = new JsonWriter(out);
+		writer.beginObject().name("a\"b").beginArray().value(1L).value(0.5).value(true).nullValue()
+				.value("\n").endArray().name("c").value(JsonObject.parse("{\"d\":[]}")).endObject();
+		writer.flush();
+		assertEquals(JsonObject.parse("{\"a\\\"b\":[1,0.5,true,null,\"\\n\"],\"c\":{\"d\":[]}}"),
+				JsonObject.parse(out.toString()));
+		try {
+			new JsonWriter(new StringWriter()).beginArray().endObject();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+}
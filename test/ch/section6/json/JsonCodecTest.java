@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JsonCodecTest {
+
+	@JsonCodec
+	public static class Point {
+		public float x;
+		public double y;
+	}
+
+	@JsonCodec
+	public static class Order {
+		public long id;
+		public int count;
+		public short priority;
+		public boolean paid;
+		public char grade;
+		public Long total;
+		public Integer discount;
+		public String customer;
+		public List<String> tags;
+		public Map<String,Long> quantities;
+		public double[] weights;
+		public Point origin;
+	}
+
+	private static Order order() {
+		Order order = new Order();
+		order.id = 1234567890123L;
+		order.count = 3;
+		order.priority = -2;
+		order.paid = true;
+		order.grade = 'A';
+		order.total = 99L;
+		order.customer = "x\"y";
+		order.tags = new ArrayList<String>();
+		order.tags.add("a");
+		order.quantities = new LinkedHashMap<String,Long>();
+		order.quantities.put("apples", 2L);
+		order.weights = new double[] {0.5, 2};
+		order.origin = new Point();
+		order.origin.x = 1.5f;
+		order.origin.y = -0.25;
+		return order;
+	}
+
+	private static String write(Order order) throws IOException {
+		StringWriter out = new StringWriter();
+		JsonWriter writer = new JsonWriter(out);
+		JsonCodecTest_OrderJsonCodec.write(writer, order);
+		writer.flush();
+		return out.toString();
+	}
+
+	@Test
+	public void writesWhatTheBinderWrites() throws IOException {
+		Order order = order();
+		StringWriter out = new StringWriter();
+		JsonWriter writer = new JsonWriter(out);
+		JsonBinder.of(Order.class).write(writer, order);
+		writer.flush();
+		assertEquals(out.toString(), write(order));
+		JsonValue json = JsonObject.parse(write(order));
+		assertEquals(1234567890123L, json.getByPath("/id").asLong());
+		assertEquals(-2L, json.getByPath("/priority").asLong());
+		assertEquals(1.5, json.getByPath("/origin/x").asDouble(), 0.0);
+		assertEquals(JsonValue.getNull(), json.getByPath("/discount"));
+	}
+
+	@Test
+	public void roundTrips() throws IOException {
+		Order order = order();
+		JsonReader reader = new JsonReader(new StringReader(write(order)));
+		Order copy = JsonCodecTest_OrderJsonCodec.read(reader);
+		assertEquals(order.id, copy.id);
+		assertEquals(order.count, copy.count);
+		assertEquals(order.priority, copy.priority);
+		assertEquals(order.paid, copy.paid);
+		assertEquals(order.grade, copy.grade);
+		assertEquals(order.total, copy.total);
+		assertNull(copy.discount);
+		assertEquals(order.customer, copy.customer);
+		assertEquals(order.tags, copy.tags);
+		assertEquals(order.quantities, copy.quantities);
+		assertEquals(order.weights.length, copy.weights.length);
+		assertEquals(order.weights[1], copy.weights[1], 0.0);
+		assertEquals(order.origin.x, copy.origin.x, 0.0);
+		assertEquals(order.origin.y, copy.origin.y, 0.0);
+		assertEquals(write(order), write(copy));
+	}
+}
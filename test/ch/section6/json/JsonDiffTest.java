@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class JsonDiffTest {
+
+	private static JsonValue json(String s) {
+		return JsonObject.parse(s.replace('\'', '"'));
+	}
+
+	/** Diffs two documents, checks that the patch turns one into the other, and returns it. */
+	private static JsonPatch diff(JsonValue a, JsonValue b) {
+		String before = a.toString();
+		JsonPatch patch = JsonDiff.diff(a, b);
+		assertEquals(before, a.toString());
+		assertEquals(b, patch.apply(a.copy()));
+		return patch;
+	}
+
+	@Test
+	public void emitsMinimalPatches() {
+		JsonValue a = json("{'a':1,'b':{'c':[1,2,3],'d':'x'},'e':[{'k':1},{'k':2}]}");
+		assertEquals(0, diff(a, a.copy()).size());
+		assertEquals(json("[{'op':'replace','path':'/b/d','value':'y'}]"),
+				diff(a, json("{'a':1,'b':{'c':[1,2,3],'d':'y'},'e':[{'k':1},{'k':2}]}")).toJson());
+		JsonValue inserted = json("{'a':1,'b':{'c':[0,1,2,3],'d':'x'},'e':[{'k':1},{'k':2}]}");
+		assertEquals(json("[{'op':'add','path':'/b/c/0','value':0}]"), diff(a, inserted).toJson());
+		assertEquals(json("[{'op':'remove','path':'/a'}]"),
+				diff(a, json("{'b':{'c':[1,2,3],'d':'x'},'e':[{'k':1},{'k':2}]}")).toJson());
+		assertEquals(1, diff(json("[1,2,3,4,5,6]"), json("[1,2,4,5,6]")).size());
+		assertEquals(1, diff(json("{'a':[1]}"), json("[1]")).size());
+	}
+
+	@Test
+	public void alignsArraysByIdentifier() {
+		JsonValue a = json("[{'id':1,'v':'a'},{'id':2,'v':'b'},{'id':3,'v':'c'}]");
+		JsonValue b = json("[{'id':2,'v':'B'},{'id':3,'v':'c'},{'id':4,'v':'d'}]");
+		JsonPatch patch = JsonDiff.diff(a, b, "/id");
+		assertEquals(b, patch.apply(a.copy()));
+		assertEquals(json("[{'op':'remove','path':'/0'},{'op':'replace','path':'/0/v','value':'B'},"
+				+ "{'op':'add','path':'/2','value':{'id':4,'v':'d'}}]"), patch.toJson());
+	}
+
+	@Test
+	public void comparesAcrossImplementations() {
+		JsonObject a = json("{'a':1,'b':{'c':[1,2,3]},'e':[true,null]}").asMap();
+		JsonObject b = json("{'a':1,'b':{'c':[1,2,4]},'e':[true,null],'f':'g'}").asMap();
+		assertEquals(0, JsonDiff.diff(a, a.toPersistent()).size());
+		assertEquals(0, JsonDiff.diff(a.toBinary(), a).size());
+		assertEquals(JsonDiff.diff(a, b).toString(), JsonDiff.diff(a.toPersistent(), b).toString());
+		assertEquals(JsonDiff.diff(a, b).toString(), JsonDiff.diff(a.toBinary(), b).toString());
+	}
+
+	@Test
+	public void turnsRandomDocumentsIntoEachOther() {
+		Random random = new Random(42);
+		for (int i = 0; i < 200; ++i) {
+			diff(randomValue(random, 3), randomValue(random, 3));
+		}
+	}
+
+	private static JsonValue randomValue(Random random, int depth) {
+		switch (depth == 0 ? random.nextInt(3) : random.nextInt(5)) {
+			case 0: return JsonNumber.valueOf(random.nextInt(4));
+			case 1: return JsonString.valueOf("s" + random.nextInt(3));
+			case 2: return JsonValue.getNull();
+			case 3: {
+				JsonArray array = new JsonArray();
+				for (int n = random.nextInt(6); n > 0; --n) {
+					array.add(randomValue(random, depth - 1));
+				}
+				return array;
+			}
+			default: {
+				JsonObject obj = new JsonObject();
+				for (int n = random.nextInt(5); n > 0; --n) {
+					obj.put("k" + random.nextInt(6), randomValue(random, depth - 1));
+				}
+				return obj;
+			}
+		}
+	}
+}
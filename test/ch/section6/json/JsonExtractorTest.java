@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+
+import org.junit.Test;
+
+public class JsonExtractorTest {
+
+	private static final String DOCUMENT = ("{'meta':{'count':3},'records':["
+			+ "{'user':{'id':1,'tags':['a']},'score':5},"
+			+ "{'user':{'id':2,'tags':[]},'score':15},"
+			+ "{'user':{'id':3,'tags':['b','c']},'score':25}]}").replace('\'', '"');
+
+	private static JsonReader reader(String json) {
+		return new JsonReader(new StringReader(json));
+	}
+
+	@Test
+	public void deliversMatchesInDocumentOrder() throws IOException {
+		final JsonExtractor extractor = JsonExtractor.compile("/records/*/user/id", "/meta/count",
+				"/records/[?score > 10]/user/id", "/**/tags/0");
+		final JsonArray matches = new JsonArray();
+		extractor.forEach(reader(DOCUMENT), new BiConsumer<JsonQuery, JsonValue>() {
+			@Override
+			public void accept(JsonQuery query, JsonValue value) {
+				matches.add(new JsonArray(extractor.queries().indexOf(query), value));
+			}
+		});
+		// pairs of the index of the query and the value
+		assertEquals(JsonObject.parse("[[1,3],[0,1],[3,\"a\"],[0,2],[2,2],[0,3],[2,3],[3,\"b\"]]"),
+				matches);
+	}
+
+	@Test
+	public void extractsWhatEachQuerySelects() throws IOException {
+		JsonValue document = JsonObject.parse(DOCUMENT);
+		String[] queries = {"/records/[1:]/user", "/**/id", "/records/[-1]/score", "/missing"};
+		for (String query : queries) {
+			JsonArray extracted = new JsonArray();
+			Iterator<JsonValue> it = JsonExtractor.compile(query).iterator(reader(DOCUMENT));
+			while (it.hasNext()) {
+				extracted.add(it.next());
+			}
+			assertEquals(JsonQuery.compile(query).select(document), extracted);
+		}
+	}
+
+	@Test
+	public void readsOnlyAsFarAsNeeded() {
+		// an endless array of records, of which only the first matches are read
+		Reader endless = new Reader() {
+			private String pending = "[";
+			private int record;
+
+			@Override
+			public int read(char[] buffer, int offset, int length) {
+				if (pending.isEmpty()) {
+					pending = ((record > 0) ? ",{\"id\":" : "{\"id\":") + (record++) + "}";
+				}
+				int n = Math.min(length, pending.length());
+				pending.getChars(0, n, buffer, offset);
+				pending = pending.substring(n);
+				return n;
+			}
+
+			@Override
+			public void close() {}
+		};
+		Iterator<JsonValue> it = JsonExtractor.compile("/*/id").iterator(new JsonReader(endless));
+		for (long i = 0; i < 1000; ++i) {
+			assertTrue(it.hasNext());
+			assertEquals(i, it.next().asLong());
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class JsonIndexTest {
+
+	private static final String USERS = "[{\"id\":1,\"name\":\"a\",\"age\":30,\"team\":\"x\"},"
+			+ "{\"id\":2,\"name\":\"b\",\"age\":17,\"team\":\"y\"},"
+			+ "{\"id\":3,\"name\":\"c\",\"age\":45,\"team\":\"x\"},"
+			+ "{\"name\":\"nobody\"}]";
+
+	private static JsonArray users() {
+		return JsonObject.parse(USERS).asArray();
+	}
+
+	@Test
+	public void findsElementsByKey() {
+		JsonArray users = users();
+		JsonIndex byId = users.createIndex("/id");
+		assertEquals(3, byId.size());
+		assertEquals("b", byId.get(2).asMap().getString("name"));
+		assertEquals(2, byId.indexOf(3L));
+		assertEquals(2, byId.indexOf(JsonNumber.valueOf(3L)));
+		assertNull(byId.get(4));
+		assertEquals(-1, byId.indexOf("1"));
+
+		JsonIndex byTeamAndAge = users.createIndex("/team", "/age");
+		assertEquals("c", byTeamAndAge.get("x", 45).asMap().getString("name"));
+		assertNull(byTeamAndAge.get("y", 45));
+		assertEquals(2, users.createIndex("/team").getAll("x").size());
+		try {
+			byTeamAndAge.get("x");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void followsChangesToTheArray() {
+		JsonArray users = users();
+		JsonIndex byId = users.createIndex("/id");
+		users.add(JsonObject.parse("{\"id\":9}"));
+		users.add(0, JsonObject.parse("{\"id\":0}"));
+		users.remove(2); // the user with id 2
+		users.set(1, JsonObject.parse("{\"id\":7}"));
+		assertEquals(0, byId.indexOf(0));
+		assertEquals(1, byId.indexOf(7));
+		assertEquals(-1, byId.indexOf(1));
+		assertEquals(-1, byId.indexOf(2));
+		assertEquals(2, byId.indexOf(3));
+		assertEquals(4, byId.indexOf(9));
+
+		users.getObject(2).put("id", 8); // changed in place, so not noticed until rebuilt
+		assertEquals(-1, byId.indexOf(8));
+		byId.rebuild();
+		assertEquals(2, byId.indexOf(8));
+
+		assertTrue(users.dropIndex(byId));
+		assertFalse(users.dropIndex(byId));
+	}
+
+	@Test
+	public void findsRangesInSortedIndexes() {
+		JsonArray users = users();
+		JsonIndex byAge = users.createSortedIndex("/age");
+		assertTrue(byAge.isSorted());
+		assertEquals("[\"a\",\"c\"]", names(byAge.range(18, null)));
+		assertEquals("[\"b\",\"a\"]", names(byAge.range(null, 45)));
+		assertEquals("[\"a\",\"c\"]", names(byAge.range(30, true, 45, true)));
+		users.add(JsonObject.parse("{\"name\":\"d\",\"age\":20}"));
+		assertEquals("[\"d\",\"a\"]", names(byAge.range(18, 40)));
+		try {
+			users.createIndex("/age").range(18, null);
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void copiesAreNotIndexed() {
+		JsonArray users = users();
+		JsonIndex byId = users.createIndex("/id");
+		JsonArray copy = (JsonArray) users.copy();
+		copy.remove(0);
+		copy.add(JsonObject.parse("{\"id\":5}"));
+		assertEquals(0, byId.indexOf(1));
+		assertEquals(-1, byId.indexOf(5));
+		assertEquals(users(), users);
+	}
+
+	private static String names(JsonArray users) {
+		JsonArray names = new JsonArray();
+		for (JsonValue user : users) {
+			names.add(user.asMap().getString("name"));
+		}
+		return names.toString();
+	}
+}
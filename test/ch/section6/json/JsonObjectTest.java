@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JsonObjectTest {
+
+	@Test
+	public void keepsInsertionOrderAtEverySize() {
+		for (int size : new int[] {0, 1, 8, 9, 100}) {
+			JsonObject obj = new JsonObject();
+			Map<String,JsonValue> expected = new HashMap<String,JsonValue>();
+			List<String> keys = new ArrayList<String>();
+			for (int i = size - 1; i >= 0; --i) {
+				obj.put("k" + i, i);
+				expected.put("k" + i, JsonNumber.valueOf(i));
+				keys.add("k" + i);
+			}
+			assertEquals(keys, new ArrayList<String>(obj.keySet()));
+			assertEquals(expected, obj);
+			assertEquals(obj, expected);
+			assertEquals(expected.hashCode(), obj.hashCode());
+			assertEquals(obj, JsonObject.parse(obj.toString()));
+			for (int i = 0; i < size; ++i) {
+				assertEquals(i, obj.getLong("k" + i));
+			}
+			assertFalse(obj.containsKey("missing"));
+		}
+	}
+
+	@Test
+	public void removesAndReplacesEntries() {
+		JsonObject obj = new JsonObject();
+		for (int i = 0; i < 20; ++i) {
+			obj.put("k" + i, i);
+		}
+		for (int i = 0; i < 20; i += 2) {
+			obj.remove("k" + i);
+		}
+		obj.put("k1", "one");
+		obj.put("k0", true);
+		assertEquals(11, obj.size());
+		assertEquals("one", obj.getString("k1"));
+		assertFalse(obj.containsKey("k2"));
+		assertEquals("k0", new ArrayList<String>(obj.keySet()).get(10));
+		assertEquals(19L, obj.getLong("k19"));
+	}
+
+	@Test
+	public void viewsWriteThrough() {
+		JsonObject obj = JsonObject.parse("{\"a\":1,\"b\":2,\"c\":3}").asMap();
+		Iterator<Map.Entry<String,JsonValue>> it = obj.entrySet().iterator();
+		it.next().setValue(JsonNumber.valueOf(10L));
+		it.next();
+		it.remove();
+		assertEquals(JsonObject.parse("{\"a\":10,\"c\":3}"), obj);
+		obj.values().remove(JsonNumber.valueOf(3L));
+		obj.keySet().remove("a");
+		assertEquals(0, obj.size());
+		try {
+			obj.put(null, JsonValue.getNull());
+			fail();
+		} catch (NullPointerException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void recordsWithSharedKeysStayIsolated() {
+		JsonArray records = JsonObject.parse("[{\"a\":1,\"b\":{\"c\":1}},"
+				+ "{\"a\":2,\"b\":{\"c\":2}},{\"a\":3,\"b\":{\"c\":3}},"
+				+ "{\"a\":4,\"b\":{\"c\":4}}]").asArray();
+		records.get(0).asMap().put("a", 10);
+		records.get(1).asMap().put("d", true);
+		records.get(2).asMap().remove("a");
+		records.get(3).asMap().get("b").asMap().clear();
+		assertEquals(JsonObject.parse("[{\"a\":10,\"b\":{\"c\":1}},"
+				+ "{\"a\":2,\"b\":{\"c\":2},\"d\":true},{\"b\":{\"c\":3}},"
+				+ "{\"a\":4,\"b\":{}}]"), records);
+
+		JsonObject original = records.get(0).asMap();
+		JsonObject copy = (JsonObject) original.copy();
+		copy.put("e", 5);
+		copy.keySet().remove("a");
+		copy.put("b", 0);
+		assertEquals(JsonObject.parse("{\"a\":10,\"b\":{\"c\":1}}"), original);
+		assertEquals(JsonObject.parse("{\"b\":0,\"e\":5}"), copy);
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class JsonPatchTest {
+
+	/** Parses JSON written with single quotes, which keeps the test cases readable. */
+	private static JsonValue json(String s) {
+		return JsonObject.parse(s.replace('\'', '"'));
+	}
+
+	private static JsonPatch patch(String s) {
+		return JsonPatch.parse(s.replace('\'', '"'));
+	}
+
+	private static void assertApplies(String expected, String document, String patch) {
+		assertEquals(json(expected), patch(patch).apply(json(document)));
+	}
+
+	private static void assertFails(String document, String patch) {
+		JsonValue target = json(document);
+		try {
+			patch(patch).apply(target);
+			fail(patch);
+		} catch (JsonPatchException e) {
+			// expected
+		}
+		assertEquals(json(document).toString(), target.toString());
+	}
+
+	@Test
+	public void appliesEveryOperation() {
+		assertApplies("{'foo':'bar','baz':'qux'}", "{'foo':'bar'}",
+				"[{'op':'add','path':'/baz','value':'qux'}]");
+		assertApplies("{'foo':['bar','qux','baz']}", "{'foo':['bar','baz']}",
+				"[{'op':'add','path':'/foo/1','value':'qux'}]");
+		assertApplies("{'a':[1,2,3]}", "{'a':[1,2]}", "[{'op':'add','path':'/a/-','value':3}]");
+		assertApplies("{'foo':['bar','baz']}", "{'foo':['bar','qux','baz']}",
+				"[{'op':'remove','path':'/foo/1'}]");
+		assertApplies("{'baz':'boo','foo':'bar'}", "{'baz':'qux','foo':'bar'}",
+				"[{'op':'replace','path':'/baz','value':'boo'}]");
+		assertApplies("{'foo':{'bar':'baz'},'qux':{'corge':'grault','thud':'fred'}}",
+				"{'foo':{'bar':'baz','waldo':'fred'},'qux':{'corge':'grault'}}",
+				"[{'op':'move','from':'/foo/waldo','path':'/qux/thud'}]");
+		assertApplies("{'a':{'b':[1]},'c':[1]}", "{'a':{'b':[1]}}",
+				"[{'op':'copy','from':'/a/b','path':'/c'}]");
+		assertApplies("[1]", "{'a':1}", "[{'op':'replace','path':'','value':[1]}]");
+	}
+
+	@Test
+	public void rollsBackFailedPatches() {
+		String document = "{'a':{'b':[1,2,3]},'c':'d','e':1.0}";
+		assertFails(document, "[{'op':'remove','path':'/a/b/0'},"
+				+ "{'op':'add','path':'/c/x','value':1}]");
+		assertFails(document, "[{'op':'add','path':'/z','value':1},"
+				+ "{'op':'move','from':'/c','path':'/a/b/-'},"
+				+ "{'op':'test','path':'/c','value':'d'}]");
+		assertFails(document, "[{'op':'replace','path':'/missing','value':1}]");
+		assertFails(document, "[{'op':'add','path':'/a/b/4','value':1}]");
+		assertFails(document, "[{'op':'add','path':'/a/b/01','value':1}]");
+		assertFails(document, "[{'op':'test','path':'/e','value':2}]");
+	}
+
+	@Test
+	public void testsCompareNumbersByValue() {
+		JsonValue document = json("{'e':1.0,'a':[1,{'k':2}]}");
+		assertSame(document, patch("[{'op':'test','path':'/e','value':1},"
+				+ "{'op':'test','path':'/a','value':[1.0,{'k':2}]}]").apply(document));
+	}
+
+	@Test
+	public void canBeReusedAndSerialized() {
+		JsonPatch patch = patch("[{'op':'add','path':'/n','value':{'k':[]}},"
+				+ "{'op':'add','path':'/n/k/-','value':1}]");
+		JsonValue first = patch.apply(json("{}"));
+		JsonValue second = patch.apply(json("{}"));
+		first.asMap().getObject("n").put("z", true); // values of the patch are copied
+		assertEquals(json("{'n':{'k':[1]}}"), second);
+		assertEquals(2, patch.size());
+		assertEquals(patch.toJson(), JsonPatch.valueOf(patch.toJson()).toJson());
+	}
+
+	@Test
+	public void rejectsInvalidPatches() {
+		String[] invalid = {"{}", "[{'op':'jump','path':'/a'}]", "[{'op':'add','path':'/a'}]",
+				"[{'op':'move','path':'/a'}]", "[{'op':'move','from':'/a','path':'/a/b'}]",
+				"[{'op':'remove','path':'a'}]"};
+		for (String patch : invalid) {
+			try {
+				patch(patch);
+				fail(patch);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
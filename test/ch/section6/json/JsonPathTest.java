@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class JsonPathTest {
+
+	private static final String DOCUMENT =
+			"{\"a\":{\"b\":[10,{\"c\":\"x\"}],\"d/e\":1,\"f~g\":2,\"\":3},\"7\":[true]}";
+
+	@Test
+	public void resolvesLikeStringPathsInEveryImplementation() {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		JsonValue[] documents = {obj, obj.toPersistent(), obj.toBinary(),
+				new ConcurrentJsonObject(obj), new JsonArena().parse(DOCUMENT)};
+		String[] paths = {"/a/b/0", "/a/b/1/c", "a/b/1", "//a//b/", "/7/0", ""};
+		for (String path : paths) {
+			JsonPath compiled = JsonPath.compile(path);
+			for (JsonValue document : documents) {
+				assertEquals(obj.getByPath(path), document.getByPath(compiled));
+			}
+		}
+	}
+
+	@Test
+	public void compilesPointers() {
+		JsonValue obj = JsonObject.parse(DOCUMENT);
+		assertEquals(JsonNumber.valueOf(1L), obj.getByPath(JsonPath.compilePointer("/a/d~1e")));
+		assertEquals(JsonNumber.valueOf(2L), obj.getByPath(JsonPath.compilePointer("/a/f~0g")));
+		assertEquals(JsonNumber.valueOf(3L), obj.getByPath(JsonPath.compilePointer("/a/")));
+		assertEquals(obj, obj.getByPath(JsonPath.compilePointer("")));
+		assertEquals(3, JsonPath.compilePointer("/a/b/").size());
+		assertEquals(2, JsonPath.compile("/a/b/").size());
+		String[] invalid = {"a", "/a~2", "/a~"};
+		for (String pointer : invalid) {
+			try {
+				JsonPath.compilePointer(pointer);
+				fail(pointer);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void setsValuesAtCompiledPaths() {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		JsonPath path = JsonPath.compile("/a/b/1/c");
+		assertTrue(obj.setByPath(path, "y"));
+		assertEquals("y", obj.getByPath(path).asString());
+		assertTrue(obj.setByPath(JsonPath.compile("/a/b/0"), 11));
+		assertEquals(JsonObject.parse("[11,{\"c\":\"y\"}]"), obj.getByPath("/a/b"));
+
+		ConcurrentJsonObject concurrent =
+				new ConcurrentJsonObject(JsonObject.parse(DOCUMENT).asMap());
+		PersistentJsonObject before = concurrent.snapshot();
+		assertTrue(concurrent.setByPath(path, "y"));
+		assertEquals("y", concurrent.getByPath(path).asString());
+		assertEquals("x", before.getByPath(path).asString());
+	}
+
+	@Test
+	public void rejectsMissingValues() {
+		JsonValue obj = JsonObject.parse(DOCUMENT);
+		try {
+			obj.getByPath(JsonPath.compile("/a/z"));
+			fail();
+		} catch (UnknownKeyException e) {
+			// expected
+		}
+		try {
+			obj.getByPath(JsonPath.compile("/a/b/2"));
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+			// expected
+		}
+		try {
+			obj.getByPath(JsonPath.compile("/a/b/1/c/d"));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void equalsPathsWithTheSameText() {
+		assertEquals(JsonPath.compile("/a/b"), JsonPath.compile("/a/b"));
+		assertEquals(JsonPath.compile("/a/b").hashCode(), JsonPath.compile("/a/b").hashCode());
+		assertNotEquals(JsonPath.compile("/a/b"), JsonPath.compile("/a/c"));
+		assertEquals("b", JsonPath.compile("/a/b").segment(1));
+	}
+}
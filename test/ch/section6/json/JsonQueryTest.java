@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+public class JsonQueryTest {
+
+	private static final String DOCUMENT = "{\"store\":{\"items\":["
+			+ "{\"name\":\"a\",\"price\":5,\"tags\":[\"x\"]},"
+			+ "{\"name\":\"b\",\"price\":15,\"tags\":[]},"
+			+ "{\"name\":\"c\",\"price\":25,\"tags\":[\"x\",\"y\"],\"sale\":true}],"
+			+ "\"owner\":{\"name\":\"o\",\"price\":0}}}";
+
+	private static String select(String query, JsonValue document) {
+		return JsonQuery.compile(query).select(document).toString();
+	}
+
+	private static String stream(String query) throws IOException {
+		final JsonArray matches = new JsonArray();
+		JsonQuery.compile(query).forEach(new JsonReader(new StringReader(DOCUMENT)),
+				new Consumer<JsonValue>() {
+					@Override
+					public void accept(JsonValue value) {
+						matches.add(value);
+					}
+				});
+		return matches.toString();
+	}
+
+	@Test
+	public void selectsInDocumentOrder() {
+		JsonValue document = JsonObject.parse(DOCUMENT);
+		assertEquals("[\"a\",\"b\",\"c\"]", select("/store/items/*/name", document));
+		assertEquals("[\"a\",\"b\",\"c\",\"o\"]", select("/**/name", document));
+		assertEquals("[\"c\"]", select("/store/items/[-1]/name", document));
+		assertEquals("[\"a\",\"c\"]", select("/store/items/[::2]/name", document));
+		assertEquals("[\"b\",\"c\"]", select("/store/items/[1:]/name", document));
+		assertEquals("[\"b\",\"c\"]", select("/store/items/[?price > 10]/name", document));
+		assertEquals("[\"a\",\"c\"]", select("/store/items/[?tags/0 == \"x\"]/name", document));
+		assertEquals("[\"c\"]", select("/store/items/[?sale && price >= 25]/name", document));
+		assertEquals("[\"a\",\"c\"]",
+				select("/store/items/[?(price < 10 || sale) && @ != null]/name", document));
+		assertEquals("[]", select("/store/missing/*", document));
+	}
+
+	@Test
+	public void selectsTheSameInEveryImplementation() {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		JsonValue[] documents = {obj.toPersistent(), obj.toBinary(),
+				new ConcurrentJsonObject(obj), new JsonArena().parse(DOCUMENT)};
+		String[] queries = {"/**/price", "/store/items/[?price > 10]/tags/*", "/store/*/name"};
+		for (String query : queries) {
+			for (JsonValue document : documents) {
+				assertEquals(select(query, obj), select(query, document));
+			}
+		}
+	}
+
+	@Test
+	public void matchesInACopyBelongToTheCopy() {
+		JsonObject original = JsonObject.parse("{\"a\":{\"n\":1},\"b\":{\"n\":2}}").asMap();
+		JsonObject copy = (JsonObject) original.copy();
+		for (JsonValue match : JsonQuery.compile("/*").select(copy)) {
+			match.asMap().put("n", 0);
+		}
+		assertEquals("{\"a\":{\"n\":0},\"b\":{\"n\":0}}", copy.toString());
+		assertEquals("{\"a\":{\"n\":1},\"b\":{\"n\":2}}", original.toString());
+	}
+
+	@Test
+	public void selectsTheSameFromAReader() throws IOException {
+		JsonValue document = JsonObject.parse(DOCUMENT);
+		String[] queries = {"/**/name", "/store/items/[-1]/name", "/store/items/[::2]",
+				"/store/items/[?price > 10]/name", "/store/owner"};
+		for (String query : queries) {
+			assertEquals(select(query, document), stream(query));
+		}
+	}
+
+	@Test
+	public void rejectsInvalidQueries() {
+		String[] invalid = {"/a/[?]", "/a/[?price >]", "/a/[1:2:0]", "/a/[?(a]"};
+		for (String query : invalid) {
+			try {
+				JsonQuery.compile(query);
+				fail(query);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class JsonStreamTest {
+
+	private static InputStream input(String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void splitsArraysEvenly() {
+		JsonArray array = new JsonArray();
+		for (int i = 0; i < 1000; ++i) {
+			array.add(JsonObject.parse("{\"i\":" + i + "}"));
+		}
+		Spliterator<JsonValue> spliterator = array.spliterator();
+		assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.ORDERED));
+		Spliterator<JsonValue> prefix = spliterator.trySplit();
+		assertEquals(500L, prefix.estimateSize());
+		assertEquals(500L, spliterator.estimateSize());
+		long sum = array.parallelStream().mapToLong(v -> v.asMap().getLong("i")).sum();
+		assertEquals(499500L, sum);
+		assertEquals(array, array.parallelStream().collect(Collectors.toList()));
+		assertEquals(1000L, array.objectStream().filter(o -> o.containsKey("i")).count());
+	}
+
+	@Test
+	public void streamsPackedNumbers() {
+		JsonArray longs = JsonObject.parse("[1,2,3,4]").asArray();
+		JsonArray doubles = JsonObject.parse("[0.5,1.5]").asArray();
+		assertEquals(10L, longs.longStream().sum());
+		assertEquals(10L, longs.parallelStream().mapToLong(JsonValue::asLong).sum());
+		assertEquals(2.0, doubles.doubleStream().sum(), 0.0);
+		try {
+			JsonObject.parse("[1,\"x\"]").asArray().longStream().sum();
+			fail();
+		} catch (JsonCastException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void iteratorsRemoveTheLastElementReturned() {
+		JsonArray array = JsonObject.parse("[1,2,3]").asArray();
+		Iterator<JsonValue> it = array.iterator();
+		it.next();
+		it.next();
+		it.remove();
+		assertEquals(JsonObject.parse("[1,3]"), array);
+		it.next();
+		assertFalse(it.hasNext());
+		try {
+			it.next();
+			fail();
+		} catch (NoSuchElementException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void streamsElementsOfAnInput() {
+		String json = "[{\"a\":1},[2],3,\"four\",null]";
+		try (Stream<JsonValue> elements = JsonValue.streamElements(input(json))) {
+			assertEquals(JsonObject.parse(json), elements.collect(Collectors.toList()));
+		}
+		StringBuilder large = new StringBuilder("[");
+		for (int i = 0; i < 10000; ++i) {
+			large.append(i > 0 ? "," : "").append("{\"i\":").append(i).append('}');
+		}
+		large.append(']');
+		try (Stream<JsonValue> elements = JsonValue.streamElements(input(large.toString()))) {
+			long sum = elements.parallel().mapToLong(v -> v.asMap().getLong("i")).sum();
+			assertEquals(49995000L, sum);
+		}
+		try (Stream<JsonValue> elements = JsonValue.streamElements(input("[1,2,}"))) {
+			elements.count();
+			fail();
+		} catch (JsonParseException e) {
+			// expected
+		}
+	}
+}
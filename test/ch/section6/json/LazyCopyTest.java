@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LazyCopyTest {
+
+	private static final String DOCUMENT =
+			"{\"a\":{\"k\":1},\"b\":{\"k\":2},\"c\":[{\"q\":1},{\"q\":2}],\"d\":{\"e\":{\"f\":1}}}";
+
+	@Test
+	public void copyEqualsOriginal() {
+		JsonObject root = JsonObject.parse(DOCUMENT).asMap();
+		assertEquals(root, root.copy());
+		assertEquals(root.toString(), root.copy().toString());
+	}
+
+	@Test
+	public void writesToCopyAreIsolated() {
+		JsonObject root = JsonObject.parse(DOCUMENT).asMap();
+		JsonObject copy = root.copy().asMap();
+		copy.getObject("b").put("x", 1);
+		copy.getArray("c").getObject(0).put("x", 1);
+		copy.put("y", 2);
+		assertEquals(JsonObject.parse(DOCUMENT), root);
+	}
+
+	@Test
+	public void writesToOriginalAreIsolated() {
+		JsonObject root = JsonObject.parse(DOCUMENT).asMap();
+		JsonObject copy = root.copy().asMap();
+		root.getObject("b").put("x", 1);
+		root.getObject("d").getObject("e").put("x", 1);
+		root.remove("a");
+		assertEquals(JsonObject.parse(DOCUMENT), copy);
+	}
+
+	@Test
+	public void retrievedObjectIsIsolatedFromCopy() {
+		JsonObject root = JsonObject.parse(DOCUMENT).asMap();
+		JsonObject child = root.getObject("a");
+		JsonObject copy = root.copy().asMap();
+		child.put("x", 1);
+		assertFalse(copy.getObject("a").containsKey("x"));
+		root.getObject("b");
+		child.put("y", 2);
+		assertSame(child, root.getObject("a"));
+		assertTrue(root.getObject("a").containsKey("y"));
+		assertFalse(copy.getObject("a").containsKey("y"));
+	}
+
+	@Test
+	public void retrievedElementIsIsolatedFromCopy() {
+		JsonArray array = JsonObject.parse("[{\"q\":1},{\"q\":2}]").asArray();
+		JsonObject first = array.getObject(0);
+		JsonArray copy = array.copy().asArray();
+		array.getObject(1);
+		first.put("z", 3);
+		assertTrue(array.getObject(0).containsKey("z"));
+		assertFalse(copy.getObject(0).containsKey("z"));
+	}
+
+	@Test
+	public void nestedRetrievedObjectIsIsolatedFromCopy() {
+		JsonObject root = JsonObject.parse(DOCUMENT).asMap();
+		JsonObject nested = root.getObject("d").getObject("e");
+		JsonObject copy = root.copy().asMap();
+		nested.put("x", 1);
+		assertFalse(copy.getObject("d").getObject("e").containsKey("x"));
+		assertTrue(root.getObject("d").getObject("e").containsKey("x"));
+	}
+
+	@Test
+	public void insertedObjectIsIsolatedFromCopy() {
+		JsonObject inserted = new JsonObject();
+		JsonObject root = new JsonObject("m", inserted);
+		JsonObject copy = root.copy().asMap();
+		inserted.put("t", 1);
+		assertSame(inserted, root.getObject("m"));
+		assertTrue(copy.getObject("m").isEmpty());
+	}
+
+	@Test
+	public void packedArrayCopyIsIsolated() {
+		JsonArray array = JsonObject.parse("[1,2,3]").asArray();
+		JsonArray copy = array.copy().asArray();
+		array.set(0, JsonNumber.valueOf(9L));
+		copy.add(JsonNumber.valueOf(4L));
+		assertEquals(JsonObject.parse("[9,2,3]"), array);
+		assertEquals(JsonObject.parse("[1,2,3,4]"), copy);
+	}
+
+	@Test
+	public void entryIterationDoesNotLeakIntoCopy() {
+		JsonObject root = JsonObject.parse(DOCUMENT).asMap();
+		JsonObject copy = root.copy().asMap();
+		for (JsonValue value : root.values()) {
+			if (value.getType() == JsonValue.Type.MAP) value.asMap().put("x", 1);
+		}
+		assertEquals(JsonObject.parse(DOCUMENT), copy);
+	}
+}
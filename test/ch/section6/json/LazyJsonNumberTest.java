@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+public class LazyJsonNumberTest {
+
+	private static final String DOCUMENT = "{\"i\":42,\"n\":-7,\"z\":-0,\"d\":1.50,\"e\":2E3,"
+			+ "\"big\":123456789012345678901234567890,\"a\":[0,0.25,-1e-2]}";
+
+	@Test
+	public void keepsLexemesAndEqualsEagerNumbers() {
+		JsonValue lazy = JsonObject.parse(DOCUMENT, JsonParseOption.LAZY_NUMBERS);
+		JsonValue eager = JsonObject.parse(DOCUMENT);
+		assertEquals(eager, lazy);
+		assertEquals(lazy, eager);
+		assertEquals(eager.hashCode(), lazy.hashCode());
+		assertEquals("1.50", lazy.getByPath("/d").toString());
+		assertEquals("2E3", lazy.getByPath("/e").toString());
+		assertEquals(2000L, lazy.getByPath("/e").asLong());
+		assertEquals(new BigDecimal("123456789012345678901234567890"),
+				lazy.getByPath("/big").asBigDecimal());
+		assertEquals(-0.01, lazy.getByPath("/a/2").asDouble(), 0.0);
+		assertEquals(eager, JsonObject.parse(lazy.toString()));
+	}
+
+	@Test
+	public void convertsCanonicalIntegersRightAway() {
+		JsonValue lazy = JsonObject.parse(DOCUMENT, JsonParseOption.LAZY_NUMBERS);
+		assertTrue(lazy.getByPath("/i").getClass() == JsonNumber.class);
+		assertTrue(lazy.getByPath("/a/0").getClass() == JsonNumber.class);
+		assertTrue(lazy.getByPath("/z") instanceof LazyJsonNumber);
+		assertEquals("-0", lazy.getByPath("/z").toString());
+	}
+
+	@Test
+	public void rejectsLeadingZerosWhetherLazyOrNot() {
+		String[] invalid = {"00", "-00", "01", "-01", "01.5", "00e1"};
+		JsonParseOption[] lazyOptions = {JsonParseOption.LAZY_NUMBERS};
+		for (String number : invalid) {
+			for (boolean lazy : new boolean[] {false, true}) {
+				JsonParseOption[] options = lazy ? lazyOptions : new JsonParseOption[0];
+				try {
+					JsonNumber.parse(number, 0, number.length(), lazy);
+					fail(number + (lazy ? " (lazy)" : ""));
+				} catch (NumberFormatException e) {
+					// expected
+				}
+				try {
+					JsonObject.parse("[" + number + "]", options);
+					fail(number);
+				} catch (JsonParseException e) {
+					// expected
+				}
+			}
+		}
+		assertEquals(JsonNumber.valueOf(0L), JsonNumber.parse("0", 0, 1, true));
+		assertEquals(JsonNumber.valueOf(0.5), JsonNumber.parse("0.5", 0, 3, false));
+		assertEquals("-0.0", JsonNumber.parse("-0.0", 0, 4, true).toString());
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class LazyJsonStringTest {
+
+	private static final String DOCUMENT = "[\"a\\\"b\\\\c\\/d\\n\",\"\\u00e9\\ud83d\\ude00\","
+			+ "\"2013-01-01T00:00:00.000Z\",\"plain\",{\"k\\u0031\":\"v\"}]";
+
+	@Test
+	public void unescapesWhenRead() {
+		JsonArray array = JsonObject.parse(DOCUMENT, JsonParseOption.LAZY_STRINGS).asArray();
+		assertEquals("a\"b\\c/d\n", array.getString(0));
+		assertEquals("\u00e9\ud83d\ude00", array.getString(1));
+		assertEquals("plain", array.getString(3));
+		assertEquals("v", array.getObject(4).getString("k1"));
+		assertEquals(new JsonString("a\"b\\c/d\n"), array.get(0));
+		assertEquals(array.get(0), new JsonString("a\"b\\c/d\n"));
+		assertEquals(new JsonString("a\"b\\c/d\n").hashCode(), array.get(0).hashCode());
+		assertEquals(JsonObject.parse("[\"plain\"]"), new JsonArray(array.subList(3, 4)));
+	}
+
+	@Test
+	public void writesTheOriginalText() {
+		String json = "[\"a\\/b\\n\",\"\\u00e9\"]";
+		JsonValue value = JsonObject.parse(json, JsonParseOption.LAZY_STRINGS);
+		assertEquals(json, value.toString());
+		value.asArray().getString(1); // unescaping does not change the text
+		assertEquals(json, value.toString());
+		assertEquals("{\"k1\":\"v\"}", JsonObject.parse(DOCUMENT, JsonParseOption.LAZY_STRINGS)
+				.asArray().get(4).toString()); // keys are always unescaped
+	}
+
+	@Test
+	public void parsesDatesEagerly() {
+		JsonArray array = JsonObject.parse(DOCUMENT, JsonParseOption.LAZY_STRINGS).asArray();
+		assertTrue(array.get(2) instanceof JsonDate);
+		assertEquals(1356998400000L, array.getDate(2).getTime());
+	}
+
+	@Test
+	public void rejectsInvalidEscapes() {
+		String[] invalid = {"[\"\\x\"]", "[\"\\u12\"]", "[\"\\u12g4\"]"};
+		for (String json : invalid) {
+			try {
+				JsonObject.parse(json, JsonParseOption.LAZY_STRINGS);
+				fail(json);
+			} catch (JsonParseException e) {
+				// expected
+			}
+			try {
+				JsonObject.parse(json);
+				fail(json);
+			} catch (JsonParseException e) {
+				// expected
+			}
+			try {
+				new JsonArena().parse(json);
+				fail(json);
+			} catch (JsonParseException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void everyParserUnescapesAlike() {
+		JsonValue eager = JsonObject.parse(DOCUMENT);
+		assertEquals(eager, JsonObject.parse(DOCUMENT, JsonParseOption.LAZY_STRINGS));
+		assertEquals(JsonObject.parse(DOCUMENT, JsonParseOption.LAZY_STRINGS), eager);
+		assertEquals(eager, new JsonArena().parse(DOCUMENT));
+		assertEquals("a\"b\\c/d\n", eager.asArray().getString(0));
+		assertEquals("\u00e9\ud83d\ude00", eager.asArray().getString(1));
+		assertEquals("v", eager.asArray().getObject(4).getString("k1"));
+		assertEquals(eager, JsonObject.parse(eager.toString()));
+	}
+}
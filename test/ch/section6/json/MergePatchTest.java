@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class MergePatchTest {
+
+	private static JsonValue json(String s) {
+		return JsonObject.parse(s.replace('\'', '"'));
+	}
+
+	private static void assertMerges(String expected, String target, String patch) {
+		assertEquals(json(expected), json(target).asMap().mergePatch(json(patch)));
+	}
+
+	@Test
+	public void mergesAsRfc7386() {
+		assertMerges("{'a':'c'}", "{'a':'b'}", "{'a':'c'}");
+		assertMerges("{'a':'b','b':'c'}", "{'a':'b'}", "{'b':'c'}");
+		assertMerges("{}", "{'a':'b'}", "{'a':null}");
+		assertMerges("{'b':'c'}", "{'a':'b','b':'c'}", "{'a':null}");
+		assertMerges("{'a':'c'}", "{'a':['b']}", "{'a':'c'}");
+		assertMerges("{'a':['c']}", "{'a':'c'}", "{'a':['c']}");
+		assertMerges("{'a':{'b':'d'}}", "{'a':{'b':'c'}}", "{'a':{'b':'d','c':null}}");
+		assertMerges("{'a':[1]}", "{'a':[{'b':'c'}]}", "{'a':[1]}");
+		assertMerges("{'e':null,'a':1}", "{'e':null}", "{'a':1}");
+		assertMerges("{'a':{'bb':{}}}", "{}", "{'a':{'bb':{'ccc':null}}}");
+		assertEquals(json("['c']"), json("{'a':'b'}").asMap().mergePatch(json("['c']")));
+	}
+
+	@Test
+	public void modifiesInPlaceAndCopiesThePatch() {
+		JsonObject target = json("{'a':{'b':1},'c':2}").asMap();
+		JsonObject untouched = target.getObject("a");
+		JsonObject patch = json("{'c':{'d':[1]},'e':3}").asMap();
+		assertSame(target, target.mergePatch(patch));
+		assertSame(untouched, target.getObject("a"));
+		patch.getObject("c").getArray("d").add(2);
+		assertEquals(json("{'a':{'b':1},'c':{'d':[1]},'e':3}"), target);
+
+		JsonObject document = json("{'a':1}").asMap();
+		assertEquals(json("[1]"), document.mergePatch(json("[1]")));
+		assertEquals(json("{'a':1}"), document);
+	}
+
+	@Test
+	public void appliesBatchesInOrder() {
+		JsonObject target = json("{'a':1,'b':{'c':2}}").asMap();
+		assertSame(target, target.mergePatch(json("{'a':null}"), json("{'b':{'d':3}}"),
+				json("{'a':4,'b':{'c':null}}")));
+		assertEquals(json("{'a':4,'b':{'d':3}}"), target);
+		assertEquals(json("{'x':1}"),
+				json("{'a':1}").asMap().mergePatch(json("{'b':2}"), json("[]"), json("{'x':1}")));
+	}
+
+	@Test
+	public void acceptsPatchesOfAnyImplementation() {
+		JsonObject patch = json("{'a':{'b':null,'c':[1]},'d':2}").asMap();
+		JsonValue[] patches = {patch, patch.toPersistent(), patch.toBinary(),
+				new JsonArena().parse(patch.toString())};
+		for (JsonValue p : patches) {
+			JsonObject target = json("{'a':{'b':1}}").asMap();
+			assertEquals(json("{'a':{'c':[1]},'d':2}"), target.mergePatch(p));
+		}
+	}
+}
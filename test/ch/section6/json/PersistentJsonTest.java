@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2012,2013 Martin Roth (mhroth@section6.ch)
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the AdrenalineJson nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package ch.section6.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PersistentJsonTest {
+
+	private static final String DOCUMENT =
+			"{\"id\":7,\"name\":\"x\",\"tags\":[\"a\",\"b\"],\"pos\":{\"x\":1.5,\"y\":[1,2,3]},\"n\":null}";
+
+	@Test
+	public void roundTripsThroughJsonObject() {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		PersistentJsonObject persistent = obj.toPersistent();
+		assertEquals(obj, persistent.asMap());
+		assertEquals(obj, JsonObject.parse(persistent.toString()));
+	}
+
+	@Test
+	public void iteratesInHashOrderRatherThanInsertionOrder() {
+		JsonObject obj = JsonObject.parse("{\"b\":2,\"a\":1,\"c\":3}").asMap();
+		PersistentJsonObject persistent = obj.toPersistent();
+		assertEquals("{\"b\":2,\"a\":1,\"c\":3}", obj.toString());
+		assertEquals("{\"a\":1,\"b\":2,\"c\":3}", persistent.toString());
+		assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<String>(persistent.keySet()));
+		assertEquals(obj, persistent);
+	}
+
+	@Test
+	public void equalsJsonObjectWithSameEntries() {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		PersistentJsonObject persistent = obj.toPersistent();
+		assertEquals(obj, persistent);
+		assertEquals(persistent, obj);
+		assertEquals(obj.hashCode(), persistent.hashCode());
+		assertNotEquals(persistent, obj.toPersistent().with("id", 8));
+	}
+
+	@Test
+	public void equalsWhenNestedInJsonObject() {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		JsonObject a = new JsonObject("n", obj.toPersistent());
+		JsonObject b = new JsonObject("n", obj);
+		assertEquals(a, b);
+		assertEquals(b, a);
+		assertEquals(a.hashCode(), b.hashCode());
+	}
+
+	@Test
+	public void arrayEqualsJsonArrayWithSameElements() {
+		JsonArray array = JsonObject.parse("[1,2.5,\"s\",{\"k\":[true]},[1,2]]").asArray();
+		PersistentJsonArray persistent = array.toPersistent();
+		assertEquals(array, persistent);
+		assertEquals(persistent, array);
+		assertEquals(array.hashCode(), persistent.hashCode());
+		JsonArray packed = JsonObject.parse("[1,2,3]").asArray();
+		assertEquals(packed.hashCode(), packed.toPersistent().hashCode());
+		assertEquals(packed.toPersistent(), packed);
+	}
+
+	@Test
+	public void arrayHashCodeFollowsList() {
+		JsonArray array = JsonObject.parse("[1,\"s\",{\"k\":1}]").asArray();
+		List<JsonValue> list = new ArrayList<JsonValue>(array);
+		assertEquals(list.hashCode(), array.hashCode());
+		assertEquals(list.hashCode(), array.toPersistent().hashCode());
+		assertEquals(array, list);
+		assertEquals(list, array);
+	}
+
+	@Test
+	public void objectEqualsMapOnlyIfItIsAMap() {
+		JsonObject obj = JsonObject.parse(DOCUMENT).asMap();
+		Map<String,JsonValue> map = new HashMap<String,JsonValue>(obj);
+		assertEquals(obj, map);
+		assertEquals(map, obj);
+		assertEquals(map.hashCode(), obj.toPersistent().hashCode());
+		assertFalse(obj.toPersistent().equals(map)); // not a Map, as map.equals() would agree
+	}
+
+	@Test
+	public void updatesLeaveOriginalUnchanged() {
+		PersistentJsonObject original = JsonObject.parse(DOCUMENT).asMap().toPersistent();
+		PersistentJsonObject changed = original.with("id", 8).without("name").with("z", true);
+		assertEquals(JsonObject.parse(DOCUMENT), original);
+		assertEquals(8L, changed.getLong("id"));
+		assertFalse(changed.containsKey("name"));
+		assertTrue(changed.getBoolean("z"));
+
+		PersistentJsonArray array = PersistentJsonArray.copyOf(Arrays.<JsonValue>asList(
+				JsonNumber.valueOf(1L), JsonNumber.valueOf(2L)));
+		PersistentJsonArray longer = array.plus(3L).with(0, "a");
+		assertEquals(JsonObject.parse("[1,2]"), array);
+		assertEquals(JsonObject.parse("[\"a\",2,3]"), longer);
+	}
+
+	@Test
+	public void asMapReturnsIndependentCopy() {
+		PersistentJsonObject persistent = JsonObject.parse(DOCUMENT).asMap().toPersistent();
+		JsonObject obj = persistent.asMap();
+		obj.getObject("pos").put("x", 9);
+		assertEquals(JsonObject.parse(DOCUMENT), persistent);
+	}
+
+	@Test
+	public void largeObjectsKeepAllEntries() {
+		PersistentJsonObject obj = PersistentJsonObject.empty();
+		JsonObject expected = new JsonObject();
+		for (int i = 0; i < 5000; ++i) {
+			obj = obj.with("k" + i, i);
+			expected.put("k" + i, i);
+		}
+		for (int i = 0; i < 5000; i += 2) {
+			obj = obj.without("k" + i);
+			expected.remove("k" + i);
+		}
+		assertEquals(expected, obj);
+		assertEquals(expected.hashCode(), obj.hashCode());
+	}
+}